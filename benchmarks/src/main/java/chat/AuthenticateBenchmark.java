@@ -0,0 +1,77 @@
+package chat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+// Проверка входа без PBKDF2: поиск пользователя в хранилище (снимок + недавние записи),
+// повторный вход по кешу Authenticator и вход с несуществующим логином
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuthenticateBenchmark {
+    private static final int CACHED = 1024; // степень двойки - индекс по маске
+
+    @Param({"100000"})
+    public int users;
+
+    private Path dir;
+    private UserStore store;
+    private Authenticator authenticator;
+    private String[] logins;
+    private int next;
+
+    @Setup
+    public void open() throws IOException {
+        dir = Files.createTempDirectory("bench-users");
+        Path legacy = UserStoreLoadBenchmark.writeLegacyFile(dir.resolve("users.txt"), users);
+        store = new UserStore();
+        store.open(dir.resolve("userdb"), legacy, Long.MAX_VALUE);
+        // мало итераций PBKDF2 - только чтобы быстро заполнить кеш
+        authenticator = new Authenticator(store, new PasswordHasher(1000), 4, 4096, 10_000, TimeUnit.HOURS.toMillis(1));
+        logins = new String[CACHED];
+        for (int i = 0; i < CACHED; i++) {
+            logins[i] = "user" + (i * (users / CACHED));
+            authenticator.authenticate(logins[i], "password").join();
+        }
+    }
+
+    @TearDown
+    public void close() throws IOException {
+        authenticator.shutdown();
+        store.close();
+        UserStoreLoadBenchmark.delete(dir);
+    }
+
+    @Benchmark
+    public String lookup() {
+        return store.get(logins[next++ & (CACHED - 1)]);
+    }
+
+    @Benchmark
+    public boolean authenticateCached() {
+        return authenticator.authenticate(logins[next++ & (CACHED - 1)], "password").join();
+    }
+
+    @Benchmark
+    public boolean authenticateUnknown() {
+        return authenticator.authenticate("nobody", "password").join();
+    }
+}
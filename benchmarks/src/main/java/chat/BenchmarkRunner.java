@@ -0,0 +1,27 @@
+package chat;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+
+// Запуск бенчмарков: те же параметры, что у JMH, но по умолчанию с профилировщиком -prof gc,
+// чтобы в отчёте сразу было видно выделение памяти на операцию (gc.alloc.rate.norm)
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws Exception {
+        if (List.of(args).stream().anyMatch(arg -> arg.equals("-h") || arg.equals("-l") || arg.equals("-lp") || arg.equals("-lprof"))) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+        if (commandLine.getProfilers().isEmpty()) {
+            options.addProfiler(GCProfiler.class);
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,86 @@
+package chat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Рассылка ChatServer.broadcastMessage: кодирование один раз и постановка в очереди получателей.
+// Очереди настоящие (OutboundQueue с политикой из server.properties), писателей нет -
+// при DROP_OLDEST очередь выбрасывает старые сообщения, как у медленного клиента.
+// Лог в режиме DROP, чтобы измерялась рассылка, а не скорость записи file.log
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dchat.log.overflowPolicy=DROP")
+public class BroadcastBenchmark {
+    private static final String MESSAGE = "bench: обычное сообщение чата средней длины, чтобы кодирование было заметно";
+
+    @Param({"10", "100", "10000"})
+    public int recipients;
+
+    private final List<OutboundQueue> queues = new ArrayList<>();
+
+    @Setup
+    public void connect() {
+        for (int i = 0; i < recipients; i++) {
+            OutboundQueue queue = ChatServer.newOutboundQueue();
+            queues.add(queue);
+            ChatServer.getClientWriters().put("bench-" + i, new QueuedConnection(queue));
+        }
+    }
+
+    @TearDown
+    public void disconnect() {
+        ChatServer.getClientWriters().clear();
+        queues.forEach(OutboundQueue::clear);
+        queues.clear();
+    }
+
+    @Benchmark
+    public void broadcast() {
+        ChatServer.broadcastMessage(MESSAGE);
+    }
+
+    // Соединение без сокета: только очередь отправки
+    private record QueuedConnection(OutboundQueue queue) implements ClientConnection {
+        @Override
+        public void send(OutboundMessage message) {
+            queue.offer(message, false);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            task.run();
+        }
+
+        @Override
+        public int getQueueDepth() {
+            return queue.size();
+        }
+
+        @Override
+        public void close() {
+            queue.close();
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return "bench";
+        }
+    }
+}
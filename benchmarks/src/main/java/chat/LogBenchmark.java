@@ -0,0 +1,45 @@
+package chat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Пропускная способность Log.log: один поток и несколько потоков, пишущих одновременно
+// (очередь MpscRingBuffer и фоновый поток записи в file.log, политика BLOCK по умолчанию).
+// Запускать из корня проекта: лог пишется в src/main/resources/file.log
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LogBenchmark {
+    private final Log log = Log.getInstance();
+
+    @TearDown
+    public void flush() {
+        log.flush();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void singleThread() {
+        log.log("bench: сообщение для лога", Log.SERVER);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void contended() {
+        log.log("bench: сообщение для лога", Log.SERVER);
+    }
+}
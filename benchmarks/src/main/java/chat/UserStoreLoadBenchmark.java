@@ -0,0 +1,105 @@
+package chat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Загрузка пользователей: перенос из большого users.txt (разбор строк и сборка снимка)
+// и открытие готового хранилища (отображение снимка в память и чтение журнала)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class UserStoreLoadBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int users;
+
+    private Path root;
+    private Path legacy;
+    private Path opened;
+    private Path target;
+
+    @Setup
+    public void prepare() throws IOException {
+        root = Files.createTempDirectory("bench-load");
+        legacy = writeLegacyFile(root.resolve("users.txt"), users);
+        opened = root.resolve("opened");
+        UserStore store = new UserStore();
+        store.open(opened, legacy, Long.MAX_VALUE);
+        store.close();
+    }
+
+    @Setup(Level.Invocation)
+    public void newTarget() throws IOException {
+        target = Files.createTempDirectory(root, "import");
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteTarget() throws IOException {
+        delete(target);
+    }
+
+    @TearDown
+    public void cleanup() throws IOException {
+        delete(root);
+    }
+
+    @Benchmark
+    public int importLegacyFile() throws IOException {
+        UserStore store = new UserStore();
+        store.open(target, legacy, Long.MAX_VALUE);
+        int size = store.size();
+        store.close();
+        return size;
+    }
+
+    @Benchmark
+    public int openSnapshot() throws IOException {
+        UserStore store = new UserStore();
+        store.open(opened, null, Long.MAX_VALUE);
+        int size = store.size();
+        store.close();
+        return size;
+    }
+
+    // users.txt в старом формате login:password
+    static Path writeLegacyFile(Path file, int count) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < count; i++) {
+                writer.write("user" + i + ":password");
+                writer.newLine();
+            }
+        }
+        return file;
+    }
+
+    static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
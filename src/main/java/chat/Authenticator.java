@@ -0,0 +1,152 @@
+package chat;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static chat.ChatServer.logger;
+
+// Проверка паролей и регистрация в отдельном ограниченном пуле потоков:
+// хеширование PBKDF2 намеренно медленное и не должно занимать потоки, которые рассылают сообщения.
+// Если очередь пула заполнена (например, тысячи переподключений после перезапуска),
+// запрос сразу отклоняется, а не копится без ограничения.
+// Успешно проверенные пароли кешируются (в кеше - только SHA-256 от пароля с секретом процесса),
+// поэтому повторный вход не требует PBKDF2. Пароли в открытом виде перехешируются при входе
+public class Authenticator {
+    private final UserStore users;
+    private final PasswordHasher hasher;
+    private final ThreadPoolExecutor workers;
+    private final Map<String, CachedCredential> cache;
+    private final long cacheTtlNanos;
+    private final byte[] cacheSecret = new byte[32];
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    // Проверенный пароль: хранимая строка на момент проверки и дайджест пароля
+    private record CachedCredential(String stored, byte[] digest, long expiresAt) {
+    }
+
+    public Authenticator(UserStore users, PasswordHasher hasher, int threads, int queueCapacity,
+                         int cacheSize, long cacheTtlMillis) {
+        this.users = users;
+        this.hasher = hasher;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), task -> {
+                    Thread thread = new Thread(task, "auth-worker-" + threadNumber.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedCredential> eldest) {
+                return size() > cacheSize;
+            }
+        };
+        this.cacheTtlNanos = TimeUnit.MILLISECONDS.toNanos(cacheTtlMillis);
+        new SecureRandom().nextBytes(cacheSecret);
+    }
+
+    // Проверка логина и пароля. Завершается с RejectedExecutionException, если пул перегружен
+    public CompletableFuture<Boolean> authenticate(String login, String password) {
+        String stored = users.get(login);
+        if (stored == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        if (isCached(login, stored, password)) {
+            return CompletableFuture.completedFuture(true);
+        }
+        return submit(() -> {
+            if (!hasher.verify(password, stored)) {
+                return false;
+            }
+            String current = stored;
+            if (hasher.needsRehash(stored)) {
+                current = hasher.hash(password);
+                users.put(login, current);
+                logger.log("Пароль пользователя " + login + " перехеширован", Log.SERVER);
+            }
+            remember(login, current, password);
+            return true;
+        });
+    }
+
+    // Регистрация: пароль хешируется в пуле. false - логин уже занят
+    public CompletableFuture<Boolean> register(String login, String password) {
+        return submit(() -> users.register(login, hasher.hash(password)));
+    }
+
+    public int getQueueSize() {
+        return workers.getQueue().size();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public void shutdown() {
+        workers.shutdown();
+    }
+
+    // Ожидание начатых проверок и регистраций (после shutdown): регистрация успевает записаться в хранилище
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return workers.awaitTermination(timeout, unit);
+    }
+
+    private CompletableFuture<Boolean> submit(BooleanSupplier task) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        try {
+            workers.execute(() -> {
+                try {
+                    result.complete(task.getAsBoolean());
+                } catch (RuntimeException e) {
+                    logger.logError("Ошибка при проверке пользователя: " + e.getMessage(), Log.SERVER);
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejectedCount.incrementAndGet();
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private boolean isCached(String login, String stored, String password) {
+        CachedCredential cached;
+        synchronized (cache) {
+            cached = cache.get(login);
+        }
+        // пароль сменили или запись устарела - нужна полная проверка
+        if (cached == null || !cached.stored().equals(stored) || System.nanoTime() - cached.expiresAt() > 0) {
+            return false;
+        }
+        return MessageDigest.isEqual(cached.digest(), digest(password));
+    }
+
+    private void remember(String login, String stored, String password) {
+        CachedCredential credential = new CachedCredential(stored, digest(password), System.nanoTime() + cacheTtlNanos);
+        synchronized (cache) {
+            cache.put(login, credential);
+        }
+    }
+
+    private byte[] digest(String password) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            sha256.update(cacheSecret);
+            return sha256.digest(password.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package chat;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Пул direct-буферов для исходящих сообщений. Буферы делятся на классы по размеру
+// (степени двойки), выделение direct-памяти дорогое, поэтому освобождённые буферы
+// возвращаются в пул и используются повторно
+public final class BufferPool {
+    private static final int MIN_SIZE_SHIFT = 8;  // 256 байт
+    private static final int MAX_SIZE_SHIFT = 16; // 64 Кб, буферы больше не кешируются
+    private static final int MAX_POOLED_PER_CLASS = 1024;
+
+    private static final Queue<ByteBuffer>[] pools = createPools();
+    private static final AtomicInteger[] pooledCounts = new AtomicInteger[MAX_SIZE_SHIFT - MIN_SIZE_SHIFT + 1];
+
+    static {
+        for (int i = 0; i < pooledCounts.length; i++) {
+            pooledCounts[i] = new AtomicInteger();
+        }
+    }
+
+    private BufferPool() {
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Queue<ByteBuffer>[] createPools() {
+        Queue<ByteBuffer>[] result = new Queue[MAX_SIZE_SHIFT - MIN_SIZE_SHIFT + 1];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = new ConcurrentLinkedQueue<>();
+        }
+        return result;
+    }
+
+    // Буфер ёмкостью не меньше size, готовый к записи
+    public static ByteBuffer acquire(int size) {
+        int sizeClass = sizeClass(size);
+        if (sizeClass < 0) {
+            return ByteBuffer.allocateDirect(size);
+        }
+        ByteBuffer buffer = pools[sizeClass].poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(1 << (sizeClass + MIN_SIZE_SHIFT));
+        }
+        pooledCounts[sizeClass].decrementAndGet();
+        return buffer.clear();
+    }
+
+    // Возврат буфера в пул (буфер больше нельзя использовать)
+    public static void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (!buffer.isDirect() || Integer.bitCount(capacity) != 1) {
+            return;
+        }
+        int sizeClass = sizeClass(capacity);
+        if (sizeClass >= 0 && pooledCounts[sizeClass].incrementAndGet() <= MAX_POOLED_PER_CLASS) {
+            pools[sizeClass].add(buffer);
+        } else if (sizeClass >= 0) {
+            pooledCounts[sizeClass].decrementAndGet();
+        }
+    }
+
+    private static int sizeClass(int size) {
+        int shift = Math.max(MIN_SIZE_SHIFT, 32 - Integer.numberOfLeadingZeros(Math.max(1, size) - 1));
+        return shift > MAX_SIZE_SHIFT ? -1 : shift - MIN_SIZE_SHIFT;
+    }
+}
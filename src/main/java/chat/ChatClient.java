@@ -2,60 +2,246 @@ package chat;
 
 import java.io.*;
 import java.net.Socket;
-import java.util.Scanner;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
 
 public class ChatClient {
     private static final String FILE_SETTINGS = "src/main/resources/settings.txt";
     private static String SERVER_ADDRESS;
     private static int PORT;
-    private static boolean isRunning = true;  // Флаг для управления завершением работы
+    private static volatile boolean isRunning = true;  // Флаг для управления завершением работы
+    private static boolean closed; // соединение уже закрыто (closeConnection)
     public static Log logger = Log.getInstance();
+    private static final WriteStats writeStats = new WriteStats(); // сколько строк уходит за один сброс буфера
+    private static final int COMPRESSION_MIN_BYTES = 256; // пачки меньше отправляются без сжатия
+    private static final CompressionStats compressionStats = new CompressionStats();
+    private static FrameDeflater deflater; // сжатие, если сервер его поддерживает
+    private static FrameInflater inflater;
+    private static WireProtocol.Frame lastAck; // ответ сервера на вход, регистрацию или восстановление сессии
+    private static final long HEARTBEAT_INTERVAL_MILLIS = 15_000; // сервер молчит столько - отправляем PING
+    private static final long HEARTBEAT_TIMEOUT_MILLIS = 45_000;  // сервер молчит столько - считаем его недоступным
+    static final long RECONNECT_BASE_DELAY_MILLIS = 500;   // пауза перед первой попыткой переподключения
+    static final long RECONNECT_MAX_DELAY_MILLIS = 30_000; // больше пауза не растёт
+    private static final int RECONNECT_ATTEMPTS = 10;
+    private static HashedWheelTimer heartbeatTimer;
+    private static final Object writeLock = new Object(); // запись и смена соединения: пишут и консоль, и таймер
+    private static volatile Socket socket;       // текущее соединение (меняется при переподключении)
+    private static volatile InputStream serverIn;
+    private static volatile OutputStream serverOut;
+    private static volatile boolean connected;   // соединение открыто, кадры сервера читаются
+    private static volatile long lastReadNanos = System.nanoTime();
+    private static volatile boolean chatting; // вход выполнен, кадры сервера читает поток incomingMessages
+    // Восстановление сессии: ключ от сервера (кадр SESSION) и номер последнего полученного сообщения.
+    // Меняет их только поток, читающий кадры сервера
+    private static String sessionToken;
+    private static long received;
+    private static String login;    // для повторного входа, если сессия истекла, пока не было связи
+    private static String password;
 
     public static void main(String[] args) {
         loadSettings(FILE_SETTINGS);
+        // ChatClient --load [ключ=значение ...] - нагрузочный прогон без консоли (LoadGenerator)
+        if (args.length > 0 && args[0].equals("--load")) {
+            try {
+                LoadGenerator.runFromCommandLine(Arrays.copyOfRange(args, 1, args.length), SERVER_ADDRESS, PORT);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
 
-        try (Socket socket = new Socket(SERVER_ADDRESS, PORT);
-             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-             Scanner scanner = new Scanner(System.in);
-             BufferedReader consoleIn = new BufferedReader(new InputStreamReader(System.in))) {
-
-            String login = handleLoginOrRegistration(in, out, consoleIn, socket);
-
-            if (login == null) {
+        // Клиент говорит с сервером двоичным протоколом (WireProtocol). Буфер без автосброса:
+        // кадры уходят на сервер по flush(), пачкой за один системный вызов
+        // Консоль не закрывается: поток outgoingMessages может ждать в ней ввода, когда сервер уже отключился
+        BufferedReader consoleIn = new BufferedReader(new InputStreamReader(System.in));
+        try {
+            if (!connect(true)) {
+                closeConnection();
                 System.out.println("Завершение работы...");
-                System.exit(0);
+                return;
             }
+            startHeartbeat();
 
+            if (handleLoginOrRegistration(consoleIn) == null) {
+                System.out.println("Завершение работы...");
+                return;
+            }
 
-            Thread incomingMessages = createIncomingMessagesThread(in);
-            incomingMessages.start();
+            lastReadNanos = System.nanoTime();
+            chatting = true;
 
-            Thread outgoingMessages = createOutgoingMessagesThread(out, scanner, login, socket);
+            // Поток отправки - демон: он ждёт ввода с консоли, а работа заканчивается, когда сервер
+            // закрывает соединение (после "exit", при остановке сервера или если сервер не отвечает)
+            Thread outgoingMessages = createOutgoingMessagesThread(consoleIn);
+            outgoingMessages.setDaemon(true);
             outgoingMessages.start();
 
-            outgoingMessages.join();
-            incomingMessages.join();
+            // Соединение оборвалось, а пользователь не выходил - переподключаемся и продолжаем сессию
+            do {
+                Thread incomingMessages = createIncomingMessagesThread(serverIn);
+                incomingMessages.start();
+                incomingMessages.join();
+            } while (isRunning && reconnect());
+            closeConnection();
 
         } catch (IOException | InterruptedException e) {
             String msg = "Ошибка подключения к серверу: ";
             System.out.println(msg);
             logger.logError(msg + e.getMessage(), Log.CLIENT);
+            closeConnection();
         }
     }
-    private static Thread createOutgoingMessagesThread(PrintWriter out, Scanner scanner, String login, Socket socket) {
+
+    // Подключение и переход на двоичный протокол (со сжатием и восстановлением сессии, если сервер
+    // согласен); greet - показать приветствие сервера. false - сервер не поддерживает двоичный протокол
+    private static boolean connect(boolean greet) throws IOException {
+        Socket newSocket = new Socket(SERVER_ADDRESS, PORT);
+        try {
+            InputStream in = new BufferedInputStream(newSocket.getInputStream());
+            OutputStream out = new BufferedOutputStream(newSocket.getOutputStream());
+            String welcome = readLine(in);
+            String choice = readLine(in);
+            if (greet) {
+                System.out.println(welcome);
+                System.out.println(choice);
+            }
+            sendLine(out, WireProtocol.UPGRADE_REQUEST + " " + WireProtocol.DEFLATE + " " + WireProtocol.RESUMABLE);
+            String reply = readLine(in);
+            if (!reply.equals(WireProtocol.UPGRADE_ACCEPTED) && !reply.startsWith(WireProtocol.UPGRADE_ACCEPTED + " ")) {
+                System.out.println(reply);
+                newSocket.close();
+                return false;
+            }
+            boolean compressed = List.of(reply.split(" ")).contains(WireProtocol.DEFLATE);
+            synchronized (writeLock) {
+                socket = newSocket;
+                serverIn = in;
+                serverOut = out;
+                if (deflater != null) {
+                    deflater.end();
+                }
+                if (inflater != null) {
+                    inflater.end();
+                }
+                deflater = compressed ? new FrameDeflater(Deflater.DEFAULT_COMPRESSION, COMPRESSION_MIN_BYTES, compressionStats) : null;
+                inflater = compressed ? new FrameInflater(WireProtocol.MAX_SERVER_FRAME_LENGTH, compressionStats) : null;
+                lastReadNanos = System.nanoTime();
+                connected = true;
+            }
+            return true;
+        } catch (IOException e) {
+            newSocket.close();
+            throw e;
+        }
+    }
+
+    // Переподключение после обрыва. Паузы между попытками растут вдвое до RECONNECT_MAX_DELAY_MILLIS
+    // и выбираются случайно от нуля до этого предела, чтобы клиенты, потерявшие связь одновременно
+    // (перезапуск сервера, сбой сети), не возвращались все разом. Сначала клиент пробует восстановить
+    // сессию по ключу - тогда сервер присылает пропущенные сообщения, - а если она истекла, входит заново
+    private static boolean reconnect() throws InterruptedException {
+        closeSocket();
+        if (sessionToken == null && login == null) {
+            return false;
+        }
+        for (int attempt = 0; attempt < RECONNECT_ATTEMPTS && isRunning; attempt++) {
+            long delay = reconnectDelay(attempt, ThreadLocalRandom.current());
+            System.out.println("Нет связи с сервером, повторное подключение через " + delay + " мс...");
+            Thread.sleep(delay);
+            if (!isRunning) {
+                break;
+            }
+            try {
+                if (!connect(false)) {
+                    return false;
+                }
+                if (resumeSession() || relogin()) {
+                    System.out.println("Соединение восстановлено.");
+                    logger.log("Соединение с сервером восстановлено, попытка " + (attempt + 1), Log.CLIENT);
+                    return true;
+                }
+                return false;
+            } catch (IOException e) {
+                logger.logError("Не удалось переподключиться: " + e.getMessage(), Log.CLIENT);
+                closeSocket();
+            }
+        }
+        System.out.println("Не удалось восстановить соединение с сервером.");
+        return false;
+    }
+
+    // Пауза перед попыткой переподключения attempt (с нуля): случайная от 0 до base * 2^attempt, не больше max
+    static long reconnectDelay(int attempt, Random random) {
+        long cap = RECONNECT_MAX_DELAY_MILLIS;
+        if (attempt < 30) {
+            cap = Math.min(cap, RECONNECT_BASE_DELAY_MILLIS << attempt);
+        }
+        return random.nextLong(cap + 1);
+    }
+
+    // Продолжение сессии с сообщения после последнего полученного
+    private static boolean resumeSession() throws IOException {
+        if (sessionToken == null) {
+            return false;
+        }
+        byte[] payload = WireProtocol.session(sessionToken, received);
+        synchronized (writeLock) {
+            WireProtocol.writeFrame(serverOut, WireProtocol.RESUME, payload);
+            serverOut.flush();
+        }
+        WireProtocol.Frame reply = readAck(serverIn);
+        if (reply == null) {
+            throw new EOFException("Сервер закрыл соединение");
+        }
+        return reply.opcode() == WireProtocol.SESSION;
+    }
+
+    // Сессия истекла - обычный вход с теми же логином и паролем
+    private static boolean relogin() throws IOException {
+        sessionToken = null;
+        if (login == null) {
+            return false;
+        }
+        byte[] payload = WireProtocol.credentials(login, password);
+        synchronized (writeLock) {
+            WireProtocol.writeFrame(serverOut, WireProtocol.LOGIN, payload);
+            serverOut.flush();
+        }
+        WireProtocol.Frame ack = readAck(serverIn);
+        if (ack == null) {
+            throw new EOFException("Сервер закрыл соединение");
+        }
+        return ack.opcode() == WireProtocol.ACK && WireProtocol.Status.of(ack.payload()[1]) == WireProtocol.Status.OK;
+    }
+
+    // Строки, набранные (или вставленные) подряд, копятся в буфере
+    // и отправляются одним сбросом, когда ввод с консоли закончился
+    private static Thread createOutgoingMessagesThread(BufferedReader consoleIn) {
         return new Thread(() -> {
             try {
                 String message;
-                while (isRunning) {
-                    message = scanner.nextLine();
+                int pendingLines = 0;
+                ByteArrayOutputStream pending = new ByteArrayOutputStream(); // кадры до сброса
+                while (isRunning && (message = consoleIn.readLine()) != null) {
                     if (message.equalsIgnoreCase("exit")) {
-                        out.println(login + " покидает чат.");
-                        out.println("exit");  // Отправляем команду "exit" на сервер
+                        WireProtocol.writeFrame(pending, WireProtocol.MESSAGE, (login + " покидает чат.").getBytes(StandardCharsets.UTF_8));
+                        WireProtocol.writeFrame(pending, WireProtocol.EXIT, new byte[0]);  // Сообщаем серверу о выходе
                         isRunning = false;  // Останавливаем цикл отправки сообщений
+                        sendBatch(pending, pendingLines + 2);
                         break;
                     }
-                    out.println(message);
+                    WireProtocol.writeFrame(pending, WireProtocol.MESSAGE, message.getBytes(StandardCharsets.UTF_8));
+                    pendingLines++;
+                    if (!consoleIn.ready()) {
+                        sendBatch(pending, pendingLines);
+                        pendingLines = 0;
+                    }
                     //  logger.log(message, Log.CLIENT);
                 }
             } catch (Exception e) {
@@ -65,23 +251,41 @@ public class ChatClient {
                     logger.logError(msg + e.getMessage(), Log.CLIENT);
                 }
             } finally {
-                closeConnection(out, null, socket);
+                closeConnection();
             }
         });
     }
 
+    // Пачка кадров уходит одним сбросом; если договорились о сжатии и пачка не меньше порога - сжатой.
+    // Пока нет связи, пачка не отправляется: сообщения, набранные в это время, теряются
+    private static void sendBatch(ByteArrayOutputStream pending, int frameCount) {
+        ByteBuffer frames = ByteBuffer.wrap(pending.toByteArray());
+        pending.reset();
+        synchronized (writeLock) {
+            try {
+                if (!connected) {
+                    throw new IOException("нет соединения");
+                }
+                ByteBuffer compressed = deflater != null ? deflater.compress(new ByteBuffer[]{frames}, 0, 1) : null;
+                ByteBuffer batch = compressed != null ? compressed : frames;
+                serverOut.write(batch.array(), batch.position(), batch.remaining());
+                serverOut.flush();
+                writeStats.record(frameCount, batch.remaining());
+            } catch (IOException e) {
+                if (isRunning) {
+                    System.out.println("Нет связи с сервером, сообщение не отправлено.");
+                }
+                logger.logError("Ошибка при отправке сообщения: " + e.getMessage(), Log.CLIENT);
+            }
+        }
+    }
+
     // Новый метод для создания потока incomingMessages
-    private static Thread createIncomingMessagesThread(BufferedReader in) {
+    private static Thread createIncomingMessagesThread(InputStream in) {
         return new Thread(() -> {
             try {
-                String message;
-                while (isRunning && (message = in.readLine()) != null) {
-                    System.out.println(message);
-                    logger.log(message, Log.CLIENT);
-                    if (message.equals("Отключение...")) {
-                        isRunning = false;  // Устанавливаем флаг, чтобы завершить другие потоки
-                        break;
-                    }
+                while (isRunning && readFrame(in)) {
+                    // кадры выводит onFrame; после "Отключение..." isRunning сбрасывается
                 }
             } catch (IOException e) {
                 if (isRunning) {
@@ -93,76 +297,194 @@ public class ChatClient {
         });
     }
 
-    private static String handleLoginOrRegistration(BufferedReader in, PrintWriter out, BufferedReader consoleIn, Socket socket) throws IOException {
-        System.out.println(in.readLine());
-        System.out.println(in.readLine());
+    // Клиент переходит на двоичный протокол сразу после приветствия (connect)
+    // и выбор входа или регистрации делает сам, отправляя логин и пароль одним кадром
+    private static String handleLoginOrRegistration(BufferedReader consoleIn) throws IOException {
         String choice = consoleIn.readLine();
-        out.println(choice);
 
-        String login = "";
+        String login = null;
 
-        switch (choice) {
+        switch (choice == null ? "3" : choice) {
             case "1":
-                login = handleLogin(in, out, consoleIn, socket);
+                login = handleCredentials(WireProtocol.LOGIN, consoleIn);
                 break;
             case "2":
-                login = handleRegistration(in, out, consoleIn, socket);
+                login = handleCredentials(WireProtocol.REGISTER, consoleIn);
                 break;
             case "3":
-                closeConnection(out, in, socket);
+                closeConnection();
                 break;
             default:
                 System.out.println("Неверный выбор!");
-                closeConnection(out, in, socket);
+                closeConnection();
         }
 
         return login;
     }
 
-    private static String handleLogin(BufferedReader in, PrintWriter out, BufferedReader consoleIn, Socket socket) throws IOException {
-        String login;
-        String result;
-        do {
-            System.out.println(in.readLine());
-            login = consoleIn.readLine(); // Логин
-            if (login.equals("exit")) {
-                out.println(login);
-                closeConnection(out, in, socket);
-            }
-            out.println(login);
-            result = in.readLine();
-            System.out.println(result);
-        } while (result.contains("Попробуйте другой"));
-
-        String password = consoleIn.readLine(); // Пароль
-        out.println(password);
-        result = in.readLine();
-        System.out.println(result);
-        if (!result.contains("успешен")) {
-            closeConnection(out, in, socket);
+    // Вход или регистрация: при неизвестном или занятом логине можно ввести другой
+    private static String handleCredentials(int opcode, BufferedReader consoleIn) throws IOException {
+        while (true) {
+            System.out.println("Введите логин:");
+            String login = consoleIn.readLine(); // Логин
+            if (login == null || login.equals("exit")) {
+                closeConnection();
+                return null;
+            }
+            System.out.println("Введите пароль:");
+            String password = consoleIn.readLine(); // Пароль
+            if (password == null) {
+                closeConnection();
+                return null;
+            }
+            byte[] payload = WireProtocol.credentials(login, password);
+            synchronized (writeLock) {
+                WireProtocol.writeFrame(serverOut, opcode, payload);
+                serverOut.flush();
+            }
+            writeStats.record(1, payload.length);
+
+            WireProtocol.Frame ack = readAck(serverIn);
+            if (ack == null) {
+                closeConnection();
+                return null;
+            }
+            switch (WireProtocol.Status.of(ack.payload()[1])) {
+                case OK:
+                    ChatClient.login = login;
+                    ChatClient.password = password;
+                    return login;
+                case UNKNOWN_LOGIN:
+                case LOGIN_TAKEN:
+                    continue;
+                default:
+                    closeConnection();
+                    return null;
+            }
         }
-        return login;
     }
 
-    private static String handleRegistration(BufferedReader in, PrintWriter out, BufferedReader consoleIn, Socket socket) throws IOException {
-        String login;
-        String result;
-        do {
-            System.out.println(in.readLine());
-            login = consoleIn.readLine(); // Логин
-            out.println(login);
-            result = in.readLine();
-            System.out.println(result);
-        } while (result.contains("Попробуйте другой"));
-
-        String password = consoleIn.readLine();   // Пароль
-        out.println(password);
-        result = in.readLine();
-        System.out.println(result);
-        if (!result.contains("успешна")) {
-            closeConnection(out, in, socket);
+    // Проверка, что сервер жив: если он молчит HEARTBEAT_INTERVAL_MILLIS, отправляем PING (сервер ответит PONG),
+    // а если молчит HEARTBEAT_TIMEOUT_MILLIS после входа - соединение оборвано, и клиент переподключается.
+    // До входа кадры никто не читает, поэтому тогда PING только сообщает серверу, что клиент жив,
+    // пока пользователь вводит логин и пароль
+    private static void startHeartbeat() {
+        heartbeatTimer = new HashedWheelTimer("heartbeat-timer", 500, 64);
+        heartbeatTimer.schedule(ChatClient::checkServer, HEARTBEAT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private static void checkServer() {
+        long silence = System.nanoTime() - lastReadNanos;
+        if (connected && chatting && silence >= TimeUnit.MILLISECONDS.toNanos(HEARTBEAT_TIMEOUT_MILLIS)) {
+            String msg = "Сервер не отвечает.";
+            System.out.println(msg);
+            logger.logError(msg, Log.CLIENT);
+            closeSocket(); // поток чтения получит ошибку и начнёт переподключение
+        } else if (connected && silence >= TimeUnit.MILLISECONDS.toNanos(HEARTBEAT_INTERVAL_MILLIS)) {
+            try {
+                sendControl(WireProtocol.PING);
+            } catch (IOException e) {
+                // соединение уже закрыто, ошибку покажет поток чтения
+            }
         }
-        return login;
+        heartbeatTimer.schedule(ChatClient::checkServer, HEARTBEAT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    // Кадр без данных (PING, PONG) - сразу, мимо пачек консоли
+    private static void sendControl(int opcode) throws IOException {
+        synchronized (writeLock) {
+            WireProtocol.writeFrame(serverOut, opcode, new byte[0]);
+            serverOut.flush();
+        }
+    }
+
+    // Ожидание ответа на вход, регистрацию или восстановление сессии (ACK или SESSION);
+    // прочие кадры выводятся как есть
+    private static WireProtocol.Frame readAck(InputStream in) throws IOException {
+        lastAck = null;
+        while (lastAck == null) {
+            if (!readFrame(in)) {
+                return null;
+            }
+        }
+        return lastAck;
+    }
+
+    // Чтение очередного кадра сервера (сжатые распаковываются); false - сервер закрыл соединение
+    private static boolean readFrame(InputStream in) throws IOException {
+        WireProtocol.Frame frame = WireProtocol.readFrame(in, WireProtocol.MAX_SERVER_FRAME_LENGTH);
+        if (frame == null) {
+            return false;
+        }
+        lastReadNanos = System.nanoTime();
+        if (frame.opcode() == WireProtocol.COMPRESSED && inflater != null) {
+            inflater.inflate(ByteBuffer.wrap(frame.payload()), ChatClient::onFrame);
+        } else {
+            onFrame(frame.opcode(), ByteBuffer.wrap(frame.payload()));
+        }
+        return true;
+    }
+
+    // Вывод кадра сервера; ответ на вход или регистрацию ещё и запоминается в lastAck.
+    // Сообщения считаются (received), чтобы после обрыва сервер прислал только пропущенные
+    private static void onFrame(int opcode, ByteBuffer payload) throws IOException {
+        if (opcode == WireProtocol.PING) {
+            sendControl(WireProtocol.PONG);
+            return;
+        }
+        if (opcode == WireProtocol.PONG) {
+            return;
+        }
+        if (opcode == WireProtocol.SESSION) {
+            ByteBuffer data = payload.duplicate();
+            sessionToken = WireProtocol.getString(data);
+            received = WireProtocol.getSequence(data);
+            if (lastAck == null) { // после входа SESSION приходит вслед за ACK, часто в той же сжатой пачке
+                lastAck = new WireProtocol.Frame(opcode, new byte[0]);
+            }
+            return;
+        }
+        byte[] bytes = new byte[payload.remaining()];
+        payload.get(bytes);
+        if (opcode == WireProtocol.ACK && bytes.length >= 2) {
+            if (bytes[0] != WireProtocol.RESUME) {
+                received++;
+            }
+            lastAck = new WireProtocol.Frame(opcode, bytes);
+            System.out.println(new String(bytes, 2, bytes.length - 2, StandardCharsets.UTF_8));
+            return;
+        }
+        received++;
+        String message = new String(bytes, StandardCharsets.UTF_8);
+        System.out.println(message);
+        logger.log(message, Log.CLIENT);
+        if (message.equals("Отключение...")) {
+            isRunning = false;  // Устанавливаем флаг, чтобы завершить другие потоки
+        }
+    }
+
+    // Текстовая строка до перехода на двоичный протокол (читается побайтно,
+    // чтобы не захватить из потока начало следующих кадров)
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) >= 0 && b != '\n') {
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        if (b < 0 && line.size() == 0) {
+            throw new EOFException("Сервер закрыл соединение");
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    // Отправка строки, на которую нужен ответ сервера, - сразу со сбросом буфера
+    private static void sendLine(OutputStream out, String line) throws IOException {
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        out.write(bytes);
+        out.flush();
+        writeStats.record(1, bytes.length);
     }
 
     // Загрузка настроек из файла
@@ -185,18 +507,42 @@ public class ChatClient {
         }
     }
 
-    // Закрытие соединения и потоков
-    private static void closeConnection(PrintWriter out, BufferedReader in, Socket socket) {
+    // Закрытие текущего соединения (при обрыве - перед переподключением)
+    private static void closeSocket() {
+        synchronized (writeLock) {
+            connected = false;
+            try {
+                if (socket != null && !socket.isClosed()) socket.close();
+            } catch (IOException e) {
+                logger.logError("Ошибка при закрытии соединения: " + e.getMessage(), Log.CLIENT);
+            }
+        }
+    }
+
+    // Закрытие соединения и потоков (один раз: вызывают и потоки чтения и отправки, и таймер)
+    private static synchronized void closeConnection() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        isRunning = false;
+        if (heartbeatTimer != null) {
+            heartbeatTimer.stop();
+        }
         try {
-            if (in != null) in.close();
-            if (out != null) out.close();
-            if (socket != null && !socket.isClosed()) socket.close();
+            synchronized (writeLock) {
+                connected = false;
+                if (serverIn != null) serverIn.close();
+                if (serverOut != null) serverOut.close();
+                if (socket != null && !socket.isClosed()) socket.close();
+            }
             System.out.println("Отключение...");
+            logger.log("Статистика отправки: " + writeStats, Log.CLIENT);
+            logger.log("Статистика сжатия: " + compressionStats, Log.CLIENT);
         } catch (IOException e) {
             String msg = "Ошибка при закрытии соединения: ";
             System.out.println(msg);
             logger.logError(msg + e.getMessage(), Log.CLIENT);
         }
-        System.exit(0);
     }
-}
\ No newline at end of file
+}
@@ -1,265 +1,1086 @@
 package chat;
 
+import com.sun.net.httpserver.HttpExchange;
+
 import java.io.*;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
 import java.net.Socket;
-import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
 
 public class ChatServer {
     private static final String FILE_SETTINGS = "src/main/resources/settings.txt";
     private static final String USERS_FILE = "src/main/resources/users.txt";
-    private static final Map<String, String> users = new ConcurrentHashMap<>();
-    private static final Map<String, PrintWriter> clientWriters = new ConcurrentHashMap<>();
+    private static final String FILE_CONFIG = "src/main/resources/server.properties";
+    private static final UserStore users = new UserStore();
+    private static final Map<String, ClientConnection> clientWriters = new ConcurrentHashMap<>();
+    private static final Set<ChatSession> sessions = ConcurrentHashMap.newKeySet(); // все открытые, и гостей (для остановки)
+    private static final String SHUTDOWN_NOTICE = "Сервер останавливается. Подключитесь позже.";
     private static int PORT;
+    private static NioChatServer nioServer;
+    private static volatile ServerSocketChannel acceptChannel; // порт в режимах BLOCKING и VIRTUAL
+    static final int MAX_GATHER = 64; // сообщений в одной операции записи
+    private static final int LINE_BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
 
     public static Log logger = Log.getInstance(); // Логгер
+    static final ServerConfig config = ServerConfig.load(FILE_CONFIG);
+    static final boolean DIRECT_BUFFERS = config.getBoolean("outbound.directBuffers", true);
+    static final long BATCH_WINDOW_NANOS = TimeUnit.MICROSECONDS.toNanos(config.getLong("outbound.batchWindowMicros", 0));
+    static final long BATCH_BYTES = config.getLong("outbound.batchBytes", 64 * 1024);
+    static final int OUTBOUND_CAPACITY = config.getInt("outbound.queueCapacity", 1024);
+    static final long SHUTDOWN_DRAIN_MILLIS = config.getLong("shutdown.drainTimeoutMillis", 10_000);
+    static final DateTimeFormatter HISTORY_TIME =
+            DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss").withZone(ZoneId.systemDefault());
+    static final WriteStats writeStats = new WriteStats(); // статистика пакетной записи клиентам
+    static final boolean COMPRESSION = config.getBoolean("compression.enabled", true);
+    static final int COMPRESSION_MIN_BYTES = config.getInt("compression.minBytes", 256);
+    static final int COMPRESSION_LEVEL = config.getInt("compression.level", 6);
+    static final CompressionStats compressionStats = new CompressionStats(); // сжатие двоичного протокола
+    static final ServerMetrics metrics = new ServerMetrics(writeStats, logger, clientWriters); // JMX и HTTP (metrics.*)
     private static volatile boolean isRunning = true;
+    private static volatile MessageStore history; // история сообщений (null - не ведётся)
+    private static volatile SearchIndex search;   // поиск по истории (null - выключен)
+    private static volatile InboxStore inbox;     // ящики личных сообщений (null - не сохраняются)
+    private static final Set<String> inboxDeliveries = ConcurrentHashMap.newKeySet(); // чьи ящики доставляются сейчас
+    private static final long INBOX_RETRY_MILLIS = 100;
+    private static final ScheduledExecutorService inboxDelivery = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "inbox-delivery");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static volatile Cluster cluster;      // связь с другими узлами (null - сервер работает один)
+    private static final Authenticator authenticator = new Authenticator(users,
+            new PasswordHasher(config.getInt("auth.pbkdf2Iterations", 210_000)),
+            config.getInt("auth.threads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2)),
+            config.getInt("auth.queueCapacity", 1024),
+            config.getInt("auth.cacheSize", 10_000),
+            config.getLong("auth.cacheTtlMillis", TimeUnit.MINUTES.toMillis(15)));
+    static final Rooms rooms = new Rooms(config.getInt("rooms.shards", Runtime.getRuntime().availableProcessors()));
+    static final RateLimiter rateLimiter = new RateLimiter(config.getBoolean("ratelimit.enabled", true),
+            config.getEnum("ratelimit.action", RateLimiter.Action.class, RateLimiter.Action.THROTTLE),
+            new RateLimiter.Limit(config.getInt("ratelimit.user.messagesPerSecond", 20),
+                    config.getInt("ratelimit.user.bytesPerSecond", 64 * 1024),
+                    config.getInt("ratelimit.user.burstSeconds", 2)),
+            new RateLimiter.Limit(config.getInt("ratelimit.ip.messagesPerSecond", 200),
+                    config.getInt("ratelimit.ip.bytesPerSecond", 1024 * 1024),
+                    config.getInt("ratelimit.ip.burstSeconds", 2)));
+    static final Heartbeats heartbeats = config.getBoolean("heartbeat.enabled", true)
+            ? new Heartbeats(TimeUnit.SECONDS.toMillis(config.getLong("heartbeat.intervalSeconds", 15)),
+                    TimeUnit.SECONDS.toMillis(config.getLong("heartbeat.timeoutSeconds", 45)),
+                    TimeUnit.SECONDS.toMillis(config.getLong("heartbeat.writeTimeoutSeconds", 30)),
+                    config.getLong("heartbeat.tickMillis", 100))
+            : null; // проверка, что клиенты живы (null - выключена)
+    static final SessionResumption resumption = new SessionResumption(config.getBoolean("resume.enabled", true),
+            config.getInt("resume.bufferMessages", 256),
+            TimeUnit.SECONDS.toMillis(config.getLong("resume.graceSeconds", 60)));
+    // кто в сети (/who) и объявления о входе и выходе, собранные за окно (presence.*)
+    static final Presence presence = new Presence(config.getLong("presence.coalesceMillis", 250),
+            config.getInt("presence.announceNames", 20), ChatServer::announcePresence);
 
     // методы для тестов
-    public static Map<String, String> getUsers() {
+    public static UserStore getUsers() {
         return users;
     }
 
-    public static Map<String, PrintWriter> getClientWriters() {
+    public static Map<String, ClientConnection> getClientWriters() {
         return clientWriters;
     }
 
+    static MessageStore getHistory() {
+        return history;
+    }
+
+    static void setHistory(MessageStore messageStore) {
+        history = messageStore;
+    }
+
+    static SearchIndex getSearch() {
+        return search;
+    }
+
+    static void setSearch(SearchIndex searchIndex) {
+        search = searchIndex;
+    }
+
+    static void setInbox(InboxStore inboxStore) {
+        inbox = inboxStore;
+    }
+
+    // Сервер останавливается: новые сообщения клиентов больше не обрабатываются
+    static boolean isStopping() {
+        return !isRunning;
+    }
+
+    static void sessionOpened(ChatSession session) {
+        sessions.add(session);
+    }
+
+    static void sessionClosed(ChatSession session) {
+        sessions.remove(session);
+    }
+
+    // Режим обработки подключений (настройка server.mode):
+    // BLOCKING - платформенный поток на клиента, VIRTUAL - виртуальный поток на клиента, NIO - селекторы
+    public enum Mode { BLOCKING, VIRTUAL, NIO }
+
     public static void main(String[] args) {
         loadSettings(FILE_SETTINGS);
-        loadUsersFromFile(USERS_FILE);
+        PORT = config.getInt("server.port", PORT);
+        openUsers();
+        openHistory();
+        openInbox();
+        openCluster();
+        startMetrics();
+        // SIGTERM или Ctrl+C: сервер останавливается без потери уже принятых сообщений
+        logger.beforeShutdown(ChatServer::stopServer);
+
+        Mode mode = config.getEnum("server.mode", Mode.class, Mode.BLOCKING);
+        if (mode == Mode.NIO) {
+            runNioServer();
+        } else {
+            runBlockingServer(mode);
+        }
+    }
 
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            System.out.println("Сервер Сетевой чат запущен...");
-            logger.log("Сервер Сетевой чат запущен...", Log.SERVER);
+    // Режим "поток на клиента": платформенные или виртуальные потоки.
+    // Число одновременно обслуживаемых клиентов ограничено (server.maxConnections):
+    // при достижении предела новые подключения ждут в очереди ОС
+    private static void runBlockingServer(Mode mode) {
+        Semaphore connectionSlots = new Semaphore(config.getInt("server.maxConnections", 10_000));
+        ThreadFactory threadFactory = createThreadFactory(mode);
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open();
+             ExecutorService clientExecutor = Executors.newThreadPerTaskExecutor(threadFactory)) {
+            serverChannel.bind(new InetSocketAddress(PORT));
+            acceptChannel = serverChannel;
+            System.out.println("Сервер Сетевой чат запущен (" + mode + ")...");
+            logger.log("Сервер Сетевой чат запущен (" + mode + ")...", Log.SERVER);
             while (isRunning) {
-                new ClientHandler(serverSocket.accept()).start();
+                connectionSlots.acquire();
+                SocketChannel channel;
+                try {
+                    channel = serverChannel.accept();
+                } catch (ClosedChannelException e) {
+                    break; // stopServer закрыл порт
+                }
+                clientExecutor.execute(() -> {
+                    try {
+                        new ClientHandler(channel, threadFactory).run();
+                    } finally {
+                        connectionSlots.release();
+                    }
+                });
             }
         } catch (IOException e) {
             logger.logError("Ошибка запуска Сервера: " + e.getMessage(), Log.SERVER);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static ThreadFactory createThreadFactory(Mode mode) {
+        if (mode == Mode.VIRTUAL) {
+            return Thread.ofVirtual().name("client-", 0).factory();
+        }
+        return Thread.ofPlatform().name("client-", 0).factory();
+    }
+
+    // Неблокирующий режим: несколько потоков-селекторов обслуживают всех клиентов
+    private static void runNioServer() {
+        int eventLoops = config.getInt("nio.eventLoops", Runtime.getRuntime().availableProcessors());
+        try {
+            nioServer = new NioChatServer(PORT, eventLoops);
+            nioServer.start();
+            System.out.println("Сервер Сетевой чат запущен (NIO, потоков: " + eventLoops + ")...");
+            logger.log("Сервер Сетевой чат запущен (NIO, потоков: " + eventLoops + ")...", Log.SERVER);
+            nioServer.awaitTermination();
+        } catch (IOException e) {
+            logger.logError("Ошибка запуска Сервера: " + e.getMessage(), Log.SERVER);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
-    // класс обработки соединений в потоках
-    public static class ClientHandler extends Thread {
+    // Задача обработки одного соединения (выполняется в платформенном или виртуальном потоке).
+    // Входящие строки читает сам обработчик, исходящие сообщения пишет отдельный поток-писатель
+    public static class ClientHandler implements Runnable, ClientConnection {
         private final Socket socket;
-        private String clientName = "Гость";
-        private BufferedReader in;
-        private PrintWriter out;
+        private final ChatSession session = new ChatSession(this);
+        private final OutboundQueue outbound = newOutboundQueue();
+        private final ThreadFactory writerThreadFactory;
+        private final BlockingQueue<Runnable> tasks = new LinkedBlockingQueue<>();
+        private BufferedReader in; // только в тестах; обычно строки разбирает lines из байтов сокета
+        private InputStream socketIn;
+        private final LineDecoder lines = new LineDecoder(MAX_LINE_LENGTH);
+        private ByteBuffer lineBuffer = ByteBuffer.allocate(LINE_BUFFER_SIZE).flip(); // прочитанное, но не разобранное
+        private volatile InputStream frameIn; // вход после перехода на двоичный протокол
+        private volatile boolean compression;  // договорились о сжатии (после перехода на двоичный протокол)
+        private FrameInflater inflater;
+        private WritableByteChannel out;
+        private Thread writer;
+        private volatile long writeStartedAt; // начало текущей записи в сокет (0 - писатель не пишет)
 
         // Конструктор для использования в тестах
-        public ClientHandler(Socket socket, BufferedReader in, PrintWriter out) {
+        public ClientHandler(Socket socket, BufferedReader in, OutputStream out) {
             this.socket = socket;
             this.in = in;
-            this.out = out;
+            this.out = Channels.newChannel(out);
+            this.writerThreadFactory = Thread.ofVirtual().factory();
         }
 
-        // Конструктор для реального использования
-        public ClientHandler(Socket socket) {
-            this.socket = socket;
+        // Конструктор для реального использования (канал в блокирующем режиме)
+        public ClientHandler(SocketChannel channel, ThreadFactory writerThreadFactory) {
+            this.socket = channel.socket();
+            this.out = channel;
+            this.writerThreadFactory = writerThreadFactory;
             try {
-                this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                this.out = new PrintWriter(socket.getOutputStream(), true);
+                this.socketIn = socket.getInputStream();
             } catch (IOException e) {
-                handleSocketException(e);
+                session.onError(e);
             }
         }
 
+        @Override
         public void run() {
-            logger.log("Подключен новый клиент: " + socket.getRemoteSocketAddress(), Log.SERVER);
+            logger.log("Подключен новый клиент: " + getRemoteAddress(), Log.SERVER);
+            writer = writerThreadFactory.newThread(this::writeMessages);
+            writer.start();
             try {
                 handleClientConnection();
             } catch (IOException e) {
-                handleSocketException(e);
+                session.onError(e);
             } finally {
                 cleanupResources();
-                logger.log("Соединение с клиентом " + clientName + " закрыто.", Log.SERVER);
             }
         }
 
         private void handleClientConnection() throws IOException {
-            out.println("Добро пожаловать в чат! Введите '1' для входа или '2' для регистрации:");
-            out.println("Введите '3' для выхода без регистрации:");
-            String choice = in.readLine();
-            clientWriters.put("Гость", out);
-
-            switch (choice) {
-                case "1":
-                    clientName = handleLogin(in, out);
-                    break;
-                case "2":
-                    clientName = handleRegistration(in, out);
-                    break;
-                case "3":
-                    disconnectClient(this);
-                    return;
-                default:
-                    out.println("Неверный выбор.");
-                    disconnectClient(this);
-                    return;
+            session.start();
+            String line;
+            while (!session.isClosed() && frameIn == null && (line = readLine()) != null) {
+                session.onLine(line);
+                awaitSession();
+            }
+            WireProtocol.Frame frame;
+            while (!session.isClosed() && frameIn != null && (frame = WireProtocol.readFrame(frameIn)) != null) {
+                if (frame.opcode() == WireProtocol.COMPRESSED && inflater != null) {
+                    inflater.inflate(ByteBuffer.wrap(frame.payload()), (opcode, payload) -> {
+                        if (!session.isClosed()) {
+                            session.onFrame(opcode, payload);
+                            awaitSession();
+                        }
+                    });
+                } else {
+                    session.onFrame(frame.opcode(), ByteBuffer.wrap(frame.payload()));
+                    awaitSession();
+                }
             }
-            clientWriters.remove("Гость");
+        }
 
-            if (clientName.equals("error") || clientName.equals("exit")) {
-                disconnectClient(this);
-                return;
+        // Строка до перехода на двоичный протокол. Байты после неё остаются в lineBuffer:
+        // клиент может прислать кадры, не дожидаясь подтверждения перехода (вход за один обмен)
+        private String readLine() throws IOException {
+            if (in != null) {
+                return in.readLine();
             }
+            String line;
+            while ((line = lines.decodeLine(lineBuffer)) == null) {
+                int read = socketIn.read(lineBuffer.array());
+                if (read < 0) {
+                    return null;
+                }
+                lineBuffer.clear().limit(read);
+            }
+            return line;
+        }
 
-            broadcastMessage(clientName + " присоединяется к чату");
-            clientWriters.put(clientName, out);
+        // Вызывается из session.onLine в потоке клиента: кадры, пришедшие вслед за строкой запроса,
+        // читаются первыми, затем - сокет
+        @Override
+        public boolean upgradeToBinary() {
+            try {
+                InputStream stream = socketIn;
+                if (stream == null) {
+                    stream = socket != null ? socket.getInputStream() : null;
+                } else if (lineBuffer.hasRemaining()) {
+                    byte[] pipelined = Arrays.copyOfRange(lineBuffer.array(), lineBuffer.position(), lineBuffer.limit());
+                    stream = new SequenceInputStream(new ByteArrayInputStream(pipelined), stream);
+                }
+                if (stream == null) {
+                    return false;
+                }
+                lineBuffer = ByteBuffer.allocate(0);
+                frameIn = new BufferedInputStream(stream);
+                return true;
+            } catch (IOException e) {
+                logger.logError("Ошибка при переходе на двоичный протокол: " + e.getMessage(), Log.SERVER);
+                return false;
+            }
+        }
 
-            String message;
-            while ((message = in.readLine()) != null) {
-                if (message.equalsIgnoreCase("exit")) {
-                    disconnectClient(this);
-                    return;
+        // Сжатие включается в обоих направлениях; писатель начинает сжимать после подтверждения перехода
+        @Override
+        public boolean enableCompression() {
+            if (!COMPRESSION || frameIn == null) {
+                return false;
+            }
+            inflater = new FrameInflater(WireProtocol.MAX_FRAME_LENGTH, compressionStats);
+            compression = true;
+            return true;
+        }
+
+        // Пока сессия ждёт проверки пароля, следующая строка не читается:
+        // продолжение сессии выполняется здесь же, в потоке клиента
+        private void awaitSession() throws InterruptedIOException {
+            try {
+                while (session.isAwaiting()) {
+                    tasks.take().run();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Ожидание проверки пароля прервано");
+            }
+        }
+
+        // Поток-писатель: отправляет сообщения из очереди, пока она не закрыта и не опустела.
+        // Всё, что накопилось в очереди (или пришло за окно outbound.batchWindowMicros,
+        // пока не набралось outbound.batchBytes), уходит в сокет одной операцией gathering write.
+        // При сжатии кадры пачки заменяются кадрами COMPRESSED (compression.minBytes и больше)
+        private void writeMessages() {
+            OutboundMessage[] batch = new OutboundMessage[MAX_GATHER];
+            ByteBuffer[] views = new ByteBuffer[2 * MAX_GATHER]; // у кадра два представления: заголовок и тело
+            int count = 0;
+            int viewCount = 0;
+            boolean binary = false;
+            FrameDeflater deflater = null;
+            try {
+                OutboundMessage message;
+                while ((message = outbound.take()) != null) {
+                    long deadline = System.nanoTime() + BATCH_WINDOW_NANOS;
+                    long bytes = 0;
+                    int firstFrame = 0; // представления до него - текст (до подтверждения перехода)
+                    do {
+                        batch[count++] = message;
+                        if (binary) {
+                            views[viewCount++] = message.frameHeaderView();
+                            views[viewCount++] = message.bodyView();
+                        } else {
+                            views[viewCount++] = message.view();
+                            binary = message.isUpgrade();
+                            firstFrame = viewCount;
+                            if (binary && compression) {
+                                deflater = new FrameDeflater(COMPRESSION_LEVEL, COMPRESSION_MIN_BYTES, compressionStats);
+                            }
+                        }
+                        bytes += message.size();
+                        if (count == MAX_GATHER || bytes >= BATCH_BYTES) {
+                            break;
+                        }
+                        message = outbound.poll();
+                        if (message == null && BATCH_WINDOW_NANOS > 0) {
+                            message = outbound.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        }
+                    } while (message != null);
+                    ByteBuffer compressed = deflater != null && firstFrame < viewCount
+                            ? deflater.compress(views, firstFrame, viewCount - firstFrame) : null;
+                    if (compressed != null) {
+                        views[firstFrame] = compressed;
+                        viewCount = firstFrame + 1;
+                    }
+                    writeStartedAt = System.nanoTime();
+                    writeFully(views, viewCount);
+                    writeStartedAt = 0;
+                    writeStats.record(count, bytes);
+                    count = releaseBatch(batch, views, count);
+                    viewCount = 0;
+                }
+            } catch (IOException e) {
+                logger.logError("Ошибка при отправке сообщения клиенту " + session.getClientName() + ": " + e.getMessage(), Log.SERVER);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                releaseBatch(batch, views, count);
+                outbound.clear();
+                closeSocket();
+                if (deflater != null) {
+                    deflater.end();
                 }
-                broadcastMessage(clientName + ": " + message);
             }
         }
 
-        // Обработка ошибок сокета
-        private void handleSocketException(IOException e) {
-            if (e instanceof SocketException) {
-                System.out.println("Клиент " + clientName + " разорвал соединение.");
-                broadcastMessage(clientName + " разорвал соединение.");
+        private void writeFully(ByteBuffer[] views, int count) throws IOException {
+            if (out instanceof GatheringByteChannel gathering) {
+                int first = 0;
+                while (first < count) {
+                    gathering.write(views, first, count - first);
+                    while (first < count && !views[first].hasRemaining()) {
+                        first++;
+                    }
+                }
             } else {
-                logger.logError("Ошибка во время работы с клиентом: " + e.getMessage(), Log.SERVER);
+                for (int i = 0; i < count; i++) {
+                    while (views[i].hasRemaining()) {
+                        out.write(views[i]);
+                    }
+                }
             }
         }
 
-        // Очистка ресурсов
-        private void cleanupResources() {
+        private static int releaseBatch(OutboundMessage[] batch, ByteBuffer[] views, int count) {
+            for (int i = 0; i < count; i++) {
+                batch[i].release();
+                batch[i] = null;
+            }
+            Arrays.fill(views, null);
+            return 0;
+        }
+
+        // Ждать места в очереди (политика BLOCK) может поток отправителя, но не поток-шард комнат
+        @Override
+        public void send(OutboundMessage message) {
+            if (!outbound.offer(message, !Rooms.isShardThread())) {
+                logger.log("Клиент " + session.getClientName() + " не успевает получать сообщения и будет отключен.", Log.SERVER);
+                outbound.clear();
+                closeSocket();
+            }
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        @Override
+        public void close() {
+            outbound.close();
+        }
+
+        // Закрытый сокет прерывает и чтение, и зависшую запись
+        @Override
+        public void abort() {
+            outbound.clear();
+            closeSocket();
+        }
+
+        @Override
+        public long getBlockedWriteSince() {
+            return writeStartedAt;
+        }
+
+        @Override
+        public int getQueueDepth() {
+            return outbound.size();
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return socket != null ? String.valueOf(socket.getRemoteSocketAddress()) : "unknown";
+        }
+
+        private void closeSocket() {
             try {
-                if (in != null) in.close();
-                if (out != null) out.close();
                 if (socket != null && !socket.isClosed()) {
                     socket.close();
                 }
-                clientWriters.remove(clientName);
-                broadcastMessage(clientName + " покинул чат.");
+            } catch (IOException e) {
+                logger.logError("Ошибка при закрытии сокета: " + e.getMessage(), Log.SERVER);
+            }
+        }
+
+        // Очистка ресурсов: даём писателю отправить остаток очереди (не дольше shutdown.drainTimeoutMillis),
+        // затем закрываем сокет
+        private void cleanupResources() {
+            outbound.close();
+            try {
+                writer.join(SHUTDOWN_DRAIN_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (inflater != null) {
+                inflater.end();
+            }
+            try {
+                if (in != null) in.close();
+                if (out != null) out.close();
             } catch (IOException e) {
                 logger.logError("Ошибка при закрытии ресурсов: " + e.getMessage(), Log.SERVER);
             }
+            closeSocket();
+            session.onClosed();
+        }
+    }
+
+    // Очередь исходящих сообщений клиента с настроенной политикой для медленных клиентов
+    static OutboundQueue newOutboundQueue() {
+        return new OutboundQueue(
+                OUTBOUND_CAPACITY,
+                config.getEnum("outbound.slowConsumerPolicy", OutboundQueue.SlowConsumerPolicy.class,
+                        OutboundQueue.SlowConsumerPolicy.DROP_OLDEST),
+                config.getLong("outbound.blockTimeoutMillis", 1000));
+    }
+
+    // Открытие истории сообщений (настройки history.*)
+    private static void openHistory() {
+        if (!config.getBoolean("history.enabled", true)) {
+            return;
+        }
+        try {
+            history = new MessageStore(Path.of(config.getString("history.dir", "src/main/resources/history")),
+                    config.getInt("history.segmentBytes", 16 * 1024 * 1024),
+                    config.getInt("history.maxSegments", 64));
+        } catch (IOException | RuntimeException e) {
+            logger.logError("Ошибка при открытии истории сообщений: " + e.getMessage(), Log.SERVER);
+            return;
+        }
+        if (!config.getBoolean("search.enabled", true)) {
+            return;
+        }
+        try {
+            long started = System.nanoTime();
+            search = new SearchIndex(history, Path.of(config.getString("search.dir", "src/main/resources/search")),
+                    config.getInt("search.segmentMessages", 65536));
+            logger.log("Поисковый индекс открыт за " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)
+                    + " мс, сегментов: " + search.segmentCount(), Log.SERVER);
+        } catch (IOException | RuntimeException e) {
+            logger.logError("Ошибка при открытии поискового индекса: " + e.getMessage(), Log.SERVER);
+        }
+    }
+
+    private static void openInbox() {
+        try {
+            inbox = new InboxStore(Path.of(config.getString("inbox.dir", "src/main/resources/inbox")),
+                    config.getLong("inbox.maxBytesPerUser", 1024 * 1024));
+        } catch (IOException | RuntimeException e) {
+            logger.logError("Ошибка при открытии ящиков личных сообщений: " + e.getMessage(), Log.SERVER);
         }
+    }
 
-        // Рассылка сообщений всем клиентам
-        private void broadcastMessage(String message) {
-            for (PrintWriter writer : clientWriters.values()) {
-                writer.println(message);
+    // Метрики (настройки metrics.*): MBean chat:type=ServerMetrics и текст по HTTP на metrics.httpPort
+    private static void startMetrics() {
+        metrics.startSampler();
+        if (config.getBoolean("metrics.jmx", true)) {
+            try {
+                metrics.registerMBean();
+            } catch (JMException e) {
+                logger.logError("Ошибка при регистрации MBean метрик: " + e.getMessage(), Log.SERVER);
+            }
+        }
+        int httpPort = config.getInt("metrics.httpPort", 0);
+        if (httpPort > 0) {
+            try {
+                String httpHost = config.getString("metrics.httpHost", "127.0.0.1");
+                metrics.startHttp(httpHost, httpPort);
+                // история общего чата без проверки доступа - только если оператор включил это явно
+                if (config.getBoolean("search.httpEnabled", false)) {
+                    metrics.addHttpContext("/search", ChatServer::handleSearchRequest);
+                }
+                logger.log("Метрики доступны по адресу http://" + (httpHost.isBlank() ? "localhost" : httpHost)
+                        + ":" + httpPort + "/metrics", Log.SERVER);
+            } catch (IOException e) {
+                logger.logError("Ошибка при запуске HTTP метрик: " + e.getMessage(), Log.SERVER);
             }
-            logger.log(message, Log.SERVER);
         }
     }
 
-    // Загрузка настроек из файла
-    private static void loadSettings(String filePath) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(":");
-                if (parts.length == 2) {
-                    PORT = Integer.parseInt(parts[1].trim());
+    // Поиск по истории с учётом времени запроса в метриках
+    static List<SearchIndex.Match> searchHistory(SearchIndex searchIndex, String query, int limit) {
+        long started = System.nanoTime();
+        List<SearchIndex.Match> matches = searchIndex.search(query, limit);
+        metrics.recordSearch(System.nanoTime() - started);
+        return matches;
+    }
+
+    // GET /search?q=<слова>[&limit=N] на порту метрик (search.httpEnabled) - для операторов: совпадения от новых к старым,
+    // по строке "номер<TAB>время<TAB>автор<TAB>текст" (переводы строк в тексте заменены пробелами)
+    private static void handleSearchRequest(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            Map<String, String> parameters = new HashMap<>();
+            String rawQuery = exchange.getRequestURI().getRawQuery();
+            for (String pair : rawQuery != null ? rawQuery.split("&") : new String[0]) {
+                int equals = pair.indexOf('=');
+                if (equals > 0) {
+                    parameters.put(pair.substring(0, equals), URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
                 }
             }
-        } catch (IOException | NumberFormatException e) {
-            logger.logError("Ошибка при загрузке настроек: " + e.getMessage(), Log.SERVER);
+            SearchIndex searchIndex = search;
+            int status = 200;
+            StringBuilder body = new StringBuilder();
+            if (searchIndex == null) {
+                status = 404;
+                body.append("Поиск по истории выключен\n");
+            } else if (parameters.getOrDefault("q", "").isBlank()) {
+                status = 400;
+                body.append("Использование: /search?q=<слова> [from:логин]&limit=N\n");
+            } else {
+                int limit = config.getInt("search.maxResults", 20);
+                try {
+                    limit = Math.min(Integer.parseInt(parameters.getOrDefault("limit", String.valueOf(limit))),
+                            config.getInt("history.maxReplay", 1000));
+                } catch (NumberFormatException ignored) {
+                }
+                for (SearchIndex.Match match : searchHistory(searchIndex, parameters.get("q"), limit)) {
+                    body.append(match.seq()).append('\t')
+                            .append(Instant.ofEpochMilli(match.timestamp())).append('\t')
+                            .append(match.author() != null ? match.author() : "").append('\t')
+                            .append(match.text().replace('\n', ' ').replace('\r', ' ')).append('\n');
+                }
+            }
+            byte[] bytes = body.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
         }
     }
 
-    // Загрузка пользователей из файла
-    private static void loadUsersFromFile(String filePath) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(":");
-                if (parts.length == 2) {
-                    users.put(parts[0].trim(), parts[1].trim());
+    // Кластер (настройки cluster.*): порт для связи узлов и статический список остальных узлов
+    // в виде имя@host:port - подключаться разрешено только узлам из этого списка
+    private static void openCluster() {
+        if (!config.getBoolean("cluster.enabled", false)) {
+            return;
+        }
+        try {
+            String nodeId = config.getString("cluster.nodeId", "node-" + PORT);
+            Map<String, String> peers = new LinkedHashMap<>(); // имя -> host:port
+            for (String peer : config.getString("cluster.peers", "").split(",")) {
+                peer = peer.trim();
+                int at = peer.indexOf('@');
+                if (at > 0 && peer.lastIndexOf(':') > at + 1) {
+                    if (!peer.substring(0, at).equals(nodeId)) {
+                        peers.put(peer.substring(0, at), peer.substring(at + 1));
+                    }
+                } else if (!peer.isEmpty()) {
+                    logger.logError("Узел кластера " + peer + " пропущен: ожидается имя@host:port", Log.SERVER);
                 }
             }
-        } catch (IOException e) {
-            logger.logError("Ошибка при загрузке пользователей: " + e.getMessage(), Log.SERVER);
+            Cluster node = new Cluster(nodeId,
+                    config.getString("cluster.bindHost", "127.0.0.1"),
+                    config.getInt("cluster.port", PORT + 1000),
+                    config.getString("cluster.secret", ""),
+                    peers.keySet(),
+                    config.getInt("cluster.queueCapacity", 65536),
+                    config.getInt("cluster.batchBytes", 64 * 1024),
+                    TimeUnit.MICROSECONDS.toNanos(config.getLong("cluster.batchWindowMicros", 500)),
+                    config.getLong("cluster.reconnectMillis", 1000),
+                    new Cluster.Listener() {
+                        @Override
+                        public void onRoomMessage(String room, String text, int opcode) {
+                            if (room.isEmpty()) {
+                                broadcastLocal(text);
+                            } else {
+                                rooms.deliver(room, text, opcode);
+                            }
+                        }
+
+                        @Override
+                        public void onDirect(String to, String from, String text) {
+                            deliverDirect(from, to, text);
+                        }
+                    });
+            for (Map.Entry<String, String> peer : peers.entrySet()) {
+                String address = peer.getValue();
+                int colon = address.lastIndexOf(':');
+                node.connect(peer.getKey(), address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+            }
+            cluster = node;
+            logger.log("Узел кластера " + node.getNodeId() + " слушает порт " + node.getLocalPort(), Log.SERVER);
+        } catch (IOException | RuntimeException e) {
+            logger.logError("Ошибка при запуске кластера: " + e.getMessage(), Log.SERVER);
         }
     }
 
-    // Сохранение нового пользователя в файл
-    private static void saveUserToFile(String login, String password) {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(USERS_FILE, true))) {
-            writer.write(login + ":" + password);
-            writer.newLine();
-        } catch (IOException e) {
-            logger.logError("Ошибка при сохранении пользователя: " + e.getMessage(), Log.SERVER);
+    // Сообщение комнаты (пустое имя - рассылка всем), отправленное на этом узле, - остальным узлам
+    static void relayToCluster(String room, String message, int opcode) {
+        Cluster node = cluster;
+        if (node != null && message != null) {
+            node.publish(room, message, opcode);
+        }
+    }
+
+    // Вход пользователя: он становится виден в /who и на других узлах кластера. Presence меняется
+    // под замком записи clientWriters, чтобы вход и выход одного имени не поменялись местами
+    static void addClient(String name, ClientConnection connection) {
+        boolean guest = name.equals(ChatSession.GUEST);
+        clientWriters.compute(name, (key, previous) -> {
+            if (previous == null && !guest) {
+                presence.online(name);
+            }
+            return connection;
+        });
+        Cluster node = cluster;
+        if (node != null && !guest) {
+            node.userOnline(name);
         }
     }
 
-    // Авторизация клиента
-    private static String handleLogin(BufferedReader in, PrintWriter out) throws IOException {
-        out.println("Введите логин:");
-        String login = in.readLine();
-        if (login.equals("exit")) {
-            return "exit";
+    // Выход пользователя (если это соединение всё ещё зарегистрировано под его именем)
+    static void removeClient(String name, ClientConnection connection) {
+        if (name == null) {
+            return;
+        }
+        boolean guest = name.equals(ChatSession.GUEST);
+        boolean[] removed = new boolean[1];
+        clientWriters.computeIfPresent(name, (key, current) -> {
+            if (current != connection) {
+                return current;
+            }
+            removed[0] = true;
+            if (!guest) {
+                presence.offline(name);
+            }
+            return null;
+        });
+        if (!removed[0]) {
+            return;
         }
-        if (!users.containsKey(login)) {
-            out.println("Логин не существует. Попробуйте снова или введите 'exit' для выхода.");
-            return "Гость";
+        Cluster node = cluster;
+        if (node != null && !guest) {
+            node.userOffline(name);
         }
-        out.println("Введите пароль:");
-        String password = in.readLine();
-        if (authenticate(login, password)) {
-            out.println("Вход успешен! Добро пожаловать, " + login);
-            return login;
+    }
+
+    // Объявление о входе и выходе пользователей (поток Presence); при остановке уходят все - объявлять незачем
+    private static void announcePresence(String message) {
+        if (isRunning) {
+            broadcastMessage(message);
+        }
+    }
+
+    // Кто в сети: на этом узле - готовый снимок Presence, в кластере - вместе с пользователями других узлов
+    static List<String> onlineUsers() {
+        Cluster node = cluster;
+        return node != null ? List.copyOf(node.onlineUsers()) : presence.snapshot().users();
+    }
+
+    // Результат отправки личного сообщения
+    enum DirectResult { DELIVERED, SPOOLED, INBOX_FULL, OFFLINE, UNKNOWN_USER }
+
+    // Личное сообщение: получатель находится по имени в clientWriters и получает сообщение
+    // в свою очередь напрямую, а в кластере - на узле, где он в сети. Если он не в сети нигде -
+    // сообщение кладётся в его ящик
+    static DirectResult sendDirect(String from, String to, String text) {
+        ClientConnection recipient = to.equals(ChatSession.GUEST) ? null : clientWriters.get(to);
+        if (recipient != null) {
+            OutboundMessage message = OutboundMessage.of(directLine(from, text), WireProtocol.CHAT);
+            recipient.send(message);
+            message.release();
+            logger.log("Личное сообщение " + from + " -> " + to, Log.SERVER);
+            return DirectResult.DELIVERED;
+        }
+        // получатель в сети на другом узле кластера - сообщение уходит туда
+        Cluster node = cluster;
+        String remoteNode = node == null || to.equals(ChatSession.GUEST) ? null : node.locate(to);
+        if (remoteNode != null && node.sendDirect(remoteNode, to, from, text)) {
+            logger.log("Личное сообщение " + from + " -> " + to + " передано на узел " + remoteNode, Log.SERVER);
+            return DirectResult.DELIVERED;
+        }
+        return spoolDirect(from, to, text);
+    }
+
+    // Личное сообщение с другого узла: получатель мог успеть выйти - тогда сообщение в его ящик на этом узле
+    private static void deliverDirect(String from, String to, String text) {
+        ClientConnection recipient = clientWriters.get(to);
+        if (recipient != null) {
+            OutboundMessage message = OutboundMessage.of(directLine(from, text), WireProtocol.CHAT);
+            recipient.send(message);
+            message.release();
+            logger.log("Личное сообщение " + from + " -> " + to + " (с другого узла)", Log.SERVER);
         } else {
-            out.println("Неверный логин или пароль.");
-            return "error";
+            spoolDirect(from, to, text);
         }
     }
 
-    // Регистрация клиента
-    private static String handleRegistration(BufferedReader in, PrintWriter out) throws IOException {
-        out.println("Введите логин:");
-        String login = in.readLine();
-        if (users.containsKey(login)) {
-            out.println("Логин уже существует. Попробуйте другой.");
-            return "Гость";
+    // Сообщение пользователю не в сети - в его ящик
+    private static DirectResult spoolDirect(String from, String to, String text) {
+        if (!users.containsKey(to)) {
+            return DirectResult.UNKNOWN_USER;
         }
-        out.println("Введите пароль:");
-        String password = in.readLine();
-        users.put(login, password);
-        saveUserToFile(login, password);
-        out.println("Регистрация успешна!");
-        return login;
+        InboxStore inboxStore = inbox;
+        if (inboxStore == null) {
+            return DirectResult.OFFLINE;
+        }
+        try {
+            if (!inboxStore.append(to, from, text)) {
+                return DirectResult.INBOX_FULL;
+            }
+        } catch (IOException e) {
+            logger.logError("Ошибка при сохранении личного сообщения для " + to + ": " + e.getMessage(), Log.SERVER);
+            return DirectResult.OFFLINE;
+        }
+        logger.log("Личное сообщение " + from + " -> " + to + " сохранено в ящик", Log.SERVER);
+        // получатель мог войти, пока сообщение сохранялось, - тогда доставляем ящик сразу
+        ClientConnection recipient = clientWriters.get(to);
+        if (recipient != null) {
+            deliverInbox(to, recipient);
+        }
+        return DirectResult.SPOOLED;
     }
 
-    // Аутентификация клиента
-    private static boolean authenticate(String login, String password) {
-        return users.containsKey(login) && users.get(login).equals(password);
+    private static String directLine(String from, String text) {
+        return "[ЛС] " + from + ": " + text;
     }
 
-    // Отключение клиента
-    public static void disconnectClient(ClientHandler clientHandler) {
+    // Доставка сообщений, накопившихся в ящике, пока пользователь был не в сети. Ящик может быть
+    // больше очереди соединения (inbox.maxBytesPerUser против outbound.queueCapacity), поэтому он
+    // доставляется частями: в очередь ставится не больше половины свободного места, и только после
+    // этого часть удаляется из файла. Остальное - когда очередь освободится; если пользователь
+    // вышел или сервер останавливается, недоставленное остаётся в ящике до следующего входа
+    static void deliverInbox(String login, ClientConnection connection) {
+        if (inbox != null && inboxDeliveries.add(login)) {
+            deliverInboxPart(login, connection, true);
+        }
+    }
+
+    private static void deliverInboxPart(String login, ClientConnection connection, boolean first) {
+        InboxStore inboxStore = inbox;
         try {
-            if (clientHandler != null) {
-                if (clientHandler.clientName != null && !clientHandler.clientName.equals("Гость")) {
-                    PrintWriter writer = clientWriters.remove(clientHandler.clientName);
-                    if (writer != null) {
-                        writer.close();  // Закрываем PrintWriter, если он существует
-                    }
+            while (inboxStore != null && isRunning && connection != null) {
+                int limit = (OUTBOUND_CAPACITY - connection.getQueueDepth()) / 2 - (first ? 1 : 0);
+                if (limit <= 0) {
+                    // очередь почти полна - повторим, когда клиент её разберёт
+                    inboxDelivery.schedule(() -> deliverInboxPart(login, clientWriters.get(login), false),
+                            INBOX_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+                    return;
                 }
-                if (clientHandler.socket != null && !clientHandler.socket.isClosed()) {
-                    clientHandler.socket.close();
+                InboxStore.Batch batch = inboxStore.read(login, limit);
+                if (batch.messages().isEmpty()) {
+                    inboxStore.commit(login, batch.bytes()); // только оборванная при сбое запись
+                    break;
                 }
-                logger.log(clientHandler.clientName + " отключен!", Log.SERVER);
-            } else {
-                logger.log("Клиент отключен, но объект ClientHandler равен null.", Log.SERVER);
+                if (first) {
+                    connection.send("Личные сообщения, пока вас не было (" + batch.total() + "):");
+                    first = false;
+                }
+                for (InboxStore.InboxMessage message : batch.messages()) {
+                    OutboundMessage outboundMessage = OutboundMessage.of("[" + HISTORY_TIME.format(Instant.ofEpochMilli(message.timestamp())) + "] "
+                            + directLine(message.from(), message.text()), WireProtocol.CHAT);
+                    connection.send(outboundMessage);
+                    outboundMessage.release();
+                }
+                inboxStore.commit(login, batch.bytes());
             }
         } catch (IOException e) {
-            logger.logError("Ошибка при отключении клиента: " + e.getMessage(), Log.SERVER);
+            logger.logError("Ошибка при чтении ящика " + login + ": " + e.getMessage(), Log.SERVER);
+        }
+        inboxDeliveries.remove(login);
+        // сообщение, сохранённое, пока доставка заканчивалась, не должно ждать следующего входа
+        ClientConnection current = clientWriters.get(login);
+        if (current != null && isRunning && inboxStore != null && inboxStore.hasMessages(login)) {
+            deliverInbox(login, current);
+        }
+    }
+
+    // Рассылка сообщений всем клиентам (сообщения комнат рассылает Rooms): сообщение сохраняется
+    // в историю, кодируется один раз в общий буфер и только ставится в очереди получателей,
+    // запись в сокеты идёт в их потоках
+    static void broadcastMessage(String message) {
+        broadcastLocal(message);
+        relayToCluster("", message, WireProtocol.SYSTEM);
+    }
+
+    // Рассылка клиентам этого узла (в том числе рассылок, пришедших с других узлов)
+    private static void broadcastLocal(String message) {
+        saveToHistory(message);
+        long started = System.nanoTime();
+        OutboundMessage outboundMessage = OutboundMessage.encode(message, DIRECT_BUFFERS, WireProtocol.SYSTEM);
+        try {
+            for (ClientConnection connection : clientWriters.values()) {
+                connection.send(outboundMessage);
+            }
+        } finally {
+            outboundMessage.release();
         }
+        metrics.recordFanOut(System.nanoTime() - started);
+        logger.log(message, Log.SERVER);
     }
-    // Метод для безопасного завершения работы сервера
-    public static void stopServer() {
+
+    static void saveToHistory(String message) {
+        MessageStore messageStore = history;
+        SearchIndex searchIndex = search;
+        if (messageStore != null) {
+            try {
+                if (searchIndex != null) {
+                    searchIndex.append(message);
+                } else {
+                    messageStore.append(message);
+                }
+            } catch (IOException e) {
+                logger.logError("Ошибка при сохранении сообщения в историю: " + e.getMessage(), Log.SERVER);
+            }
+        }
+    }
+
+    // Загрузка настроек из файла
+    private static void loadSettings(String filePath) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(":");
+                if (parts.length == 2) {
+                    PORT = Integer.parseInt(parts[1].trim());
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            logger.logError("Ошибка при загрузке настроек: " + e.getMessage(), Log.SERVER);
+        }
+    }
+
+    // Открытие хранилища пользователей; при первом запуске пользователи переносятся из users.txt
+    private static void openUsers() {
+        try {
+            users.open(Path.of(config.getString("users.dir", "src/main/resources/userdb")), Path.of(USERS_FILE),
+                    config.getLong("users.compactWalBytes", 4 * 1024 * 1024));
+        } catch (IOException | RuntimeException e) {
+            logger.logError("Ошибка при загрузке пользователей: " + e.getMessage(), Log.SERVER);
+        }
+    }
+
+    // Регистрация нового пользователя в пуле проверки паролей (false - логин уже занят)
+    static CompletableFuture<Boolean> registerUser(String login, String password) {
+        return authenticator.register(login, password);
+    }
+
+    // Аутентификация клиента в пуле проверки паролей
+    static CompletableFuture<Boolean> authenticate(String login, String password) {
+        return authenticator.authenticate(login, password);
+    }
+
+    // Отключение клиента
+    public static void disconnectClient(ChatSession session) {
+        disconnectClient(session, false);
+    }
+
+    // abort - закрыть, не дожидаясь отправки очереди (клиент не отвечает, Heartbeats). Тогда клиент
+    // выходит из чата, только когда закроется соединение: сессию, которую можно восстановить, ChatSession
+    // оставляет ждать его возвращения
+    public static void disconnectClient(ChatSession session, boolean abort) {
+        if (session != null) {
+            String clientName = session.getClientName();
+            if (!abort && clientName != null && !clientName.equals(ChatSession.GUEST)) {
+                removeClient(clientName, session.getEndpoint());
+            }
+            if (abort) {
+                session.getConnection().abort();
+            } else {
+                session.getConnection().close();
+            }
+            logger.log(clientName + " отключен!", Log.SERVER);
+        } else {
+            logger.log("Клиент отключен, но объект ChatSession равен null.", Log.SERVER);
+        }
+    }
+
+    // Остановка сервера без потери уже принятых сообщений (вызывается и при завершении JVM):
+    // 1. порт закрывается, новые сообщения клиентов больше не обрабатываются;
+    // 2. клиенты получают уведомление, комнаты раздают сообщения, которые уже приняли;
+    // 3. каждое соединение закрывается после отправки своей очереди, а не успевшие
+    //    за shutdown.drainTimeoutMillis закрываются сразу;
+    // 4. начатые регистрации записываются в хранилище, остальные службы останавливаются
+    public static synchronized void stopServer() {
+        if (!isRunning) {
+            return;
+        }
         isRunning = false;
-        // Логирование или действия по остановке
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(SHUTDOWN_DRAIN_MILLIS);
+        logger.log("Остановка сервера, подключено клиентов: " + sessions.size(), Log.SERVER);
+        closeAcceptChannel();
+        if (nioServer != null) {
+            nioServer.stopAccepting();
+        }
+        authenticator.shutdown();
+        try {
+            for (ChatSession session : sessions) {
+                session.getEndpoint().send(SHUTDOWN_NOTICE);
+            }
+            if (!rooms.awaitIdle(remainingMillis(deadline))) {
+                logger.logError("Комнаты не успели разослать принятые сообщения до остановки", Log.SERVER);
+            }
+            for (ChatSession session : sessions) {
+                session.getConnection().close();
+            }
+            while (!sessions.isEmpty() && remainingMillis(deadline) > 0) {
+                Thread.sleep(10);
+            }
+            if (!sessions.isEmpty()) {
+                logger.logError("Не успели отправить очереди клиентов: " + sessions.size() + ", соединения закрыты", Log.SERVER);
+                for (ChatSession session : sessions) {
+                    session.getConnection().abort();
+                }
+            }
+            authenticator.awaitTermination(Math.max(remainingMillis(deadline), 1000), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (nioServer != null) {
+            nioServer.stop();
+        }
+        if (search != null) {
+            search.close();
+        }
+        if (history != null) {
+            history.close();
+        }
+        metrics.stop();
+        if (heartbeats != null) {
+            heartbeats.stop();
+        }
+        resumption.stop();
+        presence.stop();
+        logger.log("Статистика присутствия: " + presence, Log.SERVER);
+        if (cluster != null) {
+            cluster.stop();
+            logger.log("Статистика кластера: " + cluster, Log.SERVER);
+        }
+        rooms.shutdown();
+        inboxDelivery.shutdownNow(); // недоставленное остаётся в ящиках
+        users.close();
+        logger.log("Статистика отправки: " + writeStats, Log.SERVER);
+        logger.log("Статистика сжатия: " + compressionStats, Log.SERVER);
+        logger.log("Сервер остановлен.", Log.SERVER);
+        logger.flush();
+    }
+
+    private static void closeAcceptChannel() {
+        ServerSocketChannel channel = acceptChannel;
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.logError("Ошибка при закрытии серверного канала: " + e.getMessage(), Log.SERVER);
+            }
+        }
+    }
+
+    private static long remainingMillis(long deadline) {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
     }
 }
\ No newline at end of file
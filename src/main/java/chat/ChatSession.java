@@ -0,0 +1,664 @@
+package chat;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import static chat.ChatServer.logger;
+
+// Протокол чата для одного клиента: вход, регистрация и обмен сообщениями.
+// Обрабатывает входящие строки (или кадры двоичного протокола) по одной, поэтому одинаково работает
+// и с потоком на клиента (ClientHandler), и с NIO (NioChatServer)
+public class ChatSession {
+    public static final String GUEST = "Гость";
+    private static final DateTimeFormatter SINCE_DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    private static final DateTimeFormatter SINCE_TIME = DateTimeFormatter.ofPattern("HH:mm");
+
+    private enum State { CHOICE, LOGIN, LOGIN_PASSWORD, REGISTRATION, REGISTRATION_PASSWORD, AUTHENTICATING, CHAT, CLOSED }
+
+    private final ClientConnection connection;
+    // Куда идут сообщения клиенту: соединение или, если сессию можно восстановить, ResumableConnection
+    private volatile ClientConnection endpoint;
+    private ResumableConnection resumable; // null - сессия не восстанавливается после обрыва
+    private boolean resumeRequested; // клиент попросил восстановление сессии при переходе на двоичный протокол
+    private boolean leaving; // клиент вышел сам (или его отключили) - ждать его возвращения незачем
+    private volatile String clientName = GUEST;
+    private volatile String room; // текущая комната (null - ещё не вошёл в чат)
+    private String pendingLogin;
+    private volatile State state = State.CHOICE; // читает и поток таймера Heartbeats
+    private boolean cleanedUp;
+    private volatile boolean binary; // клиент перешёл на двоичный протокол
+    private volatile long lastReadNanos = System.nanoTime(); // когда от клиента пришло последнее сообщение
+    private String remoteHost; // адрес клиента для лимита частоты сообщений
+    private boolean throttled; // клиента уже предупредили о превышении лимита
+    private final Queue<Runnable> deferred = new ArrayDeque<>(); // строки и кадры, пришедшие во время проверки пароля
+
+    public ChatSession(ClientConnection connection) {
+        this.connection = connection;
+        this.endpoint = connection;
+    }
+
+    public String getClientName() {
+        return clientName;
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    public ClientConnection getConnection() {
+        return connection;
+    }
+
+    // Соединение, под которым клиент зарегистрирован в комнатах и clientWriters
+    public ClientConnection getEndpoint() {
+        return endpoint;
+    }
+
+    public boolean isClosed() {
+        return state == State.CLOSED;
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public long getLastReadNanos() {
+        return lastReadNanos;
+    }
+
+    // Сессия ждёт результата проверки пароля в пуле Authenticator
+    public boolean isAwaiting() {
+        return state == State.AUTHENTICATING;
+    }
+
+    // Приветствие нового клиента
+    public void start() {
+        ChatServer.metrics.connectionOpened();
+        ChatServer.sessionOpened(this);
+        endpoint.send("Добро пожаловать в чат! Введите '1' для входа или '2' для регистрации:");
+        endpoint.send("Введите '3' для выхода без регистрации:");
+        if (ChatServer.heartbeats != null) {
+            ChatServer.heartbeats.watch(this);
+        }
+    }
+
+    // Обработка очередной строки от клиента
+    public void onLine(String line) {
+        lastReadNanos = System.nanoTime();
+        if (ChatServer.isStopping()) {
+            return; // сервер останавливается: соединение закроется, когда уйдёт очередь
+        }
+        switch (state) {
+            case CHOICE -> handleChoice(line);
+            case LOGIN -> handleLogin(line);
+            case LOGIN_PASSWORD -> handleLoginPassword(line);
+            case REGISTRATION -> handleRegistration(line);
+            case REGISTRATION_PASSWORD -> handleRegistrationPassword(line);
+            case AUTHENTICATING -> deferred.add(() -> onLine(line));
+            case CHAT -> handleMessage(line);
+            case CLOSED -> { }
+        }
+    }
+
+    // Обработка кадра двоичного протокола; payload действителен только во время вызова
+    public void onFrame(int opcode, ByteBuffer payload) throws IOException {
+        lastReadNanos = System.nanoTime();
+        if (ChatServer.isStopping()) {
+            return;
+        }
+        switch (opcode) {
+            case WireProtocol.MESSAGE -> onLine(StandardCharsets.UTF_8.decode(payload).toString());
+            case WireProtocol.LOGIN, WireProtocol.REGISTER -> {
+                String login = WireProtocol.getString(payload);
+                String password = WireProtocol.getString(payload);
+                onCredentials(opcode, login, password);
+            }
+            case WireProtocol.RESUME -> {
+                String token = WireProtocol.getString(payload);
+                onResume(token, WireProtocol.getSequence(payload));
+            }
+            case WireProtocol.EXIT -> onExit();
+            case WireProtocol.PING -> {
+                OutboundMessage pong = OutboundMessage.of("", WireProtocol.PONG);
+                connection.send(pong); // служебный кадр - мимо нумерации восстанавливаемой сессии
+                pong.release();
+            }
+            case WireProtocol.PONG -> { } // клиент жив - достаточно, что кадр пришёл
+            default -> throw new IOException("Неизвестный код операции: " + opcode);
+        }
+    }
+
+    private void onCredentials(int opcode, String login, String password) {
+        if (state == State.AUTHENTICATING) {
+            deferred.add(() -> onCredentials(opcode, login, password));
+            return;
+        }
+        if (state != State.CHOICE) {
+            reply(opcode, WireProtocol.Status.FAILED, "Вход уже выполнен.");
+            return;
+        }
+        // неудачная попытка не переводит клиента в гости: он может повторить вход или регистрацию
+        boolean exists = ChatServer.getUsers().containsKey(login);
+        if (opcode == WireProtocol.LOGIN && !exists) {
+            reply(opcode, WireProtocol.Status.UNKNOWN_LOGIN, "Логин не существует.");
+            return;
+        }
+        if (opcode == WireProtocol.REGISTER && exists) {
+            reply(opcode, WireProtocol.Status.LOGIN_TAKEN, "Логин уже существует. Попробуйте другой.");
+            return;
+        }
+        pendingLogin = login;
+        if (opcode == WireProtocol.LOGIN) {
+            handleLoginPassword(password);
+        } else {
+            handleRegistrationPassword(password);
+        }
+    }
+
+    // Клиент вернулся после обрыва с ключом сессии: продолжает с того же места без проверки пароля.
+    // Если сессия истекла, клиент остаётся на выборе и может войти обычным способом
+    private void onResume(String token, long acknowledged) {
+        if (state == State.AUTHENTICATING) {
+            deferred.add(() -> onResume(token, acknowledged));
+            return;
+        }
+        if (state != State.CHOICE || !resumeRequested) {
+            reply(WireProtocol.RESUME, WireProtocol.Status.FAILED, "Восстановление сессии недоступно.");
+            return;
+        }
+        ChatSession previous = ChatServer.resumption.resume(token, acknowledged, this, connection);
+        if (previous == null) {
+            ChatServer.metrics.sessionResumeFailed();
+            reply(WireProtocol.RESUME, WireProtocol.Status.FAILED, "Сессия истекла, войдите снова.");
+            return;
+        }
+        resumable = previous.resumable;
+        endpoint = resumable;
+        clientName = previous.clientName;
+        room = previous.room;
+        remoteHost = RateLimiter.host(connection.getRemoteAddress());
+        state = State.CHAT;
+        ChatServer.metrics.sessionResumed();
+        logger.log("Клиент " + clientName + " восстановил сессию (" + connection.getRemoteAddress() + ")", Log.SERVER);
+    }
+
+    private void onExit() {
+        if (state == State.AUTHENTICATING) {
+            deferred.add(this::onExit);
+        } else if (state != State.CLOSED) {
+            disconnect();
+        }
+    }
+
+    private void handleChoice(String choice) {
+        if (!binary && (choice.equals(WireProtocol.UPGRADE_REQUEST) || choice.startsWith(WireProtocol.UPGRADE_REQUEST + " "))) {
+            handleUpgrade(choice.substring(WireProtocol.UPGRADE_REQUEST.length()).trim());
+            return;
+        }
+        ChatServer.getClientWriters().put(GUEST, connection);
+        switch (choice) {
+            case "1" -> {
+                endpoint.send("Введите логин:");
+                state = State.LOGIN;
+            }
+            case "2" -> {
+                endpoint.send("Введите логин:");
+                state = State.REGISTRATION;
+            }
+            case "3" -> disconnect();
+            default -> {
+                endpoint.send("Неверный выбор.");
+                disconnect();
+            }
+        }
+    }
+
+    // Переход на двоичный протокол вместо выбора входа или регистрации;
+    // "/binary deflate" - ещё и со сжатием, если транспорт его поддерживает,
+    // "/binary resume" - с восстановлением сессии после обрыва (можно вместе: "/binary deflate resume").
+    // В подтверждении перечислено то, на что сервер согласился
+    private void handleUpgrade(String options) {
+        if (!connection.upgradeToBinary()) {
+            endpoint.send("Двоичный протокол не поддерживается.");
+            return;
+        }
+        binary = true;
+        List<String> requested = List.of(options.split(" "));
+        boolean compressed = requested.contains(WireProtocol.DEFLATE) && connection.enableCompression();
+        resumeRequested = requested.contains(WireProtocol.RESUMABLE) && ChatServer.resumption.isEnabled();
+        String reply = WireProtocol.UPGRADE_ACCEPTED;
+        if (compressed) {
+            reply += " " + WireProtocol.DEFLATE;
+        }
+        if (resumeRequested) {
+            reply += " " + WireProtocol.RESUMABLE;
+        }
+        OutboundMessage accepted = OutboundMessage.upgrade(reply);
+        connection.send(accepted);
+        accepted.release();
+    }
+
+    // Ответ на вход или регистрацию: текстовый клиент получает строку, двоичный - кадр ACK
+    private void reply(int requestOpcode, WireProtocol.Status status, String text) {
+        OutboundMessage message = OutboundMessage.ack(requestOpcode, status, text);
+        endpoint.send(message);
+        message.release();
+    }
+
+    // Авторизация клиента
+    private void handleLogin(String login) {
+        if (login.equals("exit")) {
+            clientName = "exit";
+            disconnect();
+            return;
+        }
+        if (!ChatServer.getUsers().containsKey(login)) {
+            endpoint.send("Логин не существует. Попробуйте снова или введите 'exit' для выхода.");
+            enterChat(GUEST);
+            return;
+        }
+        pendingLogin = login;
+        endpoint.send("Введите пароль:");
+        state = State.LOGIN_PASSWORD;
+    }
+
+    private void handleLoginPassword(String password) {
+        await(WireProtocol.LOGIN, ChatServer.authenticate(pendingLogin, password), authenticated -> {
+            if (authenticated) {
+                ChatServer.metrics.loginSucceeded();
+                reply(WireProtocol.LOGIN, WireProtocol.Status.OK, "Вход успешен! Добро пожаловать, " + pendingLogin);
+                replayHistory();
+                enterChat(pendingLogin);
+            } else {
+                ChatServer.metrics.loginFailed();
+                reply(WireProtocol.LOGIN, WireProtocol.Status.INVALID_CREDENTIALS, "Неверный логин или пароль.");
+                clientName = "error";
+                disconnect();
+            }
+        });
+    }
+
+    // Регистрация клиента
+    private void handleRegistration(String login) {
+        if (ChatServer.getUsers().containsKey(login)) {
+            endpoint.send("Логин уже существует. Попробуйте другой.");
+            enterChat(GUEST);
+            return;
+        }
+        pendingLogin = login;
+        endpoint.send("Введите пароль:");
+        state = State.REGISTRATION_PASSWORD;
+    }
+
+    private void handleRegistrationPassword(String password) {
+        await(WireProtocol.REGISTER, ChatServer.registerUser(pendingLogin, password), registered -> {
+            if (registered) {
+                ChatServer.metrics.registered();
+                reply(WireProtocol.REGISTER, WireProtocol.Status.OK, "Регистрация успешна!");
+                enterChat(pendingLogin);
+            } else {
+                reply(WireProtocol.REGISTER, WireProtocol.Status.LOGIN_TAKEN, "Логин уже существует. Попробуйте другой.");
+                if (binary) {
+                    pendingLogin = null;
+                    state = State.CHOICE;
+                } else {
+                    enterChat(GUEST);
+                }
+            }
+        });
+    }
+
+    // Пароль проверяется в пуле Authenticator; продолжение выполняется в потоке соединения,
+    // а пришедшие за это время строки обрабатываются после него по порядку
+    private void await(int requestOpcode, CompletableFuture<Boolean> result, Consumer<Boolean> continuation) {
+        state = State.AUTHENTICATING;
+        result.whenComplete((success, error) -> connection.execute(() -> {
+            if (state != State.AUTHENTICATING) {
+                return; // соединение закрылось, пока шла проверка
+            }
+            if (ChatServer.isStopping()) {
+                state = State.CLOSED; // сервер останавливается - в чат уже не входим
+                return;
+            }
+            if (error != null) {
+                reply(requestOpcode, WireProtocol.Status.OVERLOADED, "Сервер перегружен, попробуйте позже.");
+                disconnect();
+                return;
+            }
+            continuation.accept(success);
+            Runnable next;
+            while (state != State.AUTHENTICATING && state != State.CLOSED && (next = deferred.poll()) != null) {
+                next.run();
+            }
+        }));
+    }
+
+    private void enterChat(String name) {
+        clientName = name;
+        pendingLogin = null;
+        ChatServer.getClientWriters().remove(GUEST);
+        if (resumeRequested && !name.equals(GUEST)) {
+            resumable = ChatServer.resumption.open(this, connection);
+            endpoint = resumable;
+        }
+        ChatServer.addClient(clientName, endpoint);
+        remoteHost = RateLimiter.host(connection.getRemoteAddress());
+        room = Rooms.GENERAL;
+        // о входе пользователя объявляет Presence (одной строкой за окно), о госте - сразу
+        ChatServer.rooms.join(room, endpoint, name.equals(GUEST) ? clientName + " присоединяется к чату" : null);
+        state = State.CHAT;
+        if (!name.equals(GUEST)) {
+            ChatServer.deliverInbox(name, endpoint);
+        }
+    }
+
+    private void handleMessage(String message) {
+        ChatServer.metrics.messageReceived();
+        if (message.equalsIgnoreCase("exit")) {
+            disconnect();
+            return;
+        }
+        if (!withinRateLimit(message)) {
+            return;
+        }
+        if (message.equals("/history") || message.startsWith("/history ")) {
+            handleHistory(message.substring("/history".length()).trim());
+            return;
+        }
+        if (message.equals("/search") || message.startsWith("/search ")) {
+            handleSearch(message.substring("/search".length()).trim());
+            return;
+        }
+        if (message.startsWith("/since ")) {
+            handleSince(message.substring("/since ".length()).trim());
+            return;
+        }
+        if (message.startsWith("/join ")) {
+            handleJoin(message.substring("/join ".length()).trim());
+            return;
+        }
+        if (message.equals("/leave")) {
+            handleJoin(Rooms.GENERAL);
+            return;
+        }
+        if (message.equals("/who")) {
+            handleWho();
+            return;
+        }
+        if (message.equals("/rooms")) {
+            handleRooms();
+            return;
+        }
+        if (message.startsWith("/msg ")) {
+            handleDirect(message.substring("/msg ".length()).trim());
+            return;
+        }
+        ChatServer.rooms.post(room, clientName + ": " + message);
+    }
+
+    // Лимит частоты сообщений (ratelimit.*) на пользователя и на адрес. Сообщение сверх лимита
+    // отбрасывается: клиента предупреждают один раз до следующего пропущенного сообщения
+    // или отключают (ratelimit.action=KICK)
+    private boolean withinRateLimit(String message) {
+        String user = clientName.equals(GUEST) ? null : clientName;
+        RateLimiter.Verdict verdict = ChatServer.rateLimiter.check(user, remoteHost, RateLimiter.utf8Length(message));
+        if (verdict == RateLimiter.Verdict.ALLOWED) {
+            throttled = false;
+            return true;
+        }
+        boolean kick = ChatServer.rateLimiter.getAction() == RateLimiter.Action.KICK;
+        ChatServer.metrics.rateLimited(verdict, kick);
+        if (kick) {
+            endpoint.send("Слишком много сообщений, соединение закрыто.");
+            logger.log("Клиент " + clientName + " (" + remoteHost + ") отключен: превышен лимит сообщений", Log.SERVER);
+            disconnect();
+        } else if (!throttled) {
+            throttled = true;
+            endpoint.send("Слишком много сообщений: лишние не доставлены, подождите немного.");
+        }
+        return false;
+    }
+
+    // /join <комната> - переход в другую комнату (/leave - возврат в general)
+    private void handleJoin(String name) {
+        if (!Rooms.isValidName(name)) {
+            endpoint.send("Название комнаты: до 32 букв, цифр, '_' или '-'.");
+            return;
+        }
+        if (name.equals(room)) {
+            endpoint.send("Вы уже в комнате " + name);
+            return;
+        }
+        ChatServer.rooms.leave(room, endpoint, clientName + " перешёл в комнату " + name);
+        room = name;
+        ChatServer.rooms.join(name, endpoint, clientName + " присоединяется к комнате " + name);
+        endpoint.send("Вы в комнате " + name);
+    }
+
+    // /msg <логин> <текст> - личное сообщение одному пользователю
+    private void handleDirect(String argument) {
+        int space = argument.indexOf(' ');
+        if (space <= 0 || argument.substring(space + 1).isBlank()) {
+            endpoint.send("Использование: /msg <логин> <текст>");
+            return;
+        }
+        String recipient = argument.substring(0, space);
+        String text = argument.substring(space + 1).trim();
+        if (clientName.equals(GUEST)) {
+            endpoint.send("Гости не могут отправлять личные сообщения.");
+            return;
+        }
+        switch (ChatServer.sendDirect(clientName, recipient, text)) {
+            case DELIVERED -> endpoint.send("[ЛС для " + recipient + "] " + text);
+            case SPOOLED -> endpoint.send("Пользователь " + recipient + " не в сети, сообщение будет доставлено при входе.");
+            case INBOX_FULL -> endpoint.send("Ящик пользователя " + recipient + " переполнен.");
+            case OFFLINE -> endpoint.send("Пользователь " + recipient + " не в сети.");
+            case UNKNOWN_USER -> endpoint.send("Пользователь " + recipient + " не найден.");
+        }
+    }
+
+    // /rooms - список комнат с числом участников
+    private void handleRooms() {
+        StringBuilder list = new StringBuilder("Комнаты:");
+        for (var entry : ChatServer.rooms.list(50)) {
+            list.append(' ').append(entry.getKey()).append(" (").append(entry.getValue()).append(')');
+        }
+        endpoint.send(list.toString());
+    }
+
+    // /who - кто в сети (снимок Presence, presence.whoNames имён)
+    private void handleWho() {
+        List<String> users = ChatServer.onlineUsers();
+        int shown = Math.min(users.size(), ChatServer.config.getInt("presence.whoNames", 200));
+        StringBuilder list = new StringBuilder("В сети (").append(users.size()).append("):");
+        for (int i = 0; i < shown; i++) {
+            list.append(i == 0 ? " " : ", ").append(users.get(i));
+        }
+        if (users.size() > shown) {
+            list.append(" и ещё ").append(users.size() - shown);
+        }
+        endpoint.send(list.toString());
+    }
+
+    // Последние сообщения чата сразу после входа (history.replayCount)
+    private void replayHistory() {
+        MessageStore history = ChatServer.getHistory();
+        int count = ChatServer.config.getInt("history.replayCount", 100);
+        if (history != null && count > 0) {
+            List<MessageStore.StoredMessage> messages = history.last(Math.min(count, maxReplay()));
+            if (!messages.isEmpty()) {
+                sendHistory(messages);
+            }
+        }
+    }
+
+    // /history [N] - последние N сообщений
+    private void handleHistory(String argument) {
+        MessageStore history = ChatServer.getHistory();
+        if (history == null) {
+            endpoint.send("История сообщений не ведётся.");
+            return;
+        }
+        int count = ChatServer.config.getInt("history.replayCount", 100);
+        if (!argument.isEmpty()) {
+            try {
+                count = Integer.parseInt(argument);
+            } catch (NumberFormatException e) {
+                endpoint.send("Использование: /history [количество]");
+                return;
+            }
+        }
+        sendHistory(history.last(Math.min(Math.max(count, 0), maxReplay())));
+    }
+
+    // /since <гггг-мм-дд чч:мм | чч:мм> - сообщения начиная с указанного времени
+    private void handleSince(String argument) {
+        MessageStore history = ChatServer.getHistory();
+        if (history == null) {
+            endpoint.send("История сообщений не ведётся.");
+            return;
+        }
+        LocalDateTime since;
+        try {
+            since = argument.length() > 5
+                    ? LocalDateTime.parse(argument, SINCE_DATE_TIME)
+                    : LocalDateTime.of(LocalDate.now(), LocalTime.parse(argument, SINCE_TIME));
+        } catch (DateTimeParseException e) {
+            endpoint.send("Использование: /since гггг-мм-дд чч:мм или /since чч:мм");
+            return;
+        }
+        long timestamp = since.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        sendHistory(history.since(timestamp, maxReplay()));
+    }
+
+    private static int maxReplay() {
+        return ChatServer.config.getInt("history.maxReplay", 1000);
+    }
+
+    // /search <слова> [from:логин] - последние сообщения истории, в которых есть все слова
+    private void handleSearch(String query) {
+        SearchIndex search = ChatServer.getSearch();
+        if (search == null) {
+            endpoint.send("Поиск по истории выключен.");
+            return;
+        }
+        if (SearchIndex.queryTerms(query).isEmpty()) {
+            endpoint.send("Использование: /search <слова> [from:логин]");
+            return;
+        }
+        List<SearchIndex.Match> matches = ChatServer.searchHistory(search, query, ChatServer.config.getInt("search.maxResults", 20));
+        if (matches.isEmpty()) {
+            endpoint.send("Ничего не найдено.");
+            return;
+        }
+        endpoint.send("--- Найдено (" + matches.size() + ") ---");
+        for (int i = matches.size() - 1; i >= 0; i--) { // от старых к новым, как в истории
+            SearchIndex.Match match = matches.get(i);
+            endpoint.send("[" + ChatServer.HISTORY_TIME.format(Instant.ofEpochMilli(match.timestamp())) + "] " + match.text());
+        }
+        endpoint.send("--- Конец поиска ---");
+    }
+
+    private void sendHistory(List<MessageStore.StoredMessage> messages) {
+        if (messages.isEmpty()) {
+            endpoint.send("В истории нет сообщений.");
+            return;
+        }
+        endpoint.send("--- История сообщений (" + messages.size() + ") ---");
+        for (MessageStore.StoredMessage message : messages) {
+            endpoint.send("[" + ChatServer.HISTORY_TIME.format(Instant.ofEpochMilli(message.timestamp())) + "] " + message.text());
+        }
+        endpoint.send("--- Конец истории ---");
+    }
+
+    private void disconnect() {
+        leaving = true;
+        state = State.CLOSED;
+        ChatServer.disconnectClient(this);
+    }
+
+    // Обработка ошибок сокета
+    public void onError(IOException e) {
+        if (ChatServer.isStopping()) {
+            return; // соединения закрывает остановка сервера
+        }
+        if (e instanceof SocketException) {
+            System.out.println("Клиент " + clientName + " разорвал соединение.");
+            announce(clientName + " разорвал соединение.");
+        } else {
+            logger.logError("Ошибка во время работы с клиентом: " + e.getMessage(), Log.SERVER);
+        }
+    }
+
+    // Сообщение в текущую комнату, а до входа в чат - всем
+    private void announce(String message) {
+        if (ChatServer.isStopping()) {
+            return;
+        }
+        if (room != null) {
+            ChatServer.rooms.notice(room, message);
+        } else {
+            ChatServer.broadcastMessage(message);
+        }
+    }
+
+    // Очистка после закрытия соединения (вызывается транспортом один раз)
+    public void onClosed() {
+        if (cleanedUp) {
+            return;
+        }
+        cleanedUp = true;
+        state = State.CLOSED;
+        ChatServer.metrics.connectionClosed();
+        ChatServer.sessionClosed(this);
+        if (resumable != null) {
+            // соединение оборвалось: пользователь остаётся в чате, пока клиент может вернуться
+            if (!leaving && !ChatServer.isStopping()) {
+                if (ChatServer.resumption.park(resumable, this, this::expire)) {
+                    logger.log("Соединение с клиентом " + clientName + " оборвалось, сессия ждёт восстановления.", Log.SERVER);
+                }
+                return;
+            }
+            if (resumable.getOwner() != this) {
+                return; // клиент уже вернулся на другом соединении
+            }
+            ChatServer.resumption.discard(resumable);
+        }
+        leaveChat();
+        logger.log("Соединение с клиентом " + clientName + " закрыто.", Log.SERVER);
+    }
+
+    // Клиент не вернулся за resume.graceSeconds (поток таймера SessionResumption)
+    private void expire() {
+        ChatServer.metrics.sessionExpired();
+        leaveChat();
+        logger.log("Сессия клиента " + clientName + " не восстановлена, клиент покинул чат.", Log.SERVER);
+    }
+
+    private void leaveChat() {
+        ChatServer.removeClient(clientName, endpoint);
+        // при остановке сервера уходят все: объявлять об этом незачем, а шарды комнат уже остановлены
+        if (!ChatServer.isStopping()) {
+            String announcement = GUEST.equals(clientName) ? clientName + " покинул чат." : null;
+            if (room != null) {
+                ChatServer.rooms.leave(room, endpoint, announcement);
+            } else if (announcement != null) {
+                ChatServer.broadcastMessage(announcement);
+            }
+        }
+    }
+}
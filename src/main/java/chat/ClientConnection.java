@@ -0,0 +1,52 @@
+package chat;
+
+// Соединение с клиентом, не зависящее от способа ввода-вывода (поток на клиента или NIO)
+public interface ClientConnection {
+
+    // Постановка сообщения в очередь отправки клиенту
+    void send(OutboundMessage message);
+
+    default void send(String message) {
+        OutboundMessage outboundMessage = OutboundMessage.of(message);
+        send(outboundMessage);
+        outboundMessage.release();
+    }
+
+    // Выполнение задачи в потоке, который обрабатывает входящие строки этого соединения
+    // (продолжение сессии после асинхронной проверки пароля)
+    void execute(Runnable task);
+
+    // Переход на двоичный протокол (WireProtocol) после текущей строки: следующие входящие
+    // байты читаются как кадры, а сообщения после upgrade-подтверждения пишутся кадрами.
+    // false - транспорт двоичный протокол не поддерживает
+    default boolean upgradeToBinary() {
+        return false;
+    }
+
+    // Сжатие кадров двоичного протокола (FrameDeflater/FrameInflater); вызывается сразу после
+    // upgradeToBinary. false - транспорт сжатие не поддерживает или оно выключено (compression.enabled)
+    default boolean enableCompression() {
+        return false;
+    }
+
+    // Сообщений в очереди отправки (для метрик)
+    default int getQueueDepth() {
+        return 0;
+    }
+
+    // С какого момента (System.nanoTime) запись в сокет не может завершиться: клиент не читает,
+    // и данные не уходят. 0 - запись не ждёт (для Heartbeats)
+    default long getBlockedWriteSince() {
+        return 0;
+    }
+
+    // Закрытие соединения после отправки уже поставленных в очередь сообщений
+    void close();
+
+    // Закрытие без ожидания отправки очереди: клиент не отвечает, и ждать его бесполезно
+    default void abort() {
+        close();
+    }
+
+    String getRemoteAddress();
+}
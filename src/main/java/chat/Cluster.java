@@ -0,0 +1,445 @@
+package chat;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static chat.ChatServer.logger;
+
+// Кластер из нескольких узлов ChatServer (настройки cluster.*). Узлы соединены каждый с каждым
+// по статическому списку cluster.peers: в исходящие связи (PeerLink) узел пишет только свои
+// события - сообщения комнат, общие рассылки, личные сообщения для пользователей других узлов
+// и вход/выход своих пользователей, а из входящих получает события остальных узлов.
+// Событие кодируется один раз для всех связей и получает номер; повторы после переподключения
+// отбрасываются по номеру (номера одного узла идут по возрастанию, epoch отличает перезапуск узла).
+// Порт узла слушает только cluster.bindHost; входящая связь принимается, только если в приветствии
+// общий ключ cluster.secret и имя узла из cluster.peers - иначе соединение закрывается без ответа
+public class Cluster {
+    static final byte ROOM = 1;
+    static final byte DIRECT = 2;
+    static final byte ONLINE = 3;
+    static final byte OFFLINE = 4;
+    static final byte SNAPSHOT = 5; // кто в сети на узле - без номера, отправляется при каждом подключении
+    private static final int MAX_BATCH_BYTES = 16 * 1024 * 1024;
+
+    // Получатель событий других узлов
+    public interface Listener {
+        // Сообщение комнаты; пустое имя комнаты - рассылка всем
+        void onRoomMessage(String room, String text, int opcode);
+
+        // Личное сообщение пользователю этого узла
+        void onDirect(String to, String from, String text);
+    }
+
+    private record Seen(long epoch, long seq) {
+    }
+
+    private final String nodeId;
+    private final byte[] secret;
+    private final Set<String> peers; // имена узлов, которым разрешено подключаться
+    private final long epoch = System.currentTimeMillis();
+    private final int queueCapacity;
+    private final int batchBytes;
+    private final long batchWindowNanos;
+    private final long reconnectMillis;
+    private final Listener listener;
+    private final ServerSocket serverSocket;
+    private final List<PeerLink> links = new CopyOnWriteArrayList<>();
+    private final Set<Socket> inbound = ConcurrentHashMap.newKeySet();
+    private final Set<String> localUsers = ConcurrentHashMap.newKeySet();
+    private final Map<String, Set<String>> remoteUsers = new ConcurrentHashMap<>(); // узел -> кто в сети
+    private final Map<String, Seen> lastSeen = new ConcurrentHashMap<>();
+    private final LongAdder batchesSent = new LongAdder();
+    private final LongAdder recordsSent = new LongAdder();
+    private final LongAdder recordsReceived = new LongAdder();
+    private final LongAdder duplicates = new LongAdder();
+    private long seq; // под блокировкой this: события уходят во все связи в порядке номеров
+    private volatile boolean running = true;
+
+    public Cluster(String nodeId, String bindHost, int port, String secret, Set<String> peers, int queueCapacity,
+                   int batchBytes, long batchWindowNanos, long reconnectMillis, Listener listener) throws IOException {
+        if (secret == null || secret.isEmpty()) {
+            throw new IllegalArgumentException("не задан общий ключ узлов cluster.secret");
+        }
+        this.nodeId = nodeId;
+        this.secret = secret.getBytes(StandardCharsets.UTF_8);
+        this.peers = Set.copyOf(peers);
+        this.queueCapacity = queueCapacity;
+        this.batchBytes = batchBytes;
+        this.batchWindowNanos = batchWindowNanos;
+        this.reconnectMillis = reconnectMillis;
+        this.listener = listener;
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.bind(new InetSocketAddress(bindHost, port));
+        Thread acceptor = new Thread(this::acceptLoop, "cluster-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public int getLocalPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    InetAddress getLocalAddress() {
+        return serverSocket.getInetAddress();
+    }
+
+    // Исходящая связь с узлом из cluster.peers; id - имя, которым узел должен ответить
+    public void connect(String id, String host, int port) {
+        PeerLink link = new PeerLink(this, id, host, port);
+        links.add(link);
+        link.start();
+    }
+
+    // Сообщение комнаты (пустое имя - рассылка всем) для всех узлов
+    public void publish(String room, String text, int opcode) {
+        publish(encode(ROOM, room, opcode, text));
+    }
+
+    // Личное сообщение пользователю другого узла (false - нет связи с этим узлом)
+    public boolean sendDirect(String node, String to, String from, String text) {
+        byte[] record = encode(DIRECT, to, -1, from, text);
+        for (PeerLink link : links) {
+            if (node.equals(link.getPeerId())) {
+                synchronized (this) {
+                    number(record);
+                    link.send(record);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Вход и выход пользователей этого узла: список меняется вместе с отправкой события,
+    // поэтому снимок при подключении и события в очереди связи не противоречат друг другу
+    public synchronized void userOnline(String login) {
+        if (localUsers.add(login)) {
+            publish(encode(ONLINE, login, -1));
+        }
+    }
+
+    public synchronized void userOffline(String login) {
+        if (localUsers.remove(login)) {
+            publish(encode(OFFLINE, login, -1));
+        }
+    }
+
+    // Узел, на котором пользователь в сети (null - ни на одном из других узлов)
+    public String locate(String login) {
+        for (Map.Entry<String, Set<String>> entry : remoteUsers.entrySet()) {
+            if (entry.getValue().contains(login)) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    // Все, кто в сети на этом и на других узлах
+    public SortedSet<String> onlineUsers() {
+        SortedSet<String> result = new TreeSet<>(localUsers);
+        for (Set<String> users : remoteUsers.values()) {
+            result.addAll(users);
+        }
+        return result;
+    }
+
+    public void stop() {
+        running = false;
+        // связи дописывают накопленное одновременно, общий срок на все - PeerLink.STOP_TIMEOUT_MILLIS
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PeerLink.STOP_TIMEOUT_MILLIS);
+        for (PeerLink link : links) {
+            link.stop(deadline);
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            logger.logError("Ошибка при закрытии порта кластера: " + e.getMessage(), Log.SERVER);
+        }
+        for (Socket socket : inbound) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+                // поток связи завершится сам
+            }
+        }
+    }
+
+    public long getBatchesSent() {
+        return batchesSent.sum();
+    }
+
+    public long getRecordsSent() {
+        return recordsSent.sum();
+    }
+
+    public long getRecordsReceived() {
+        return recordsReceived.sum();
+    }
+
+    public long getDuplicateCount() {
+        return duplicates.sum();
+    }
+
+    @Override
+    public String toString() {
+        long batches = getBatchesSent();
+        long dropped = 0;
+        for (PeerLink link : links) {
+            dropped += link.getDroppedCount();
+        }
+        return String.format("узел %s: отправлено пачек: %d, событий: %d (%.1f в пачке), получено событий: %d, повторов отброшено: %d, потеряно при переполнении: %d",
+                nodeId, batches, getRecordsSent(), batches == 0 ? 0.0 : (double) getRecordsSent() / batches,
+                getRecordsReceived(), getDuplicateCount(), dropped);
+    }
+
+    long getEpoch() {
+        return epoch;
+    }
+
+    byte[] getSecret() {
+        return secret;
+    }
+
+    int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    int getBatchBytes() {
+        return batchBytes;
+    }
+
+    long getBatchWindowNanos() {
+        return batchWindowNanos;
+    }
+
+    long getReconnectMillis() {
+        return reconnectMillis;
+    }
+
+    void recordBatchSent(int records) {
+        batchesSent.increment();
+        recordsSent.add(records);
+    }
+
+    // Снимок пользователей в сети для первой пачки после подключения
+    synchronized byte[] presenceSnapshot() {
+        List<String> users = new ArrayList<>(localUsers);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(SNAPSHOT);
+            out.writeLong(0);
+            out.writeInt(users.size());
+            for (String user : users) {
+                writeString(out, user);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // true - событие с этим номером от узла ещё не встречалось
+    boolean firstSeen(String origin, long originEpoch, long number) {
+        boolean[] fresh = new boolean[1];
+        lastSeen.compute(origin, (key, last) -> {
+            if (last == null || last.epoch() < originEpoch || (last.epoch() == originEpoch && last.seq() < number)) {
+                fresh[0] = true;
+                return new Seen(originEpoch, number);
+            }
+            return last;
+        });
+        return fresh[0];
+    }
+
+    private synchronized void publish(byte[] record) {
+        number(record);
+        for (PeerLink link : links) {
+            link.send(record);
+        }
+    }
+
+    // Номер события записывается в уже закодированную запись сразу за типом
+    private void number(byte[] record) {
+        ByteBuffer.wrap(record).putLong(1, ++seq);
+    }
+
+    // Запись: [тип][номер][строка][opcode, если >= 0][строки...]; строки - [длина][UTF-8]
+    private static byte[] encode(byte type, String first, int opcode, String... rest) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(type);
+            out.writeLong(0);
+            writeString(out, first);
+            if (opcode >= 0) {
+                out.writeByte(opcode);
+            }
+            for (String value : rest) {
+                writeString(out, value);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) throws IOException {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Неверная длина строки: " + length);
+        }
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread reader = new Thread(() -> serve(socket), "cluster-peer-" + socket.getRemoteSocketAddress());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (running) {
+                    logger.logError("Ошибка при подключении узла кластера: " + e.getMessage(), Log.SERVER);
+                }
+            }
+        }
+    }
+
+    // Входящая связь: приветствие (имя узла, epoch и общий ключ), ответ своим именем, затем пачки событий.
+    // Когда связь рвётся, пользователи этого узла перестают считаться находящимися в сети
+    private void serve(Socket socket) {
+        inbound.add(socket);
+        String peer = null;
+        Set<String> presence = ConcurrentHashMap.newKeySet();
+        try (socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+            String id = in.readUTF();
+            long peerEpoch = in.readLong();
+            int keyLength = in.readUnsignedShort();
+            byte[] key = new byte[Math.min(keyLength, 1024)];
+            in.readFully(key);
+            if (keyLength != key.length || !MessageDigest.isEqual(key, secret)) {
+                logger.logError("Узел кластера " + socket.getRemoteSocketAddress() + " не прошёл проверку ключа, связь закрыта", Log.SERVER);
+                return;
+            }
+            if (!peers.contains(id)) {
+                logger.logError("Узел " + id + " (" + socket.getRemoteSocketAddress() + ") не указан в cluster.peers, связь закрыта", Log.SERVER);
+                return;
+            }
+            peer = id;
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeUTF(nodeId);
+            out.flush();
+            remoteUsers.put(peer, presence);
+            while (running) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (length < Integer.BYTES || length > MAX_BATCH_BYTES) {
+                    throw new IOException("Неверная длина пачки: " + length);
+                }
+                byte[] batch = new byte[length];
+                in.readFully(batch);
+                readBatch(peer, peerEpoch, presence, ByteBuffer.wrap(batch));
+            }
+        } catch (IOException | RuntimeException e) {
+            if (running) {
+                logger.logError("Связь с узлом кластера " + (peer == null ? socket.getRemoteSocketAddress() : peer)
+                        + " прервана: " + e.getMessage(), Log.SERVER);
+            }
+        } finally {
+            inbound.remove(socket);
+            if (peer != null) {
+                remoteUsers.remove(peer, presence);
+            }
+        }
+    }
+
+    private void readBatch(String peer, long peerEpoch, Set<String> presence, ByteBuffer batch) throws IOException {
+        int count = batch.getInt();
+        for (int i = 0; i < count; i++) {
+            byte type = batch.get();
+            long number = batch.getLong();
+            recordsReceived.increment();
+            switch (type) {
+                case ROOM -> {
+                    String room = getString(batch);
+                    int opcode = batch.get() & 0xFF;
+                    String text = getString(batch);
+                    if (firstSeen(peer, peerEpoch, number)) {
+                        listener.onRoomMessage(room, text, opcode);
+                    } else {
+                        duplicates.increment();
+                    }
+                }
+                case DIRECT -> {
+                    String to = getString(batch);
+                    String from = getString(batch);
+                    String text = getString(batch);
+                    if (firstSeen(peer, peerEpoch, number)) {
+                        listener.onDirect(to, from, text);
+                    } else {
+                        duplicates.increment();
+                    }
+                }
+                case ONLINE, OFFLINE -> {
+                    String login = getString(batch);
+                    if (!firstSeen(peer, peerEpoch, number)) {
+                        duplicates.increment();
+                    } else if (type == ONLINE) {
+                        presence.add(login);
+                    } else {
+                        presence.remove(login);
+                    }
+                }
+                case SNAPSHOT -> {
+                    int users = batch.getInt();
+                    Set<String> snapshot = new TreeSet<>();
+                    for (int j = 0; j < users; j++) {
+                        snapshot.add(getString(batch));
+                    }
+                    presence.retainAll(snapshot);
+                    presence.addAll(snapshot);
+                }
+                default -> throw new IOException("Неизвестный тип события: " + type);
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package chat;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.LongAdder;
+
+// Статистика сжатия: сколько байт кадров сжато и во что, сколько пачек ушло без сжатия
+// (меньше порога) и сколько процессорного времени потрачено на сжатие и распаковку
+public class CompressionStats {
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME = threads.isCurrentThreadCpuTimeSupported() && threads.isThreadCpuTimeEnabled();
+
+    private final LongAdder compressedBatches = new LongAdder();
+    private final LongAdder rawBatches = new LongAdder();
+    private final LongAdder inputBytes = new LongAdder();
+    private final LongAdder outputBytes = new LongAdder();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder deflateNanos = new LongAdder();
+    private final LongAdder inflatedBytes = new LongAdder();
+    private final LongAdder inflateNanos = new LongAdder();
+
+    // Процессорное время текущего потока (для виртуальных потоков JVM его не даёт - тогда настенное время)
+    static long cpuTime() {
+        return CPU_TIME && !Thread.currentThread().isVirtual() ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    public void recordCompressed(long input, long output, long nanos) {
+        compressedBatches.increment();
+        inputBytes.add(input);
+        outputBytes.add(output);
+        deflateNanos.add(nanos);
+    }
+
+    public void recordRaw(long bytes) {
+        rawBatches.increment();
+        rawBytes.add(bytes);
+    }
+
+    public void recordInflated(long bytes, long nanos) {
+        inflatedBytes.add(bytes);
+        inflateNanos.add(nanos);
+    }
+
+    public long getCompressedBatchCount() {
+        return compressedBatches.sum();
+    }
+
+    public long getRawBatchCount() {
+        return rawBatches.sum();
+    }
+
+    public long getInputBytes() {
+        return inputBytes.sum();
+    }
+
+    public long getOutputBytes() {
+        return outputBytes.sum();
+    }
+
+    // Во сколько раз сжатые пачки меньше исходных
+    public double getCompressionRatio() {
+        long output = outputBytes.sum();
+        return output == 0 ? 0 : (double) inputBytes.sum() / output;
+    }
+
+    public long getDeflateNanos() {
+        return deflateNanos.sum();
+    }
+
+    public long getInflateNanos() {
+        return inflateNanos.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("сжато пачек: %d (%d -> %d байт, в %.2f раза, %.1f мс ЦП), без сжатия: %d (%d байт), распаковано: %d байт (%.1f мс ЦП)",
+                getCompressedBatchCount(), getInputBytes(), getOutputBytes(), getCompressionRatio(), getDeflateNanos() / 1e6,
+                getRawBatchCount(), rawBytes.sum(), inflatedBytes.sum(), getInflateNanos() / 1e6);
+    }
+}
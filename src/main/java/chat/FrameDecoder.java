@@ -0,0 +1,80 @@
+package chat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Разбиение входящих байтов на кадры двоичного протокола (кадры могут приходить частями).
+// Как и в LineDecoder, буфер для недочитанного кадра создаётся только когда он нужен
+public class FrameDecoder {
+
+    // Обработчик кадра; payload действителен только во время вызова
+    public interface FrameHandler {
+        void onFrame(int opcode, ByteBuffer payload) throws IOException;
+    }
+
+    private final int maxFrameLength;
+    private byte[] pending;
+    private int pendingLength;
+
+    public FrameDecoder(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    // Передаёт в handler все полные кадры, остаток сохраняет до следующего вызова
+    public void decode(ByteBuffer buffer, FrameHandler handler) throws IOException {
+        if (pendingLength > 0) {
+            append(buffer);
+            ByteBuffer joined = ByteBuffer.wrap(pending, 0, pendingLength);
+            decodeFrames(joined, handler);
+            pendingLength = joined.remaining();
+            System.arraycopy(pending, joined.position(), pending, 0, pendingLength);
+            if (pendingLength == 0) {
+                pending = null;
+            }
+            return;
+        }
+        decodeFrames(buffer, handler);
+        if (buffer.hasRemaining()) {
+            append(buffer);
+        }
+    }
+
+    private void decodeFrames(ByteBuffer buffer, FrameHandler handler) throws IOException {
+        while (buffer.hasRemaining()) {
+            int start = buffer.position();
+            int length = WireProtocol.getVarint(buffer);
+            if (length < 0) {
+                return;
+            }
+            if (length < 1 || length > maxFrameLength) {
+                throw new IOException("Недопустимая длина кадра: " + length);
+            }
+            if (buffer.remaining() < length) {
+                buffer.position(start);
+                return;
+            }
+            int opcode = buffer.get() & 0xFF;
+            int end = buffer.position() + length - 1;
+            ByteBuffer payload = buffer.slice(buffer.position(), length - 1);
+            buffer.position(end);
+            handler.onFrame(opcode, payload);
+        }
+    }
+
+    private void append(ByteBuffer buffer) throws IOException {
+        int length = buffer.remaining();
+        if (pendingLength + length > maxFrameLength + 8) {
+            pendingLength = 0;
+            pending = null;
+            throw new IOException("Превышена максимальная длина кадра: " + maxFrameLength);
+        }
+        if (pending == null) {
+            pending = new byte[Math.max(256, length)];
+        } else if (pending.length < pendingLength + length) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + length));
+        }
+        buffer.get(pending, pendingLength, length);
+        pendingLength += length;
+    }
+}
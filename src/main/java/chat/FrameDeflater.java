@@ -0,0 +1,102 @@
+package chat;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+
+// Сжатие исходящих кадров одного соединения. Поток DEFLATE не прерывается между пачками,
+// поэтому повторяющийся текст (вывод ботов, вставленные логи) сжимается и со ссылками
+// на прошлые сообщения; каждый кадр COMPRESSED заканчивается SYNC_FLUSH, чтобы получатель
+// мог распаковать его сразу. Пачки меньше minBytes отправляются как есть
+public class FrameDeflater {
+    // Исходных байт в одном кадре COMPRESSED: сжатый кадр гарантированно не длиннее MAX_FRAME_LENGTH
+    private static final int MAX_CHUNK = WireProtocol.MAX_FRAME_LENGTH - 1024;
+
+    private final Deflater deflater;
+    private final int minBytes;
+    private final CompressionStats stats;
+    private ByteBuffer chunk = ByteBuffer.allocate(4096);  // сжатые байты текущего кадра
+    private ByteBuffer output = ByteBuffer.allocate(4096); // готовые кадры COMPRESSED
+
+    public FrameDeflater(int level, int minBytes, CompressionStats stats) {
+        this.deflater = new Deflater(level);
+        this.deflater.setDictionary(WireProtocol.DICTIONARY);
+        this.minBytes = minBytes;
+        this.stats = stats;
+    }
+
+    // Пачка кадров в виде кадров COMPRESSED; null - пачка меньше порога и уходит без сжатия.
+    // Буферы views не меняются; результат действителен до следующего вызова
+    public ByteBuffer compress(ByteBuffer[] views, int offset, int count) {
+        long input = 0;
+        for (int i = offset; i < offset + count; i++) {
+            input += views[i].remaining();
+        }
+        if (input < minBytes) {
+            stats.recordRaw(input);
+            return null;
+        }
+        long started = CompressionStats.cpuTime();
+        output.clear();
+        chunk.clear();
+        int chunkInput = 0;
+        for (int i = offset; i < offset + count; i++) {
+            ByteBuffer view = views[i];
+            int position = view.position();
+            while (position < view.limit()) {
+                int length = Math.min(view.limit() - position, MAX_CHUNK - chunkInput);
+                deflater.setInput(view.slice(position, length));
+                while (!deflater.needsInput()) {
+                    deflate(Deflater.NO_FLUSH);
+                }
+                position += length;
+                chunkInput += length;
+                if (chunkInput == MAX_CHUNK) {
+                    finishFrame();
+                    chunkInput = 0;
+                }
+            }
+        }
+        if (chunkInput > 0) {
+            finishFrame();
+        }
+        output.flip();
+        stats.recordCompressed(input, output.remaining(), CompressionStats.cpuTime() - started);
+        return output;
+    }
+
+    // SYNC_FLUSH и перенос сжатого куска в выходной буфер под заголовком кадра
+    private void finishFrame() {
+        while (deflate(Deflater.SYNC_FLUSH)) {
+            // выход заполнил буфер целиком - возможно, сжатые данные ещё остались
+        }
+        chunk.flip();
+        int length = 1 + chunk.remaining();
+        int frameLength = WireProtocol.varintSize(length) + length;
+        if (output.remaining() < frameLength) {
+            output = grow(output, output.position() + frameLength);
+        }
+        WireProtocol.putVarint(output, length);
+        output.put((byte) WireProtocol.COMPRESSED).put(chunk);
+        chunk.clear();
+    }
+
+    // true - выходной буфер был заполнен полностью
+    private boolean deflate(int flush) {
+        if (!chunk.hasRemaining()) {
+            chunk = grow(chunk, chunk.capacity() * 2);
+        }
+        int space = chunk.remaining();
+        return deflater.deflate(chunk, flush) == space;
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int minCapacity) {
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, minCapacity));
+        buffer.flip();
+        return larger.put(buffer);
+    }
+
+    // Освобождение памяти zlib (вызывается при закрытии соединения)
+    public void end() {
+        deflater.end();
+    }
+}
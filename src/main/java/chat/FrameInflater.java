@@ -0,0 +1,57 @@
+package chat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+// Распаковка кадров COMPRESSED одного соединения: продолжение потока DEFLATE собеседника
+// распаковывается кусками по 64 КБ и разбирается на обычные кадры, поэтому
+// маленький сжатый кадр не может заставить выделить много памяти
+public class FrameInflater {
+    private final Inflater inflater = new Inflater();
+    private final FrameDecoder decoder;
+    private final ByteBuffer output = ByteBuffer.allocate(64 * 1024);
+    private final CompressionStats stats;
+
+    public FrameInflater(int maxFrameLength, CompressionStats stats) {
+        this.decoder = new FrameDecoder(maxFrameLength);
+        this.stats = stats;
+    }
+
+    // Передаёт в handler кадры, содержащиеся в данных кадра COMPRESSED
+    public void inflate(ByteBuffer payload, FrameDecoder.FrameHandler handler) throws IOException {
+        inflater.setInput(payload);
+        long total = 0;
+        long nanos = 0;
+        try {
+            while (true) {
+                long started = CompressionStats.cpuTime();
+                output.clear();
+                int inflated = inflater.inflate(output);
+                if (inflated == 0 && inflater.needsDictionary()) {
+                    inflater.setDictionary(WireProtocol.DICTIONARY);
+                    inflated = inflater.inflate(output);
+                }
+                nanos += CompressionStats.cpuTime() - started;
+                if (inflated == 0) {
+                    if (inflater.needsInput() || inflater.finished()) {
+                        break;
+                    }
+                    throw new IOException("Повреждены сжатые данные");
+                }
+                total += inflated;
+                output.flip();
+                decoder.decode(output, handler);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Повреждены сжатые данные: " + e.getMessage(), e);
+        } finally {
+            stats.recordInflated(total, nanos);
+        }
+    }
+
+    public void end() {
+        inflater.end();
+    }
+}
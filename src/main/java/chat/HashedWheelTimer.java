@@ -0,0 +1,124 @@
+package chat;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// Таймер "колесо с хешированием" для десятков тысяч таймаутов соединений на одном потоке.
+// Колесо - массив корзин, стрелка переходит на следующую корзину раз в тик; таймаут кладётся
+// в корзину (срок / тик) по модулю размера колеса и помнит, сколько полных оборотов ему ждать.
+// Поставить и отменить таймаут - O(1) без блокировок: новые таймауты передаются потоку таймера
+// через очередь, отменённые он выбрасывает, когда до них доходит стрелка. Точность - один тик,
+// задачи выполняются в потоке таймера и должны быть короткими
+public class HashedWheelTimer {
+    private final long tickNanos;
+    private final int mask;
+    private final Queue<Timeout>[] wheel;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private final long startNanos;
+    private volatile boolean running = true;
+    private long tick; // номер текущего тика (только поток таймера)
+
+    // Отложенная задача; cancel() можно вызывать из любого потока
+    public static final class Timeout {
+        private final Runnable task;
+        private final long deadline; // в нано от запуска таймера
+        private long rounds;
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    // wheelSize округляется вверх до степени двойки
+    @SuppressWarnings("unchecked")
+    public HashedWheelTimer(String threadName, long tickMillis, int wheelSize) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        int size = Integer.highestOneBit(Math.max(2, wheelSize) * 2 - 1);
+        this.mask = size - 1;
+        this.wheel = new Queue[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+        this.startNanos = System.nanoTime();
+        this.worker = new Thread(this::run, threadName);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() - startNanos + unit.toNanos(Math.max(0, delay)));
+        if (running) {
+            pending.add(timeout);
+        }
+        return timeout;
+    }
+
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (running) {
+            long nextTick = (tick + 1) * tickNanos;
+            long sleep;
+            while ((sleep = nextTick - (System.nanoTime() - startNanos)) > 0 && running) {
+                LockSupport.parkNanos(this, sleep);
+            }
+            if (!running) {
+                break;
+            }
+            tick++;
+            transferPending();
+            expire(wheel[(int) (tick & mask)]);
+        }
+        pending.clear();
+    }
+
+    // Новые таймауты раскладываются по корзинам; просроченные попадают в текущую
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            long ticks = Math.max((timeout.deadline + tickNanos - 1) / tickNanos, tick);
+            timeout.rounds = (ticks - tick) / wheel.length;
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    private void expire(Queue<Timeout> bucket) {
+        Iterator<Timeout> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Timeout timeout = iterator.next();
+            if (timeout.cancelled) {
+                iterator.remove();
+            } else if (timeout.rounds > 0) {
+                timeout.rounds--;
+            } else {
+                iterator.remove();
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    Log.getInstance().logError("Ошибка в задаче таймера " + worker.getName() + ": " + e, Log.SERVER);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package chat;
+
+import java.util.concurrent.TimeUnit;
+
+import static chat.ChatServer.logger;
+
+// Проверка, что клиенты живы. Оборванное без FIN соединение (выключенный ноутбук, обрыв сети)
+// иначе обнаруживается только когда чтение из сокета наконец вернёт ошибку, а до тех пор рассылка
+// продолжает писать в его очередь. Все соединения проверяет один HashedWheelTimer раз в interval:
+//  - клиент молчит interval - ему отправляется PING (двоичный протокол), живой клиент отвечает PONG;
+//  - клиент молчит timeout - соединение закрывается через ChatServer.disconnectClient;
+//  - запись в сокет не может завершиться writeTimeout (клиент не читает) - тоже.
+// Текстовые клиенты не умеют отвечать на PING, поэтому после входа в чат по молчанию не отключаются
+public class Heartbeats {
+    private final HashedWheelTimer timer;
+    private final long intervalNanos;
+    private final long timeoutNanos;
+    private final long writeTimeoutNanos;
+
+    public Heartbeats(long intervalMillis, long timeoutMillis, long writeTimeoutMillis, long tickMillis) {
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.writeTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(writeTimeoutMillis);
+        this.timer = new HashedWheelTimer("heartbeat-timer", tickMillis,
+                (int) Math.min(4096, Math.max(intervalMillis / Math.max(1, tickMillis), 1) + 1));
+    }
+
+    // Начать проверять соединение сессии; закрытая сессия выпадает из проверки сама
+    public void watch(ChatSession session) {
+        timer.schedule(() -> check(session), intervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void stop() {
+        timer.stop();
+    }
+
+    private void check(ChatSession session) {
+        if (session.isClosed()) {
+            return;
+        }
+        long now = System.nanoTime();
+        ClientConnection connection = session.getConnection();
+        long blockedSince = connection.getBlockedWriteSince();
+        if (blockedSince != 0 && now - blockedSince >= writeTimeoutNanos) {
+            reap(session, "не принимает сообщения");
+            return;
+        }
+        long silence = now - session.getLastReadNanos();
+        boolean answersPing = session.isBinary();
+        if (silence >= timeoutNanos && (answersPing || session.getRoom() == null)) {
+            reap(session, "не отвечает");
+            return;
+        }
+        if (silence >= intervalNanos && answersPing) {
+            OutboundMessage ping = OutboundMessage.of("", WireProtocol.PING);
+            connection.send(ping);
+            ping.release();
+        }
+        watch(session);
+    }
+
+    private void reap(ChatSession session, String reason) {
+        logger.log("Клиент " + session.getClientName() + " (" + session.getConnection().getRemoteAddress() + ") "
+                + reason + ", соединение закрыто.", Log.SERVER);
+        ChatServer.metrics.connectionReaped();
+        ChatServer.disconnectClient(session, true);
+    }
+}
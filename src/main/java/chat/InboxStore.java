@@ -0,0 +1,170 @@
+package chat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+
+// Ящики личных сообщений для пользователей не в сети: файл на пользователя
+// (<логин в hex>.inbox), запись дописывается в конец и сразу сбрасывается на диск.
+// При входе пользователя ящик доставляется частями: часть читается, ставится в очередь
+// соединения и только после этого удаляется из файла (read, затем commit).
+// Запись: [длина][время][длина отправителя][отправитель][текст]; оборванный при сбое хвост пропускается
+public class InboxStore {
+    private static final String SUFFIX = ".inbox";
+    private static final int RECORD_HEADER = Integer.BYTES + Long.BYTES + Short.BYTES;
+
+    // Сообщение из ящика
+    public record InboxMessage(long timestamp, String from, String text) {
+    }
+
+    private final Path dir;
+    private final long maxBytesPerUser;
+    private final Object[] locks = new Object[64]; // блокировки по хешу логина
+
+    public InboxStore(Path dir, long maxBytesPerUser) throws IOException {
+        this.dir = dir;
+        this.maxBytesPerUser = maxBytesPerUser;
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        Files.createDirectories(dir);
+    }
+
+    // Сообщение в ящик login; false - ящик переполнен (inbox.maxBytesPerUser)
+    public boolean append(String login, String from, String text) throws IOException {
+        byte[] fromBytes = from.getBytes(StandardCharsets.UTF_8);
+        byte[] textBytes = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + fromBytes.length + textBytes.length);
+        record.putInt(record.capacity())
+                .putLong(System.currentTimeMillis())
+                .putShort((short) fromBytes.length).put(fromBytes)
+                .put(textBytes)
+                .flip();
+        Path path = pathFor(login);
+        synchronized (lockFor(login)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                if (channel.size() + record.remaining() > maxBytesPerUser) {
+                    return false;
+                }
+                while (record.hasRemaining()) {
+                    channel.write(record);
+                }
+                channel.force(false);
+            }
+        }
+        return true;
+    }
+
+    // Первые сообщения ящика (не больше limit) и сколько байт файла они занимают - для commit.
+    // Ящик не меняется: сообщения удаляются из него только после того, как доставка принята.
+    // Оборванная при сбое запись и всё после неё считаются прочитанными вместе с последним сообщением
+    public record Batch(List<InboxMessage> messages, int bytes, int total) {
+    }
+
+    public Batch read(String login, int limit) throws IOException {
+        Path path = pathFor(login);
+        List<InboxMessage> messages = new ArrayList<>();
+        synchronized (lockFor(login)) {
+            if (!Files.exists(path)) {
+                return new Batch(messages, 0, 0);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+            int bytes = 0;
+            int total = 0;
+            boolean torn = false;
+            while (buffer.hasRemaining()) {
+                int length = buffer.remaining() >= Integer.BYTES ? buffer.getInt(buffer.position()) : 0;
+                if (buffer.remaining() < RECORD_HEADER || length < RECORD_HEADER || length > buffer.remaining()) {
+                    torn = true;
+                    break;
+                }
+                int end = buffer.position() + length;
+                total++;
+                if (messages.size() < limit) {
+                    buffer.getInt();
+                    long timestamp = buffer.getLong();
+                    byte[] from = new byte[Short.toUnsignedInt(buffer.getShort())];
+                    buffer.get(from);
+                    byte[] text = new byte[end - buffer.position()];
+                    buffer.get(text);
+                    messages.add(new InboxMessage(timestamp, new String(from, StandardCharsets.UTF_8),
+                            new String(text, StandardCharsets.UTF_8)));
+                    bytes = end;
+                }
+                buffer.position(end);
+            }
+            if (torn && messages.size() == total) {
+                bytes = buffer.limit();
+            }
+            return new Batch(messages, bytes, total);
+        }
+    }
+
+    // Доставленные bytes байт удаляются из начала ящика; сообщения, пришедшие после read, остаются
+    public void commit(String login, int bytes) throws IOException {
+        if (bytes <= 0) {
+            return;
+        }
+        Path path = pathFor(login);
+        synchronized (lockFor(login)) {
+            if (!Files.exists(path)) {
+                return;
+            }
+            byte[] content = Files.readAllBytes(path);
+            if (bytes >= content.length) {
+                Files.delete(path);
+                return;
+            }
+            Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer rest = ByteBuffer.wrap(content, bytes, content.length - bytes);
+                while (rest.hasRemaining()) {
+                    channel.write(rest);
+                }
+                channel.force(false);
+            }
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Есть ли что доставить (пустой ящик удаляется)
+    public boolean hasMessages(String login) {
+        return Files.exists(pathFor(login));
+    }
+
+    // Все сообщения из ящика login; после чтения ящик удаляется
+    public List<InboxMessage> drain(String login) throws IOException {
+        Batch batch = read(login, Integer.MAX_VALUE);
+        commit(login, batch.bytes());
+        return batch.messages();
+    }
+
+    // Длинные логины заменяются их SHA-256, чтобы имя файла не превышало ограничений ФС
+    private Path pathFor(String login) {
+        byte[] bytes = login.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 100) {
+            try {
+                bytes = MessageDigest.getInstance("SHA-256").digest(bytes);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return dir.resolve(HexFormat.of().formatHex(bytes) + SUFFIX);
+    }
+
+    private Object lockFor(String login) {
+        return locks[Math.floorMod(login.hashCode(), locks.length)];
+    }
+}
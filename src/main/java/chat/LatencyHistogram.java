@@ -0,0 +1,83 @@
+package chat;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Гистограмма задержек в наносекундах по образцу HdrHistogram: значения до 64 хранятся точно,
+// дальше каждая степень двойки делится на 32 интервала, поэтому погрешность любого перцентиля
+// не больше ~3% при фиксированных ~15 КБ памяти. Запись - одна атомарная операция над счётчиком
+// интервала, без блокировок и выделения памяти; чтение идёт параллельно с записью
+public class LatencyHistogram {
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int HALF = SUB_COUNT / 2;
+    private static final int BUCKETS = SUB_COUNT + (Long.SIZE - 1 - SUB_BITS) * HALF;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long total = count.sum();
+        return total == 0 ? 0 : (double) sum.sum() / total;
+    }
+
+    // Значение, не меньше которого percentile процентов записей (верхняя граница интервала)
+    public long getPercentile(double percentile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(total * Math.min(percentile, 100) / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= target) {
+                return Math.min(highestEquivalent(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    static int index(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return SUB_COUNT + (shift - 1) * HALF + (int) (value >>> shift) - HALF;
+    }
+
+    static long highestEquivalent(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_COUNT) / HALF + 1;
+        long sub = (index - SUB_COUNT) % HALF + HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,96 @@
+package chat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+// Разбиение входящих байтов на строки по '\n' (строки могут приходить частями).
+// Буфер создаётся только когда строка не уместилась в один пакет,
+// поэтому простаивающие соединения почти не занимают памяти
+public class LineDecoder {
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final int maxLineLength;
+    private byte[] pending;
+    private int pendingLength;
+
+    public LineDecoder(int maxLineLength) {
+        this.maxLineLength = maxLineLength;
+    }
+
+    // Передаёт в sink все полные строки из буфера, остаток сохраняет до следующего вызова
+    public void decode(ByteBuffer buffer, Consumer<String> sink) throws IOException {
+        String line;
+        while ((line = decodeLine(buffer)) != null) {
+            sink.accept(line);
+        }
+    }
+
+    // Одна полная строка из буфера (позиция - сразу после неё); null - полной строки нет,
+    // остаток сохранён. Позволяет остановиться посреди буфера, например при переходе на кадры
+    public String decodeLine(ByteBuffer buffer) throws IOException {
+        if (!buffer.hasRemaining()) {
+            return null;
+        }
+        int start = buffer.position();
+        int end = indexOf(buffer, (byte) '\n');
+        if (end < 0) {
+            append(buffer, start, buffer.limit());
+            buffer.position(buffer.limit());
+            return null;
+        }
+        String line;
+        if (pendingLength == 0) {
+            line = toString(buffer, start, end);
+        } else {
+            append(buffer, start, end);
+            line = trimAndDecode(pending, pendingLength);
+            pendingLength = 0;
+            if (pending.length > INITIAL_CAPACITY) {
+                pending = null;
+            }
+        }
+        buffer.position(end + 1);
+        return line;
+    }
+
+    private static int indexOf(ByteBuffer buffer, byte value) {
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void append(ByteBuffer buffer, int from, int to) throws IOException {
+        int length = to - from;
+        if (pendingLength + length > maxLineLength) {
+            pendingLength = 0;
+            pending = null;
+            throw new IOException("Превышена максимальная длина строки: " + maxLineLength);
+        }
+        if (pending == null) {
+            pending = new byte[Math.max(INITIAL_CAPACITY, length)];
+        } else if (pending.length < pendingLength + length) {
+            pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + length));
+        }
+        buffer.get(from, pending, pendingLength, length);
+        pendingLength += length;
+    }
+
+    private static String toString(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buffer.get(from, bytes);
+        return trimAndDecode(bytes, bytes.length);
+    }
+
+    private static String trimAndDecode(byte[] bytes, int length) {
+        if (length > 0 && bytes[length - 1] == '\r') {
+            length--;
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+}
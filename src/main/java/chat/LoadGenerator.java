@@ -0,0 +1,338 @@
+package chat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Нагрузочный клиент без консоли (ChatClient --load ...): открывает множество сессий двоичного
+// протокола на виртуальных потоках, регистрирует или входит под логинами <prefix>-<номер>,
+// распределяет сессии по комнатам и отправляет сообщения с заданной частотой. В каждом
+// сообщении - время отправки (System.nanoTime этого процесса), поэтому при получении эхо
+// из комнаты известна задержка доставки. В конце печатаются перцентили задержек и пропускная способность
+public class LoadGenerator {
+    static final String MARKER = "#load ";
+
+    private final Options options;
+    private final LatencyHistogram delivery = new LatencyHistogram();
+    private final LatencyHistogram loginLatency = new LatencyHistogram();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder[] sentToRoom;
+    private final LongAdder[] roomMembers;
+    private final Semaphore connecting;
+    private final CountDownLatch ready;
+    private final CountDownLatch start = new CountDownLatch(1);
+    private volatile long deadline;
+    private volatile String firstError;
+
+    // Параметры запуска: ключ=значение
+    record Options(String host, int port, int sessions, double rate, long durationMillis, int rooms,
+                   int messageBytes, boolean register, String prefix, String password, int connectConcurrency,
+                   long drainMillis) {
+
+        static Options parse(String[] args, String defaultHost, int defaultPort) {
+            Map<String, String> values = new HashMap<>();
+            for (String arg : args) {
+                int equals = arg.indexOf('=');
+                if (equals <= 0) {
+                    throw new IllegalArgumentException("Параметр должен иметь вид ключ=значение: " + arg);
+                }
+                values.put(arg.substring(0, equals), arg.substring(equals + 1));
+            }
+            Options options = new Options(
+                    values.getOrDefault("host", defaultHost),
+                    Integer.parseInt(values.getOrDefault("port", String.valueOf(defaultPort))),
+                    Integer.parseInt(values.getOrDefault("sessions", "100")),
+                    Double.parseDouble(values.getOrDefault("rate", "1")),
+                    (long) (Double.parseDouble(values.getOrDefault("duration", "30")) * 1000),
+                    Integer.parseInt(values.getOrDefault("rooms", "10")),
+                    Integer.parseInt(values.getOrDefault("size", "64")),
+                    !values.getOrDefault("auth", "register").equals("login"),
+                    values.getOrDefault("prefix", "load"),
+                    values.getOrDefault("password", "load-password"),
+                    Integer.parseInt(values.getOrDefault("connectConcurrency", "64")),
+                    (long) (Double.parseDouble(values.getOrDefault("drain", "2")) * 1000));
+            values.keySet().removeAll(List.of("host", "port", "sessions", "rate", "duration", "rooms", "size",
+                    "auth", "prefix", "password", "connectConcurrency", "drain"));
+            if (!values.isEmpty()) {
+                throw new IllegalArgumentException("Неизвестные параметры: " + values.keySet());
+            }
+            if (options.sessions <= 0 || options.rooms <= 0 || options.rate <= 0 || options.connectConcurrency <= 0) {
+                throw new IllegalArgumentException("sessions, rooms, rate и connectConcurrency должны быть больше нуля");
+            }
+            return options;
+        }
+    }
+
+    // Итог прогона
+    record Report(int sessions, long failed, long sent, long received, long expected, double seconds,
+                  LatencyHistogram delivery, LatencyHistogram login) {
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, """
+                            Сессий: %d (не вошли или прервались: %d)
+                            Вход: %s
+                            Отправлено: %d (%.1f сообщ./с), получено: %d (%.1f сообщ./с), доставлено %.2f%% от ожидаемого (%d)
+                            Задержка доставки: %s""",
+                    sessions, failed, percentiles(login), sent, sent / seconds, received, received / seconds,
+                    expected == 0 ? 0.0 : 100.0 * received / expected, expected, percentiles(delivery));
+        }
+
+        private static String percentiles(LatencyHistogram histogram) {
+            return String.format(Locale.ROOT, "p50 %.2f мс, p90 %.2f мс, p99 %.2f мс, p99.9 %.2f мс, max %.2f мс (%d)",
+                    histogram.getPercentile(50) / 1e6, histogram.getPercentile(90) / 1e6, histogram.getPercentile(99) / 1e6,
+                    histogram.getPercentile(99.9) / 1e6, histogram.getMax() / 1e6, histogram.getCount());
+        }
+    }
+
+    public LoadGenerator(Options options) {
+        this.options = options;
+        this.sentToRoom = new LongAdder[options.rooms()];
+        this.roomMembers = new LongAdder[options.rooms()];
+        for (int i = 0; i < options.rooms(); i++) {
+            sentToRoom[i] = new LongAdder();
+            roomMembers[i] = new LongAdder();
+        }
+        this.connecting = new Semaphore(options.connectConcurrency());
+        this.ready = new CountDownLatch(options.sessions());
+    }
+
+    // Запуск из ChatClient: java chat.ChatClient --load sessions=1000 rate=2 duration=60 rooms=20
+    static void runFromCommandLine(String[] args, String defaultHost, int defaultPort) throws InterruptedException {
+        Options options;
+        try {
+            options = Options.parse(args, defaultHost, defaultPort);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.out.println("Параметры: host=, port=, sessions=100, rate=1 (сообщений в секунду на сессию), duration=30 (с), "
+                    + "rooms=10, size=64 (байт в сообщении), auth=register|login, prefix=load, password=, connectConcurrency=64, drain=2 (с)");
+            return;
+        }
+        Report report = new LoadGenerator(options).run();
+        System.out.println(report);
+        ChatClient.logger.log("Нагрузочный прогон: " + report, Log.CLIENT);
+    }
+
+    public Report run() throws InterruptedException {
+        List<Thread> threads = new ArrayList<>(options.sessions());
+        for (int i = 0; i < options.sessions(); i++) {
+            int index = i;
+            threads.add(Thread.ofVirtual().name("load-session-" + i).start(() -> runSession(index)));
+        }
+        ready.await();
+        System.out.printf(Locale.ROOT, "Вошли %d из %d сессий, отправка %.1f сообщ./с на сессию в течение %.1f с%n",
+                options.sessions() - failed.sum(), options.sessions(), options.rate(), options.durationMillis() / 1000.0);
+        if (firstError != null) {
+            System.out.println("Первая ошибка: " + firstError);
+        }
+        long started = System.nanoTime();
+        deadline = started + TimeUnit.MILLISECONDS.toNanos(options.durationMillis());
+        start.countDown();
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                thread.join(5000);
+                if (thread.isAlive()) {
+                    printProgress(started);
+                }
+            }
+        }
+        double seconds = Math.max(options.durationMillis(), 1) / 1000.0;
+        long expected = 0;
+        for (int i = 0; i < options.rooms(); i++) {
+            expected += sentToRoom[i].sum() * roomMembers[i].sum();
+        }
+        return new Report(options.sessions(), failed.sum(), sent.sum(), received.sum(), expected, seconds, delivery, loginLatency);
+    }
+
+    private void printProgress(long started) {
+        System.out.printf(Locale.ROOT, "%.0f с: отправлено %d, получено %d, p99 задержки %.2f мс%n",
+                (System.nanoTime() - started) / 1e9, sent.sum(), received.sum(), delivery.getPercentile(99) / 1e6);
+    }
+
+    // Сессия: подключение и вход (не больше connectConcurrency одновременно), вход в комнату,
+    // отправка до окончания прогона, затем ещё drain мс только приём - и выход
+    private void runSession(int index) {
+        boolean counted = false;
+        int room = index % options.rooms();
+        try (Socket socket = new Socket()) {
+            InputStream in;
+            OutputStream out;
+            connecting.acquire();
+            try {
+                socket.connect(new InetSocketAddress(options.host(), options.port()), 30_000);
+                socket.setTcpNoDelay(true);
+                in = new BufferedInputStream(socket.getInputStream());
+                out = new BufferedOutputStream(socket.getOutputStream());
+                readLine(in);
+                readLine(in);
+                writeLine(out, WireProtocol.UPGRADE_REQUEST);
+                String reply = readLine(in);
+                if (!reply.equals(WireProtocol.UPGRADE_ACCEPTED)) {
+                    throw new IOException("сервер не перешёл на двоичный протокол: " + reply);
+                }
+                authenticate(options.prefix() + "-" + index, in, out);
+            } finally {
+                connecting.release();
+            }
+            writeMessage(out, "/join load-" + room);
+            out.flush();
+            roomMembers[room].increment();
+            Thread reader = Thread.ofVirtual().name("load-reader-" + index).start(() -> readLoop(in));
+            ready.countDown();
+            counted = true;
+            start.await();
+            sendLoop(out, room);
+            Thread.sleep(options.drainMillis());
+            WireProtocol.writeFrame(out, WireProtocol.EXIT, new byte[0]);
+            out.flush();
+            reader.join(options.drainMillis());
+        } catch (IOException e) {
+            fail(index, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (!counted) {
+                ready.countDown();
+            }
+        }
+    }
+
+    private void fail(int index, Exception e) {
+        failed.increment();
+        if (firstError == null) {
+            firstError = "сессия " + index + ": " + e.getMessage();
+        }
+    }
+
+    // Регистрация (логин, оставшийся с прошлого прогона, - тогда вход) или вход
+    private void authenticate(String login, InputStream in, OutputStream out) throws IOException {
+        int opcode = options.register() ? WireProtocol.REGISTER : WireProtocol.LOGIN;
+        while (true) {
+            long started = System.nanoTime();
+            WireProtocol.writeFrame(out, opcode, WireProtocol.credentials(login, options.password()));
+            out.flush();
+            WireProtocol.Status status = readAck(in);
+            if (status == WireProtocol.Status.OK) {
+                loginLatency.record(System.nanoTime() - started);
+                return;
+            }
+            if (status == WireProtocol.Status.LOGIN_TAKEN && opcode == WireProtocol.REGISTER) {
+                opcode = WireProtocol.LOGIN;
+                continue;
+            }
+            throw new IOException("вход " + login + " не выполнен: " + status);
+        }
+    }
+
+    private static WireProtocol.Status readAck(InputStream in) throws IOException {
+        WireProtocol.Frame frame;
+        while ((frame = WireProtocol.readFrame(in, WireProtocol.MAX_SERVER_FRAME_LENGTH)) != null) {
+            if (frame.opcode() == WireProtocol.ACK && frame.payload().length >= 2) {
+                return WireProtocol.Status.of(frame.payload()[1]);
+            }
+        }
+        throw new EOFException("сервер закрыл соединение");
+    }
+
+    // Отправка по расписанию: интервал 1/rate, начало случайно сдвинуто внутри интервала,
+    // чтобы сессии не отправляли одновременно. Отставшая сессия не догоняет пачкой
+    private void sendLoop(OutputStream out, int room) throws IOException {
+        long interval = (long) (1e9 / options.rate());
+        long next = System.nanoTime() + ThreadLocalRandom.current().nextLong(Math.max(interval, 1));
+        String padding = "x".repeat(Math.max(0, options.messageBytes() - MARKER.length() - 20));
+        while (true) {
+            long now = System.nanoTime();
+            if (next >= deadline) {
+                return;
+            }
+            if (next > now) {
+                LockSupport.parkNanos(next - now);
+                continue;
+            }
+            writeMessage(out, MARKER + System.nanoTime() + " " + padding);
+            out.flush();
+            sent.increment();
+            sentToRoom[room].increment();
+            next += interval;
+            if (next < now - interval) {
+                next = now;
+            }
+        }
+    }
+
+    private void readLoop(InputStream in) {
+        try {
+            WireProtocol.Frame frame;
+            while ((frame = WireProtocol.readFrame(in, WireProtocol.MAX_SERVER_FRAME_LENGTH)) != null) {
+                if (frame.opcode() == WireProtocol.CHAT) {
+                    long sentAt = sentAt(frame.text());
+                    if (sentAt > 0) {
+                        delivery.record(System.nanoTime() - sentAt);
+                        received.increment();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // соединение закрыто после выхода
+        }
+    }
+
+    // Время отправки из текста сообщения ("<логин>: #load <nanoTime> ..."); 0 - сообщение не нагрузочное
+    static long sentAt(String text) {
+        int marker = text.indexOf(MARKER);
+        if (marker < 0) {
+            return 0;
+        }
+        int from = marker + MARKER.length();
+        int to = text.indexOf(' ', from);
+        try {
+            return Long.parseLong(to < 0 ? text.substring(from) : text.substring(from, to));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void writeMessage(OutputStream out, String text) throws IOException {
+        WireProtocol.writeFrame(out, WireProtocol.MESSAGE, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeLine(OutputStream out, String line) throws IOException {
+        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    // Строка до перехода на двоичный протокол - побайтно, чтобы не захватить начало кадров
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) >= 0 && b != '\n') {
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        if (b < 0) {
+            throw new EOFException("сервер закрыл соединение");
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+}
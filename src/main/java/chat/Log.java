@@ -1,28 +1,81 @@
 package chat;
 
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.time.LocalDateTime;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
+// Асинхронный логгер: вызывающий поток только кладёт запись в кольцевой буфер
+// без блокировок, а один фоновый поток пачками пишет записи в постоянно открытые файлы.
+// Параметры задаются свойствами JVM (логгер запускается раньше, чем читаются настройки):
+//   -Dchat.log.queueCapacity   - размер очереди записей (по умолчанию 65536)
+//   -Dchat.log.flushBytes      - сброс в файл, когда в буфере накопилось столько байт (65536)
+//   -Dchat.log.flushIntervalMillis - сброс не реже, чем раз в столько миллисекунд (200)
+//   -Dchat.log.overflowPolicy  - BLOCK (ждать места в очереди) или DROP (пропустить запись)
+//   -Dchat.log.maxFileBytes    - размер файла, после которого он уходит в архив (10 Мб, 0 - без ограничения)
+//   -Dchat.log.rollDaily       - начинать новый файл каждый день (true)
+//   -Dchat.log.maxArchives     - сколько архивов хранить (10)
+//   -Dchat.log.compress        - сжимать архивы gzip (true)
 public class Log {
-    private final String logFilePath;
-    private final String logFilePathError;
-    private final Object lock = new Object();
-    private final Object lockError = new Object();
     public final static String SERVER = "Server";
     public final static String CLIENT = "Client";
 
     private static final String FILE_LOG = "src/main/resources/file.log";
     private static final String FILE_LOG_ERROR = "src/main/resources/error.log";
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss").withZone(ZoneId.systemDefault());
 
-    private static Log INSTANCE = null;
+    private static volatile Log INSTANCE = null;
 
+    // Что делать, если очередь записей заполнена
+    public enum OverflowPolicy { BLOCK, DROP }
 
-    private Log(String logFilePath, String logFilePathError) {
-        this.logFilePath = logFilePath;
-        this.logFilePathError = logFilePathError;
+    private enum Kind { LOG, RAW, ERROR, FLUSH }
+
+    private record Entry(Kind kind, long time, String type, String message, CountDownLatch flushed) {
+    }
+
+    private final MpscRingBuffer<Entry> queue;
+    private final OverflowPolicy overflowPolicy;
+    private final int flushBytes;
+    private final long flushIntervalNanos;
+    private final LogFile logFile;
+    private final LogFile errorFile;
+    private final Thread writer;
+    private final AtomicLong droppedCount = new AtomicLong();
+    private volatile boolean writerSleeping;
+    private volatile boolean stopping;
+    private final List<Runnable> shutdownTasks = new CopyOnWriteArrayList<>();
+
+    // Кеш отформатированного времени: секунды меняются реже, чем пишутся записи
+    private long cachedSecond = Long.MIN_VALUE;
+    private String cachedTimestamp;
+    private long reportedDropped;
+
+    // Логгер в свои файлы (тесты); сервер пользуется общим getInstance()
+    Log(String logFilePath, String logFilePathError) {
+        this.flushBytes = Integer.getInteger("chat.log.flushBytes", 64 * 1024);
+        this.queue = new MpscRingBuffer<>(Integer.getInteger("chat.log.queueCapacity", 64 * 1024));
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("chat.log.flushIntervalMillis", 200));
+        this.overflowPolicy = OverflowPolicy.valueOf(System.getProperty("chat.log.overflowPolicy", "BLOCK").toUpperCase());
+        LogFile.RollingPolicy rollingPolicy = new LogFile.RollingPolicy(
+                Long.getLong("chat.log.maxFileBytes", 10L * 1024 * 1024),
+                Boolean.parseBoolean(System.getProperty("chat.log.rollDaily", "true")),
+                Integer.getInteger("chat.log.maxArchives", 10),
+                Boolean.parseBoolean(System.getProperty("chat.log.compress", "true")));
+        this.logFile = new LogFile(logFilePath, flushBytes, rollingPolicy);
+        this.errorFile = new LogFile(logFilePathError, flushBytes, rollingPolicy);
+        this.writer = new Thread(this::writeEntries, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::runShutdownHook, "log-shutdown"));
     }
 
     public static Log getInstance() {
@@ -38,34 +91,203 @@ public class Log {
 
     //Логирование
     public void log(String msg, String type) {
-        DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss");
-        LocalDateTime now = LocalDateTime.now();
-        String logMessage = "[" + dtf.format(now) + "] <" + type + ": " + msg + ">";
-        logToFile(logMessage);
+        enqueue(new Entry(Kind.LOG, System.currentTimeMillis(), type, msg, null));
     }
 
-    // Запись лога в файл
+    // Запись строки в лог как есть
     public void logToFile(String msg) {
-        synchronized (lock) { // Синхронизация для обеспечения потокобезопасности
-            try (PrintWriter out = new PrintWriter(new FileWriter(logFilePath, true))) {
-                out.println(msg);
-            } catch (IOException e) {
-                logError("Ошибка при записи лога: " + e.getMessage(), CLIENT);
-            }
-        }
+        enqueue(new Entry(Kind.RAW, 0, null, msg, null));
     }
 
     // Логирование ошибок в отдельный файл
     public void logError(String errorMsg, String type) {
-        DateTimeFormatter dtf = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss");
-        LocalDateTime now = LocalDateTime.now();
-        String errorLogMessage = "[" + dtf.format(now) + "] <ERROR> " + type + ": " + errorMsg + "\n";
-        synchronized (lockError) { // Синхронизация для обеспечения потокобезопасности
-            try (FileWriter errorWriter = new FileWriter(logFilePathError, true)) {
-                errorWriter.write(errorLogMessage);
-            } catch (IOException e) {
-                System.err.println("Ошибка при записи ошибки в лог: " + e.getMessage());
+        enqueue(new Entry(Kind.ERROR, System.currentTimeMillis(), type, errorMsg, null));
+    }
+
+    // Ожидание, пока все ранее поставленные записи окажутся в файлах
+    public void flush() {
+        if (Thread.currentThread() == writer || stopping) {
+            return;
+        }
+        CountDownLatch flushed = new CountDownLatch(1);
+        Entry marker = new Entry(Kind.FLUSH, 0, null, null, flushed);
+        while (!queue.offer(marker)) {
+            wakeWriter();
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+        }
+        wakeWriter();
+        try {
+            flushed.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Задача для завершения JVM, которая выполнится до остановки логгера (остановка сервера).
+    // Порядок отдельных хуков JVM не определён, поэтому задачи выполняет хук самого логгера -
+    // иначе записи, сделанные при остановке, могли бы не попасть в файл
+    public void beforeShutdown(Runnable task) {
+        shutdownTasks.add(task);
+    }
+
+    private void runShutdownHook() {
+        for (Runnable task : shutdownTasks) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logError("Ошибка при завершении работы: " + e, SERVER);
+            }
+        }
+        shutdown();
+    }
+
+    // Остановка: дописываем очередь и закрываем файлы (вызывается и при завершении JVM)
+    public void shutdown() {
+        if (stopping) {
+            return;
+        }
+        stopping = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Число записей, ожидающих записи в файл
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    private void enqueue(Entry entry) {
+        if (stopping) {
+            return;
+        }
+        while (!queue.offer(entry)) {
+            if (overflowPolicy == OverflowPolicy.DROP || Thread.currentThread() == writer) {
+                droppedCount.incrementAndGet();
+                return;
+            }
+            wakeWriter();
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50));
+        }
+        wakeWriter();
+    }
+
+    private void wakeWriter() {
+        if (writerSleeping) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    // Фоновый поток: пачками переносит записи из очереди в буферы файлов.
+    // Буфер сбрасывается в файл при заполнении (chat.log.flushBytes), по таймеру и при остановке
+    private void writeEntries() {
+        long nextFlush = System.nanoTime() + flushIntervalNanos;
+        while (true) {
+            Entry entry = queue.poll();
+            if (entry != null) {
+                write(entry);
+                continue;
+            }
+            long now = System.nanoTime();
+            if (now - nextFlush >= 0) {
+                flushFiles();
+                nextFlush = now + flushIntervalNanos;
+            }
+            if (stopping && queue.isEmpty()) {
+                break;
+            }
+            writerSleeping = true;
+            if (queue.isEmpty() && !stopping) {
+                if (logFile.hasPending() || errorFile.hasPending()) {
+                    LockSupport.parkNanos(this, Math.max(0, nextFlush - now));
+                } else {
+                    LockSupport.park(this);
+                    nextFlush = System.nanoTime() + flushIntervalNanos;
+                }
+            }
+            writerSleeping = false;
+        }
+        try {
+            reportDropped();
+            logFile.close();
+            errorFile.close();
+        } catch (IOException e) {
+            System.err.println("Ошибка при закрытии лога: " + e.getMessage());
+        }
+    }
+
+    private void write(Entry entry) {
+        switch (entry.kind()) {
+            case LOG -> append(logFile, "[" + timestamp(entry.time()) + "] <" + entry.type() + ": " + entry.message() + ">"
+                    + System.lineSeparator());
+            case RAW -> append(logFile, entry.message() + System.lineSeparator());
+            case ERROR -> append(errorFile, "[" + timestamp(entry.time()) + "] <ERROR> " + entry.type() + ": "
+                    + entry.message() + "\n");
+            case FLUSH -> {
+                flushFiles();
+                entry.flushed().countDown();
             }
         }
     }
+
+    private void append(LogFile file, String line) {
+        try {
+            file.append(line.getBytes(StandardCharsets.UTF_8));
+            if (file.isFull(flushBytes)) {
+                file.flush();
+            }
+        } catch (IOException e) {
+            handleWriteError(file, e);
+        }
+    }
+
+    private void flushFiles() {
+        reportDropped();
+        try {
+            logFile.flush();
+        } catch (IOException e) {
+            handleWriteError(logFile, e);
+        }
+        try {
+            errorFile.flush();
+        } catch (IOException e) {
+            handleWriteError(errorFile, e);
+        }
+    }
+
+    private void handleWriteError(LogFile file, IOException e) {
+        if (file == logFile) {
+            append(errorFile, "[" + timestamp(System.currentTimeMillis()) + "] <ERROR> " + CLIENT
+                    + ": Ошибка при записи лога: " + e.getMessage() + "\n");
+        } else {
+            System.err.println("Ошибка при записи ошибки в лог: " + e.getMessage());
+        }
+    }
+
+    // Сообщение о пропущенных при переполнении записях
+    private void reportDropped() {
+        long dropped = droppedCount.get();
+        if (dropped != reportedDropped) {
+            long count = dropped - reportedDropped;
+            reportedDropped = dropped;
+            append(errorFile, "[" + timestamp(System.currentTimeMillis()) + "] <ERROR> " + SERVER
+                    + ": Очередь лога переполнена, пропущено записей: " + count + "\n");
+        }
+    }
+
+    private String timestamp(long millis) {
+        long second = Math.floorDiv(millis, 1000);
+        if (second != cachedSecond) {
+            cachedSecond = second;
+            cachedTimestamp = DATE_FORMAT.format(Instant.ofEpochMilli(millis));
+        }
+        return cachedTimestamp;
+    }
 }
@@ -0,0 +1,230 @@
+package chat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+// Файл лога, который держится открытым всё время работы: записи копятся
+// в буфере и попадают в файл одной операцией записи на пачку.
+// При превышении размера или смене дня файл переименовывается в архив
+// (file.log.2024-09-28.1), архив сжимается gzip в фоновом потоке, лишние архивы удаляются.
+// Используется только потоком-писателем Log, поэтому ротация происходит между пачками
+// и строки не теряются и не разрываются
+class LogFile {
+
+    // Правила ротации: maxBytes = 0 - без ограничения размера
+    record RollingPolicy(long maxBytes, boolean daily, int maxArchives, boolean compress) {
+        static final RollingPolicy NONE = new RollingPolicy(0, false, 0, false);
+    }
+
+    private static final ExecutorService compressor = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "log-compressor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path path;
+    private final ByteBuffer buffer;
+    private final RollingPolicy policy;
+    private FileChannel channel;
+    private long size;
+    private LocalDate day;
+    private LocalDate lastArchiveDay; // день и номер последнего архива, созданного этим файлом
+    private long lastArchiveIndex;
+
+    LogFile(String path, int bufferSize) {
+        this(path, bufferSize, RollingPolicy.NONE);
+    }
+
+    LogFile(String path, int bufferSize, RollingPolicy policy) {
+        this.path = Path.of(path);
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.policy = policy;
+    }
+
+    // Добавление записи; если буфер заполнен - он сначала сбрасывается в файл
+    void append(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.remaining()) {
+            flush();
+        }
+        if (bytes.length > buffer.capacity()) {
+            writeFully(ByteBuffer.wrap(bytes));
+        } else {
+            buffer.put(bytes);
+        }
+    }
+
+    boolean hasPending() {
+        return buffer.position() > 0;
+    }
+
+    boolean isFull(int threshold) {
+        return buffer.position() >= threshold;
+    }
+
+    // Запись накопленного буфера в файл
+    void flush() throws IOException {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        try {
+            writeFully(buffer);
+        } finally {
+            buffer.clear();
+        }
+    }
+
+    private void writeFully(ByteBuffer source) throws IOException {
+        if (channel == null) {
+            open();
+        }
+        if (needsRollover(source.remaining())) {
+            rollover();
+        }
+        while (source.hasRemaining()) {
+            size += channel.write(source);
+        }
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        size = channel.size();
+        day = size == 0 ? today() : LocalDate.ofInstant(Files.getLastModifiedTime(path).toInstant(), ZoneId.systemDefault());
+    }
+
+    private boolean needsRollover(int incoming) {
+        if (size == 0) {
+            day = today();
+            return false;
+        }
+        return (policy.daily() && !today().equals(day))
+                || (policy.maxBytes() > 0 && size + incoming > policy.maxBytes());
+    }
+
+    // Текущий файл становится архивом, запись продолжается в новый пустой файл
+    private void rollover() throws IOException {
+        channel.force(false);
+        channel.close();
+        Path archive = nextArchivePath();
+        Files.move(path, archive, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        size = 0;
+        day = today();
+        compressor.execute(() -> archive(archive));
+    }
+
+    // Номер архива - на единицу больше самого большого за этот день (и выданного раньше этим файлом):
+    // номер, освободившийся после удаления старого архива, не используется повторно, иначе новый архив
+    // оказался бы среди самых старых и был бы удалён следующей очисткой
+    private Path nextArchivePath() throws IOException {
+        String prefix = path.getFileName() + ".";
+        String dayPrefix = prefix + day + ".";
+        if (!day.equals(lastArchiveDay)) {
+            lastArchiveDay = day;
+            lastArchiveIndex = 0;
+        }
+        long index = lastArchiveIndex;
+        try (Stream<Path> files = Files.list(path.toAbsolutePath().getParent())) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(dayPrefix) && isArchiveName(name, prefix)) {
+                    index = Math.max(index, archiveIndex(file, prefix));
+                }
+            }
+        }
+        lastArchiveIndex = index + 1;
+        return path.resolveSibling(dayPrefix + lastArchiveIndex);
+    }
+
+    // Фоновая часть ротации: сжатие архива и удаление самых старых архивов
+    private void archive(Path archive) {
+        try {
+            if (policy.compress()) {
+                compress(archive);
+            }
+            deleteOldArchives();
+        } catch (IOException e) {
+            System.err.println("Ошибка при архивации лога " + archive + ": " + e.getMessage());
+        }
+    }
+
+    private static void compress(Path archive) throws IOException {
+        Path compressed = archive.resolveSibling(archive.getFileName() + ".gz");
+        Path temporary = archive.resolveSibling(archive.getFileName() + ".gz.tmp");
+        try (InputStream in = Files.newInputStream(archive);
+             OutputStream out = new GZIPOutputStream(Files.newOutputStream(temporary), 64 * 1024)) {
+            in.transferTo(out);
+        }
+        Files.move(temporary, compressed, StandardCopyOption.ATOMIC_MOVE);
+        Files.delete(archive);
+    }
+
+    private void deleteOldArchives() throws IOException {
+        if (policy.maxArchives() <= 0) {
+            return;
+        }
+        String prefix = path.getFileName() + ".";
+        List<Path> archives;
+        try (Stream<Path> files = Files.list(path.toAbsolutePath().getParent())) {
+            archives = files.filter(file -> isArchiveName(file.getFileName().toString(), prefix))
+                    .sorted(Comparator.comparing((Path file) -> archiveKey(file, prefix)).reversed())
+                    .toList();
+        }
+        for (Path old : archives.subList(Math.min(policy.maxArchives(), archives.size()), archives.size())) {
+            Files.deleteIfExists(old);
+        }
+    }
+
+    // Имя архива: <файл>.<гггг-мм-дд>.<номер>[.gz]
+    private static boolean isArchiveName(String name, String prefix) {
+        if (!name.startsWith(prefix)) {
+            return false;
+        }
+        String[] parts = name.substring(prefix.length()).split("\\.");
+        return (parts.length == 2 || (parts.length == 3 && parts[2].equals("gz")))
+                && parts[0].length() == 10 && parts[1].chars().allMatch(Character::isDigit);
+    }
+
+    // Ключ сортировки архивов от старых к новым: дата, затем номер за день
+    private static String archiveKey(Path file, String prefix) {
+        String[] parts = file.getFileName().toString().substring(prefix.length()).split("\\.");
+        return parts[0] + String.format("%010d", Long.parseLong(parts[1]));
+    }
+
+    private static long archiveIndex(Path file, String prefix) {
+        return Long.parseLong(file.getFileName().toString().substring(prefix.length()).split("\\.")[1]);
+    }
+
+    // Ожидание завершения фоновой архивации (для тестов)
+    static void awaitArchiving() throws Exception {
+        compressor.submit(() -> { }).get();
+    }
+
+    private static LocalDate today() {
+        return LocalDate.now();
+    }
+
+    void close() throws IOException {
+        flush();
+        if (channel != null) {
+            channel.force(false);
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package chat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+// Хранилище истории сообщений: журнал только на дозапись, разбитый на сегменты.
+// Сегмент - два отображённых в память файла: данные (<номер первого сообщения>.msg)
+// и индекс (.idx) с записью фиксированного размера на каждое сообщение (время и смещение в данных).
+// Номера сообщений идут подряд, поэтому запись индекса по номеру находится сразу,
+// а по времени - двоичным поиском: последние N сообщений читаются без просмотра всей истории.
+// Данные попадают в страничный кеш ОС при записи и переживают падение процесса;
+// на диск сегмент сбрасывается при переходе к следующему сегменту и при закрытии
+public class MessageStore implements Closeable {
+    private static final String DATA_SUFFIX = ".msg";
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final int RECORD_HEADER = Integer.BYTES + Long.BYTES; // длина записи + время
+    private static final int INDEX_ENTRY = 16;                           // время + смещение + длина
+    // Индекс рассчитан на одно сообщение на каждые 32 байта данных (для обычных строк чата с запасом).
+    // Это предел числа сообщений в сегменте, а не оценка размера записи: короткие записи (от RECORD_HEADER)
+    // заполняют индекс раньше файла данных, и тогда fits() начинает новый сегмент
+    private static final int DATA_BYTES_PER_INDEX_ENTRY = 32;
+    private static final int MIN_SEGMENT_BYTES = 4096;
+
+    // Сообщение из истории
+    public record StoredMessage(long seq, long timestamp, String text) {
+    }
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final List<Segment> segments = new ArrayList<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private long lastTimestamp;
+
+    public MessageStore(Path dir, int segmentBytes, int maxSegments) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = Math.max(MIN_SEGMENT_BYTES, segmentBytes);
+        this.maxSegments = Math.max(1, maxSegments);
+        Files.createDirectories(dir);
+        openSegments();
+    }
+
+    // Добавление сообщения в конец истории, возвращает его номер
+    public long append(String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        int recordLength = RECORD_HEADER + bytes.length;
+        if (recordLength > segmentBytes) {
+            throw new IOException("Сообщение не помещается в сегмент истории: " + bytes.length + " байт");
+        }
+        lock.writeLock().lock();
+        try {
+            Segment segment = segments.get(segments.size() - 1);
+            if (!segment.fits(recordLength)) {
+                segment = rollSegment();
+            }
+            // время в истории не убывает, даже если системные часы перевели назад
+            long timestamp = Math.max(System.currentTimeMillis(), lastTimestamp);
+            lastTimestamp = timestamp;
+            return segment.append(timestamp, bytes);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Последние count сообщений в порядке их отправки
+    public List<StoredMessage> last(int count) {
+        lock.readLock().lock();
+        try {
+            long end = nextSeq();
+            return read(Math.max(firstSeq(), end - Math.max(0, count)), end);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Сообщения, отправленные не раньше timestamp (не более limit первых из них)
+    public List<StoredMessage> since(long timestamp, int limit) {
+        lock.readLock().lock();
+        try {
+            long from = findFirstAtOrAfter(timestamp);
+            return read(from, Math.min(nextSeq(), from + Math.max(0, limit)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Сообщение с номером seq; null - его нет или оно уже удалено вместе со старым сегментом
+    public StoredMessage get(long seq) {
+        lock.readLock().lock();
+        try {
+            if (seq < firstSeq() || seq >= nextSeq()) {
+                return null;
+            }
+            return segments.get(findSegment(seq)).read(seq);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Не более limit сообщений начиная с номера from (или с самого старого из сохранившихся)
+    public List<StoredMessage> range(long from, int limit) {
+        lock.readLock().lock();
+        try {
+            long start = Math.max(from, firstSeq());
+            return read(start, Math.min(nextSeq(), start + Math.max(0, limit)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Номер самого старого сохранившегося сообщения
+    public long oldestSeq() {
+        lock.readLock().lock();
+        try {
+            return firstSeq();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Номер, который получит следующее сообщение
+    public long nextSeq() {
+        lock.readLock().lock();
+        try {
+            Segment last = segments.get(segments.size() - 1);
+            return last.firstSeq + last.count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            for (Segment segment : segments) {
+                segment.force();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private long firstSeq() {
+        return segments.get(0).firstSeq;
+    }
+
+    private List<StoredMessage> read(long from, long to) {
+        List<StoredMessage> messages = new ArrayList<>((int) Math.max(0, to - from));
+        if (from >= to) {
+            return messages;
+        }
+        int segmentIndex = findSegment(from);
+        for (long seq = from; seq < to; seq++) {
+            Segment segment = segments.get(segmentIndex);
+            if (seq >= segment.firstSeq + segment.count) {
+                segment = segments.get(++segmentIndex);
+            }
+            messages.add(segment.read(seq));
+        }
+        return messages;
+    }
+
+    // Сегмент, в котором лежит сообщение с номером seq (двоичный поиск по номерам первых сообщений)
+    private int findSegment(long seq) {
+        int low = 0;
+        int high = segments.size() - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (segments.get(middle).firstSeq <= seq) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    // Номер первого сообщения со временем не меньше timestamp
+    private long findFirstAtOrAfter(long timestamp) {
+        for (Segment segment : segments) {
+            if (segment.count > 0 && segment.timestamp(segment.count - 1) >= timestamp) {
+                return segment.firstSeq + segment.findFirstAtOrAfter(timestamp);
+            }
+        }
+        return nextSeq();
+    }
+
+    // Переход к новому сегменту; самые старые сегменты сверх history.maxSegments удаляются
+    private Segment rollSegment() throws IOException {
+        Segment current = segments.get(segments.size() - 1);
+        current.force();
+        Segment next = Segment.open(dir, current.firstSeq + current.count, segmentBytes);
+        segments.add(next);
+        while (segments.size() > maxSegments) {
+            segments.remove(0).delete();
+        }
+        return next;
+    }
+
+    private void openSegments() throws IOException {
+        List<Long> firstSeqs;
+        try (Stream<Path> files = Files.list(dir)) {
+            firstSeqs = files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(DATA_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(0, name.length() - DATA_SUFFIX.length())))
+                    .sorted()
+                    .toList();
+        }
+        for (long firstSeq : firstSeqs) {
+            segments.add(Segment.open(dir, firstSeq, segmentBytes));
+        }
+        if (segments.isEmpty()) {
+            segments.add(Segment.open(dir, 0, segmentBytes));
+        }
+        Segment last = segments.get(segments.size() - 1);
+        last.recover();
+        if (last.count > 0) {
+            lastTimestamp = last.timestamp(last.count - 1);
+        }
+    }
+
+    // Один сегмент истории. Запись данных: [длина записи][время][текст в UTF-8],
+    // запись индекса: [время][смещение в данных][длина записи]. Незаполненный хвост файлов - нули
+    private static final class Segment {
+        private final long firstSeq;
+        private final Path dataPath;
+        private final Path indexPath;
+        private final MappedByteBuffer data;
+        private final MappedByteBuffer index;
+        private int count;
+        private int dataEnd;
+
+        private Segment(long firstSeq, Path dataPath, Path indexPath, MappedByteBuffer data, MappedByteBuffer index) {
+            this.firstSeq = firstSeq;
+            this.dataPath = dataPath;
+            this.indexPath = indexPath;
+            this.data = data;
+            this.index = index;
+        }
+
+        static Segment open(Path dir, long firstSeq, int segmentBytes) throws IOException {
+            String name = String.format("%020d", firstSeq);
+            Path dataPath = dir.resolve(name + DATA_SUFFIX);
+            Path indexPath = dir.resolve(name + INDEX_SUFFIX);
+            // сегмент заканчивается, когда заполнен любой из двух файлов (см. fits)
+            Segment segment = new Segment(firstSeq, dataPath, indexPath,
+                    map(dataPath, segmentBytes), map(indexPath, segmentBytes / DATA_BYTES_PER_INDEX_ENTRY * INDEX_ENTRY));
+            segment.count = segment.countIndexed();
+            if (segment.count > 0) {
+                int last = segment.count - 1;
+                segment.dataEnd = segment.position(last) + segment.length(last);
+            }
+            return segment;
+        }
+
+        private static MappedByteBuffer map(Path path, int size) throws IOException {
+            try (FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // существующий файл отображается в своём размере, новый создаётся нужного размера
+                long length = channel.size() > 0 ? channel.size() : size;
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+            }
+        }
+
+        // Место для записи есть и в данных, и в индексе
+        boolean fits(int recordLength) {
+            return dataEnd + recordLength <= data.capacity() && (count + 1) * INDEX_ENTRY <= index.capacity();
+        }
+
+        // Данные пишутся раньше индекса: при падении между ними запись восстанавливается в recover()
+        long append(long timestamp, byte[] bytes) {
+            int recordLength = RECORD_HEADER + bytes.length;
+            data.putLong(dataEnd + Integer.BYTES, timestamp);
+            data.put(dataEnd + RECORD_HEADER, bytes);
+            data.putInt(dataEnd, recordLength);
+            writeIndex(timestamp, dataEnd, recordLength);
+            dataEnd += recordLength;
+            return firstSeq + count - 1;
+        }
+
+        StoredMessage read(long seq) {
+            int entry = (int) (seq - firstSeq);
+            int position = position(entry);
+            byte[] bytes = new byte[length(entry) - RECORD_HEADER];
+            data.get(position + RECORD_HEADER, bytes);
+            return new StoredMessage(seq, timestamp(entry), new String(bytes, StandardCharsets.UTF_8));
+        }
+
+        long timestamp(int entry) {
+            return index.getLong(entry * INDEX_ENTRY);
+        }
+
+        private int position(int entry) {
+            return index.getInt(entry * INDEX_ENTRY + Long.BYTES);
+        }
+
+        private int length(int entry) {
+            return index.getInt(entry * INDEX_ENTRY + Long.BYTES + Integer.BYTES);
+        }
+
+        private void writeIndex(long timestamp, int position, int recordLength) {
+            int offset = count * INDEX_ENTRY;
+            index.putLong(offset, timestamp);
+            index.putInt(offset + Long.BYTES, position);
+            index.putInt(offset + Long.BYTES + Integer.BYTES, recordLength);
+            count++;
+        }
+
+        int findFirstAtOrAfter(long timestamp) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (timestamp(middle) < timestamp) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        // Записи индекса заполняются подряд, поэтому первая пустая ищется двоичным поиском
+        private int countIndexed() {
+            int low = 0;
+            int high = index.capacity() / INDEX_ENTRY;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (length(middle) > 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+
+        // Дописывание в индекс записей, данные которых успели попасть в файл до падения
+        void recover() {
+            while (dataEnd + RECORD_HEADER <= data.capacity() && (count + 1) * INDEX_ENTRY <= index.capacity()) {
+                int recordLength = data.getInt(dataEnd);
+                if (recordLength < RECORD_HEADER || dataEnd + recordLength > data.capacity()) {
+                    break;
+                }
+                writeIndex(data.getLong(dataEnd + Integer.BYTES), dataEnd, recordLength);
+                dataEnd += recordLength;
+            }
+        }
+
+        void force() {
+            data.force();
+            index.force();
+        }
+
+        void delete() throws IOException {
+            Files.deleteIfExists(dataPath);
+            Files.deleteIfExists(indexPath);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package chat;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Ограниченный кольцевой буфер без блокировок: много писателей, один читатель.
+// Каждая ячейка хранит номер ожидаемого круга, поэтому писатели резервируют ячейку
+// одним CAS и не мешают друг другу, а читатель забирает элементы без CAS вообще
+public class MpscRingBuffer<E> {
+    private final int mask;
+    private final AtomicReferenceArray<E> elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong(); // меняет только читатель
+
+    // capacity округляется вверх до степени двойки
+    public MpscRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.mask = size - 1;
+        this.elements = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    // Добавление элемента; false - буфер заполнен
+    public boolean offer(E element) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    elements.lazySet(index, element);
+                    sequences.set(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    // Следующий элемент или null, если буфер пуст (вызывает только поток-читатель)
+    public E poll() {
+        long position = head.get();
+        int index = (int) (position & mask);
+        if (sequences.get(index) != position + 1) {
+            return null;
+        }
+        E element = elements.get(index);
+        elements.lazySet(index, null);
+        sequences.set(index, position + mask + 1);
+        head.lazySet(position + 1);
+        return element;
+    }
+
+    public boolean isEmpty() {
+        long position = head.get();
+        return sequences.get((int) (position & mask)) != position + 1;
+    }
+
+    // Примерное число элементов (для метрик)
+    public int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
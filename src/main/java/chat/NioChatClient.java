@@ -0,0 +1,413 @@
+package chat;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Клиент двоичного протокола для встраивания (боты, интеграции), отдельно от консольного ChatClient:
+// один поток-селектор обслуживает любое число соединений, события приходят в Listener.
+// Вход за один обмен: строка перехода и кадр LOGIN (REGISTER) уходят сразу после подключения,
+// не дожидаясь приветствия и подтверждения перехода. Сообщения, отправленные до ответа на вход,
+// ждут его в очереди соединения и уходят, только если вход удался
+public class NioChatClient implements AutoCloseable {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+    private static final int MAX_GATHER = 64;
+    private static final Log logger = Log.getInstance();
+
+    // События соединения. Вызываются в потоке-селекторе: обработчик не должен блокироваться,
+    // долгую работу - в свои потоки
+    public interface Listener {
+        // Ответ на вход или регистрацию; при OK пользователь в чате и очередь сообщений уходит на сервер.
+        // После UNKNOWN_LOGIN и LOGIN_TAKEN соединение открыто - можно повторить login или register
+        default void onLogin(Connection connection, WireProtocol.Status status, String text) {
+        }
+
+        // Сообщение сервера: SYSTEM (в том числе строки приветствия до перехода) или CHAT
+        void onMessage(Connection connection, int opcode, String text);
+
+        // Соединение закрыто; cause - ошибка или null, если его закрыл сервер или клиент
+        default void onClosed(Connection connection, IOException cause) {
+        }
+    }
+
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private final ByteBuffer[] gatherBuffers = new ByteBuffer[MAX_GATHER];
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private volatile boolean running = true;
+
+    public NioChatClient() throws IOException {
+        this("chat-client-loop");
+    }
+
+    public NioChatClient(String threadName) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this::run, threadName);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    // Подключение и вход (register = true - регистрация). Результат доступен сразу:
+    // send можно вызывать, не дожидаясь onLogin
+    public Connection connect(String host, int port, String login, String password, boolean register,
+                              Listener listener) throws IOException {
+        if (!running) {
+            throw new IOException("Клиент остановлен");
+        }
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            Connection connection = new Connection(channel, login, listener);
+            connection.control.add(ByteBuffer.wrap((WireProtocol.UPGRADE_REQUEST + "\n").getBytes(StandardCharsets.UTF_8)));
+            connection.control.add(frame(register ? WireProtocol.REGISTER : WireProtocol.LOGIN,
+                    WireProtocol.credentials(login, password)));
+            boolean connected = channel.connect(new InetSocketAddress(host, port));
+            connectionCount.incrementAndGet();
+            execute(() -> register(connection, connected));
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Открытых соединений
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    // Закрытие всех соединений (каждое получит onClosed) и остановка потока
+    @Override
+    public void close() {
+        running = false;
+        selector.wakeup();
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    private void execute(Runnable task) {
+        tasks.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                if (tasks.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+                processSelectedKeys();
+                runTasks();
+            } catch (IOException e) {
+                logger.logError("Ошибка в цикле обработки событий клиента: " + e.getMessage(), Log.CLIENT);
+            }
+        }
+        runTasks();
+        for (SelectionKey key : new ArrayList<>(selector.keys())) {
+            ((Connection) key.attachment()).closeNow(null);
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.logError("Ошибка при закрытии селектора клиента: " + e.getMessage(), Log.CLIENT);
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private void processSelectedKeys() {
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+            Connection connection = (Connection) key.attachment();
+            try {
+                if (key.isValid() && key.isConnectable()) {
+                    connection.onConnected();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    connection.onReadable();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    connection.flush();
+                }
+            } catch (IOException e) {
+                connection.closeNow(e);
+            } catch (RuntimeException e) {
+                logger.logError("Ошибка при обработке соединения " + connection.getLogin() + ": " + e, Log.CLIENT);
+                connection.closeNow(null);
+            }
+        }
+    }
+
+    private void register(Connection connection, boolean connected) {
+        try {
+            if (!running) {
+                throw new IOException("Клиент остановлен");
+            }
+            connection.key = connection.channel.register(selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, connection);
+            if (connected) {
+                connection.flush();
+            }
+        } catch (IOException e) {
+            connection.closeNow(e);
+        }
+    }
+
+    // Кадр целиком в одном буфере
+    private static ByteBuffer frame(int opcode, byte[] payload) {
+        return WireProtocol.header(opcode, payload, 0);
+    }
+
+    // Соединение одного пользователя. send, exit и close можно вызывать из любого потока
+    public final class Connection {
+        private final SocketChannel channel;
+        private final String login;
+        private final Listener listener;
+        // Служебные байты (переход, вход, PONG) - только поток-селектор; уходят и до входа
+        private final ArrayDeque<ByteBuffer> control = new ArrayDeque<>();
+        // Сообщения пользователя из любых потоков; уходят после успешного входа
+        private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+        private final ArrayDeque<ByteBuffer> writing = new ArrayDeque<>(); // взятые для записи (последний - частично)
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private LineDecoder lineDecoder = new LineDecoder(MAX_LINE_LENGTH);
+        private FrameDecoder frameDecoder; // после подтверждения перехода на двоичный протокол
+        private SelectionKey key;
+        private volatile boolean loggedIn;
+
+        private Connection(SocketChannel channel, String login, Listener listener) {
+            this.channel = channel;
+            this.login = login;
+            this.listener = listener;
+        }
+
+        public String getLogin() {
+            return login;
+        }
+
+        public boolean isLoggedIn() {
+            return loggedIn;
+        }
+
+        public boolean isOpen() {
+            return !closed.get();
+        }
+
+        // Строка чата или команда; до ответа на вход ждёт в очереди
+        public void send(String message) {
+            if (closed.get()) {
+                return;
+            }
+            outbound.add(frame(WireProtocol.MESSAGE, message.getBytes(StandardCharsets.UTF_8)));
+            scheduleFlush();
+        }
+
+        // Повторный вход после UNKNOWN_LOGIN или LOGIN_TAKEN
+        public void login(String login, String password) {
+            authenticate(WireProtocol.LOGIN, login, password);
+        }
+
+        public void register(String login, String password) {
+            authenticate(WireProtocol.REGISTER, login, password);
+        }
+
+        private void authenticate(int opcode, String login, String password) {
+            ByteBuffer credentials = frame(opcode, WireProtocol.credentials(login, password));
+            execute(() -> {
+                control.add(credentials);
+                flushQuietly();
+            });
+        }
+
+        // Выход из чата после отправки очереди; сервер закроет соединение.
+        // Если вход не выполнен, соединение закрывается сразу
+        public void exit() {
+            execute(() -> {
+                if (loggedIn) {
+                    outbound.add(frame(WireProtocol.EXIT, new byte[0]));
+                    flushQuietly();
+                } else {
+                    closeNow(null);
+                }
+            });
+        }
+
+        // Закрытие без выхода: неотправленные сообщения теряются
+        public void close() {
+            execute(() -> closeNow(null));
+        }
+
+        private void scheduleFlush() {
+            if (flushScheduled.compareAndSet(false, true)) {
+                execute(this::flushQuietly);
+            }
+        }
+
+        private void onConnected() throws IOException {
+            channel.finishConnect();
+            key.interestOps(SelectionKey.OP_READ);
+            flush();
+        }
+
+        private void onReadable() throws IOException {
+            ByteBuffer buffer = readBuffer;
+            buffer.clear();
+            int read = channel.read(buffer);
+            if (read < 0) {
+                closeNow(null);
+                return;
+            }
+            buffer.flip();
+            String line;
+            while (frameDecoder == null && (line = lineDecoder.decodeLine(buffer)) != null) {
+                onLine(line);
+            }
+            if (frameDecoder != null) {
+                frameDecoder.decode(buffer, this::onFrame);
+            }
+        }
+
+        // До перехода сервер пишет строки: приветствие и подтверждение (после него - кадры)
+        private void onLine(String line) {
+            if (line.equals(WireProtocol.UPGRADE_ACCEPTED)) {
+                frameDecoder = new FrameDecoder(WireProtocol.MAX_SERVER_FRAME_LENGTH);
+                lineDecoder = null;
+            } else {
+                listener.onMessage(this, WireProtocol.SYSTEM, line);
+            }
+        }
+
+        private void onFrame(int opcode, ByteBuffer payload) throws IOException {
+            switch (opcode) {
+                case WireProtocol.SYSTEM, WireProtocol.CHAT ->
+                        listener.onMessage(this, opcode, StandardCharsets.UTF_8.decode(payload).toString());
+                case WireProtocol.ACK -> {
+                    if (payload.remaining() < 2) {
+                        throw new IOException("Повреждены данные кадра");
+                    }
+                    int request = payload.get();
+                    WireProtocol.Status status = WireProtocol.Status.of(payload.get());
+                    String text = StandardCharsets.UTF_8.decode(payload).toString();
+                    if (request != WireProtocol.LOGIN && request != WireProtocol.REGISTER) {
+                        listener.onMessage(this, WireProtocol.SYSTEM, text);
+                        return;
+                    }
+                    if (status == WireProtocol.Status.OK) {
+                        loggedIn = true;
+                        flush();
+                    }
+                    listener.onLogin(this, status, text);
+                }
+                case WireProtocol.PING -> {
+                    control.add(frame(WireProtocol.PONG, new byte[0]));
+                    flush();
+                }
+                case WireProtocol.PONG, WireProtocol.SESSION -> { }
+                default -> throw new IOException("Неизвестный код операции: " + opcode);
+            }
+        }
+
+        private void flushQuietly() {
+            try {
+                flush();
+            } catch (IOException e) {
+                closeNow(e);
+            }
+        }
+
+        // Запись служебных байтов, а после входа и сообщений; если сокет занят, ждём OP_WRITE
+        private void flush() throws IOException {
+            flushScheduled.set(false);
+            if (closed.get() || key == null || !channel.isConnected()) {
+                return;
+            }
+            ByteBuffer[] gather = gatherBuffers;
+            while (true) {
+                ByteBuffer buffer;
+                while (writing.size() < MAX_GATHER && (buffer = control.poll()) != null) {
+                    writing.add(buffer);
+                }
+                while (loggedIn && writing.size() < MAX_GATHER && (buffer = outbound.poll()) != null) {
+                    writing.add(buffer);
+                }
+                if (writing.isEmpty()) {
+                    break;
+                }
+                int count = 0;
+                for (ByteBuffer view : writing) {
+                    gather[count++] = view;
+                }
+                channel.write(gather, 0, count);
+                Arrays.fill(gather, 0, count, null);
+                while (!writing.isEmpty() && !writing.peek().hasRemaining()) {
+                    writing.poll();
+                }
+                if (!writing.isEmpty()) {
+                    key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        }
+
+        private void closeNow(IOException cause) {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            loggedIn = false;
+            connectionCount.decrementAndGet();
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.logError("Ошибка при закрытии соединения " + login + ": " + e.getMessage(), Log.CLIENT);
+            }
+            outbound.clear();
+            control.clear();
+            writing.clear();
+            try {
+                listener.onClosed(this, cause);
+            } catch (RuntimeException e) {
+                logger.logError("Ошибка в обработчике закрытия соединения " + login + ": " + e, Log.CLIENT);
+            }
+        }
+    }
+}
@@ -0,0 +1,478 @@
+package chat;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static chat.ChatServer.logger;
+
+// Неблокирующий сервер: приём подключений в отдельном потоке и небольшой
+// фиксированный набор потоков-селекторов (EventLoop), каждый из которых
+// обслуживает тысячи соединений. Протокол тот же, что и у ClientHandler (ChatSession)
+public class NioChatServer {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    private final int port;
+    private final int backlog;
+    private final EventLoop[] eventLoops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private ServerSocketChannel serverChannel;
+    private Thread acceptor;
+    private volatile boolean running;
+
+    public NioChatServer(int port, int eventLoopCount) {
+        this(port, eventLoopCount, ChatServer.config.getInt("nio.backlog", 1024));
+    }
+
+    public NioChatServer(int port, int eventLoopCount, int backlog) {
+        this.port = port;
+        this.backlog = backlog;
+        this.eventLoops = new EventLoop[Math.max(1, eventLoopCount)];
+    }
+
+    // Открытие порта и запуск потоков
+    public void start() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), backlog);
+        running = true;
+        for (int i = 0; i < eventLoops.length; i++) {
+            eventLoops[i] = new EventLoop(i);
+            eventLoops[i].thread.start();
+        }
+        acceptor = new Thread(this::acceptLoop, "nio-acceptor");
+        acceptor.start();
+    }
+
+    public int getLocalPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    // Остановка приёма подключений; уже подключённых клиентов потоки-селекторы обслуживают дальше
+    public void stopAccepting() {
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            logger.logError("Ошибка при закрытии серверного канала: " + e.getMessage(), Log.SERVER);
+        }
+    }
+
+    // Остановка приёма подключений и всех потоков-селекторов
+    public void stop() {
+        running = false;
+        stopAccepting();
+        for (EventLoop loop : eventLoops) {
+            if (loop != null) {
+                loop.selector.wakeup();
+            }
+        }
+    }
+
+    public void awaitTermination() throws InterruptedException {
+        if (acceptor != null) {
+            acceptor.join();
+        }
+        for (EventLoop loop : eventLoops) {
+            if (loop != null) {
+                loop.thread.join();
+            }
+        }
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                EventLoop loop = eventLoops[Math.floorMod(nextLoop.getAndIncrement(), eventLoops.length)];
+                loop.execute(() -> loop.register(channel));
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                logger.logError("Ошибка при приёме подключения: " + e.getMessage(), Log.SERVER);
+            }
+        }
+    }
+
+    // Поток-селектор: чтение, запись и задачи от других потоков для своих соединений
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        private final ByteBuffer[] gatherBuffers = new ByteBuffer[2 * ChatServer.MAX_GATHER]; // кадр - два буфера
+        // Отложенные сбросы: в конце текущего оборота цикла или по истечении окна outbound.batchWindowMicros
+        private final ArrayDeque<NioConnection> turnFlushes = new ArrayDeque<>();
+        private final ArrayDeque<DeferredFlush> timedFlushes = new ArrayDeque<>();
+
+        EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "nio-event-loop-" + index);
+        }
+
+        boolean inEventLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (!inEventLoop()) {
+                selector.wakeup();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    select();
+                    processSelectedKeys();
+                    runTasks();
+                    runDeferredFlushes();
+                } catch (IOException e) {
+                    logger.logError("Ошибка в цикле обработки событий: " + e.getMessage(), Log.SERVER);
+                }
+            }
+            runTasks();
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof NioConnection connection) {
+                    connection.closeNow();
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                logger.logError("Ошибка при закрытии селектора: " + e.getMessage(), Log.SERVER);
+            }
+        }
+
+        private void select() throws IOException {
+            if (!tasks.isEmpty() || !turnFlushes.isEmpty()) {
+                selector.selectNow();
+            } else if (!timedFlushes.isEmpty()) {
+                long waitNanos = timedFlushes.peek().deadline() - System.nanoTime();
+                if (waitNanos > 0) {
+                    selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(waitNanos)));
+                } else {
+                    selector.selectNow();
+                }
+            } else {
+                selector.select();
+            }
+        }
+
+        // Сообщения, накопленные за оборот цикла (или окно), уходят одним сбросом на соединение
+        void deferFlush(NioConnection connection) {
+            if (ChatServer.BATCH_WINDOW_NANOS == 0) {
+                turnFlushes.add(connection);
+            } else {
+                timedFlushes.add(new DeferredFlush(connection, System.nanoTime() + ChatServer.BATCH_WINDOW_NANOS));
+            }
+        }
+
+        private void runDeferredFlushes() {
+            NioConnection connection;
+            while ((connection = turnFlushes.poll()) != null) {
+                connection.flushQuietly();
+            }
+            long now = System.nanoTime();
+            while (!timedFlushes.isEmpty() && timedFlushes.peek().deadline() - now <= 0) {
+                timedFlushes.poll().connection().flushQuietly();
+            }
+        }
+
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+
+        private void processSelectedKeys() {
+            Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+            while (iterator.hasNext()) {
+                SelectionKey key = iterator.next();
+                iterator.remove();
+                NioConnection connection = (NioConnection) key.attachment();
+                try {
+                    if (key.isValid() && key.isReadable()) {
+                        connection.onReadable();
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.flush();
+                    }
+                } catch (IOException e) {
+                    connection.session.onError(e);
+                    connection.closeNow();
+                } catch (RuntimeException e) {
+                    logger.logError("Ошибка при обработке клиента " + connection.getRemoteAddress() + ": " + e, Log.SERVER);
+                    connection.closeNow();
+                }
+            }
+        }
+
+        private void register(SocketChannel channel) {
+            try {
+                NioConnection connection = new NioConnection(this, channel);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                logger.log("Подключен новый клиент: " + connection.getRemoteAddress(), Log.SERVER);
+                connection.session.start();
+            } catch (IOException e) {
+                logger.logError("Ошибка при регистрации клиента: " + e.getMessage(), Log.SERVER);
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private record DeferredFlush(NioConnection connection, long deadline) {
+    }
+
+    // Соединение с клиентом: чтение строк и очередь исходящих сообщений
+    private static class NioConnection implements ClientConnection {
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final ChatSession session = new ChatSession(this);
+        private final LineDecoder decoder = new LineDecoder(MAX_LINE_LENGTH);
+        private FrameDecoder frameDecoder; // создаётся при переходе на двоичный протокол
+        private boolean binaryOutput;
+        private final OutboundQueue outbound = ChatServer.newOutboundQueue();
+        private final AtomicBoolean flushScheduled = new AtomicBoolean();
+        private final AtomicBoolean urgentFlushScheduled = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final String remoteAddress;
+        private SelectionKey key;
+        private volatile long blockedSince; // с какого момента запись ждёт OP_WRITE (0 - не ждёт)
+        private boolean closing; // закрыть, когда очередь будет отправлена (только поток-селектор)
+        // Сообщения, взятые из очереди для записи, и их представления (последнее может быть записано частично);
+        // у кадра два представления, сообщение освобождается после записи последнего из них
+        private final ArrayDeque<OutboundMessage> writing = new ArrayDeque<>();
+        private final ArrayDeque<ByteBuffer> writingViews = new ArrayDeque<>();
+        private final ArrayDeque<ByteBuffer> lastViews = new ArrayDeque<>();
+
+        NioConnection(EventLoop loop, SocketChannel channel) throws IOException {
+            this.loop = loop;
+            this.channel = channel;
+            this.remoteAddress = String.valueOf(channel.getRemoteAddress());
+        }
+
+        // Отправители - потоки-селекторы, их нельзя блокировать, поэтому политика BLOCK здесь равна DISCONNECT
+        @Override
+        public void send(OutboundMessage message) {
+            if (closed.get()) {
+                return;
+            }
+            if (!outbound.offer(message, false)) {
+                logger.log("Клиент " + session.getClientName() + " не успевает получать сообщения и будет отключен.", Log.SERVER);
+                loop.execute(this::closeNow);
+                return;
+            }
+            if (outbound.getPendingBytes() >= ChatServer.BATCH_BYTES) {
+                // набрался порог outbound.batchBytes - отправляем, не дожидаясь конца оборота
+                if (urgentFlushScheduled.compareAndSet(false, true)) {
+                    loop.execute(this::flushQuietly);
+                }
+            } else if (flushScheduled.compareAndSet(false, true)) {
+                if (loop.inEventLoop()) {
+                    loop.deferFlush(this);
+                } else {
+                    loop.execute(() -> loop.deferFlush(this));
+                }
+            }
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            loop.execute(task);
+        }
+
+        @Override
+        public void close() {
+            if (loop.inEventLoop()) {
+                closeAfterFlush();
+            } else {
+                loop.execute(this::closeAfterFlush);
+            }
+        }
+
+        @Override
+        public void abort() {
+            if (loop.inEventLoop()) {
+                closeNow();
+            } else {
+                loop.execute(this::closeNow);
+            }
+        }
+
+        @Override
+        public int getQueueDepth() {
+            return outbound.size();
+        }
+
+        @Override
+        public long getBlockedWriteSince() {
+            return blockedSince;
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return remoteAddress;
+        }
+
+        // Вызывается из session.onLine в потоке-селекторе: оставшиеся байты буфера уже разбираются как кадры
+        @Override
+        public boolean upgradeToBinary() {
+            frameDecoder = new FrameDecoder(WireProtocol.MAX_FRAME_LENGTH);
+            return true;
+        }
+
+        void onReadable() throws IOException {
+            ByteBuffer buffer = loop.readBuffer;
+            buffer.clear();
+            int read = channel.read(buffer);
+            if (read < 0) {
+                closeNow();
+                return;
+            }
+            buffer.flip();
+            String line;
+            while (frameDecoder == null && (line = decoder.decodeLine(buffer)) != null) {
+                if (!session.isClosed()) {
+                    session.onLine(line);
+                }
+            }
+            if (frameDecoder != null) {
+                frameDecoder.decode(buffer, (opcode, payload) -> {
+                    if (!session.isClosed()) {
+                        session.onFrame(opcode, payload);
+                    }
+                });
+            }
+        }
+
+        // Чтение прекращается, соединение закроет flush, отправив последнее сообщение очереди
+        void closeAfterFlush() {
+            if (closed.get()) {
+                return;
+            }
+            closing = true;
+            if (key != null && key.isValid()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            flushQuietly();
+        }
+
+        void flushQuietly() {
+            try {
+                flush();
+            } catch (IOException e) {
+                session.onError(e);
+                closeNow();
+            }
+        }
+
+        // Запись накопленных сообщений; если сокет занят, ждём OP_WRITE
+        void flush() throws IOException {
+            flushScheduled.set(false);
+            urgentFlushScheduled.set(false);
+            if (!channel.isOpen()) {
+                return;
+            }
+            ByteBuffer[] gather = loop.gatherBuffers;
+            while (true) {
+                OutboundMessage message;
+                while (writing.size() < ChatServer.MAX_GATHER && (message = outbound.poll()) != null) {
+                    writing.add(message);
+                    ByteBuffer last;
+                    if (binaryOutput) {
+                        writingViews.add(message.frameHeaderView());
+                        last = message.bodyView();
+                    } else {
+                        last = message.view();
+                        binaryOutput = message.isUpgrade();
+                    }
+                    writingViews.add(last);
+                    lastViews.add(last);
+                }
+                if (writing.isEmpty()) {
+                    break;
+                }
+                int count = 0;
+                for (ByteBuffer view : writingViews) {
+                    gather[count++] = view;
+                }
+                long written = channel.write(gather, 0, count);
+                Arrays.fill(gather, 0, count, null);
+                int completed = 0;
+                while (!writingViews.isEmpty() && !writingViews.peek().hasRemaining()) {
+                    if (writingViews.poll() == lastViews.peek()) {
+                        lastViews.poll();
+                        writing.poll().release();
+                        completed++;
+                    }
+                }
+                ChatServer.writeStats.record(completed, written);
+                if (!writing.isEmpty()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    if (written > 0 || blockedSince == 0) {
+                        blockedSince = System.nanoTime();
+                    }
+                    return;
+                }
+            }
+            blockedSince = 0;
+            if (closing) {
+                closeNow();
+                return;
+            }
+            if (key.isValid() && (key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+        }
+
+        // Закрытие в потоке-селекторе: отправляем остаток очереди и освобождаем ресурсы
+        void closeNow() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                flush();
+            } catch (IOException ignored) {
+                // клиент уже отключился, отправлять некуда
+            }
+            if (key != null) {
+                key.cancel();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.logError("Ошибка при закрытии соединения: " + e.getMessage(), Log.SERVER);
+            }
+            outbound.clear();
+            OutboundMessage message;
+            while ((message = writing.poll()) != null) {
+                message.release();
+            }
+            writingViews.clear();
+            lastViews.clear();
+            session.onClosed();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package chat;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Исходящее сообщение, закодированное в UTF-8 один раз для всех получателей.
+// Байты лежат в одном буфере только для чтения, каждый получатель пишет в сокет
+// свой duplicate() без копирования. Счётчик ссылок: каждая очередь получателя
+// держит ссылку до отправки, после последнего release() direct-буфер возвращается в пул.
+// Для клиентов двоичного протокола заголовок кадра тоже вычисляется один раз: они пишут
+// заголовок и тот же общий буфер без перевода строки, поэтому рассылка по-прежнему без копирования
+public final class OutboundMessage {
+    private static final int UPGRADE = 0; // ответ на переход на двоичный протокол (пишется текстом)
+    private static final byte[] NO_PREFIX = new byte[0];
+
+    private static final ThreadLocal<CharsetEncoder> encoders = ThreadLocal.withInitial(() ->
+            StandardCharsets.UTF_8.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE));
+
+    private final String text;
+    private final int opcode;
+    private final ByteBuffer buffer;
+    private final ByteBuffer frameHeader;
+    private final ByteBuffer pooledBuffer;
+    private final AtomicInteger refCount = new AtomicInteger(1);
+
+    private OutboundMessage(String text, int opcode, byte[] prefix, ByteBuffer buffer, ByteBuffer pooledBuffer) {
+        this.text = text;
+        this.opcode = opcode;
+        this.buffer = buffer.asReadOnlyBuffer();
+        this.frameHeader = opcode == UPGRADE ? null
+                : WireProtocol.header(opcode, prefix, buffer.remaining() - 1).asReadOnlyBuffer();
+        this.pooledBuffer = pooledBuffer;
+    }
+
+    // Служебное сообщение в обычной памяти (для ответов одному клиенту)
+    public static OutboundMessage of(String text) {
+        return of(text, WireProtocol.SYSTEM);
+    }
+
+    public static OutboundMessage of(String text, int opcode) {
+        return heap(text, opcode, NO_PREFIX);
+    }
+
+    // Ответ на запрос входа или регистрации: текстовые клиенты получают только текст
+    public static OutboundMessage ack(int requestOpcode, WireProtocol.Status status, String text) {
+        return heap(text, WireProtocol.ACK, new byte[]{(byte) requestOpcode, (byte) status.ordinal()});
+    }
+
+    // Ключ восстанавливаемой сессии и номер последнего сообщения (только для двоичного протокола)
+    public static OutboundMessage session(String token, long sequence) {
+        return heap("", WireProtocol.SESSION, WireProtocol.session(token, sequence));
+    }
+
+    // Подтверждение перехода на двоичный протокол: пишется строкой, следующие сообщения - кадрами
+    public static OutboundMessage upgrade(String text) {
+        return heap(text, UPGRADE, NO_PREFIX);
+    }
+
+    private static OutboundMessage heap(String text, int opcode, byte[] prefix) {
+        return new OutboundMessage(text, opcode, prefix, ByteBuffer.wrap((text + "\n").getBytes(StandardCharsets.UTF_8)), null);
+    }
+
+    // Сообщение чата для рассылки
+    public static OutboundMessage encode(String text, boolean direct) {
+        return encode(text, direct, WireProtocol.CHAT);
+    }
+
+    // Сообщение для рассылки; direct = true - кодирование сразу в direct-буфер из пула,
+    // который записывается в сокет без промежуточного копирования
+    public static OutboundMessage encode(String text, boolean direct, int opcode) {
+        if (!direct) {
+            return of(text, opcode);
+        }
+        CharsetEncoder encoder = encoders.get().reset();
+        int maxBytes = (int) ((text.length() + 1) * (double) encoder.maxBytesPerChar());
+        ByteBuffer pooled = BufferPool.acquire(maxBytes);
+        encoder.encode(CharBuffer.wrap(text), pooled, true);
+        encoder.flush(pooled);
+        pooled.put((byte) '\n');
+        pooled.flip();
+        return new OutboundMessage(text, opcode, NO_PREFIX, pooled, pooled);
+    }
+
+    public String text() {
+        return text;
+    }
+
+    // Код операции кадра (WireProtocol.SYSTEM, CHAT или ACK)
+    public int opcode() {
+        return opcode;
+    }
+
+    public boolean isUpgrade() {
+        return opcode == UPGRADE;
+    }
+
+    // Размер сообщения в байтах вместе с переводом строки
+    public int size() {
+        return buffer.remaining();
+    }
+
+    // Независимое представление байтов сообщения для записи одному получателю
+    public ByteBuffer view() {
+        return buffer.duplicate();
+    }
+
+    // Заголовок кадра двоичного протокола (общий для всех получателей, копируется только представление)
+    public ByteBuffer frameHeaderView() {
+        return frameHeader.duplicate();
+    }
+
+    // Текст сообщения без перевода строки - тело кадра двоичного протокола
+    public ByteBuffer bodyView() {
+        ByteBuffer body = buffer.duplicate();
+        body.limit(body.limit() - 1);
+        return body;
+    }
+
+    public OutboundMessage retain() {
+        int count;
+        do {
+            count = refCount.get();
+            if (count <= 0) {
+                throw new IllegalStateException("Сообщение уже освобождено");
+            }
+        } while (!refCount.compareAndSet(count, count + 1));
+        return this;
+    }
+
+    public void release() {
+        int count = refCount.decrementAndGet();
+        if (count == 0 && pooledBuffer != null) {
+            BufferPool.release(pooledBuffer);
+        } else if (count < 0) {
+            throw new IllegalStateException("Сообщение освобождено больше раз, чем захвачено");
+        }
+    }
+
+    int refCount() {
+        return refCount.get();
+    }
+}
@@ -0,0 +1,188 @@
+package chat;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Ограниченная очередь исходящих сообщений одного клиента.
+// Отправитель только кладёт сообщение в очередь, запись в сокет выполняет
+// отдельная задача-писатель, поэтому медленный клиент не тормозит остальных.
+// Очередь захватывает ссылку на сообщение (retain), а забравший его из очереди
+// обязан вызвать release() после отправки
+public class OutboundQueue {
+
+    // Что делать, если клиент не успевает забирать сообщения и очередь заполнена
+    public enum SlowConsumerPolicy {
+        DROP_OLDEST, // выбросить самое старое сообщение
+        DISCONNECT,  // отключить клиента
+        BLOCK        // ждать освобождения места, по истечении времени - отключить
+    }
+
+    private final int capacity;
+    private final SlowConsumerPolicy policy;
+    private final long blockTimeoutNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final ArrayDeque<OutboundMessage> messages = new ArrayDeque<>();
+    private long droppedCount;
+    private long pendingBytes;
+    private boolean closed;
+
+    public OutboundQueue(int capacity, SlowConsumerPolicy policy, long blockTimeoutMillis) {
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+    }
+
+    // Постановка сообщения в очередь. Возвращает false, если клиента нужно отключить.
+    // mayBlock = false для потоков, которые нельзя останавливать (потоки-селекторы NIO):
+    // для них политика BLOCK работает как DISCONNECT
+    public boolean offer(OutboundMessage message, boolean mayBlock) {
+        lock.lock();
+        try {
+            long nanos = blockTimeoutNanos;
+            while (!closed && messages.size() >= capacity) {
+                switch (policy) {
+                    case DROP_OLDEST -> {
+                        OutboundMessage dropped = messages.poll();
+                        pendingBytes -= dropped.size();
+                        dropped.release();
+                        droppedCount++;
+                    }
+                    case DISCONNECT -> {
+                        return false;
+                    }
+                    case BLOCK -> {
+                        if (!mayBlock || nanos <= 0) {
+                            return false;
+                        }
+                        nanos = notFull.awaitNanos(nanos);
+                    }
+                }
+            }
+            if (closed) {
+                return true;
+            }
+            messages.add(message.retain());
+            pendingBytes += message.size();
+            notEmpty.signal();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Следующее сообщение или null, если очередь пуста
+    public OutboundMessage poll() {
+        lock.lock();
+        try {
+            return pollLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Ожидание сообщения не дольше timeout; null - сообщений так и не появилось или очередь закрыта
+    public OutboundMessage poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (messages.isEmpty()) {
+                if (closed || nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return pollLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private OutboundMessage pollLocked() {
+        OutboundMessage message = messages.poll();
+        if (message != null) {
+            pendingBytes -= message.size();
+            notFull.signal();
+        }
+        return message;
+    }
+
+    // Ожидание следующего сообщения; null - очередь закрыта и пуста
+    public OutboundMessage take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (messages.isEmpty()) {
+                if (closed) {
+                    return null;
+                }
+                notEmpty.await();
+            }
+            return pollLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Закрытие очереди: новые сообщения не принимаются, оставшиеся можно дочитать
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Закрытие очереди с освобождением всех неотправленных сообщений
+    public void clear() {
+        lock.lock();
+        try {
+            closed = true;
+            OutboundMessage message;
+            while ((message = messages.poll()) != null) {
+                message.release();
+            }
+            pendingBytes = 0;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return messages.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Суммарный размер сообщений в очереди
+    public long getPendingBytes() {
+        lock.lock();
+        try {
+            return pendingBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDroppedCount() {
+        lock.lock();
+        try {
+            return droppedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package chat;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+// Хеширование паролей PBKDF2 (HmacSHA512) с солью.
+// Формат хранимой строки: pbkdf2-sha512$<итерации>$<соль base64>$<хеш base64>.
+// Строки без этого префикса считаются паролями из старого users.txt в открытом виде
+public class PasswordHasher {
+    private static final String PREFIX = "pbkdf2-sha512";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA512";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    private final int iterations;
+    private final SecureRandom random = new SecureRandom();
+
+    public PasswordHasher(int iterations) {
+        this.iterations = iterations;
+    }
+
+    public String hash(String password) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        return PREFIX + "$" + iterations + "$" + encoder.encodeToString(salt) + "$"
+                + encoder.encodeToString(pbkdf2(password, salt, iterations));
+    }
+
+    // Проверка пароля; сравнение хешей за постоянное время
+    public boolean verify(String password, String stored) {
+        if (!isHashed(stored)) {
+            return MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+        }
+        String[] parts = stored.split("\\$");
+        if (parts.length != 4) {
+            return false;
+        }
+        try {
+            Base64.Decoder decoder = Base64.getDecoder();
+            byte[] expected = decoder.decode(parts[3]);
+            return MessageDigest.isEqual(expected, pbkdf2(password, decoder.decode(parts[2]), Integer.parseInt(parts[1])));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    // Нужно ли перехешировать пароль после успешного входа (открытый текст или меньше итераций)
+    public boolean needsRehash(String stored) {
+        if (!isHashed(stored)) {
+            return true;
+        }
+        String[] parts = stored.split("\\$");
+        try {
+            return parts.length != 4 || Integer.parseInt(parts[1]) < iterations;
+        } catch (NumberFormatException e) {
+            return true;
+        }
+    }
+
+    private static boolean isHashed(String stored) {
+        return stored.startsWith(PREFIX + "$");
+    }
+
+    private static byte[] pbkdf2(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2 недоступен: " + e.getMessage(), e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
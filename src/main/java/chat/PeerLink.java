@@ -0,0 +1,191 @@
+package chat;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static chat.ChatServer.logger;
+
+// Исходящая связь с одним узлом кластера: свой поток, очередь закодированных событий
+// и переподключение при обрыве. Всё, что накопилось в очереди (и пришло за окно
+// cluster.batchWindowMicros), уходит одной пачкой: [длина][число записей][записи].
+// Пачка, запись которой прервалась, повторяется после переподключения -
+// получатель отбрасывает уже виденные номера событий
+class PeerLink implements Runnable {
+    static final long STOP_TIMEOUT_MILLIS = 1000; // сколько ждать отправки накопленного при остановке
+    private static final byte[] STOP = new byte[0];
+
+    private final Cluster cluster;
+    private final String expectedId; // имя узла из cluster.peers
+    private final String host;
+    private final int port;
+    private final BlockingQueue<byte[]> queue;
+    private final Thread thread;
+    private final LongAdder dropped = new LongAdder();
+    private volatile String peerId; // имя узла на другой стороне (известно после подключения)
+    private volatile boolean running = true;
+    private boolean stopTaken; // поток связи дошёл до STOP в очереди
+    private volatile Socket socket;
+
+    PeerLink(Cluster cluster, String expectedId, String host, int port) {
+        this.cluster = cluster;
+        this.expectedId = expectedId;
+        this.host = host;
+        this.port = port;
+        this.queue = new LinkedBlockingQueue<>(cluster.getQueueCapacity());
+        this.thread = new Thread(this, "cluster-link-" + host + ":" + port);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    String getAddress() {
+        return host + ":" + port;
+    }
+
+    String getPeerId() {
+        return peerId;
+    }
+
+    // Событие в очередь узла; при переполнении (узел долго недоступен) событие теряется
+    void send(byte[] record) {
+        if (!queue.offer(record)) {
+            dropped.increment();
+        }
+    }
+
+    long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    // Остановка: STOP встаёт в очередь за накопленными событиями, поток связи отправляет их
+    // и завершается сам. Не успел к deadline (System.nanoTime) - узел недоступен или не читает:
+    // связь закрывается, оставшиеся события теряются
+    void stop(long deadline) {
+        try {
+            if (queue.offer(STOP, deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                TimeUnit.NANOSECONDS.timedJoin(thread, deadline - System.nanoTime());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        running = false;
+        closeSocket();
+        thread.interrupt();
+    }
+
+    @Override
+    public void run() {
+        List<byte[]> batch = new ArrayList<>();
+        while (running) {
+            try (Socket connection = new Socket()) {
+                socket = connection;
+                connection.connect(new InetSocketAddress(host, port), (int) cluster.getReconnectMillis());
+                connection.setTcpNoDelay(true);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream(), 64 * 1024));
+                out.writeUTF(cluster.getNodeId());
+                out.writeLong(cluster.getEpoch());
+                out.writeShort(cluster.getSecret().length);
+                out.write(cluster.getSecret());
+                out.flush();
+                String id = new DataInputStream(connection.getInputStream()).readUTF();
+                if (!id.equals(expectedId)) {
+                    throw new IOException("узел ответил именем " + id + ", в cluster.peers указано " + expectedId);
+                }
+                peerId = id;
+                logger.log("Связь с узлом кластера " + id + " (" + getAddress() + ") установлена", Log.SERVER);
+                // сначала - кто в сети на этом узле, затем события, которые не успели уйти до обрыва
+                writeBatch(out, List.of(cluster.presenceSnapshot()));
+                while (running) {
+                    if (batch.isEmpty() && !collect(batch)) {
+                        return;
+                    }
+                    writeBatch(out, batch);
+                    batch.clear();
+                    if (stopTaken) {
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                if (running) {
+                    logger.logError("Нет связи с узлом кластера " + getAddress() + ": " + e.getMessage(), Log.SERVER);
+                    sleepBeforeReconnect();
+                }
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                socket = null;
+            }
+        }
+    }
+
+    // Сбор пачки: ждём первое событие, затем забираем накопившиеся и пришедшие за окно.
+    // false - дошли до STOP и отправлять нечего; собранное до STOP отправляется последней пачкой
+    private boolean collect(List<byte[]> batch) throws InterruptedException {
+        byte[] record = queue.take();
+        long deadline = System.nanoTime() + cluster.getBatchWindowNanos();
+        int bytes = 0;
+        while (record != null) {
+            if (record == STOP) {
+                stopTaken = true;
+                return !batch.isEmpty();
+            }
+            batch.add(record);
+            bytes += record.length;
+            if (bytes >= cluster.getBatchBytes()) {
+                break;
+            }
+            record = queue.poll();
+            if (record == null) {
+                long remaining = deadline - System.nanoTime();
+                record = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+            }
+        }
+        return true;
+    }
+
+    private void writeBatch(DataOutputStream out, List<byte[]> batch) throws IOException {
+        int length = Integer.BYTES;
+        for (byte[] record : batch) {
+            length += record.length;
+        }
+        out.writeInt(length);
+        out.writeInt(batch.size());
+        for (byte[] record : batch) {
+            out.write(record);
+        }
+        out.flush();
+        cluster.recordBatchSent(batch.size());
+    }
+
+    private void sleepBeforeReconnect() {
+        try {
+            Thread.sleep(cluster.getReconnectMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    private void closeSocket() {
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException ignored) {
+                // поток связи сам завершится с ошибкой записи
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package chat;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+// Кто в сети на этом узле (presence.*). Для /who хранится готовый неизменяемый снимок: он
+// пересобирается только после входа или выхода и только когда его спросили, поэтому частые /who
+// ничего не копируют. Объявления о входе и выходе не рассылаются по одному: изменения копятся
+// coalesceMillis и уходят одной-двумя строками на всё окно, а вошедший и вышедший в одном окне
+// не попадает в объявление вовсе. После перезапуска 1000 входов - несколько рассылок, а не 1000
+public class Presence {
+
+    // Список пользователей по алфавиту; version растёт с каждым изменением
+    public record Snapshot(long version, List<String> users) {
+    }
+
+    private final long coalesceMillis;
+    private final int maxNames;
+    private final Consumer<String> publisher;
+    private final ScheduledExecutorService flusher;
+    private final TreeSet<String> online = new TreeSet<>();
+    private final Map<String, Boolean> pending = new LinkedHashMap<>(); // за окно: true - вошёл, false - вышел
+    private boolean flushScheduled;
+    private long version;
+    private volatile Snapshot snapshot = new Snapshot(0, List.of()); // null - устарел
+    private final LongAdder changes = new LongAdder();
+    private final LongAdder announcements = new LongAdder();
+
+    // coalesceMillis = 0 - объявлять каждое изменение сразу; maxNames - сколько имён перечислять в объявлении
+    public Presence(long coalesceMillis, int maxNames, Consumer<String> publisher) {
+        this.coalesceMillis = coalesceMillis;
+        this.maxNames = Math.max(1, maxNames);
+        this.publisher = publisher;
+        this.flusher = coalesceMillis > 0 ? Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "presence-flusher");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    public void online(String name) {
+        update(name, true);
+    }
+
+    public void offline(String name) {
+        update(name, false);
+    }
+
+    private void update(String name, boolean entered) {
+        synchronized (this) {
+            if (entered ? !online.add(name) : !online.remove(name)) {
+                return;
+            }
+            version++;
+            snapshot = null;
+            changes.increment();
+            // обратное изменение в том же окне отменяет предыдущее: объявлять нечего
+            if (pending.remove(name) == null) {
+                pending.put(name, entered);
+            }
+            if (flusher != null) {
+                if (!flushScheduled && !pending.isEmpty()) {
+                    flushScheduled = true;
+                    flusher.schedule(this::flush, coalesceMillis, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+        }
+        flush();
+    }
+
+    // Текущий снимок; пересобирается, только если с прошлого раза кто-то вошёл или вышел
+    public Snapshot snapshot() {
+        Snapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (snapshot == null) {
+                snapshot = new Snapshot(version, List.copyOf(online));
+            }
+            return snapshot;
+        }
+    }
+
+    public synchronized boolean isOnline(String name) {
+        return online.contains(name);
+    }
+
+    // Объявление изменений, накопленных за окно (поток presence-flusher или сразу при coalesceMillis = 0)
+    void flush() {
+        List<String> entered = new ArrayList<>();
+        List<String> left = new ArrayList<>();
+        synchronized (this) {
+            flushScheduled = false;
+            for (Map.Entry<String, Boolean> change : pending.entrySet()) {
+                (change.getValue() ? entered : left).add(change.getKey());
+            }
+            pending.clear();
+        }
+        try {
+            if (!entered.isEmpty()) {
+                publish(entered.size() == 1 ? entered.get(0) + " присоединяется к чату" : names("В чат вошли", entered));
+            }
+            if (!left.isEmpty()) {
+                publish(left.size() == 1 ? left.get(0) + " покинул чат." : names("Чат покинули", left));
+            }
+        } catch (RuntimeException e) {
+            ChatServer.logger.logError("Ошибка при рассылке объявления о входе и выходе: " + e.getMessage(), Log.SERVER);
+        }
+    }
+
+    private void publish(String line) {
+        announcements.increment();
+        publisher.accept(line);
+    }
+
+    // "В чат вошли (25): a, b, c и ещё 22"
+    String names(String title, List<String> names) {
+        StringBuilder line = new StringBuilder(title).append(" (").append(names.size()).append("): ");
+        int shown = Math.min(names.size(), maxNames);
+        line.append(String.join(", ", names.subList(0, shown)));
+        if (names.size() > shown) {
+            line.append(" и ещё ").append(names.size() - shown);
+        }
+        return line.toString();
+    }
+
+    public void stop() {
+        if (flusher != null) {
+            flusher.shutdownNow();
+        }
+    }
+
+    public long getChangeCount() {
+        return changes.sum();
+    }
+
+    public long getAnnouncementCount() {
+        return announcements.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("в сети: %d, входов и выходов: %d, объявлений: %d",
+                snapshot().users().size(), getChangeCount(), getAnnouncementCount());
+    }
+}
@@ -0,0 +1,184 @@
+package chat;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Ограничение частоты входящих сообщений: корзины токенов на пользователя и на IP-адрес,
+// отдельно по числу сообщений и по байтам в секунду. Проверка выполняется в потоке чтения
+// на каждое сообщение, поэтому без блокировок: состояние корзины - одно число (AtomicLong),
+// которое меняется одним compareAndSet. Корзины, простоявшие полными дольше IDLE_NANOS, удаляются
+public class RateLimiter {
+    private static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    // Что делать с клиентом сверх лимита: THROTTLE - отбросить сообщение и предупредить, KICK - отключить
+    public enum Action { THROTTLE, KICK }
+
+    // Результат проверки: сообщение пропущено или чей лимит превышен
+    public enum Verdict { ALLOWED, USER_LIMIT, IP_LIMIT }
+
+    // Лимит: сообщений и байт в секунду (0 - без ограничения) и запас - за сколько секунд
+    // можно отправить сразу, пачкой, после паузы
+    public record Limit(int messagesPerSecond, int bytesPerSecond, int burstSeconds) {
+    }
+
+    private final boolean enabled;
+    private final Action action;
+    private final Limit userLimit;
+    private final Limit ipLimit;
+    private final Map<String, Quota> users = new ConcurrentHashMap<>();
+    private final Map<String, Quota> addresses = new ConcurrentHashMap<>();
+    private final AtomicLong lastPurge = new AtomicLong(System.nanoTime());
+
+    public RateLimiter(boolean enabled, Action action, Limit userLimit, Limit ipLimit) {
+        this.enabled = enabled;
+        this.action = action;
+        this.userLimit = userLimit;
+        this.ipLimit = ipLimit;
+    }
+
+    public Action getAction() {
+        return action;
+    }
+
+    // Проверка сообщения размером bytes от пользователя user (null - гость, только лимит адреса) с адреса host
+    public Verdict check(String user, String host, int bytes) {
+        return check(user, host, bytes, System.nanoTime());
+    }
+
+    Verdict check(String user, String host, int bytes, long now) {
+        if (!enabled) {
+            return Verdict.ALLOWED;
+        }
+        purgeIdle(now);
+        Quota userQuota = user != null ? users.computeIfAbsent(user, key -> new Quota(userLimit, now)) : null;
+        if (userQuota != null && !userQuota.tryAcquire(bytes, now)) {
+            return Verdict.USER_LIMIT;
+        }
+        if (host != null && !addresses.computeIfAbsent(host, key -> new Quota(ipLimit, now)).tryAcquire(bytes, now)) {
+            if (userQuota != null) {
+                userQuota.refund(bytes); // отброшенное сообщение не расходует лимит пользователя
+            }
+            return Verdict.IP_LIMIT;
+        }
+        return Verdict.ALLOWED;
+    }
+
+    int size() {
+        return users.size() + addresses.size();
+    }
+
+    // Раз в IDLE_NANOS один из проверяющих потоков удаляет полные корзины:
+    // удалённая корзина создаётся заново полной, поэтому ничего не теряется
+    private void purgeIdle(long now) {
+        long last = lastPurge.get();
+        if (now - last < IDLE_NANOS || !lastPurge.compareAndSet(last, now)) {
+            return;
+        }
+        users.values().removeIf(quota -> quota.isIdle(now));
+        addresses.values().removeIf(quota -> quota.isIdle(now));
+    }
+
+    // Адрес без порта: "/127.0.0.1:54321" -> "127.0.0.1"
+    public static String host(String remoteAddress) {
+        if (remoteAddress == null) {
+            return null;
+        }
+        int start = remoteAddress.indexOf('/') + 1;
+        int colon = remoteAddress.lastIndexOf(':');
+        return colon > start ? remoteAddress.substring(start, colon) : remoteAddress.substring(start);
+    }
+
+    // Длина строки в UTF-8 без кодирования
+    public static int utf8Length(String text) {
+        int length = text.length();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x800 && !Character.isSurrogate(c)) {
+                length += 2;
+            } else if (c >= 0x80) {
+                length += 1; // двухбайтовый символ или половина суррогатной пары (пара - 4 байта)
+            }
+        }
+        return length;
+    }
+
+    // Корзины одного пользователя или адреса
+    private static final class Quota {
+        private final TokenBucket messages;
+        private final TokenBucket bytes;
+
+        Quota(Limit limit, long now) {
+            this.messages = new TokenBucket(limit.messagesPerSecond(), limit.burstSeconds(), now);
+            this.bytes = new TokenBucket(limit.bytesPerSecond(), limit.burstSeconds(), now);
+        }
+
+        // Сообщение берёт токены из обеих корзин или ни из одной
+        boolean tryAcquire(int size, long now) {
+            if (!messages.tryAcquire(1, now)) {
+                return false;
+            }
+            if (!bytes.tryAcquire(size, now)) {
+                messages.refund(1);
+                return false;
+            }
+            return true;
+        }
+
+        void refund(int size) {
+            messages.refund(1);
+            bytes.refund(size);
+        }
+
+        boolean isIdle(long now) {
+            return messages.isFull(now - IDLE_NANOS) && bytes.isFull(now - IDLE_NANOS);
+        }
+    }
+
+    // Корзина токенов в виде "теоретического времени прихода" (GCRA): вместо числа токенов хранится
+    // момент, когда корзина снова станет полной. Взять n токенов - сдвинуть его на n интервалов;
+    // нельзя, если он уходит дальше запаса от текущего момента. Запрос больше запаса проходит
+    // только при полной корзине, иначе большое сообщение не прошло бы никогда
+    static final class TokenBucket {
+        private final long nanosPerToken;
+        private final long burstNanos;
+        private final AtomicLong fullAt;
+
+        TokenBucket(int tokensPerSecond, int burstSeconds, long now) {
+            this.nanosPerToken = tokensPerSecond > 0 ? Math.max(1, TimeUnit.SECONDS.toNanos(1) / tokensPerSecond) : 0;
+            this.burstNanos = TimeUnit.SECONDS.toNanos(Math.max(1, burstSeconds));
+            this.fullAt = new AtomicLong(now);
+        }
+
+        boolean tryAcquire(long tokens, long now) {
+            if (nanosPerToken == 0) {
+                return true;
+            }
+            long cost = Math.min(tokens * nanosPerToken, burstNanos);
+            while (true) {
+                long current = fullAt.get();
+                long next = Math.max(current, now) + cost;
+                if (next - now > burstNanos) {
+                    return false;
+                }
+                if (fullAt.compareAndSet(current, next)) {
+                    return true;
+                }
+            }
+        }
+
+        // Возврат токенов, взятых для сообщения, которое всё же отброшено (его отклонила другая корзина).
+        // Сдвиг на ту же величину, что при взятии; переход в прошлое ничего не добавляет -
+        // корзина просто полна
+        void refund(long tokens) {
+            if (nanosPerToken != 0) {
+                fullAt.addAndGet(-Math.min(tokens * nanosPerToken, burstNanos));
+            }
+        }
+
+        boolean isFull(long now) {
+            return fullAt.get() - now <= 0;
+        }
+    }
+}
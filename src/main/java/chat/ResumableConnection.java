@@ -0,0 +1,168 @@
+package chat;
+
+// Соединение пользователя, которое переживает обрыв TCP (восстановление сессии, SessionResumption).
+// В комнатах и clientWriters сессия зарегистрирована этим объектом, а он передаёт сообщения текущему
+// транспорту (ClientHandler или NioConnection) и помнит последние из них в кольце с номерами 1, 2, 3...
+// Пока клиент переподключается, сообщения только копятся в кольце; вернувшийся клиент сообщает номер
+// последнего полученного, и пропущенное уходит ему раньше новых сообщений. Служебные кадры
+// (PING, PONG, SESSION) идут прямо в транспорт и не нумеруются
+public class ResumableConnection implements ClientConnection {
+    private final String token;
+    private final OutboundMessage[] recent; // сообщение с номером seq лежит в recent[seq % length]
+    private long lastSequence; // номер последнего сообщения
+    private ClientConnection transport; // null - клиент отключился и может вернуться
+    private ChatSession owner; // сессия, которая обслуживает клиента сейчас
+    private long detachments; // сколько раз клиент отключался (чтобы старый таймер не закрыл сессию)
+    private boolean closed;
+
+    public ResumableConnection(String token, int capacity, ChatSession owner, ClientConnection transport) {
+        this.token = token;
+        this.recent = new OutboundMessage[Math.max(1, capacity)];
+        this.owner = owner;
+        this.transport = transport;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public synchronized ChatSession getOwner() {
+        return owner;
+    }
+
+    // Ключ и номер сообщения, с которого начинается нумерация, - клиенту (после входа)
+    public synchronized void announce() {
+        if (transport != null) {
+            sendSession(transport, lastSequence);
+        }
+    }
+
+    @Override
+    public synchronized void send(OutboundMessage message) {
+        if (closed || message.isUpgrade()) {
+            return;
+        }
+        int slot = (int) (++lastSequence % recent.length);
+        if (recent[slot] != null) {
+            recent[slot].release();
+        }
+        recent[slot] = message.retain();
+        if (transport != null) {
+            transport.send(message);
+        }
+    }
+
+    // Клиент вернулся на новом соединении и получил всё до acknowledged включительно. Пропущенное
+    // отправляется сразу, под тем же замком, что и новые сообщения, поэтому порядок не нарушается.
+    // Старое соединение, если сервер ещё не заметил обрыва, закрывается.
+    // Результат - сессия, которая обслуживала клиента до обрыва; null - сессия закрыта
+    // или часть пропущенного уже вытеснена из кольца
+    public ChatSession attach(ChatSession session, ClientConnection connection, long acknowledged) {
+        ClientConnection previous;
+        ChatSession previousOwner;
+        synchronized (this) {
+            if (closed || acknowledged < 0 || acknowledged > lastSequence || acknowledged < lastSequence - recent.length) {
+                return null;
+            }
+            previous = transport;
+            previousOwner = owner;
+            transport = connection;
+            owner = session;
+            sendSession(connection, acknowledged);
+            for (long seq = acknowledged + 1; seq <= lastSequence; seq++) {
+                connection.send(recent[(int) (seq % recent.length)]);
+            }
+        }
+        if (previous != null) {
+            previous.abort();
+        }
+        return previousOwner;
+    }
+
+    // Соединение сессии закрылось: сообщения копятся до возвращения клиента.
+    // Результат - номер отключения для expire; -1 - клиента уже обслуживает другая сессия
+    public synchronized long detach(ChatSession session) {
+        if (closed || owner != session) {
+            return -1;
+        }
+        transport = null;
+        return ++detachments;
+    }
+
+    // Клиент не вернулся после отключения с этим номером: сессия закрывается.
+    // false - вернулся (или уже закрыта)
+    public synchronized boolean expire(long detachment) {
+        if (closed || transport != null || detachments != detachment) {
+            return false;
+        }
+        release();
+        return true;
+    }
+
+    // Клиент вышел сам - восстанавливать нечего
+    public synchronized void discard() {
+        if (!closed) {
+            release();
+        }
+    }
+
+    private void release() {
+        closed = true;
+        transport = null;
+        for (int i = 0; i < recent.length; i++) {
+            if (recent[i] != null) {
+                recent[i].release();
+                recent[i] = null;
+            }
+        }
+    }
+
+    private void sendSession(ClientConnection connection, long sequence) {
+        OutboundMessage session = OutboundMessage.session(token, sequence);
+        connection.send(session);
+        session.release();
+    }
+
+    @Override
+    public synchronized void execute(Runnable task) {
+        if (transport != null) {
+            transport.execute(task);
+        }
+    }
+
+    @Override
+    public synchronized int getQueueDepth() {
+        return transport != null ? transport.getQueueDepth() : 0;
+    }
+
+    @Override
+    public synchronized long getBlockedWriteSince() {
+        return transport != null ? transport.getBlockedWriteSince() : 0;
+    }
+
+    @Override
+    public void close() {
+        ClientConnection connection = currentTransport();
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    @Override
+    public void abort() {
+        ClientConnection connection = currentTransport();
+        if (connection != null) {
+            connection.abort();
+        }
+    }
+
+    private synchronized ClientConnection currentTransport() {
+        return transport;
+    }
+
+    @Override
+    public String getRemoteAddress() {
+        ClientConnection connection = currentTransport();
+        return connection != null ? connection.getRemoteAddress() : "отключен";
+    }
+}
@@ -0,0 +1,205 @@
+package chat;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static chat.ChatServer.logger;
+
+// Комнаты чата. Каждая комната закреплена за одним потоком-шардом (по хешу имени):
+// вход, выход и рассылка выполняются только в нём, поэтому список участников
+// не требует блокировок, сообщения комнаты идут в одном порядке, а горячая комната
+// занимает один шард, не останавливая остальные. Своих потоков у комнат нет,
+// пустые комнаты удаляются, поэтому десятки тысяч малоактивных комнат почти ничего не стоят
+public class Rooms {
+    public static final String GENERAL = "general";
+    private static final Pattern NAME = Pattern.compile("[\\p{L}\\p{N}_-]{1,32}");
+
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+    private final ExecutorService[] shards;
+
+    public Rooms(int shardCount) {
+        this.shards = new ExecutorService[Math.max(1, shardCount)];
+        for (int i = 0; i < shards.length; i++) {
+            String name = "room-shard-" + i;
+            shards[i] = Executors.newSingleThreadExecutor(task -> {
+                Thread thread = new ShardThread(task, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    // Выполняется ли код в потоке-шарде. Шард обслуживает много комнат, поэтому ждать места
+    // в очереди медленного участника ему нельзя (политика BLOCK для него работает как DISCONNECT)
+    public static boolean isShardThread() {
+        return Thread.currentThread() instanceof ShardThread;
+    }
+
+    private static final class ShardThread extends Thread {
+        ShardThread(Runnable task, String name) {
+            super(task, name);
+        }
+    }
+
+    public static boolean isValidName(String name) {
+        return NAME.matcher(name).matches();
+    }
+
+    // Вход в комнату (комната создаётся при первом входе). Объявление получают
+    // участники, которые уже были в комнате, - сам вошедший его не получает (null - не объявлять)
+    public void join(String name, ClientConnection connection, String announcement) {
+        Room room = rooms.computeIfAbsent(name, this::newRoom);
+        room.shard.execute(() -> {
+            if (room.removed) {
+                join(name, connection, announcement); // комната опустела и удалена - создаём заново
+                return;
+            }
+            announce(name, room, announcement);
+            room.members.add(connection);
+            room.size = room.members.size();
+        });
+    }
+
+    // Выход из комнаты; опустевшая комната (кроме general) удаляется
+    public void leave(String name, ClientConnection connection, String announcement) {
+        Room room = rooms.get(name);
+        if (room == null) {
+            return;
+        }
+        room.shard.execute(() -> {
+            if (!room.members.remove(connection)) {
+                return;
+            }
+            room.size = room.members.size();
+            announce(name, room, announcement);
+            if (room.members.isEmpty() && !name.equals(GENERAL)) {
+                room.removed = true;
+                rooms.remove(name, room);
+            }
+        });
+    }
+
+    // Объявление о входе или выходе (null - без объявления: о входе в чат объявляет Presence)
+    private void announce(String name, Room room, String announcement) {
+        if (announcement != null) {
+            room.fanOut(announcement, WireProtocol.SYSTEM);
+            ChatServer.relayToCluster(name, announcement, WireProtocol.SYSTEM);
+        }
+    }
+
+    // Сообщение всем участникам комнаты
+    public void post(String name, String message) {
+        post(name, message, WireProtocol.CHAT);
+    }
+
+    // Служебное сообщение всем участникам комнаты (например, об отключении участника)
+    public void notice(String name, String message) {
+        post(name, message, WireProtocol.SYSTEM);
+    }
+
+    private void post(String name, String message, int opcode) {
+        Room room = rooms.get(name);
+        if (room != null) {
+            room.shard.execute(() -> {
+                room.fanOut(message, opcode);
+                ChatServer.relayToCluster(name, message, opcode);
+            });
+        }
+    }
+
+    // Сообщение комнаты с другого узла кластера: только участникам на этом узле
+    public void deliver(String name, String message, int opcode) {
+        Room room = rooms.get(name);
+        if (room != null) {
+            room.shard.execute(() -> room.fanOut(message, opcode));
+        }
+    }
+
+    // Комнаты с числом участников, самые многолюдные первыми
+    public List<Map.Entry<String, Integer>> list(int limit) {
+        List<Map.Entry<String, Integer>> result = new ArrayList<>();
+        for (Room room : rooms.values()) {
+            if (room.size > 0 || room.name.equals(GENERAL)) {
+                result.add(Map.entry(room.name, room.size));
+            }
+        }
+        result.sort(Map.Entry.<String, Integer>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()));
+        return result.size() > limit ? result.subList(0, limit) : result;
+    }
+
+    public int getRoomCount() {
+        return rooms.size();
+    }
+
+    // Ожидание, пока шарды выполнят всё, что им уже передано: принятые сообщения окажутся
+    // в очередях участников. false - не успели за timeoutMillis
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        CountDownLatch idle = new CountDownLatch(shards.length);
+        for (ExecutorService shard : shards) {
+            shard.execute(idle::countDown);
+        }
+        return idle.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        for (ExecutorService shard : shards) {
+            shard.shutdown();
+        }
+        for (ExecutorService shard : shards) {
+            try {
+                shard.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private Room newRoom(String name) {
+        return new Room(name, shards[Math.floorMod(name.hashCode(), shards.length)]);
+    }
+
+    // Состояние комнаты меняется только в её потоке-шарде; size читают другие потоки для /rooms
+    private static final class Room {
+        private final String name;
+        private final ExecutorService shard;
+        private final Set<ClientConnection> members = new HashSet<>();
+        private volatile int size;
+        private boolean removed;
+
+        Room(String name, ExecutorService shard) {
+            this.name = name;
+            this.shard = shard;
+        }
+
+        // Сообщение кодируется один раз и ставится в очереди участников
+        void fanOut(String message, int opcode) {
+            if (message == null) {
+                return;
+            }
+            if (name.equals(GENERAL)) {
+                ChatServer.saveToHistory(message); // история ведётся для общей комнаты
+            }
+            long started = System.nanoTime();
+            OutboundMessage outboundMessage = OutboundMessage.encode(message, ChatServer.DIRECT_BUFFERS, opcode);
+            try {
+                for (ClientConnection member : members) {
+                    member.send(outboundMessage);
+                }
+            } finally {
+                outboundMessage.release();
+            }
+            ChatServer.metrics.recordFanOut(System.nanoTime() - started);
+            logger.log(name.equals(GENERAL) ? message : "[" + name + "] " + message, Log.SERVER);
+        }
+    }
+}
@@ -0,0 +1,545 @@
+package chat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+import static chat.ChatServer.logger;
+
+// Поиск по истории сообщений (search.*): инвертированный индекс "слово -> номера сообщений в MessageStore".
+// Слова - подряд идущие буквы и цифры в нижнем регистре; у сообщений вида "логин: текст" есть ещё
+// слово from:логин. Список номеров слова хранится разностями соседних номеров в varint - обычно
+// байт-два на вхождение. Индекс разбит на сегменты по segmentMessages сообщений: текущий растёт
+// в памяти вместе с историей, заполненный записывается в фоне в файл <номер первого сообщения>.sidx
+// и дальше читается отображённым в память. Текущий сегмент на диск не пишется - при запуске
+// он заново строится из истории. Поиск идёт от новых сегментов к старым и останавливается,
+// набрав нужное число совпадений
+public class SearchIndex implements Closeable {
+    private static final String SUFFIX = ".sidx";
+    private static final int MAGIC = 0x53494458; // "SIDX"
+    private static final int HEADER = 2 * Integer.BYTES + 2 * Long.BYTES; // метка, число слов, номера первого и следующего
+    private static final int MAX_TERM_LENGTH = 64;
+    private static final int MAX_QUERY_TERMS = 8;
+    private static final int CATCH_UP_BATCH = 10_000;
+    static final String FROM = "from:";
+
+    // Найденное сообщение; author - null для служебных сообщений
+    public record Match(long seq, long timestamp, String author, String text) {
+    }
+
+    private final MessageStore store;
+    private final Path dir;
+    private final int segmentMessages;
+    private final List<Segment> segments = new ArrayList<>(); // по возрастанию номеров, последний - active
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ExecutorService writer;
+    private ActiveSegment active;
+
+    public SearchIndex(MessageStore store, Path dir, int segmentMessages) throws IOException {
+        this.store = store;
+        this.dir = dir;
+        this.segmentMessages = Math.max(1, segmentMessages);
+        Files.createDirectories(dir);
+        this.writer = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "search-index-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        openSegments();
+        long next = segments.isEmpty() ? store.oldestSeq() : segments.get(segments.size() - 1).endSeq();
+        active = new ActiveSegment(next);
+        segments.add(active);
+        catchUp(next);
+    }
+
+    // Сохранение сообщения в историю и в индекс под одним замком: номера в списках идут по возрастанию
+    public long append(String text) throws IOException {
+        lock.writeLock().lock();
+        try {
+            long seq = store.append(text);
+            index(seq, text);
+            return seq;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Не более limit последних сообщений, в которых есть все слова запроса (from:логин - автор)
+    public List<Match> search(String query, int limit) {
+        List<String> terms = queryTerms(query);
+        if (terms.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        long[] found = new long[limit];
+        int count = 0;
+        lock.readLock().lock();
+        try {
+            for (int i = segments.size() - 1; i >= 0 && count < limit; i--) {
+                count = segments.get(i).search(terms, found, count);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<Match> matches = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            MessageStore.StoredMessage message = store.get(found[i]);
+            if (message != null) { // старые сегменты истории удаляются раньше сегментов индекса
+                matches.add(new Match(message.seq(), message.timestamp(), author(message.text()), message.text()));
+            }
+        }
+        return matches;
+    }
+
+    // Сегментов индекса, включая текущий
+    public int segmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Дожидается записи заполненных сегментов
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(30, TimeUnit.SECONDS)) {
+                logger.logError("Запись сегментов поискового индекса не завершилась", Log.SERVER);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Автор сообщения "логин: текст"; null - служебное сообщение
+    static String author(String text) {
+        int colon = text.indexOf(": ");
+        if (colon <= 0 || colon > MAX_TERM_LENGTH) {
+            return null;
+        }
+        for (int i = 0; i < colon; i++) {
+            if (Character.isWhitespace(text.charAt(i))) {
+                return null;
+            }
+        }
+        return text.substring(0, colon);
+    }
+
+    // Слова сообщения без повторов
+    static Set<String> terms(String text) {
+        Set<String> terms = new LinkedHashSet<>();
+        String author = author(text);
+        if (author != null) {
+            terms.add(FROM + author.toLowerCase(Locale.ROOT));
+            text = text.substring(author.length() + 2);
+        }
+        tokenize(text, terms);
+        return terms;
+    }
+
+    static List<String> queryTerms(String query) {
+        Set<String> terms = new LinkedHashSet<>();
+        for (String word : query.trim().split("\\s+")) {
+            if (word.regionMatches(true, 0, FROM, 0, FROM.length()) && word.length() > FROM.length()) {
+                terms.add(word.toLowerCase(Locale.ROOT));
+            } else {
+                tokenize(word, terms);
+            }
+        }
+        return terms.stream().limit(MAX_QUERY_TERMS).toList();
+    }
+
+    private static void tokenize(String text, Collection<String> terms) {
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean letter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                terms.add(text.substring(start, Math.min(i, start + MAX_TERM_LENGTH)).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+    }
+
+    private void index(long seq, String text) {
+        active.add(seq, terms(text));
+        if (active.messages >= segmentMessages) {
+            ActiveSegment full = active;
+            active = new ActiveSegment(full.endSeq);
+            segments.add(active);
+            writer.execute(() -> persist(full));
+        }
+    }
+
+    // Сообщения истории, которых нет в сегментах на диске (текущий сегмент до остановки)
+    private void catchUp(long from) {
+        long seq = from;
+        List<MessageStore.StoredMessage> batch;
+        while (!(batch = store.range(seq, CATCH_UP_BATCH)).isEmpty()) {
+            for (MessageStore.StoredMessage message : batch) {
+                index(message.seq(), message.text());
+            }
+            seq = batch.get(batch.size() - 1).seq() + 1;
+        }
+    }
+
+    // Заполненный сегмент - в файл; в списке он заменяется отображённым файлом.
+    // Сегменты, сообщения которых уже удалены из истории, удаляются
+    private void persist(ActiveSegment full) {
+        FileSegment file;
+        try {
+            file = FileSegment.write(dir, full);
+        } catch (IOException e) {
+            logger.logError("Ошибка при записи сегмента поискового индекса: " + e.getMessage(), Log.SERVER);
+            return; // сегмент остаётся в памяти
+        }
+        long oldest = store.oldestSeq();
+        lock.writeLock().lock();
+        try {
+            int position = segments.indexOf(full);
+            if (position >= 0) {
+                segments.set(position, file);
+            } else {
+                file.delete();
+            }
+            while (segments.size() > 1 && segments.get(0).endSeq() <= oldest) {
+                segments.remove(0).delete();
+            }
+        } catch (IOException e) {
+            logger.logError("Ошибка при удалении сегмента поискового индекса: " + e.getMessage(), Log.SERVER);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Сегменты с диска. Если они не сходятся с историей (история удалена или заменена),
+    // индекс строится заново
+    private void openSegments() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(dir)) {
+            files = list.filter(path -> path.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+        }
+        long oldest = store.oldestSeq();
+        long next = store.nextSeq();
+        try {
+            for (Path path : files) {
+                FileSegment segment = FileSegment.map(path);
+                if (segment.endSeq() <= oldest) {
+                    segment.delete();
+                    continue;
+                }
+                long expected = segments.isEmpty() ? segment.firstSeq() : segments.get(segments.size() - 1).endSeq();
+                if (segment.firstSeq() != expected || segment.endSeq() > next) {
+                    throw new IOException("сегмент " + path.getFileName() + " не совпадает с историей");
+                }
+                segments.add(segment);
+            }
+        } catch (IOException e) {
+            logger.logError("Поисковый индекс будет построен заново: " + e.getMessage(), Log.SERVER);
+            segments.clear();
+            for (Path path : files) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    // Список номеров одного слова в сегменте: count разностей varint, первая - от base
+    private record Postings(ByteBuffer bytes, int offset, int length, int count, long base) {
+    }
+
+    // Чтение списка номеров по порядку
+    private static final class Cursor {
+        private final ByteBuffer bytes;
+        private final int end;
+        private int position;
+        private long seq;
+        private boolean valid; // seq - прочитанный номер (до первого next - ещё нет)
+
+        Cursor(Postings postings) {
+            this.bytes = postings.bytes();
+            this.position = postings.offset();
+            this.end = postings.offset() + postings.length();
+            this.seq = postings.base();
+        }
+
+        boolean next() {
+            if (position >= end) {
+                return false;
+            }
+            long delta = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes.get(position++);
+                delta |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            seq += delta;
+            valid = true;
+            return true;
+        }
+
+        // Переход к первому номеру не меньше target; false - список кончился
+        boolean advanceTo(long target) {
+            if (valid && seq >= target) {
+                return true;
+            }
+            while (next()) {
+                if (seq >= target) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private abstract static class Segment {
+        abstract long firstSeq();
+
+        abstract long endSeq();
+
+        abstract Postings postings(String term);
+
+        void delete() throws IOException {
+        }
+
+        // Совпадения сегмента от новых к старым дописываются в found начиная с count; результат - новый count
+        int search(List<String> terms, long[] found, int count) {
+            Postings[] lists = new Postings[terms.size()];
+            for (int i = 0; i < lists.length; i++) {
+                lists[i] = postings(terms.get(i));
+                if (lists[i] == null) {
+                    return count;
+                }
+            }
+            // перебирается самый короткий список, в остальных - только переход вперёд
+            Arrays.sort(lists, Comparator.comparingInt(Postings::count));
+            Cursor lead = new Cursor(lists[0]);
+            Cursor[] others = new Cursor[lists.length - 1];
+            for (int i = 0; i < others.length; i++) {
+                others[i] = new Cursor(lists[i + 1]);
+            }
+            int room = found.length - count;
+            long[] recent = new long[room]; // последние room совпадений по кругу
+            long matched = 0;
+            candidates:
+            while (lead.next()) {
+                for (int i = 0; i < others.length; i++) {
+                    if (!others[i].advanceTo(lead.seq)) {
+                        break candidates;
+                    }
+                    if (others[i].seq != lead.seq) {
+                        continue candidates;
+                    }
+                }
+                recent[(int) (matched++ % room)] = lead.seq;
+            }
+            for (long i = matched - 1; i >= 0 && i >= matched - room; i--) {
+                found[count++] = recent[(int) (i % room)];
+            }
+            return count;
+        }
+    }
+
+    // Текущий сегмент: списки растут в массивах, которые удваиваются при заполнении.
+    // Меняется под замком записи индекса, после заполнения больше не меняется
+    private static final class ActiveSegment extends Segment {
+        private final long firstSeq;
+        private final Map<String, PostingBuilder> terms = new HashMap<>();
+        private long endSeq;
+        private int messages;
+
+        ActiveSegment(long firstSeq) {
+            this.firstSeq = firstSeq;
+            this.endSeq = firstSeq;
+        }
+
+        void add(long seq, Set<String> messageTerms) {
+            for (String term : messageTerms) {
+                terms.computeIfAbsent(term, key -> new PostingBuilder()).add(seq, firstSeq);
+            }
+            endSeq = seq + 1;
+            messages++;
+        }
+
+        @Override
+        long firstSeq() {
+            return firstSeq;
+        }
+
+        @Override
+        long endSeq() {
+            return endSeq;
+        }
+
+        @Override
+        Postings postings(String term) {
+            PostingBuilder builder = terms.get(term);
+            return builder != null ? new Postings(ByteBuffer.wrap(builder.bytes), 0, builder.length, builder.count, firstSeq) : null;
+        }
+    }
+
+    private static final class PostingBuilder {
+        private byte[] bytes = new byte[4];
+        private int length;
+        private int count;
+        private long last;
+
+        void add(long seq, long base) {
+            long delta = seq - (count == 0 ? base : last);
+            if (bytes.length - length < 10) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            while ((delta & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((delta & 0x7F) | 0x80);
+                delta >>>= 7;
+            }
+            bytes[length++] = (byte) delta;
+            last = seq;
+            count++;
+        }
+    }
+
+    // Сегмент на диске: заголовок, таблица смещений записей (по словам в порядке байтов UTF-8),
+    // затем записи [длина слова short][слово][число номеров int][длина списка int][список].
+    // Слово ищется двоичным поиском прямо в отображённом файле
+    private static final class FileSegment extends Segment {
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private final int termCount;
+        private final long firstSeq;
+        private final long endSeq;
+
+        private FileSegment(Path path, MappedByteBuffer buffer) {
+            this.path = path;
+            this.buffer = buffer;
+            this.termCount = buffer.getInt(Integer.BYTES);
+            this.firstSeq = buffer.getLong(2 * Integer.BYTES);
+            this.endSeq = buffer.getLong(2 * Integer.BYTES + Long.BYTES);
+        }
+
+        static FileSegment map(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC) {
+                    throw new IOException("Повреждён сегмент поискового индекса " + path);
+                }
+                return new FileSegment(path, buffer);
+            }
+        }
+
+        static FileSegment write(Path dir, ActiveSegment segment) throws IOException {
+            List<byte[]> terms = new ArrayList<>(segment.terms.size());
+            List<PostingBuilder> lists = new ArrayList<>(segment.terms.size());
+            segment.terms.keySet().stream()
+                    .map(term -> term.getBytes(StandardCharsets.UTF_8))
+                    .sorted(Arrays::compareUnsigned)
+                    .forEach(term -> {
+                        terms.add(term);
+                        lists.add(segment.terms.get(new String(term, StandardCharsets.UTF_8)));
+                    });
+            int size = HEADER + terms.size() * Integer.BYTES;
+            for (int i = 0; i < terms.size(); i++) {
+                size += Short.BYTES + terms.get(i).length + 2 * Integer.BYTES + lists.get(i).length;
+            }
+            ByteBuffer out = ByteBuffer.allocate(size);
+            out.putInt(MAGIC).putInt(terms.size()).putLong(segment.firstSeq).putLong(segment.endSeq);
+            int position = HEADER + terms.size() * Integer.BYTES;
+            for (int i = 0; i < terms.size(); i++) {
+                out.putInt(HEADER + i * Integer.BYTES, position);
+                PostingBuilder list = lists.get(i);
+                out.position(position);
+                out.putShort((short) terms.get(i).length).put(terms.get(i)).putInt(list.count).putInt(list.length)
+                        .put(list.bytes, 0, list.length);
+                position = out.position();
+            }
+            out.flip();
+            Path path = dir.resolve(String.format("%020d", segment.firstSeq) + SUFFIX);
+            Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (out.hasRemaining()) {
+                    channel.write(out);
+                }
+                channel.force(true);
+            }
+            Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return map(path);
+        }
+
+        @Override
+        long firstSeq() {
+            return firstSeq;
+        }
+
+        @Override
+        long endSeq() {
+            return endSeq;
+        }
+
+        @Override
+        Postings postings(String term) {
+            byte[] key = term.getBytes(StandardCharsets.UTF_8);
+            int low = 0;
+            int high = termCount - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                int entry = buffer.getInt(HEADER + middle * Integer.BYTES);
+                int compare = compareTerm(entry, key);
+                if (compare < 0) {
+                    low = middle + 1;
+                } else if (compare > 0) {
+                    high = middle - 1;
+                } else {
+                    int lists = entry + Short.BYTES + key.length;
+                    return new Postings(buffer, lists + 2 * Integer.BYTES, buffer.getInt(lists + Integer.BYTES),
+                            buffer.getInt(lists), firstSeq);
+                }
+            }
+            return null;
+        }
+
+        private int compareTerm(int entry, byte[] key) {
+            int length = Short.toUnsignedInt(buffer.getShort(entry));
+            int common = Math.min(length, key.length);
+            for (int i = 0; i < common; i++) {
+                int compare = Integer.compare(buffer.get(entry + Short.BYTES + i) & 0xFF, key[i] & 0xFF);
+                if (compare != 0) {
+                    return compare;
+                }
+            }
+            return Integer.compare(length, key.length);
+        }
+
+        @Override
+        void delete() throws IOException {
+            Files.deleteIfExists(path);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package chat;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Properties;
+
+// Настройки сервера из server.properties.
+// Любой ключ можно переопределить при запуске: -Dchat.<ключ>=<значение>
+public class ServerConfig {
+    private static final String PREFIX = "chat.";
+    private final Properties properties = new Properties();
+
+    // Загрузка настроек из файла (при ошибке используются значения по умолчанию)
+    public static ServerConfig load(String filePath) {
+        ServerConfig config = new ServerConfig();
+        try (Reader reader = new FileReader(filePath)) {
+            config.properties.load(reader);
+        } catch (IOException e) {
+            Log.getInstance().logError("Ошибка при загрузке конфигурации: " + e.getMessage(), Log.SERVER);
+        }
+        return config;
+    }
+
+    public String getString(String key, String defaultValue) {
+        String value = System.getProperty(PREFIX + key);
+        if (value == null) {
+            value = properties.getProperty(key);
+        }
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    public int getInt(String key, int defaultValue) {
+        try {
+            return Integer.parseInt(getString(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            Log.getInstance().logError("Неверное значение настройки " + key + ": " + e.getMessage(), Log.SERVER);
+            return defaultValue;
+        }
+    }
+
+    public long getLong(String key, long defaultValue) {
+        try {
+            return Long.parseLong(getString(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            Log.getInstance().logError("Неверное значение настройки " + key + ": " + e.getMessage(), Log.SERVER);
+            return defaultValue;
+        }
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        return Boolean.parseBoolean(getString(key, String.valueOf(defaultValue)));
+    }
+
+    public <E extends Enum<E>> E getEnum(String key, Class<E> type, E defaultValue) {
+        try {
+            return Enum.valueOf(type, getString(key, defaultValue.name()).toUpperCase());
+        } catch (IllegalArgumentException e) {
+            Log.getInstance().logError("Неверное значение настройки " + key + ": " + e.getMessage(), Log.SERVER);
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,469 @@
+package chat;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Метрики сервера: подключения, входы и регистрации, сообщения в секунду, глубина очередей
+// получателей, задержка рассылки (LatencyHistogram) и очередь логгера. Счётчики пишутся
+// из потоков соединений без блокировок (LongAdder), скорости раз в секунду считает поток
+// metrics-sampler, остальное вычисляется при чтении. Доступны через JMX (ServerMetricsMBean)
+// и текстом по HTTP (metrics.httpPort) в формате, который понимает Prometheus
+public class ServerMetrics implements ServerMetricsMBean {
+    static final String OBJECT_NAME = "chat:type=ServerMetrics";
+    private static final int TOP_QUEUES = 10;
+
+    private final WriteStats writeStats;
+    private final Log log;
+    private final Map<String, ClientConnection> clients;
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+    private final LongAdder connectionsReaped = new LongAdder();
+    private final LongAdder sessionsResumed = new LongAdder();
+    private final LongAdder sessionResumeFailures = new LongAdder();
+    private final LongAdder sessionsExpired = new LongAdder();
+    private final LongAdder logins = new LongAdder();
+    private final LongAdder loginFailures = new LongAdder();
+    private final LongAdder registrations = new LongAdder();
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder rateLimitedByUser = new LongAdder();
+    private final LongAdder rateLimitedByIp = new LongAdder();
+    private final LongAdder rateLimitKicks = new LongAdder();
+    private final LatencyHistogram fanOut = new LatencyHistogram();
+    private final LatencyHistogram search = new LatencyHistogram();
+    private final Rate loginRate = new Rate(logins::sum);
+    private final Rate registrationRate = new Rate(registrations::sum);
+    private final Rate messagesInRate = new Rate(messagesIn::sum);
+    private final Rate messagesOutRate;
+    private ScheduledExecutorService sampler;
+    private HttpServer httpServer;
+    private final List<ExecutorService> httpHandlers = new ArrayList<>(); // потоки дополнительных адресов
+
+    public ServerMetrics(WriteStats writeStats, Log log, Map<String, ClientConnection> clients) {
+        this.writeStats = writeStats;
+        this.log = log;
+        this.clients = clients;
+        this.messagesOutRate = new Rate(writeStats::getMessageCount);
+    }
+
+    public void connectionOpened() {
+        connectionsOpened.increment();
+    }
+
+    public void connectionClosed() {
+        connectionsClosed.increment();
+    }
+
+    // Соединение закрыто Heartbeats: клиент молчал дольше heartbeat.timeoutSeconds или не читал
+    public void connectionReaped() {
+        connectionsReaped.increment();
+    }
+
+    // Клиент вернулся после обрыва с ключом сессии (SessionResumption); failed - сессия уже истекла
+    public void sessionResumed() {
+        sessionsResumed.increment();
+    }
+
+    public void sessionResumeFailed() {
+        sessionResumeFailures.increment();
+    }
+
+    // Клиент не вернулся за resume.graceSeconds и вышел из чата
+    public void sessionExpired() {
+        sessionsExpired.increment();
+    }
+
+    public void loginSucceeded() {
+        logins.increment();
+    }
+
+    public void loginFailed() {
+        loginFailures.increment();
+    }
+
+    public void registered() {
+        registrations.increment();
+    }
+
+    public void messageReceived() {
+        messagesIn.increment();
+    }
+
+    // Сообщение отклонено RateLimiter (kicked - и клиент отключен)
+    public void rateLimited(RateLimiter.Verdict verdict, boolean kicked) {
+        if (verdict == RateLimiter.Verdict.USER_LIMIT) {
+            rateLimitedByUser.increment();
+        } else {
+            rateLimitedByIp.increment();
+        }
+        if (kicked) {
+            rateLimitKicks.increment();
+        }
+    }
+
+    // Время рассылки одного сообщения: от начала кодирования до постановки в очереди всех получателей
+    public void recordFanOut(long nanos) {
+        fanOut.record(nanos);
+    }
+
+    // Время поискового запроса (/search и HTTP /search): поиск в индексе и чтение найденного из истории
+    public void recordSearch(long nanos) {
+        search.record(nanos);
+    }
+
+    // Регистрация в платформенном MBeanServer (повторная регистрация не ошибка)
+    public void registerMBean() throws JMException {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // метрики уже зарегистрированы этим процессом
+        }
+    }
+
+    // Раз в секунду пересчитываются скорости (входы, регистрации, сообщения в секунду)
+    public synchronized void startSampler() {
+        if (sampler != null) {
+            return;
+        }
+        sampler = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "metrics-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleAtFixedRate(() -> sample(System.nanoTime()), 1, 1, TimeUnit.SECONDS);
+    }
+
+    // HTTP-сервер JDK на отдельном порту: GET /metrics - все метрики текстом. Возвращает занятый порт
+    public synchronized int startHttp(int port) throws IOException {
+        return startHttp("127.0.0.1", port);
+    }
+
+    // host - адрес, на котором слушать (пустой - все адреса машины)
+    public synchronized int startHttp(String host, int port) throws IOException {
+        httpServer = HttpServer.create(host == null || host.isBlank()
+                ? new InetSocketAddress(port) : new InetSocketAddress(host, port), 0);
+        httpServer.createContext("/metrics", this::handle);
+        httpServer.setExecutor(Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        httpServer.start();
+        return httpServer.getAddress().getPort();
+    }
+
+    // Дополнительный адрес на том же HTTP-сервере (служебные запросы, например поиск по истории).
+    // Запросы к нему обслуживает свой поток, поэтому медленный запрос не задерживает сбор /metrics
+    public synchronized void addHttpContext(String path, HttpHandler handler) {
+        if (httpServer == null) {
+            return;
+        }
+        ExecutorService executor = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "metrics-http" + path.replace('/', '-'));
+            thread.setDaemon(true);
+            return thread;
+        });
+        httpHandlers.add(executor);
+        httpServer.createContext(path, exchange -> executor.execute(() -> {
+            try {
+                handler.handle(exchange);
+            } catch (IOException | RuntimeException e) {
+                exchange.close();
+                log.logError("Ошибка при обработке HTTP-запроса " + path + ": " + e.getMessage(), Log.SERVER);
+            }
+        }));
+    }
+
+    public synchronized void stop() {
+        if (sampler != null) {
+            sampler.shutdownNow();
+            sampler = null;
+        }
+        if (httpServer != null) {
+            httpServer.stop(0);
+            httpServer = null;
+        }
+        httpHandlers.forEach(ExecutorService::shutdownNow);
+        httpHandlers.clear();
+    }
+
+    void sample(long nowNanos) {
+        loginRate.sample(nowNanos);
+        registrationRate.sample(nowNanos);
+        messagesInRate.sample(nowNanos);
+        messagesOutRate.sample(nowNanos);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            byte[] body = report().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return (int) (connectionsOpened.sum() - connectionsClosed.sum());
+    }
+
+    @Override
+    public long getReapedConnectionCount() {
+        return connectionsReaped.sum();
+    }
+
+    @Override
+    public long getResumedSessionCount() {
+        return sessionsResumed.sum();
+    }
+
+    @Override
+    public long getSessionResumeFailureCount() {
+        return sessionResumeFailures.sum();
+    }
+
+    @Override
+    public long getExpiredSessionCount() {
+        return sessionsExpired.sum();
+    }
+
+    @Override
+    public long getLoginCount() {
+        return logins.sum();
+    }
+
+    @Override
+    public long getLoginFailureCount() {
+        return loginFailures.sum();
+    }
+
+    @Override
+    public long getRegistrationCount() {
+        return registrations.sum();
+    }
+
+    @Override
+    public double getLoginsPerSecond() {
+        return loginRate.perSecond;
+    }
+
+    @Override
+    public double getRegistrationsPerSecond() {
+        return registrationRate.perSecond;
+    }
+
+    @Override
+    public long getMessagesIn() {
+        return messagesIn.sum();
+    }
+
+    @Override
+    public long getMessagesOut() {
+        return writeStats.getMessageCount();
+    }
+
+    @Override
+    public double getMessagesInPerSecond() {
+        return messagesInRate.perSecond;
+    }
+
+    @Override
+    public double getMessagesOutPerSecond() {
+        return messagesOutRate.perSecond;
+    }
+
+    @Override
+    public long getRateLimitedCount() {
+        return rateLimitedByUser.sum() + rateLimitedByIp.sum();
+    }
+
+    @Override
+    public long getRateLimitKickCount() {
+        return rateLimitKicks.sum();
+    }
+
+    @Override
+    public int getMaxQueueDepth() {
+        int max = 0;
+        for (ClientConnection connection : clients.values()) {
+            max = Math.max(max, connection.getQueueDepth());
+        }
+        return max;
+    }
+
+    @Override
+    public long getTotalQueueDepth() {
+        long total = 0;
+        for (ClientConnection connection : clients.values()) {
+            total += connection.getQueueDepth();
+        }
+        return total;
+    }
+
+    @Override
+    public long getFanOutCount() {
+        return fanOut.getCount();
+    }
+
+    @Override
+    public double getFanOutMeanMicros() {
+        return fanOut.getMean() / 1000;
+    }
+
+    @Override
+    public double getFanOutP50Micros() {
+        return fanOut.getPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getFanOutP99Micros() {
+        return fanOut.getPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getFanOutP999Micros() {
+        return fanOut.getPercentile(99.9) / 1000.0;
+    }
+
+    @Override
+    public double getFanOutMaxMicros() {
+        return fanOut.getMax() / 1000.0;
+    }
+
+    @Override
+    public long getSearchCount() {
+        return search.getCount();
+    }
+
+    @Override
+    public double getSearchP99Micros() {
+        return search.getPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getSearchMaxMicros() {
+        return search.getMax() / 1000.0;
+    }
+
+    @Override
+    public int getLogQueueSize() {
+        return log.getQueueSize();
+    }
+
+    @Override
+    public long getLogDroppedCount() {
+        return log.getDroppedCount();
+    }
+
+    @Override
+    public String report() {
+        StringBuilder report = new StringBuilder(2048);
+        line(report, "chat_connections_active", getActiveConnections());
+        line(report, "chat_connections_reaped_total", getReapedConnectionCount());
+        line(report, "chat_sessions_resumed_total", getResumedSessionCount());
+        line(report, "chat_session_resume_failures_total", getSessionResumeFailureCount());
+        line(report, "chat_sessions_expired_total", getExpiredSessionCount());
+        line(report, "chat_logins_total", getLoginCount());
+        line(report, "chat_login_failures_total", getLoginFailureCount());
+        line(report, "chat_logins_per_second", getLoginsPerSecond());
+        line(report, "chat_registrations_total", getRegistrationCount());
+        line(report, "chat_registrations_per_second", getRegistrationsPerSecond());
+        line(report, "chat_messages_in_total", getMessagesIn());
+        line(report, "chat_messages_in_per_second", getMessagesInPerSecond());
+        line(report, "chat_messages_out_total", getMessagesOut());
+        line(report, "chat_messages_out_per_second", getMessagesOutPerSecond());
+        line(report, "chat_rate_limited_total{scope=\"user\"}", rateLimitedByUser.sum());
+        line(report, "chat_rate_limited_total{scope=\"ip\"}", rateLimitedByIp.sum());
+        line(report, "chat_rate_limit_kicks_total", getRateLimitKickCount());
+        line(report, "chat_queue_depth_max", getMaxQueueDepth());
+        line(report, "chat_queue_depth_total", getTotalQueueDepth());
+        for (Map.Entry<String, Integer> entry : deepestQueues()) {
+            line(report, "chat_queue_depth{client=\"" + escape(entry.getKey()) + "\"}", entry.getValue());
+        }
+        for (double quantile : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            line(report, "chat_fanout_latency_micros{quantile=\"" + quantile + "\"}", fanOut.getPercentile(quantile * 100) / 1000.0);
+        }
+        line(report, "chat_fanout_latency_micros_max", getFanOutMaxMicros());
+        line(report, "chat_fanout_latency_micros_mean", getFanOutMeanMicros());
+        line(report, "chat_fanout_latency_micros_count", getFanOutCount());
+        for (double quantile : new double[]{0.5, 0.99}) {
+            line(report, "chat_search_latency_micros{quantile=\"" + quantile + "\"}", search.getPercentile(quantile * 100) / 1000.0);
+        }
+        line(report, "chat_search_latency_micros_max", getSearchMaxMicros());
+        line(report, "chat_search_latency_micros_count", getSearchCount());
+        line(report, "chat_log_queue_size", getLogQueueSize());
+        line(report, "chat_log_dropped_total", getLogDroppedCount());
+        return report.toString();
+    }
+
+    // Получатели с самыми длинными очередями
+    private List<Map.Entry<String, Integer>> deepestQueues() {
+        List<Map.Entry<String, Integer>> depths = new ArrayList<>();
+        for (Map.Entry<String, ClientConnection> entry : clients.entrySet()) {
+            int depth = entry.getValue().getQueueDepth();
+            if (depth > 0) {
+                depths.add(Map.entry(entry.getKey(), depth));
+            }
+        }
+        depths.sort(Map.Entry.<String, Integer>comparingByValue().reversed());
+        return depths.size() > TOP_QUEUES ? depths.subList(0, TOP_QUEUES) : depths;
+    }
+
+    private static void line(StringBuilder report, String name, long value) {
+        report.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void line(StringBuilder report, String name, double value) {
+        report.append(name).append(' ').append(String.format(Locale.ROOT, "%.3f", value)).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    // Скорость счётчика за последний интервал выборки
+    private static final class Rate {
+        private final LongSupplier counter;
+        private long lastValue;
+        private long lastNanos;
+        private volatile double perSecond;
+
+        Rate(LongSupplier counter) {
+            this.counter = counter;
+            this.lastValue = counter.getAsLong();
+            this.lastNanos = System.nanoTime();
+        }
+
+        synchronized void sample(long nowNanos) {
+            long value = counter.getAsLong();
+            long elapsed = nowNanos - lastNanos;
+            if (elapsed > 0) {
+                perSecond = (value - lastValue) * 1e9 / elapsed;
+            }
+            lastValue = value;
+            lastNanos = nowNanos;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package chat;
+
+// Метрики сервера для JMX (chat:type=ServerMetrics): jconsole, VisualVM, jmxterm
+public interface ServerMetricsMBean {
+    int getActiveConnections();
+
+    // Соединений, закрытых Heartbeats (клиент не отвечал)
+    long getReapedConnectionCount();
+
+    // Сессий, восстановленных после обрыва, неудачных попыток восстановления и сессий,
+    // клиент которых не вернулся за resume.graceSeconds
+    long getResumedSessionCount();
+
+    long getSessionResumeFailureCount();
+
+    long getExpiredSessionCount();
+
+    long getLoginCount();
+
+    long getLoginFailureCount();
+
+    long getRegistrationCount();
+
+    double getLoginsPerSecond();
+
+    double getRegistrationsPerSecond();
+
+    long getMessagesIn();
+
+    long getMessagesOut();
+
+    double getMessagesInPerSecond();
+
+    double getMessagesOutPerSecond();
+
+    // Сообщений, отклонённых лимитом частоты (ratelimit.*), и отключённых за превышение клиентов
+    long getRateLimitedCount();
+
+    long getRateLimitKickCount();
+
+    int getMaxQueueDepth();
+
+    long getTotalQueueDepth();
+
+    long getFanOutCount();
+
+    double getFanOutMeanMicros();
+
+    double getFanOutP50Micros();
+
+    double getFanOutP99Micros();
+
+    double getFanOutP999Micros();
+
+    double getFanOutMaxMicros();
+
+    long getSearchCount();
+
+    double getSearchP99Micros();
+
+    double getSearchMaxMicros();
+
+    int getLogQueueSize();
+
+    long getLogDroppedCount();
+
+    // Все метрики текстом - то же, что отдаёт HTTP (metrics.httpPort)
+    String report();
+}
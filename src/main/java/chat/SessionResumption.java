@@ -0,0 +1,87 @@
+package chat;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Восстановление сессий после обрыва соединения (resume.*). Клиент двоичного протокола, попросивший
+// об этом при переходе ("/binary resume"), после входа получает ключ сессии (кадр SESSION), а его
+// сообщения идут через ResumableConnection с кольцом последних bufferMessages сообщений.
+// Если соединение оборвалось, пользователь graceMillis остаётся в чате и комнате, а сообщения копятся;
+// клиент, вернувшийся с ключом (кадр RESUME), получает пропущенное без повторной проверки пароля.
+// Не вернувшийся за это время выходит из чата, как при обычном отключении
+public class SessionResumption {
+    private static final int TOKEN_BYTES = 16;
+
+    private final boolean enabled;
+    private final int bufferMessages;
+    private final long graceMillis;
+    private final Map<String, ResumableConnection> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final HashedWheelTimer timer;
+
+    public SessionResumption(boolean enabled, int bufferMessages, long graceMillis) {
+        this.enabled = enabled;
+        this.bufferMessages = bufferMessages;
+        this.graceMillis = graceMillis;
+        this.timer = enabled ? new HashedWheelTimer("resume-timer", 250, (int) Math.min(4096, graceMillis / 250 + 1)) : null;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // Восстанавливаемая сессия для вошедшего пользователя; клиент сразу получает её ключ
+    public ResumableConnection open(ChatSession session, ClientConnection transport) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        ResumableConnection connection = new ResumableConnection(token, bufferMessages, session, transport);
+        sessions.put(token, connection);
+        connection.announce();
+        return connection;
+    }
+
+    // Клиент вернулся с ключом и номером последнего полученного сообщения. Результат - сессия,
+    // которая обслуживала его до обрыва; null - ключ неизвестен, сессия истекла или пропущенное
+    // уже не восстановить
+    public ChatSession resume(String token, long acknowledged, ChatSession session, ClientConnection transport) {
+        ResumableConnection connection = enabled ? sessions.get(token) : null;
+        return connection != null ? connection.attach(session, transport, acknowledged) : null;
+    }
+
+    // Соединение сессии оборвалось: если клиент не вернётся за graceMillis, выполняется onExpired.
+    // false - клиента уже обслуживает другая сессия, ждать нечего
+    public boolean park(ResumableConnection connection, ChatSession session, Runnable onExpired) {
+        long detachment = connection.detach(session);
+        if (detachment < 0) {
+            return false;
+        }
+        timer.schedule(() -> {
+            if (connection.expire(detachment)) {
+                sessions.remove(connection.getToken(), connection);
+                onExpired.run();
+            }
+        }, graceMillis, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    // Пользователь вышел сам или сервер останавливается
+    public void discard(ResumableConnection connection) {
+        sessions.remove(connection.getToken(), connection);
+        connection.discard();
+    }
+
+    // Открытых сессий (и ожидающих клиента)
+    public int size() {
+        return sessions.size();
+    }
+
+    public void stop() {
+        if (timer != null) {
+            timer.stop();
+        }
+    }
+}
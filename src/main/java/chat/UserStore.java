@@ -0,0 +1,543 @@
+package chat;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static chat.ChatServer.logger;
+
+// Хранилище учётных записей: снимок + журнал изменений (write-ahead log).
+// Снимок (users.snapshot.<номер>, каждая сборка пишет следующий) - хеш-таблица с открытой адресацией, которая отображается в память
+// и не разбирается при запуске, поэтому старт не зависит от числа пользователей.
+// Новые записи кладутся в память (recent) и в журнал (users.wal); журнал пишет один поток,
+// объединяя все накопившиеся регистрации в одну запись с одним fsync (group commit).
+// Когда журнал вырастает больше users.compactWalBytes, в фоне собирается новый снимок.
+// Пока open() не вызван, хранилище работает только в памяти (так его используют тесты)
+public class UserStore {
+    private static final String SNAPSHOT = "users.snapshot";
+    private static final String WAL = "users.wal";
+    private static final String WAL_COMPACTING = "users.wal.old";
+    private static final int SNAPSHOT_MAGIC = 0x43485553; // "CHUS"
+    private static final int HEADER = 16;                   // magic, версия, число записей, размер таблицы
+    private static final int WAL_RECORD_HEADER = 8;         // длина + CRC32
+    private static final int MAX_FIELD_BYTES = 0xFFFF;
+
+    // Ожидающая записи в журнал учётная запись
+    private record PendingWrite(String login, String credential, CompletableFuture<Void> written) {
+    }
+
+    private static final PendingWrite STOP = new PendingWrite(null, null, null);
+
+    private final Map<String, String> recent = new ConcurrentHashMap<>();
+    private final BlockingQueue<PendingWrite> pending = new LinkedBlockingQueue<>();
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    private volatile long snapshotGeneration = -1; // номер текущего файла снимка (-1 - снимка нет)
+    private Path dir;
+    private long compactWalBytes;
+    private FileChannel wal;
+    private Thread writer;
+    private volatile boolean compacting;
+    private volatile Thread compactor;
+    private volatile boolean closed;
+    volatile Runnable beforeSnapshotSwap; // выполняется между записью снимка и его заменой (для тестов)
+
+    // Открытие хранилища в каталоге dir. Если хранилища ещё нет, а есть legacyFile
+    // (старый users.txt в формате login:password), пользователи переносятся из него
+    public synchronized void open(Path dir, Path legacyFile, long compactWalBytes) throws IOException {
+        this.dir = dir;
+        this.compactWalBytes = compactWalBytes;
+        Files.createDirectories(dir);
+        snapshotGeneration = latestSnapshotGeneration();
+        boolean exists = snapshotGeneration >= 0 || Files.exists(dir.resolve(WAL))
+                || Files.exists(dir.resolve(WAL_COMPACTING));
+        if (snapshotGeneration >= 0) {
+            snapshot = Snapshot.map(snapshotPath(snapshotGeneration));
+            deleteStaleSnapshots();
+        }
+        replayWal(dir.resolve(WAL_COMPACTING));
+        replayWal(dir.resolve(WAL));
+        if (!exists && legacyFile != null && Files.exists(legacyFile)) {
+            importLegacy(legacyFile);
+        }
+        // незавершённая сборка снимка или перенос из users.txt - собираем снимок сразу
+        if (Files.exists(dir.resolve(WAL_COMPACTING)) || (!exists && !recent.isEmpty())) {
+            compact(new HashMap<>(recent));
+        }
+        wal = FileChannel.open(dir.resolve(WAL), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        writer = new Thread(this::writeLoop, "user-store-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public boolean containsKey(String login) {
+        return get(login) != null;
+    }
+
+    public String get(String login) {
+        String credential = recent.get(login);
+        return credential != null ? credential : snapshot.get(login);
+    }
+
+    // Добавление или замена записи; возвращает управление, когда запись надёжно сохранена
+    public void put(String login, String credential) {
+        checkSize(login, credential);
+        recent.put(login, credential);
+        persist(login, credential);
+    }
+
+    // Регистрация нового пользователя: false, если логин уже занят
+    public boolean register(String login, String credential) {
+        checkSize(login, credential);
+        synchronized (this) {
+            if (containsKey(login)) {
+                return false;
+            }
+            recent.put(login, credential);
+        }
+        try {
+            persist(login, credential);
+        } catch (RuntimeException e) {
+            recent.remove(login, credential);
+            throw e;
+        }
+        return true;
+    }
+
+    // Число пользователей в снимке и новых записей (замены существующих считаются дважды)
+    public int size() {
+        return snapshot.count() + recent.size();
+    }
+
+    // Остановка потока записи: журнал дописывается и сбрасывается на диск,
+    // начатая сборка снимка завершается (иначе она столкнётся со сборкой при следующем открытии)
+    public void close() {
+        closed = true;
+        if (writer != null) {
+            pending.add(STOP);
+            try {
+                writer.join(5000);
+                Thread running = compactor;
+                if (running != null) {
+                    running.join();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static void checkSize(String login, String credential) {
+        if (login.getBytes(StandardCharsets.UTF_8).length > MAX_FIELD_BYTES
+                || credential.getBytes(StandardCharsets.UTF_8).length > MAX_FIELD_BYTES) {
+            throw new IllegalArgumentException("Слишком длинный логин или пароль");
+        }
+    }
+
+    private void persist(String login, String credential) {
+        if (writer == null) {
+            return; // хранилище только в памяти
+        }
+        if (closed) {
+            throw new IllegalStateException("Хранилище пользователей закрыто");
+        }
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        pending.add(new PendingWrite(login, credential, written));
+        written.join();
+    }
+
+    // Поток записи журнала: всё, что накопилось, пока шёл предыдущий fsync, пишется одной пачкой
+    private void writeLoop() {
+        List<PendingWrite> batch = new ArrayList<>();
+        boolean stopping = false;
+        while (!stopping) {
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            pending.drainTo(batch);
+            stopping = batch.remove(STOP);
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+                batch.clear();
+                maybeStartCompaction();
+            }
+        }
+        try {
+            wal.force(false);
+            wal.close();
+        } catch (IOException e) {
+            logger.logError("Ошибка при закрытии журнала пользователей: " + e.getMessage(), Log.SERVER);
+        }
+    }
+
+    private void writeBatch(List<PendingWrite> batch) {
+        try {
+            List<byte[]> records = new ArrayList<>(batch.size());
+            int total = 0;
+            for (PendingWrite write : batch) {
+                byte[] record = encodeWalRecord(write.login(), write.credential());
+                records.add(record);
+                total += record.length;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(total);
+            records.forEach(buffer::put);
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                wal.write(buffer);
+            }
+            wal.force(false);
+            batch.forEach(write -> write.written().complete(null));
+        } catch (IOException e) {
+            logger.logError("Ошибка при записи журнала пользователей: " + e.getMessage(), Log.SERVER);
+            batch.forEach(write -> write.written().completeExceptionally(e));
+        }
+    }
+
+    private static byte[] encodeWalRecord(String login, String credential) {
+        byte[] body = encodeEntry(login, credential);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        return ByteBuffer.allocate(WAL_RECORD_HEADER + body.length)
+                .putInt(body.length)
+                .putInt((int) crc.getValue())
+                .put(body)
+                .array();
+    }
+
+    // Запись учётной записи: [длина логина][логин][длина пароля][пароль]
+    private static byte[] encodeEntry(String login, String credential) {
+        byte[] loginBytes = login.getBytes(StandardCharsets.UTF_8);
+        byte[] credentialBytes = credential.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(4 + loginBytes.length + credentialBytes.length)
+                .putShort((short) loginBytes.length).put(loginBytes)
+                .putShort((short) credentialBytes.length).put(credentialBytes)
+                .array();
+    }
+
+    // Чтение журнала; недописанный при сбое хвост отбрасывается
+    private void replayWal(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // журнал читается в обычный буфер, а не отображается: отображённый файл нельзя обрезать (Windows)
+            ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(channel.size()));
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // читаем до конца
+            }
+            buffer.flip();
+            long valid = 0;
+            while (buffer.remaining() >= WAL_RECORD_HEADER) {
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length < 4 || length > buffer.remaining()) {
+                    break;
+                }
+                byte[] body = new byte[length];
+                buffer.get(body);
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                ByteBuffer entry = ByteBuffer.wrap(body);
+                recent.put(readString(entry), readString(entry));
+                valid = buffer.position();
+            }
+            if (valid < channel.size()) {
+                logger.logError("Журнал пользователей " + path + " обрезан до " + valid + " байт после сбоя", Log.SERVER);
+                channel.truncate(valid);
+            }
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void importLegacy(Path legacyFile) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(legacyFile)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(":");
+                if (parts.length == 2) {
+                    recent.put(parts[0].trim(), parts[1].trim());
+                }
+            }
+        }
+        logger.log("Пользователи перенесены из " + legacyFile + ": " + recent.size(), Log.SERVER);
+    }
+
+    // Вызывается потоком записи между пачками: текущий журнал откладывается для сборки снимка,
+    // новые записи идут в новый журнал
+    private void maybeStartCompaction() {
+        try {
+            if (compacting || wal.size() < compactWalBytes) {
+                return;
+            }
+            wal.force(false);
+            wal.close();
+            Files.move(dir.resolve(WAL), dir.resolve(WAL_COMPACTING), StandardCopyOption.ATOMIC_MOVE);
+            wal = FileChannel.open(dir.resolve(WAL), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            logger.logError("Ошибка при переключении журнала пользователей: " + e.getMessage(), Log.SERVER);
+            return;
+        }
+        compacting = true;
+        Map<String, String> captured = new HashMap<>(recent);
+        compactor = new Thread(() -> {
+            try {
+                compact(captured);
+            } catch (IOException e) {
+                logger.logError("Ошибка при сборке снимка пользователей: " + e.getMessage(), Log.SERVER);
+            } finally {
+                compacting = false;
+            }
+        }, "user-store-compactor");
+        compactor.setDaemon(true);
+        compactor.start();
+    }
+
+    // Сборка нового снимка из текущего и captured, замена снимка и удаление отложенного журнала.
+    // Новый снимок пишется в файл со следующим номером, а не поверх текущего: текущий отображён
+    // в память и читается, а заменить отображённый файл нельзя (Windows)
+    private void compact(Map<String, String> captured) throws IOException {
+        long generation = snapshotGeneration + 1;
+        Path temporary = dir.resolve(SNAPSHOT + ".tmp");
+        Snapshot.write(temporary, snapshot, captured);
+        Files.move(temporary, snapshotPath(generation), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        Snapshot compacted = Snapshot.map(snapshotPath(generation));
+        Runnable hook = beforeSnapshotSwap;
+        if (hook != null) {
+            hook.run();
+        }
+        synchronized (this) {
+            snapshot = compacted;
+            snapshotGeneration = generation;
+            // убираются только записи, попавшие в снимок: замена, сделанная во время сборки, остаётся в recent
+            captured.forEach((login, credential) -> recent.remove(login, credential));
+        }
+        deleteStaleSnapshots();
+        Files.deleteIfExists(dir.resolve(WAL_COMPACTING));
+        logger.log("Снимок пользователей обновлён: " + compacted.count() + " записей", Log.SERVER);
+    }
+
+    // Файл снимка с номером generation: users.snapshot.<номер> (0 - users.snapshot прежних версий)
+    private Path snapshotPath(long generation) {
+        return dir.resolve(generation == 0 ? SNAPSHOT : SNAPSHOT + "." + generation);
+    }
+
+    // Номер снимка в имени файла; -1 - это не снимок
+    private static long snapshotGeneration(Path file) {
+        String name = file.getFileName().toString();
+        if (name.equals(SNAPSHOT)) {
+            return 0;
+        }
+        String suffix = name.startsWith(SNAPSHOT + ".") ? name.substring(SNAPSHOT.length() + 1) : "";
+        return !suffix.isEmpty() && suffix.length() < 19 && suffix.chars().allMatch(Character::isDigit)
+                ? Long.parseLong(suffix) : -1;
+    }
+
+    private long latestSnapshotGeneration() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.mapToLong(UserStore::snapshotGeneration).max().orElse(-1);
+        }
+    }
+
+    // Удаление снимков старше текущего. Файл, который ещё отображён в память (Windows не даёт его удалить),
+    // остаётся до следующей сборки или запуска
+    private void deleteStaleSnapshots() {
+        long current = snapshotGeneration;
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                long generation = snapshotGeneration(file);
+                if (generation >= 0 && generation < current) {
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException e) {
+                        logger.log("Старый снимок пользователей " + file + " пока занят и будет удалён позже", Log.SERVER);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.logError("Ошибка при удалении старых снимков пользователей: " + e.getMessage(), Log.SERVER);
+        }
+    }
+
+    // Снимок: заголовок, таблица смещений (0 - пусто) размером в степень двойки, затем записи.
+    // Поиск - по хешу байтов логина с линейным пробированием прямо в отображённом файле
+    private record Snapshot(ByteBuffer buffer, int count, int tableSize) {
+        static final Snapshot EMPTY = new Snapshot(ByteBuffer.allocate(0), 0, 0);
+
+        static Snapshot map(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                buffer.order(ByteOrder.BIG_ENDIAN);
+                if (buffer.capacity() < HEADER || buffer.getInt(0) != SNAPSHOT_MAGIC) {
+                    throw new IOException("Повреждён снимок пользователей " + path);
+                }
+                return new Snapshot(buffer, buffer.getInt(8), buffer.getInt(12));
+            }
+        }
+
+        String get(String login) {
+            if (count == 0) {
+                return null;
+            }
+            byte[] key = login.getBytes(StandardCharsets.UTF_8);
+            int mask = tableSize - 1;
+            for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+                int offset = buffer.getInt(HEADER + slot * Integer.BYTES);
+                if (offset == 0) {
+                    return null;
+                }
+                if (keyEquals(offset, key)) {
+                    int credentialOffset = offset + 2 + key.length;
+                    byte[] credential = new byte[Short.toUnsignedInt(buffer.getShort(credentialOffset))];
+                    buffer.get(credentialOffset + 2, credential);
+                    return new String(credential, StandardCharsets.UTF_8);
+                }
+            }
+        }
+
+        private boolean keyEquals(int offset, byte[] key) {
+            if (Short.toUnsignedInt(buffer.getShort(offset)) != key.length) {
+                return false;
+            }
+            for (int i = 0; i < key.length; i++) {
+                if (buffer.get(offset + 2 + i) != key[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Записи старого снимка, не заменённые в overrides, и все overrides - в новый файл
+        static void write(Path path, Snapshot old, Map<String, String> overrides) throws IOException {
+            int count = 0;
+            for (int offset : old.offsets()) {
+                String login = old.loginAt(offset);
+                if (!overrides.containsKey(login)) {
+                    count++;
+                }
+            }
+            count += overrides.size();
+            int tableSize = Integer.highestOneBit(Math.max(2, count * 2 - 1)) << 1;
+            int[] table = new int[tableSize];
+            int position = HEADER + tableSize * Integer.BYTES;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer out = ByteBuffer.allocate(64 * 1024);
+                channel.position(position);
+                for (int offset : old.offsets()) {
+                    String login = old.loginAt(offset);
+                    if (overrides.containsKey(login)) {
+                        continue;
+                    }
+                    position = appendEntry(channel, out, table, position, old.entryAt(offset));
+                }
+                for (Map.Entry<String, String> entry : overrides.entrySet()) {
+                    position = appendEntry(channel, out, table, position, encodeEntry(entry.getKey(), entry.getValue()));
+                }
+                flushOut(channel, out);
+                ByteBuffer header = ByteBuffer.allocate(HEADER + tableSize * Integer.BYTES);
+                header.putInt(SNAPSHOT_MAGIC).putInt(1).putInt(count).putInt(tableSize);
+                header.asIntBuffer().put(table, 0, tableSize);
+                header.position(0);
+                channel.write(header, 0);
+                channel.force(true);
+            }
+        }
+
+        private static int appendEntry(FileChannel channel, ByteBuffer out, int[] table, int position, byte[] entry)
+                throws IOException {
+            if (out.remaining() < entry.length) {
+                flushOut(channel, out);
+            }
+            if (entry.length > out.capacity()) {
+                channel.write(ByteBuffer.wrap(entry));
+            } else {
+                out.put(entry);
+            }
+            int keyLength = Short.toUnsignedInt(ByteBuffer.wrap(entry).getShort(0));
+            int mask = table.length - 1;
+            int slot = hash(entry, 2, keyLength) & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = position;
+            return position + entry.length;
+        }
+
+        private static void flushOut(FileChannel channel, ByteBuffer out) throws IOException {
+            out.flip();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            out.clear();
+        }
+
+        // Смещения всех записей снимка в порядке таблицы
+        private int[] offsets() {
+            int[] offsets = new int[count];
+            int n = 0;
+            for (int slot = 0; slot < tableSize; slot++) {
+                int offset = buffer.getInt(HEADER + slot * Integer.BYTES);
+                if (offset != 0) {
+                    offsets[n++] = offset;
+                }
+            }
+            return offsets;
+        }
+
+        private String loginAt(int offset) {
+            byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort(offset))];
+            buffer.get(offset + 2, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private byte[] entryAt(int offset) {
+            int loginLength = Short.toUnsignedInt(buffer.getShort(offset));
+            int credentialLength = Short.toUnsignedInt(buffer.getShort(offset + 2 + loginLength));
+            byte[] entry = new byte[4 + loginLength + credentialLength];
+            buffer.get(offset, entry);
+            return entry;
+        }
+
+        private static int hash(byte[] bytes) {
+            return hash(bytes, 0, bytes.length);
+        }
+
+        private static int hash(byte[] bytes, int from, int length) {
+            int h = 0;
+            for (int i = from; i < from + length; i++) {
+                h = 31 * h + bytes[i];
+            }
+            return h ^ (h >>> 16);
+        }
+    }
+}
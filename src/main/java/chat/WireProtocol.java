@@ -0,0 +1,207 @@
+package chat;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Двоичный протокол. Соединение начинается в текстовом режиме; клиент, отправив строку
+// UPGRADE_REQUEST вместо выбора входа/регистрации, ждёт ответ UPGRADE_ACCEPTED,
+// после чего обе стороны обмениваются кадрами: [длина varint][код операции][данные],
+// где длина считает код операции и данные. Текстовые клиенты работают как раньше.
+//   LOGIN, REGISTER  клиент -> сервер: [varint длина][логин][varint длина][пароль]
+//   MESSAGE          клиент -> сервер: строка чата или команда в UTF-8 (может содержать переводы строк)
+//   EXIT             клиент -> сервер: выход из чата
+//   PING, PONG       в обе стороны, без данных: проверка, что другая сторона жива (ответ на PING - PONG)
+//   SYSTEM, CHAT     сервер -> клиент: служебное сообщение / сообщение чата в UTF-8
+//   ACK              сервер -> клиент: [код запроса][Status][текст ответа в UTF-8]
+//   COMPRESSED       в обе стороны, если договорились о сжатии (UPGRADE_REQUEST + " " + DEFLATE):
+//                    кусок потока DEFLATE (zlib со словарём DICTIONARY, сброс SYNC_FLUSH),
+//                    внутри - обычные кадры. Поток сжатия один на направление соединения
+//   SESSION          сервер -> клиент, если клиент попросил восстановление сессии (UPGRADE_REQUEST + " " + RESUMABLE):
+//                    [varint длина][ключ сессии][номер последнего сообщения, 8 байт]. Приходит после входа
+//                    (номер 0) и после восстановления. Сообщения SYSTEM, CHAT и ACK после него нумеруются
+//                    по порядку 1, 2, 3..., служебные кадры (PING, PONG, SESSION) не нумеруются
+//   RESUME           клиент -> сервер вместо LOGIN после переподключения: [varint длина][ключ сессии]
+//                    [номер последнего полученного сообщения, 8 байт]. Ответ - SESSION и пропущенные
+//                    сообщения или ACK с FAILED, если сессия истекла (тогда нужен обычный вход)
+public final class WireProtocol {
+    public static final String UPGRADE_REQUEST = "/binary";
+    public static final String UPGRADE_ACCEPTED = "/binary ok";
+    public static final String DEFLATE = "deflate";
+    public static final String RESUMABLE = "resume";
+
+    public static final int LOGIN = 0x01;
+    public static final int REGISTER = 0x02;
+    public static final int MESSAGE = 0x03;
+    public static final int EXIT = 0x04;
+    public static final int PING = 0x05;
+    public static final int PONG = 0x06;
+    public static final int RESUME = 0x07;
+    public static final int SYSTEM = 0x10;
+    public static final int CHAT = 0x11;
+    public static final int ACK = 0x12;
+    public static final int SESSION = 0x13;
+    public static final int COMPRESSED = 0x20;
+
+    public static final int MAX_FRAME_LENGTH = 64 * 1024;
+    // Кадры сервера могут быть длиннее: к строке клиента добавляются имя отправителя, метка времени
+    public static final int MAX_SERVER_FRAME_LENGTH = 1024 * 1024;
+
+    // Общий словарь сжатия: частые фразы сервера, с ним хорошо сжимаются и первые короткие сообщения.
+    // Менять только вместе с клиентами - словарь должен совпадать у обеих сторон
+    public static final byte[] DICTIONARY = String.join("\n",
+            "Введите логин:", "Введите пароль:", "Вход успешен! Добро пожаловать, ", "Регистрация успешна!",
+            " присоединяется к чату", " присоединяется к комнате ", " перешёл в комнату ", " покинул чат.",
+            " разорвал соединение.", "--- История сообщений (", "--- Конец истории ---", "[ЛС] ", "[ЛС для ",
+            "Личные сообщения, пока вас не было (", "Комнаты: general (", "Вы в комнате ",
+            "http://", "https://", "Exception", "ERROR", "INFO", "WARN", " at ", ".java:").getBytes(StandardCharsets.UTF_8);
+
+    // Результат запроса в кадре ACK
+    public enum Status {
+        OK, INVALID_CREDENTIALS, UNKNOWN_LOGIN, LOGIN_TAKEN, OVERLOADED, FAILED;
+
+        public static Status of(int code) {
+            Status[] values = values();
+            return code >= 0 && code < values.length ? values[code] : FAILED;
+        }
+    }
+
+    // Кадр, прочитанный из потока
+    public record Frame(int opcode, byte[] payload) {
+        public String text() {
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+    }
+
+    private WireProtocol() {
+    }
+
+    public static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    public static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    // Чтение varint; -1 - в буфере ещё не все байты числа (позиция буфера не меняется)
+    public static int getVarint(ByteBuffer buffer) throws IOException {
+        int value = 0;
+        int position = buffer.position();
+        for (int shift = 0; shift < 35; shift += 7) {
+            if (position >= buffer.limit()) {
+                return -1;
+            }
+            byte b = buffer.get(position++);
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                buffer.position(position);
+                return value;
+            }
+        }
+        throw new IOException("Повреждён заголовок кадра");
+    }
+
+    // Заголовок кадра: длина, код операции и служебные байты перед текстом
+    public static ByteBuffer header(int opcode, byte[] prefix, int bodyLength) {
+        int length = 1 + prefix.length + bodyLength;
+        ByteBuffer header = ByteBuffer.allocate(varintSize(length) + 1 + prefix.length);
+        putVarint(header, length);
+        header.put((byte) opcode).put(prefix).flip();
+        return header;
+    }
+
+    // Данные кадров LOGIN и REGISTER
+    public static byte[] credentials(String login, String password) {
+        byte[] loginBytes = login.getBytes(StandardCharsets.UTF_8);
+        byte[] passwordBytes = password.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(varintSize(loginBytes.length) + loginBytes.length
+                + varintSize(passwordBytes.length) + passwordBytes.length);
+        putVarint(payload, loginBytes.length);
+        payload.put(loginBytes);
+        putVarint(payload, passwordBytes.length);
+        payload.put(passwordBytes);
+        return payload.array();
+    }
+
+    // Данные кадров SESSION и RESUME
+    public static byte[] session(String token, long sequence) {
+        byte[] tokenBytes = token.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(varintSize(tokenBytes.length) + tokenBytes.length + Long.BYTES);
+        putVarint(payload, tokenBytes.length);
+        payload.put(tokenBytes).putLong(sequence);
+        return payload.array();
+    }
+
+    // Номер сообщения в данных кадров SESSION и RESUME (после ключа сессии)
+    public static long getSequence(ByteBuffer payload) throws IOException {
+        if (payload.remaining() < Long.BYTES) {
+            throw new IOException("Повреждены данные кадра");
+        }
+        return payload.getLong();
+    }
+
+    // Чтение строки с длиной varint из данных кадра
+    public static String getString(ByteBuffer payload) throws IOException {
+        int length = getVarint(payload);
+        if (length < 0 || length > payload.remaining()) {
+            throw new IOException("Повреждены данные кадра");
+        }
+        byte[] bytes = new byte[length];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Блокирующая запись кадра (клиент)
+    public static void writeFrame(OutputStream out, int opcode, byte[] payload) throws IOException {
+        ByteBuffer header = header(opcode, new byte[0], payload.length);
+        out.write(header.array(), 0, header.limit());
+        out.write(payload);
+    }
+
+    // Блокирующее чтение кадра; null - соединение закрыто между кадрами
+    public static Frame readFrame(InputStream in) throws IOException {
+        return readFrame(in, MAX_FRAME_LENGTH);
+    }
+
+    public static Frame readFrame(InputStream in, int maxFrameLength) throws IOException {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                if (shift == 0) {
+                    return null;
+                }
+                throw new EOFException("Соединение закрыто посреди кадра");
+            }
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+            if (shift >= 28) {
+                throw new IOException("Повреждён заголовок кадра");
+            }
+        }
+        if (length < 1 || length > maxFrameLength) {
+            throw new IOException("Недопустимая длина кадра: " + length);
+        }
+        int opcode = in.read();
+        byte[] payload = in.readNBytes(length - 1);
+        if (opcode < 0 || payload.length != length - 1) {
+            throw new EOFException("Соединение закрыто посреди кадра");
+        }
+        return new Frame(opcode, payload);
+    }
+}
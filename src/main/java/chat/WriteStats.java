@@ -0,0 +1,46 @@
+package chat;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Статистика записи в сокет: сколько сообщений и байт уходит за один сброс (flush).
+// Чем больше сообщений за сброс, тем меньше системных вызовов на сообщение
+public class WriteStats {
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    // Учёт одного сброса
+    public void record(int messageCount, long byteCount) {
+        flushes.increment();
+        messages.add(messageCount);
+        bytes.add(byteCount);
+    }
+
+    public long getFlushCount() {
+        return flushes.sum();
+    }
+
+    public long getMessageCount() {
+        return messages.sum();
+    }
+
+    public long getByteCount() {
+        return bytes.sum();
+    }
+
+    public double getAverageMessagesPerFlush() {
+        long flushCount = flushes.sum();
+        return flushCount == 0 ? 0 : (double) messages.sum() / flushCount;
+    }
+
+    public double getAverageBytesPerFlush() {
+        long flushCount = flushes.sum();
+        return flushCount == 0 ? 0 : (double) bytes.sum() / flushCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("сбросов: %d, сообщений: %d, в среднем сообщений за сброс: %.2f, байт за сброс: %.1f",
+                getFlushCount(), getMessageCount(), getAverageMessagesPerFlush(), getAverageBytesPerFlush());
+    }
+}
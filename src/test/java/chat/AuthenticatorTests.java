@@ -0,0 +1,83 @@
+package chat;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AuthenticatorTests {
+
+    private static final int ITERATIONS = 1000; // быстрый хеш для тестов
+
+    @Test
+    public void testHashAndVerify() {
+        PasswordHasher hasher = new PasswordHasher(ITERATIONS);
+        String stored = hasher.hash("secret");
+
+        assertTrue(stored.startsWith("pbkdf2-sha512$1000$"));
+        assertNotEquals(stored, hasher.hash("secret")); // у каждого хеша своя соль
+        assertTrue(hasher.verify("secret", stored));
+        assertFalse(hasher.verify("Secret", stored));
+        assertFalse(hasher.needsRehash(stored));
+        assertTrue(new PasswordHasher(ITERATIONS * 2).needsRehash(stored));
+        assertTrue(hasher.needsRehash("plaintext"));
+    }
+
+    @Test
+    public void testPlaintextPasswordIsMigratedOnLogin() {
+        UserStore users = new UserStore();
+        users.put("Serg", "12345");
+        PasswordHasher hasher = new PasswordHasher(ITERATIONS);
+        Authenticator authenticator = new Authenticator(users, hasher, 1, 16, 100, 60_000);
+
+        assertFalse(authenticator.authenticate("Serg", "wrong").join());
+        assertEquals("12345", users.get("Serg"));
+
+        assertTrue(authenticator.authenticate("Serg", "12345").join());
+        assertTrue(users.get("Serg").startsWith("pbkdf2-sha512$"));
+        assertTrue(hasher.verify("12345", users.get("Serg")));
+
+        // повторный вход проверяется по кешу, неверный пароль кеш не пропускает
+        CompletableFuture<Boolean> cached = authenticator.authenticate("Serg", "12345");
+        assertTrue(cached.isDone() && cached.join());
+        assertFalse(authenticator.authenticate("Serg", "1234").join());
+        assertFalse(authenticator.authenticate("nobody", "12345").join());
+        authenticator.shutdown();
+    }
+
+    @Test
+    public void testRegisterHashesPassword() {
+        UserStore users = new UserStore();
+        Authenticator authenticator = new Authenticator(users, new PasswordHasher(ITERATIONS), 1, 16, 100, 60_000);
+
+        assertTrue(authenticator.register("Alena", "qwerty").join());
+        assertFalse(authenticator.register("Alena", "other").join());
+        assertNotEquals("qwerty", users.get("Alena"));
+        assertTrue(authenticator.authenticate("Alena", "qwerty").join());
+        authenticator.shutdown();
+    }
+
+    @Test
+    public void testLoginStormIsRejectedWhenQueueIsFull() {
+        UserStore users = new UserStore();
+        PasswordHasher hasher = new PasswordHasher(200_000); // медленный хеш, чтобы очередь заполнилась
+        users.put("user", hasher.hash("password"));
+        Authenticator authenticator = new Authenticator(users, hasher, 1, 2, 100, 60_000);
+
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            results.add(authenticator.authenticate("user", "wrong" + i));
+        }
+
+        assertTrue(authenticator.getRejectedCount() >= 7);
+        CompletionException rejected = assertThrows(CompletionException.class, () -> results.get(9).join());
+        assertInstanceOf(RejectedExecutionException.class, rejected.getCause());
+        assertFalse(results.get(0).join());
+        authenticator.shutdown();
+    }
+}
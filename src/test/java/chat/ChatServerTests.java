@@ -5,9 +5,11 @@ import org.junit.jupiter.api.Test;
 import org.mockito.Mockito;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
@@ -16,13 +18,19 @@ public class ChatServerTests {
 
     private Socket mockSocket;
     private BufferedReader mockReader;
-    private PrintWriter mockWriter;
+    private ByteArrayOutputStream output;
 
     @BeforeEach
     public void setup() {
         mockSocket = Mockito.mock(Socket.class);
         mockReader = Mockito.mock(BufferedReader.class);
-        mockWriter = Mockito.mock(PrintWriter.class);
+        output = new ByteArrayOutputStream();
+    }
+
+    // Проверяем, что клиенту была отправлена строка
+    private void verifySent(String line) {
+        List<String> lines = output.toString(StandardCharsets.UTF_8).lines().toList();
+        assertTrue(lines.contains(line), "Клиенту не отправлено: " + line + ", отправлено: " + lines);
     }
 
     @Test
@@ -38,24 +46,21 @@ public class ChatServerTests {
         ChatServer.getUsers().put("user", "password123");
 
         // Передаем моки в конструктор ClientHandler
-        ChatServer.ClientHandler clientHandler = new ChatServer.ClientHandler(mockSocket, mockReader, mockWriter);
-        clientHandler.start(); // Запускаем поток
-        // Ждем завершения потока, чтобы убедиться, что все сообщения были отправлены
-        try {
-            clientHandler.join();  // Ожидаем завершения работы потока
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+        long presenceChanges = ChatServer.presence.getChangeCount();
+        ChatServer.ClientHandler clientHandler = new ChatServer.ClientHandler(mockSocket, mockReader, output);
+        clientHandler.run(); // Выполняем задачу в текущем потоке до завершения соединения
 
         // Проверяем, что отправлялись ожидаемые сообщения клиенту
-        verify(mockWriter).println("Добро пожаловать в чат! Введите '1' для входа или '2' для регистрации:");
-        verify(mockWriter).println("Введите логин:");
-        verify(mockWriter).println("Введите пароль:");
-        verify(mockWriter).println("Вход успешен! Добро пожаловать, user");
-        verify(mockWriter).println("Server: user присоединился к чату");
-        verify(mockWriter).println("user: exit");
-
-        assertTrue(ChatServer.getClientWriters().containsKey("user"));
+        verifySent("Добро пожаловать в чат! Введите '1' для входа или '2' для регистрации:");
+        verifySent("Введите '3' для выхода без регистрации:");
+        verifySent("Введите логин:");
+        verifySent("Введите пароль:");
+        verifySent("Вход успешен! Добро пожаловать, user");
+
+        // о входе и выходе объявляет Presence остальным; "exit" закрывает соединение и не рассылается
+        assertEquals(presenceChanges + 2, ChatServer.presence.getChangeCount());
+        assertFalse(output.toString(StandardCharsets.UTF_8).contains("user: exit"));
+        assertFalse(ChatServer.getClientWriters().containsKey("user"));
     }
 
     @Test
@@ -68,23 +73,19 @@ public class ChatServerTests {
                 .thenReturn("exit");  // Завершение соединения
 
         // Передаем моки в конструктор ClientHandler
-        ChatServer.ClientHandler clientHandler = new ChatServer.ClientHandler(mockSocket, mockReader, mockWriter);
-        clientHandler.start(); // Запускаем поток
-        // Ждем завершения потока, чтобы убедиться, что все сообщения были отправлены
-        try {
-            clientHandler.join();  // Ожидаем завершения работы потока
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+        long presenceChanges = ChatServer.presence.getChangeCount();
+        ChatServer.ClientHandler clientHandler = new ChatServer.ClientHandler(mockSocket, mockReader, output);
+        clientHandler.run(); // Выполняем задачу в текущем потоке до завершения соединения
 
         // Проверяем, что отправлялись ожидаемые сообщения клиенту
-        verify(mockWriter).println("Добро пожаловать в чат! Введите '1' для входа или '2' для регистрации:");
-        verify(mockWriter).println("Введите логин:");
-        verify(mockWriter).println("Введите пароль:");
-        verify(mockWriter).println("Регистрация успешна! Теперь вы можете войти.");
-        verify(mockWriter).println("Server: newuser присоединился к чату");
-        verify(mockWriter).println("newuser: exit");
+        verifySent("Добро пожаловать в чат! Введите '1' для входа или '2' для регистрации:");
+        verifySent("Введите логин:");
+        verifySent("Введите пароль:");
+        verifySent("Регистрация успешна!");
 
+        // после регистрации пользователь сразу входит в чат, "exit" - выходит
+        assertEquals(presenceChanges + 2, ChatServer.presence.getChangeCount());
+        assertFalse(output.toString(StandardCharsets.UTF_8).contains("newuser: exit"));
         assertTrue(ChatServer.getUsers().containsKey("newuser"));
     }
 }
\ No newline at end of file
@@ -0,0 +1,173 @@
+package chat;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClusterTests {
+    private final List<Cluster> nodes = new ArrayList<>();
+
+    @AfterEach
+    public void stopNodes() {
+        nodes.forEach(Cluster::stop);
+    }
+
+    @Test
+    public void testRoomMessagesAreRelayedInBatches() throws Exception {
+        BlockingQueue<String> receivedByA = new LinkedBlockingQueue<>();
+        BlockingQueue<String> receivedByB = new LinkedBlockingQueue<>();
+        Cluster a = node("a", receivedByA);
+        Cluster b = node("b", receivedByB);
+        a.connect("b", "localhost", b.getLocalPort());
+        b.connect("a", "localhost", a.getLocalPort());
+
+        int count = 2000;
+        for (int i = 0; i < count; i++) {
+            a.publish(Rooms.GENERAL, "alice: " + i, WireProtocol.CHAT);
+        }
+        b.publish("", "bob присоединяется к чату", WireProtocol.SYSTEM);
+
+        for (int i = 0; i < count; i++) {
+            assertEquals("general|alice: " + i, receivedByB.poll(5, TimeUnit.SECONDS));
+        }
+        assertEquals("|bob присоединяется к чату", receivedByA.poll(5, TimeUnit.SECONDS));
+        // события уходят пачками, а не по одному (+1 пачка - список пользователей при подключении)
+        assertTrue(a.getBatchesSent() < count / 2, "пачек: " + a.getBatchesSent());
+        assertEquals(count + 1, a.getRecordsSent());
+    }
+
+    @Test
+    public void testPresenceAndDirectMessages() throws Exception {
+        BlockingQueue<String> receivedByA = new LinkedBlockingQueue<>();
+        Cluster a = node("a", receivedByA);
+        Cluster b = node("b", new LinkedBlockingQueue<>());
+        a.userOnline("alice"); // до подключения - узел b узнает о ней из списка при подключении
+        a.connect("b", "localhost", b.getLocalPort());
+        b.connect("a", "localhost", a.getLocalPort());
+        b.userOnline("bob");
+
+        waitFor(() -> "a".equals(b.locate("alice")) && "b".equals(a.locate("bob")));
+        assertEquals(List.of("alice", "bob"), List.copyOf(b.onlineUsers()));
+        waitFor(() -> b.sendDirect("a", "alice", "bob", "привет"));
+        assertEquals("alice<-bob: привет", receivedByA.poll(5, TimeUnit.SECONDS));
+        assertFalse(b.sendDirect("c", "carol", "bob", "нет такого узла"));
+
+        a.userOffline("alice");
+        waitFor(() -> b.locate("alice") == null);
+        a.userOnline("alice");
+        waitFor(() -> "a".equals(b.locate("alice")));
+        a.stop();
+        // связь с узлом прервалась - его пользователи больше не считаются находящимися в сети
+        waitFor(() -> b.locate("alice") == null);
+    }
+
+    @Test
+    public void testDuplicatesAreDroppedByMessageId() throws IOException {
+        Cluster node = node("a", new LinkedBlockingQueue<>());
+
+        assertTrue(node.firstSeen("b", 100, 1));
+        assertTrue(node.firstSeen("b", 100, 2));
+        assertFalse(node.firstSeen("b", 100, 2)); // повтор пачки после переподключения
+        assertFalse(node.firstSeen("b", 100, 1));
+        assertTrue(node.firstSeen("c", 100, 1));  // номера у каждого узла свои
+        assertTrue(node.firstSeen("b", 200, 1));  // узел b перезапущен - номера начались заново
+        assertFalse(node.firstSeen("b", 100, 3)); // событие прежнего запуска
+    }
+
+    @Test
+    public void testStopFlushesQueuedEvents() throws Exception {
+        BlockingQueue<String> receivedByB = new LinkedBlockingQueue<>();
+        Cluster a = node("a", new LinkedBlockingQueue<>());
+        Cluster b = node("b", receivedByB);
+        a.userOnline("alice");
+        a.connect("b", "localhost", b.getLocalPort());
+        waitFor(() -> "a".equals(b.locate("alice")));
+
+        int count = 20000;
+        for (int i = 0; i < count; i++) {
+            a.publish(Rooms.GENERAL, "alice: " + i, WireProtocol.CHAT);
+        }
+        a.stop(); // события, ещё не ушедшие из очереди связи, отправляются до остановки
+        for (int i = 0; i < count; i++) {
+            assertEquals("general|alice: " + i, receivedByB.poll(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testStrangersAreRejected() throws Exception {
+        Cluster a = node("a", new LinkedBlockingQueue<>());
+        assertTrue(a.getLocalAddress().isLoopbackAddress());
+        assertFalse(hello(a, "b", "wrong"));  // неверный ключ
+        assertFalse(hello(a, "c", "secret")); // узла нет в cluster.peers
+        assertTrue(hello(a, "b", "secret"));
+        assertThrows(IllegalArgumentException.class, () -> node("b", "", new LinkedBlockingQueue<>()));
+
+        Cluster b = node("b", "other", new LinkedBlockingQueue<>());
+        b.userOnline("bob");
+        b.connect("a", "localhost", a.getLocalPort());
+        Thread.sleep(300);
+        assertNull(a.locate("bob"));
+    }
+
+    // true - узел ответил на приветствие своим именем
+    private static boolean hello(Cluster node, String id, String secret) throws IOException {
+        try (Socket socket = new Socket("localhost", node.getLocalPort())) {
+            socket.setSoTimeout(5000);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            out.writeUTF(id);
+            out.writeLong(1);
+            byte[] key = secret.getBytes(StandardCharsets.UTF_8);
+            out.writeShort(key.length);
+            out.write(key);
+            out.flush();
+            return node.getNodeId().equals(new DataInputStream(socket.getInputStream()).readUTF());
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    private Cluster node(String id, BlockingQueue<String> received) throws IOException {
+        return node(id, "secret", received);
+    }
+
+    private Cluster node(String id, String secret, BlockingQueue<String> received) throws IOException {
+        Cluster node = new Cluster(id, "127.0.0.1", 0, secret, Set.of("a", "b"), 65536, 64 * 1024,
+                TimeUnit.MICROSECONDS.toNanos(500), 100,
+                new Cluster.Listener() {
+                    @Override
+                    public void onRoomMessage(String room, String text, int opcode) {
+                        received.add(room + "|" + text);
+                    }
+
+                    @Override
+                    public void onDirect(String to, String from, String text) {
+                        received.add(to + "<-" + from + ": " + text);
+                    }
+                });
+        nodes.add(node);
+        return node;
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "условие не выполнилось за 5 секунд");
+            Thread.sleep(10);
+        }
+    }
+}
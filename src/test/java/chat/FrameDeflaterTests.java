@@ -0,0 +1,101 @@
+package chat;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FrameDeflaterTests {
+
+    @Test
+    public void testStreamingRoundTrip() throws IOException {
+        CompressionStats stats = new CompressionStats();
+        FrameDeflater deflater = new FrameDeflater(Deflater.DEFAULT_COMPRESSION, 64, stats);
+        FrameInflater inflater = new FrameInflater(WireProtocol.MAX_FRAME_LENGTH, stats);
+        List<String> received = new ArrayList<>();
+        List<String> sent = new ArrayList<>();
+
+        // несколько пачек подряд: поток сжатия продолжается между ними
+        for (int batch = 0; batch < 5; batch++) {
+            List<OutboundMessage> messages = new ArrayList<>();
+            ByteBuffer[] views = new ByteBuffer[8];
+            for (int i = 0; i < 4; i++) {
+                String text = "bot: сборка #" + batch + " завершена, тесты пройдены " + i;
+                sent.add(text);
+                OutboundMessage message = OutboundMessage.encode(text, true);
+                messages.add(message);
+                views[2 * i] = message.frameHeaderView();
+                views[2 * i + 1] = message.bodyView();
+            }
+            ByteBuffer compressed = deflater.compress(views, 0, views.length);
+            assertNotNull(compressed);
+            readAll(compressed, inflater, received);
+            messages.forEach(OutboundMessage::release);
+        }
+
+        assertEquals(sent, received);
+        assertEquals(5, stats.getCompressedBatchCount());
+        assertTrue(stats.getCompressionRatio() > 2, "повторяющийся текст должен сжиматься: " + stats);
+        deflater.end();
+        inflater.end();
+    }
+
+    @Test
+    public void testSmallBatchIsSentRaw() {
+        CompressionStats stats = new CompressionStats();
+        FrameDeflater deflater = new FrameDeflater(Deflater.DEFAULT_COMPRESSION, 256, stats);
+        OutboundMessage message = OutboundMessage.of("привет");
+
+        assertNull(deflater.compress(new ByteBuffer[]{message.frameHeaderView(), message.bodyView()}, 0, 2));
+        assertEquals(1, stats.getRawBatchCount());
+        assertEquals(0, stats.getCompressedBatchCount());
+        message.release();
+        deflater.end();
+    }
+
+    @Test
+    public void testLargeBatchIsSplitIntoFrames() throws IOException {
+        CompressionStats stats = new CompressionStats();
+        FrameDeflater deflater = new FrameDeflater(Deflater.BEST_SPEED, 64, stats);
+        FrameInflater inflater = new FrameInflater(WireProtocol.MAX_SERVER_FRAME_LENGTH, stats);
+        // случайные байты почти не сжимаются - кадр COMPRESSED всё равно не длиннее MAX_FRAME_LENGTH
+        byte[] noise = new byte[200_000];
+        new Random(1).nextBytes(noise);
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        WireProtocol.writeFrame(frames, WireProtocol.MESSAGE, new byte[50_000]);
+        WireProtocol.writeFrame(frames, WireProtocol.MESSAGE, Arrays.copyOf(noise, 60_000));
+
+        ByteBuffer compressed = deflater.compress(new ByteBuffer[]{ByteBuffer.wrap(frames.toByteArray())}, 0, 1);
+        List<Integer> sizes = new ArrayList<>();
+        ByteArrayInputStream in = new ByteArrayInputStream(compressed.array(), compressed.position(), compressed.remaining());
+        WireProtocol.Frame frame;
+        while ((frame = WireProtocol.readFrame(in)) != null) {
+            assertEquals(WireProtocol.COMPRESSED, frame.opcode());
+            inflater.inflate(ByteBuffer.wrap(frame.payload()), (opcode, payload) -> sizes.add(payload.remaining()));
+        }
+
+        assertEquals(List.of(50_000, 60_000), sizes);
+        deflater.end();
+        inflater.end();
+    }
+
+    private static void readAll(ByteBuffer compressed, FrameInflater inflater, List<String> received) throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(compressed.array(), compressed.position(), compressed.remaining());
+        WireProtocol.Frame frame;
+        while ((frame = WireProtocol.readFrame(in)) != null) {
+            assertEquals(WireProtocol.COMPRESSED, frame.opcode());
+            inflater.inflate(ByteBuffer.wrap(frame.payload()),
+                    (opcode, payload) -> received.add(StandardCharsets.UTF_8.decode(payload).toString()));
+        }
+    }
+}
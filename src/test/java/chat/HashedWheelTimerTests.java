@@ -0,0 +1,81 @@
+package chat;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HashedWheelTimerTests {
+
+    @Test
+    public void testOrderAndDelay() throws InterruptedException {
+        HashedWheelTimer timer = new HashedWheelTimer("test-timer", 5, 16);
+        try {
+            List<Integer> fired = new CopyOnWriteArrayList<>();
+            CountDownLatch done = new CountDownLatch(3);
+            long start = System.nanoTime();
+            long[] firstFiredAt = new long[1];
+            timer.schedule(() -> {
+                fired.add(3);
+                done.countDown();
+            }, 150, TimeUnit.MILLISECONDS);
+            timer.schedule(() -> {
+                firstFiredAt[0] = System.nanoTime();
+                fired.add(1);
+                done.countDown();
+            }, 30, TimeUnit.MILLISECONDS);
+            timer.schedule(() -> {
+                fired.add(2);
+                done.countDown();
+            }, 90, TimeUnit.MILLISECONDS);
+
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(List.of(1, 2, 3), fired);
+            assertTrue(firstFiredAt[0] - start >= TimeUnit.MILLISECONDS.toNanos(30));
+        } finally {
+            timer.stop();
+        }
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException {
+        HashedWheelTimer timer = new HashedWheelTimer("test-timer", 5, 16);
+        try {
+            CountDownLatch cancelledFired = new CountDownLatch(1);
+            CountDownLatch later = new CountDownLatch(1);
+            HashedWheelTimer.Timeout timeout = timer.schedule(cancelledFired::countDown, 20, TimeUnit.MILLISECONDS);
+            timeout.cancel();
+            timer.schedule(later::countDown, 60, TimeUnit.MILLISECONDS);
+
+            assertTrue(later.await(5, TimeUnit.SECONDS));
+            assertTrue(timeout.isCancelled());
+            assertEquals(1, cancelledFired.getCount());
+        } finally {
+            timer.stop();
+        }
+    }
+
+    @Test
+    public void testDelayLongerThanWheel() throws InterruptedException {
+        // колесо из 4 корзин по 5 мс - полный оборот 20 мс, таймауту нужно несколько оборотов
+        HashedWheelTimer timer = new HashedWheelTimer("test-timer", 5, 4);
+        try {
+            CountDownLatch fired = new CountDownLatch(1);
+            long start = System.nanoTime();
+            timer.schedule(fired::countDown, 100, TimeUnit.MILLISECONDS);
+            // исключение в задаче не останавливает таймер
+            timer.schedule(() -> {
+                throw new IllegalStateException("тест");
+            }, 10, TimeUnit.MILLISECONDS);
+
+            assertTrue(fired.await(5, TimeUnit.SECONDS));
+            assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+        } finally {
+            timer.stop();
+        }
+    }
+}
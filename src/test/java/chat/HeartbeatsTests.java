@@ -0,0 +1,121 @@
+package chat;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HeartbeatsTests {
+
+    @Test
+    public void testSilentClientIsPingedThenReaped() throws InterruptedException {
+        Heartbeats heartbeats = new Heartbeats(50, 300, 300, 10);
+        try {
+            TestConnection connection = new TestConnection(0);
+            ChatSession session = new ChatSession(connection);
+            session.onLine(WireProtocol.UPGRADE_REQUEST);
+            long reapedBefore = ChatServer.metrics.getReapedConnectionCount();
+            heartbeats.watch(session);
+
+            assertTrue(connection.aborted.await(5, TimeUnit.SECONDS));
+            assertTrue(connection.pings.get() >= 2, "PING: " + connection.pings.get());
+            assertTrue(ChatServer.metrics.getReapedConnectionCount() > reapedBefore);
+        } finally {
+            heartbeats.stop();
+        }
+    }
+
+    @Test
+    public void testAnsweringClientStaysConnected() throws InterruptedException, IOException {
+        Heartbeats heartbeats = new Heartbeats(50, 300, 300, 10);
+        try {
+            TestConnection connection = new TestConnection(0);
+            ChatSession session = new ChatSession(connection);
+            session.onLine(WireProtocol.UPGRADE_REQUEST);
+            heartbeats.watch(session);
+
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(800);
+            while (System.nanoTime() < deadline) {
+                session.onFrame(WireProtocol.PONG, ByteBuffer.allocate(0));
+                Thread.sleep(20);
+            }
+            assertEquals(1, connection.aborted.getCount());
+
+            // PING клиента - сервер отвечает PONG
+            session.onFrame(WireProtocol.PING, ByteBuffer.allocate(0));
+            assertEquals(1, connection.pongs.get());
+        } finally {
+            heartbeats.stop();
+        }
+    }
+
+    @Test
+    public void testBlockedWriteIsReaped() throws InterruptedException {
+        Heartbeats heartbeats = new Heartbeats(50, 60_000, 200, 10);
+        try {
+            // текстовый клиент, который давно не читает: PING ему не шлют, но зависшая запись - повод отключить
+            TestConnection connection = new TestConnection(System.nanoTime() - TimeUnit.SECONDS.toNanos(1));
+            ChatSession session = new ChatSession(connection);
+            heartbeats.watch(session);
+
+            assertTrue(connection.aborted.await(5, TimeUnit.SECONDS));
+            assertEquals(0, connection.pings.get());
+        } finally {
+            heartbeats.stop();
+        }
+    }
+
+    private static class TestConnection implements ClientConnection {
+        final CountDownLatch aborted = new CountDownLatch(1);
+        final AtomicInteger pings = new AtomicInteger();
+        final AtomicInteger pongs = new AtomicInteger();
+        private final long blockedSince;
+
+        TestConnection(long blockedSince) {
+            this.blockedSince = blockedSince;
+        }
+
+        @Override
+        public void send(OutboundMessage message) {
+            if (message.opcode() == WireProtocol.PING) {
+                pings.incrementAndGet();
+            } else if (message.opcode() == WireProtocol.PONG) {
+                pongs.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            task.run();
+        }
+
+        @Override
+        public boolean upgradeToBinary() {
+            return true;
+        }
+
+        @Override
+        public long getBlockedWriteSince() {
+            return blockedSince;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void abort() {
+            aborted.countDown();
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return "test";
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package chat;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InboxStoreTests {
+
+    @TempDir
+    Path dir;
+
+    @AfterEach
+    public void tearDown() {
+        ChatServer.setInbox(null);
+    }
+
+    @Test
+    public void testAppendAndDrain() throws Exception {
+        InboxStore inbox = new InboxStore(dir, 1024);
+        assertTrue(inbox.append("Alena", "Serg", "привет"));
+        assertTrue(inbox.append("Alena", "Ketan", "как дела?"));
+
+        List<InboxStore.InboxMessage> messages = inbox.drain("Alena");
+        assertEquals(2, messages.size());
+        assertEquals("Serg", messages.get(0).from());
+        assertEquals("привет", messages.get(0).text());
+        assertEquals("как дела?", messages.get(1).text());
+        assertTrue(inbox.drain("Alena").isEmpty()); // ящик очищен после чтения
+    }
+
+    @Test
+    public void testInboxLimitAndTornRecord() throws Exception {
+        InboxStore inbox = new InboxStore(dir, 60);
+        assertTrue(inbox.append("Alena", "Serg", "первое"));
+        assertTrue(inbox.append("Alena", "Serg", "второе"));
+        assertFalse(inbox.append("Alena", "Serg", "третье не влезет"));
+
+        Path file;
+        try (Stream<Path> files = Files.list(dir)) {
+            file = files.findFirst().orElseThrow();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 2); // запись оборвалась при сбое
+        }
+        List<InboxStore.InboxMessage> messages = inbox.drain("Alena");
+        assertEquals(1, messages.size());
+        assertEquals("первое", messages.get(0).text());
+    }
+
+    @Test
+    public void testDirectMessageOnlineAndOffline() throws Exception {
+        ChatServer.setInbox(new InboxStore(dir, 1024));
+        ChatServer.getUsers().put("dmOnline", "x");
+        ChatServer.getUsers().put("dmOffline", "x");
+        List<String> received = new CopyOnWriteArrayList<>();
+        ClientConnection online = new ClientConnection() {
+            @Override
+            public void send(OutboundMessage message) {
+                received.add(message.text());
+            }
+
+            @Override
+            public void execute(Runnable task) {
+                task.run();
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public String getRemoteAddress() {
+                return "test";
+            }
+        };
+        ChatServer.getClientWriters().put("dmOnline", online);
+        try {
+            assertEquals(ChatServer.DirectResult.DELIVERED, ChatServer.sendDirect("Serg", "dmOnline", "привет"));
+            assertEquals(List.of("[ЛС] Serg: привет"), received);
+
+            assertEquals(ChatServer.DirectResult.SPOOLED, ChatServer.sendDirect("Serg", "dmOffline", "позже"));
+            assertEquals(ChatServer.DirectResult.UNKNOWN_USER, ChatServer.sendDirect("Serg", "nobody", "?"));
+
+            received.clear();
+            ChatServer.deliverInbox("dmOffline", online);
+            assertEquals(2, received.size());
+            assertTrue(received.get(1).endsWith("[ЛС] Serg: позже"));
+        } finally {
+            ChatServer.getClientWriters().remove("dmOnline");
+        }
+    }
+
+    @Test
+    public void testReadThenCommitKeepsUndelivered() throws Exception {
+        InboxStore inbox = new InboxStore(dir, 1024);
+        inbox.append("Alena", "Serg", "1");
+        inbox.append("Alena", "Serg", "2");
+        inbox.append("Alena", "Serg", "3");
+
+        InboxStore.Batch batch = inbox.read("Alena", 2);
+        assertEquals(List.of("1", "2"), batch.messages().stream().map(InboxStore.InboxMessage::text).toList());
+        assertEquals(3, batch.total());
+        inbox.append("Alena", "Ketan", "4"); // пришло, пока часть доставлялась
+        inbox.commit("Alena", batch.bytes());
+
+        assertEquals(List.of("3", "4"), inbox.drain("Alena").stream().map(InboxStore.InboxMessage::text).toList());
+        assertFalse(inbox.hasMessages("Alena"));
+    }
+
+    @Test
+    public void testInboxLargerThanOutboundQueue() throws Exception {
+        InboxStore inbox = new InboxStore(dir, 1024 * 1024);
+        ChatServer.setInbox(inbox);
+        int count = ChatServer.OUTBOUND_CAPACITY * 3 / 2;
+        for (int i = 0; i < count; i++) {
+            inbox.append("dmSlow", "Serg", "сообщение " + i);
+        }
+        // клиент читает медленно: в очереди лежит всё отправленное, пока он его не заберёт
+        List<String> received = new CopyOnWriteArrayList<>();
+        AtomicInteger consumed = new AtomicInteger();
+        AtomicInteger maxDepth = new AtomicInteger();
+        ClientConnection slow = new ClientConnection() {
+            @Override
+            public void send(OutboundMessage message) {
+                received.add(message.text());
+                maxDepth.accumulateAndGet(getQueueDepth(), Math::max);
+            }
+
+            @Override
+            public int getQueueDepth() {
+                return received.size() - consumed.get();
+            }
+
+            @Override
+            public void execute(Runnable task) {
+                task.run();
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public String getRemoteAddress() {
+                return "test";
+            }
+        };
+        ChatServer.getClientWriters().put("dmSlow", slow);
+        try {
+            ChatServer.deliverInbox("dmSlow", slow);
+            // в очередь ушла только часть - остальное по-прежнему в ящике
+            assertTrue(received.size() < ChatServer.OUTBOUND_CAPACITY, "отправлено " + received.size());
+            assertEquals(count - (received.size() - 1), inbox.read("dmSlow", 0).total());
+            assertEquals("Личные сообщения, пока вас не было (" + count + "):", received.get(0));
+
+            consumed.set(received.size()); // клиент разобрал очередь
+            long deadline = System.currentTimeMillis() + 5000;
+            while (received.size() < count + 1 && System.currentTimeMillis() < deadline) {
+                consumed.set(received.size());
+                Thread.sleep(10);
+            }
+            assertEquals(count + 1, received.size());
+            assertTrue(received.get(count).endsWith("[ЛС] Serg: сообщение " + (count - 1)));
+            assertTrue(maxDepth.get() <= ChatServer.OUTBOUND_CAPACITY);
+            assertFalse(inbox.hasMessages("dmSlow"));
+        } finally {
+            ChatServer.getClientWriters().remove("dmSlow");
+        }
+    }
+
+    @Test
+    public void testUndeliveredInboxKeptAfterDisconnect() throws Exception {
+        InboxStore inbox = new InboxStore(dir, 1024 * 1024);
+        ChatServer.setInbox(inbox);
+        int count = ChatServer.OUTBOUND_CAPACITY * 2;
+        for (int i = 0; i < count; i++) {
+            inbox.append("dmGone", "Serg", "сообщение " + i);
+        }
+        List<String> received = new CopyOnWriteArrayList<>();
+        ClientConnection stuck = new ClientConnection() {
+            @Override
+            public void send(OutboundMessage message) {
+                received.add(message.text());
+            }
+
+            @Override
+            public int getQueueDepth() {
+                return received.size(); // клиент ничего не читает
+            }
+
+            @Override
+            public void execute(Runnable task) {
+                task.run();
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public String getRemoteAddress() {
+                return "test";
+            }
+        };
+        ChatServer.getClientWriters().put("dmGone", stuck);
+        ChatServer.deliverInbox("dmGone", stuck);
+        ChatServer.getClientWriters().remove("dmGone"); // отключился, не дочитав
+        Thread.sleep(300);
+
+        // удалено из ящика только то, что поставлено в очередь
+        int delivered = received.size() - 1;
+        assertTrue(delivered > 0 && delivered < count);
+        List<InboxStore.InboxMessage> rest = inbox.drain("dmGone");
+        assertEquals(count - delivered, rest.size());
+        assertEquals("сообщение " + delivered, rest.get(0).text());
+    }
+}
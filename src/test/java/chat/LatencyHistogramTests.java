@@ -0,0 +1,59 @@
+package chat;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LatencyHistogramTests {
+
+    @Test
+    public void testPercentilesWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 10_000; micros++) {
+            histogram.record(micros * 1000);
+        }
+
+        assertEquals(10_000, histogram.getCount());
+        assertEquals(10_000_000, histogram.getMax());
+        assertEquals(5_000_500, histogram.getMean(), 1);
+        assertEquals(5_000_000, histogram.getPercentile(50), 5_000_000 * 0.035);
+        assertEquals(9_900_000, histogram.getPercentile(99), 9_900_000 * 0.035);
+        assertEquals(10_000_000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testBucketBoundaries() {
+        for (long value : new long[]{0, 1, 63, 64, 65, 127, 128, 1_000_000, Long.MAX_VALUE / 3, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.index(value);
+            assertTrue(LatencyHistogram.highestEquivalent(index) >= value, "значение " + value);
+            if (index > 0) {
+                assertTrue(LatencyHistogram.highestEquivalent(index - 1) < value, "значение " + value);
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentRecording() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    histogram.record(i % 5000);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(800_000, histogram.getCount());
+        assertEquals(4999, histogram.getMax());
+        assertEquals(4999, histogram.getPercentile(100));
+    }
+}
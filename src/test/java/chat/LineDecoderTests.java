@@ -0,0 +1,49 @@
+package chat;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class LineDecoderTests {
+
+    @Test
+    public void testSplitLines() throws IOException {
+        LineDecoder decoder = new LineDecoder(1024);
+        List<String> lines = new ArrayList<>();
+
+        decoder.decode(utf8("один\r\nдв"), lines::add);
+        assertEquals(List.of("один"), lines);
+
+        decoder.decode(utf8("а\nтри\n"), lines::add);
+        assertEquals(List.of("один", "два", "три"), lines);
+    }
+
+    @Test
+    public void testMultibyteCharacterSplitAcrossBuffers() throws IOException {
+        LineDecoder decoder = new LineDecoder(1024);
+        List<String> lines = new ArrayList<>();
+        byte[] bytes = "привет\n".getBytes(StandardCharsets.UTF_8);
+
+        decoder.decode(ByteBuffer.wrap(bytes, 0, 3), lines::add);
+        decoder.decode(ByteBuffer.wrap(bytes, 3, bytes.length - 3), lines::add);
+
+        assertEquals(List.of("привет"), lines);
+    }
+
+    @Test
+    public void testLineTooLong() {
+        LineDecoder decoder = new LineDecoder(4);
+        assertThrows(IOException.class, () -> decoder.decode(utf8("слишком длинная строка"), line -> { }));
+    }
+
+    private static ByteBuffer utf8(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,62 @@
+package chat;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LoadGeneratorTests {
+
+    @Test
+    public void testOptions() {
+        LoadGenerator.Options options = LoadGenerator.Options.parse(
+                new String[]{"sessions=500", "rate=2.5", "duration=1.5", "auth=login"}, "localhost", 8080);
+
+        assertEquals(500, options.sessions());
+        assertEquals(2.5, options.rate());
+        assertEquals(1500, options.durationMillis());
+        assertFalse(options.register());
+        assertEquals("localhost", options.host());
+        assertEquals(8080, options.port());
+        assertEquals(10, options.rooms());
+        assertThrows(IllegalArgumentException.class,
+                () -> LoadGenerator.Options.parse(new String[]{"sesions=5"}, "localhost", 8080));
+        assertThrows(IllegalArgumentException.class,
+                () -> LoadGenerator.Options.parse(new String[]{"rate=0"}, "localhost", 8080));
+    }
+
+    @Test
+    public void testTimestampInMessage() {
+        assertEquals(123456789L, LoadGenerator.sentAt("load-1: " + LoadGenerator.MARKER + "123456789 xxxx"));
+        assertEquals(42L, LoadGenerator.sentAt(LoadGenerator.MARKER + "42"));
+        assertEquals(0, LoadGenerator.sentAt("Serg: привет"));
+    }
+
+    @Test
+    public void testRunAgainstServer() throws IOException, InterruptedException {
+        NioChatServer server = new NioChatServer(0, 2);
+        server.start();
+        try {
+            for (int i = 0; i < 3; i++) {
+                ChatServer.getUsers().put("loadTest-" + i, "secret");
+            }
+            LoadGenerator.Options options = LoadGenerator.Options.parse(new String[]{
+                    "port=" + server.getLocalPort(), "sessions=3", "rooms=1", "rate=20", "duration=1", "drain=0.5",
+                    "auth=login", "prefix=loadTest", "password=secret"}, "localhost", 0);
+
+            LoadGenerator.Report report = new LoadGenerator(options).run();
+
+            assertEquals(0, report.failed());
+            assertTrue(report.sent() > 0);
+            // все три сессии в одной комнате - каждое сообщение приходит трижды, включая эхо отправителю
+            assertEquals(report.sent() * 3, report.expected());
+            assertEquals(report.expected(), report.received(), report.toString());
+            assertEquals(report.received(), report.delivery().getCount());
+            assertEquals(3, report.login().getCount());
+        } finally {
+            server.stop();
+            server.awaitTermination();
+        }
+    }
+}
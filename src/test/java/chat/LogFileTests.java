@@ -0,0 +1,72 @@
+package chat;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LogFileTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testRolloverBySizeWithCompression() throws Exception {
+        Path log = dir.resolve("file.log");
+        LogFile logFile = new LogFile(log.toString(), 64, new LogFile.RollingPolicy(100, false, 10, true));
+
+        byte[] line = "0123456789012345678901234567890123456789\n".getBytes(StandardCharsets.UTF_8); // 41 байт
+        for (int i = 0; i < 3; i++) {
+            logFile.append(line);
+            logFile.flush();
+        }
+        logFile.close();
+        LogFile.awaitArchiving();
+
+        List<Path> archives = archives();
+        assertEquals(1, archives.size());
+        assertTrue(archives.get(0).getFileName().toString().endsWith(".1.gz"));
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(archives.get(0)))) {
+            assertEquals(82, in.readAllBytes().length); // в архив ушли две строки целиком
+        }
+        assertEquals(41, Files.size(log));
+    }
+
+    @Test
+    public void testOldArchivesAreDeleted() throws Exception {
+        Path log = dir.resolve("file.log");
+        LogFile logFile = new LogFile(log.toString(), 64, new LogFile.RollingPolicy(10, false, 2, false));
+
+        for (int i = 0; i < 5; i++) {
+            logFile.append(("строка " + i + "\n").getBytes(StandardCharsets.UTF_8));
+            logFile.flush();
+            LogFile.awaitArchiving(); // очистка после каждой ротации завершена до следующей
+        }
+        logFile.close();
+        LogFile.awaitArchiving();
+
+        // номера удалённых архивов (.1, .2) не используются повторно: остаются два самых новых
+        List<Path> kept = archives().stream().sorted().toList();
+        assertEquals(2, kept.size());
+        assertTrue(kept.get(0).getFileName().toString().endsWith(".3"));
+        assertTrue(kept.get(1).getFileName().toString().endsWith(".4"));
+        assertEquals("строка 2\n", Files.readString(kept.get(0)));
+        assertEquals("строка 3\n", Files.readString(kept.get(1)));
+        assertEquals("строка 4\n", Files.readString(log));
+    }
+
+    private List<Path> archives() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(path -> path.getFileName().toString().startsWith("file.log.")).toList();
+        }
+    }
+}
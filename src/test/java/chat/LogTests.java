@@ -1,6 +1,7 @@
 package chat;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mockito;
 
 import java.io.FileWriter;
@@ -26,6 +27,7 @@ public class LogTests {
 
         Log logger = Log.getInstance();
         logger.log(message, Log.SERVER);
+        logger.flush(); // запись асинхронная - дожидаемся попадания в файл
 
         Path logFilePath = Paths.get(FILE_LOG);
         String fileContent = Files.readString(logFilePath);
@@ -41,4 +43,32 @@ public class LogTests {
 
         assertDoesNotThrow(() -> logger.logToFile("Error message"));
     }
+
+    @Test
+    public void testConcurrentLogging(@TempDir Path dir) throws Exception {
+        // свой логгер во временном каталоге: file.log в src/main/resources не меняется
+        Path logFile = dir.resolve("file.log");
+        Log logger = new Log(logFile.toString(), dir.resolve("error.log").toString());
+        String prefix = "concurrent-" + System.nanoTime() + "-";
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int thread = t;
+            threads[t] = Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < 500; i++) {
+                    logger.log(prefix + thread + "-" + i, Log.SERVER);
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        logger.flush();
+        logger.shutdown();
+
+        String fileContent = Files.readString(logFile);
+        for (int t = 0; t < threads.length; t++) {
+            assertTrue(fileContent.contains("<" + Log.SERVER + ": " + prefix + t + "-499>"));
+        }
+        assertTrue(fileContent.lines().filter(line -> line.contains(prefix)).count() >= 2000 - logger.getDroppedCount());
+    }
 }
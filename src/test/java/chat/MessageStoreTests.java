@@ -0,0 +1,86 @@
+package chat;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageStoreTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testLastAcrossSegments() throws Exception {
+        MessageStore store = new MessageStore(dir, 4096, 64);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, store.append("сообщение " + i));
+        }
+
+        List<MessageStore.StoredMessage> last = store.last(300);
+        assertEquals(300, last.size());
+        assertEquals(700, last.get(0).seq());
+        assertEquals("сообщение 700", last.get(0).text());
+        assertEquals("сообщение 999", last.get(299).text());
+        assertEquals(1000, store.last(5000).size());
+        assertTrue(segmentCount() > 1);
+    }
+
+    @Test
+    public void testShortMessagesFillIndexFirst() throws Exception {
+        MessageStore store = new MessageStore(dir, 4096, 64);
+        // запись пустого сообщения - 12 байт, индекс сегмента рассчитан на 4096 / 32 = 128 сообщений
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, store.append(i % 2 == 0 ? "" : "x"));
+        }
+        assertEquals(8, segmentCount()); // 1000 / 128, вверх
+        assertEquals("", store.get(0).text());
+        assertEquals("x", store.get(999).text());
+        assertEquals(1000, store.last(5000).size());
+        store.close();
+    }
+
+    @Test
+    public void testSince() throws Exception {
+        MessageStore store = new MessageStore(dir, 4096, 64);
+        store.append("старое");
+        Thread.sleep(5);
+        long timestamp = System.currentTimeMillis();
+        store.append("новое 1");
+        store.append("новое 2");
+
+        List<MessageStore.StoredMessage> messages = store.since(timestamp, 10);
+        assertEquals(List.of("новое 1", "новое 2"), messages.stream().map(MessageStore.StoredMessage::text).toList());
+        assertEquals(1, store.since(timestamp, 1).size());
+        assertTrue(store.since(System.currentTimeMillis() + 1000, 10).isEmpty());
+    }
+
+    @Test
+    public void testReopenAndRetention() throws Exception {
+        MessageStore store = new MessageStore(dir, 4096, 3);
+        for (int i = 0; i < 1000; i++) {
+            store.append("сообщение " + i);
+        }
+        store.close();
+        assertEquals(3, segmentCount());
+
+        MessageStore reopened = new MessageStore(dir, 4096, 3);
+        assertEquals(1000, reopened.nextSeq());
+        assertEquals(1000, reopened.append("после перезапуска"));
+        List<MessageStore.StoredMessage> last = reopened.last(2);
+        assertEquals("сообщение 999", last.get(0).text());
+        assertEquals("после перезапуска", last.get(1).text());
+        assertTrue(reopened.last(1000).size() < 1000); // старые сегменты удалены
+    }
+
+    private long segmentCount() throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(path -> path.toString().endsWith(".msg")).count();
+        }
+    }
+}
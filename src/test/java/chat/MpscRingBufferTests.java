@@ -0,0 +1,58 @@
+package chat;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MpscRingBufferTests {
+
+    @Test
+    public void testOfferAndPollInOrder() {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(3);
+
+        assertEquals(4, buffer.capacity());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(buffer.offer(i));
+        }
+        assertFalse(buffer.offer(4)); // буфер заполнен
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i, buffer.poll());
+        }
+        assertNull(buffer.poll());
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        MpscRingBuffer<Integer> buffer = new MpscRingBuffer<>(1024);
+        int producers = 4;
+        int perProducer = 10_000;
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            int base = p * perProducer;
+            threads[p] = Thread.ofPlatform().start(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    while (!buffer.offer(base + i)) {
+                        Thread.onSpinWait();
+                    }
+                }
+            });
+        }
+
+        Set<Integer> received = new HashSet<>();
+        while (received.size() < producers * perProducer) {
+            Integer value = buffer.poll();
+            if (value != null) {
+                assertTrue(received.add(value), "Элемент получен дважды: " + value);
+            }
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(buffer.isEmpty());
+    }
+}
@@ -0,0 +1,164 @@
+package chat;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NioChatClientTests {
+    private NioChatServer server;
+    private NioChatClient client;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        server = new NioChatServer(0, 2);
+        server.start();
+        client = new NioChatClient();
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        client.close();
+        server.stop();
+        server.awaitTermination();
+    }
+
+    @Test
+    public void testPipelinedLoginAndMessage() throws Exception {
+        ChatServer.getUsers().put("asyncUser", "secret");
+        Events events = new Events();
+
+        // сообщение отправлено сразу, ещё до ответа на вход
+        NioChatClient.Connection connection = client.connect("localhost", server.getLocalPort(), "asyncUser", "secret", false, events);
+        connection.send("привет без ожидания");
+
+        assertEquals(WireProtocol.Status.OK, events.logins.poll(5, TimeUnit.SECONDS));
+        assertTrue(connection.isLoggedIn());
+        events.awaitChat("asyncUser: привет без ожидания");
+
+        connection.exit();
+        assertTrue(events.closed.await(5, TimeUnit.SECONDS));
+        assertEquals(0, client.getConnectionCount());
+    }
+
+    @Test
+    public void testMessagesWaitForSuccessfulLogin() throws Exception {
+        ChatServer.getUsers().put("asyncRetry", "secret");
+        Events events = new Events();
+
+        NioChatClient.Connection connection = client.connect("localhost", server.getLocalPort(), "asyncNobody", "secret", false, events);
+        connection.send("после входа");
+        // неизвестный логин: сообщение не уходит (сервер принял бы его за выбор в меню), соединение открыто
+        assertEquals(WireProtocol.Status.UNKNOWN_LOGIN, events.logins.poll(5, TimeUnit.SECONDS));
+        assertFalse(connection.isLoggedIn());
+
+        connection.login("asyncRetry", "secret");
+        assertEquals(WireProtocol.Status.OK, events.logins.poll(5, TimeUnit.SECONDS));
+        events.awaitChat("asyncRetry: после входа");
+    }
+
+    @Test
+    public void testPipelinedLoginBlockingServer() throws Exception {
+        ChatServer.getUsers().put("asyncBlocking", "secret");
+        try (ServerSocketChannel acceptor = ServerSocketChannel.open()) {
+            acceptor.bind(new InetSocketAddress("localhost", 0));
+            Thread.ofVirtual().start(() -> {
+                try {
+                    SocketChannel channel = acceptor.accept();
+                    new ChatServer.ClientHandler(channel, Thread.ofVirtual().factory()).run();
+                } catch (IOException ignored) {
+                }
+            });
+            Events events = new Events();
+
+            // кадр входа приходит в одном пакете со строкой перехода - обработчик не должен его потерять
+            NioChatClient.Connection connection = client.connect("localhost", acceptor.socket().getLocalPort(),
+                    "asyncBlocking", "secret", false, events);
+            connection.send("блокирующий сервер");
+            assertEquals(WireProtocol.Status.OK, events.logins.poll(5, TimeUnit.SECONDS));
+            events.awaitChat("asyncBlocking: блокирующий сервер");
+
+            connection.exit();
+            assertTrue(events.closed.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testManySessionsOnOneThread() throws Exception {
+        int sessions = 200;
+        // ответ на вход с неизвестным логином приходит без проверки пароля - проверяется только обмен
+        CountDownLatch answered = new CountDownLatch(sessions);
+        CountDownLatch closed = new CountDownLatch(sessions);
+        NioChatClient.Listener listener = new NioChatClient.Listener() {
+            @Override
+            public void onLogin(NioChatClient.Connection connection, WireProtocol.Status status, String text) {
+                if (status == WireProtocol.Status.UNKNOWN_LOGIN) {
+                    answered.countDown();
+                }
+            }
+
+            @Override
+            public void onMessage(NioChatClient.Connection connection, int opcode, String text) {
+            }
+
+            @Override
+            public void onClosed(NioChatClient.Connection connection, IOException cause) {
+                closed.countDown();
+            }
+        };
+        for (int i = 0; i < sessions; i++) {
+            client.connect("localhost", server.getLocalPort(), "asyncNobody-" + i, "secret", false, listener);
+        }
+        assertTrue(answered.await(10, TimeUnit.SECONDS));
+        assertEquals(sessions, client.getConnectionCount());
+
+        client.close();
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        assertEquals(0, client.getConnectionCount());
+    }
+
+    private static class Events implements NioChatClient.Listener {
+        final BlockingQueue<WireProtocol.Status> logins = new LinkedBlockingQueue<>();
+        final BlockingQueue<String> chat = new LinkedBlockingQueue<>();
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public void onLogin(NioChatClient.Connection connection, WireProtocol.Status status, String text) {
+            logins.add(status);
+        }
+
+        @Override
+        public void onMessage(NioChatClient.Connection connection, int opcode, String text) {
+            if (opcode == WireProtocol.CHAT) {
+                chat.add(text);
+            }
+        }
+
+        @Override
+        public void onClosed(NioChatClient.Connection connection, IOException cause) {
+            closed.countDown();
+        }
+
+        // Сообщения чата приходят и от других тестов (история, общая комната) - ждём нужное
+        void awaitChat(String expected) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            String message;
+            while ((message = chat.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) != null) {
+                if (message.equals(expected)) {
+                    return;
+                }
+            }
+            fail("Не пришло сообщение: " + expected);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package chat;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NioChatServerTests {
+    private NioChatServer server;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        server = new NioChatServer(0, 2);
+        server.start();
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+        server.stop();
+        server.awaitTermination();
+    }
+
+    @Test
+    public void testLoginAndBroadcast() throws IOException {
+        ChatServer.getUsers().put("nioUser", "secret");
+
+        try (Socket socket = new Socket("localhost", server.getLocalPort())) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+
+            assertEquals("Добро пожаловать в чат! Введите '1' для входа или '2' для регистрации:", in.readLine());
+            assertEquals("Введите '3' для выхода без регистрации:", in.readLine());
+            out.println("1");
+            assertEquals("Введите логин:", in.readLine());
+            out.println("nioUser");
+            assertEquals("Введите пароль:", in.readLine());
+            out.println("secret");
+            assertEquals("Вход успешен! Добро пожаловать, nioUser", in.readLine());
+
+            // Строка приходит двумя частями - сервер должен её собрать
+            out.print("при");
+            out.flush();
+            out.println("вет");
+            assertEquals("nioUser: привет", in.readLine());
+
+            out.println("exit");
+            assertEquals(null, in.readLine());
+        }
+        assertTrue(!ChatServer.getClientWriters().containsKey("nioUser"));
+    }
+
+    @Test
+    public void testBinaryProtocol() throws IOException {
+        ChatServer.getUsers().put("nioBinary", "secret");
+
+        try (Socket socket = new Socket("localhost", server.getLocalPort())) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+
+            assertEquals("Добро пожаловать в чат! Введите '1' для входа или '2' для регистрации:", readLine(in));
+            assertEquals("Введите '3' для выхода без регистрации:", readLine(in));
+            out.write((WireProtocol.UPGRADE_REQUEST + "\n").getBytes(StandardCharsets.UTF_8));
+            assertEquals(WireProtocol.UPGRADE_ACCEPTED, readLine(in));
+
+            // Неизвестный логин не закрывает соединение - можно повторить
+            WireProtocol.writeFrame(out, WireProtocol.LOGIN, WireProtocol.credentials("nobody", "secret"));
+            WireProtocol.Frame ack = WireProtocol.readFrame(in);
+            assertEquals(WireProtocol.ACK, ack.opcode());
+            assertEquals(WireProtocol.Status.UNKNOWN_LOGIN, WireProtocol.Status.of(ack.payload()[1]));
+
+            WireProtocol.writeFrame(out, WireProtocol.LOGIN, WireProtocol.credentials("nioBinary", "secret"));
+            ack = WireProtocol.readFrame(in);
+            assertEquals(WireProtocol.Status.OK, WireProtocol.Status.of(ack.payload()[1]));
+
+            // Кадр приходит двумя частями - сервер должен его собрать
+            ByteArrayOutputStream frame = new ByteArrayOutputStream();
+            WireProtocol.writeFrame(frame, WireProtocol.MESSAGE, "привет".getBytes(StandardCharsets.UTF_8));
+            byte[] bytes = frame.toByteArray();
+            out.write(bytes, 0, 3);
+            out.flush();
+            out.write(bytes, 3, bytes.length - 3);
+            WireProtocol.Frame chat = WireProtocol.readFrame(in);
+            assertEquals(WireProtocol.CHAT, chat.opcode());
+            assertEquals("nioBinary: привет", chat.text());
+
+            WireProtocol.writeFrame(out, WireProtocol.EXIT, new byte[0]);
+            assertEquals(null, WireProtocol.readFrame(in));
+        }
+        assertTrue(!ChatServer.getClientWriters().containsKey("nioBinary"));
+    }
+
+    @Test
+    public void testSessionResumption() throws IOException {
+        ChatServer.getUsers().put("nioResume", "secret");
+        String token;
+
+        // первое соединение обрывается сразу после входа
+        try (Socket socket = new Socket("localhost", server.getLocalPort())) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            upgrade(in, out, WireProtocol.UPGRADE_REQUEST + " " + WireProtocol.RESUMABLE);
+            assertEquals(WireProtocol.UPGRADE_ACCEPTED + " " + WireProtocol.RESUMABLE, readLine(in));
+
+            WireProtocol.writeFrame(out, WireProtocol.LOGIN, WireProtocol.credentials("nioResume", "secret"));
+            assertEquals(WireProtocol.Status.OK, WireProtocol.Status.of(WireProtocol.readFrame(in).payload()[1]));
+            ByteBuffer session = ByteBuffer.wrap(readFrame(in, WireProtocol.SESSION).payload());
+            token = WireProtocol.getString(session);
+            assertEquals(0, WireProtocol.getSequence(session));
+        }
+        for (int i = 1; i <= 3; i++) {
+            ChatServer.rooms.post(Rooms.GENERAL, "resume: " + i);
+        }
+        assertTrue(ChatServer.getClientWriters().containsKey("nioResume"));
+
+        // клиент возвращается с ключом и получает пропущенное без проверки пароля
+        try (Socket socket = new Socket("localhost", server.getLocalPort())) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            upgrade(in, out, WireProtocol.UPGRADE_REQUEST + " " + WireProtocol.RESUMABLE);
+            readLine(in);
+
+            WireProtocol.writeFrame(out, WireProtocol.RESUME, WireProtocol.session("unknown", 0));
+            WireProtocol.Frame failed = WireProtocol.readFrame(in);
+            assertEquals(WireProtocol.ACK, failed.opcode());
+            assertEquals(WireProtocol.Status.FAILED, WireProtocol.Status.of(failed.payload()[1]));
+
+            WireProtocol.writeFrame(out, WireProtocol.RESUME, WireProtocol.session(token, 0));
+            ByteBuffer session = ByteBuffer.wrap(readFrame(in, WireProtocol.SESSION).payload());
+            assertEquals(token, WireProtocol.getString(session));
+            assertEquals(0, WireProtocol.getSequence(session));
+            List<String> missed = new ArrayList<>();
+            while (missed.size() < 3) {
+                String text = WireProtocol.readFrame(in).text();
+                if (text.startsWith("resume: ")) {
+                    missed.add(text);
+                }
+            }
+            assertEquals(List.of("resume: 1", "resume: 2", "resume: 3"), missed);
+
+            WireProtocol.writeFrame(out, WireProtocol.EXIT, new byte[0]);
+            while (WireProtocol.readFrame(in) != null) {
+                // остаток очереди до закрытия
+            }
+        }
+        assertTrue(!ChatServer.getClientWriters().containsKey("nioResume"));
+    }
+
+    private static void upgrade(InputStream in, OutputStream out, String request) throws IOException {
+        readLine(in);
+        readLine(in);
+        out.write((request + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static WireProtocol.Frame readFrame(InputStream in, int opcode) throws IOException {
+        WireProtocol.Frame frame = WireProtocol.readFrame(in);
+        while (frame.opcode() != opcode) {
+            frame = WireProtocol.readFrame(in);
+        }
+        return frame;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) >= 0 && b != '\n') {
+            line.write(b);
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testManyIdleConnections() throws IOException {
+        List<Socket> sockets = new ArrayList<>();
+        try {
+            for (int i = 0; i < 200; i++) {
+                sockets.add(new Socket("localhost", server.getLocalPort()));
+            }
+            // Каждое соединение получает приветствие, хотя потоков всего два
+            for (Socket socket : sockets) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                assertEquals("Добро пожаловать в чат! Введите '1' для входа или '2' для регистрации:", in.readLine());
+            }
+        } finally {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+}
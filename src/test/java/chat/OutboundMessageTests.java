@@ -0,0 +1,54 @@
+package chat;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OutboundMessageTests {
+
+    @Test
+    public void testEncodeDirect() {
+        OutboundMessage message = OutboundMessage.encode("Serg: привет", true);
+
+        assertEquals("Serg: привет\n", decode(message.view()));
+        assertEquals("Serg: привет\n".getBytes(StandardCharsets.UTF_8).length, message.size());
+        message.release();
+    }
+
+    @Test
+    public void testViewsAreIndependent() {
+        OutboundMessage message = OutboundMessage.encode("сообщение", true);
+        ByteBuffer first = message.view();
+        ByteBuffer second = message.view();
+
+        first.position(first.limit());
+
+        assertTrue(first.isReadOnly());
+        assertEquals(message.size(), second.remaining());
+        message.release();
+    }
+
+    @Test
+    public void testReferenceCounting() {
+        OutboundMessage message = OutboundMessage.encode("сообщение", true);
+        OutboundQueue first = new OutboundQueue(4, OutboundQueue.SlowConsumerPolicy.DROP_OLDEST, 0);
+        OutboundQueue second = new OutboundQueue(4, OutboundQueue.SlowConsumerPolicy.DROP_OLDEST, 0);
+
+        first.offer(message, true);
+        second.offer(message, true);
+        message.release();
+        assertEquals(2, message.refCount());
+
+        first.poll().release();
+        second.clear();
+        assertEquals(0, message.refCount());
+        assertThrows(IllegalStateException.class, message::retain);
+    }
+
+    private static String decode(ByteBuffer buffer) {
+        return StandardCharsets.UTF_8.decode(buffer).toString();
+    }
+}
@@ -0,0 +1,82 @@
+package chat;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OutboundQueueTests {
+
+    @Test
+    public void testDropOldest() {
+        OutboundQueue queue = new OutboundQueue(2, OutboundQueue.SlowConsumerPolicy.DROP_OLDEST, 0);
+
+        assertTrue(queue.offer(OutboundMessage.of("1"), true));
+        assertTrue(queue.offer(OutboundMessage.of("2"), true));
+        assertTrue(queue.offer(OutboundMessage.of("3"), true));
+
+        assertEquals(1, queue.getDroppedCount());
+        assertEquals("2", queue.poll().text());
+        assertEquals("3", queue.poll().text());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void testDisconnect() {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.SlowConsumerPolicy.DISCONNECT, 0);
+
+        assertTrue(queue.offer(OutboundMessage.of("1"), true));
+        assertFalse(queue.offer(OutboundMessage.of("2"), true));
+    }
+
+    @Test
+    public void testBlockWaitsForSpace() throws InterruptedException {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.SlowConsumerPolicy.BLOCK, 5000);
+        queue.offer(OutboundMessage.of("1"), true);
+
+        Thread consumer = Thread.ofVirtual().start(() -> {
+            try {
+                Thread.sleep(50);
+                queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(queue.offer(OutboundMessage.of("2"), true));
+        consumer.join();
+        assertEquals("2", queue.poll().text());
+    }
+
+    @Test
+    public void testBlockTimeoutAndNonBlockingSender() {
+        OutboundQueue queue = new OutboundQueue(1, OutboundQueue.SlowConsumerPolicy.BLOCK, 10);
+        queue.offer(OutboundMessage.of("1"), true);
+
+        assertFalse(queue.offer(OutboundMessage.of("2"), true));
+        assertFalse(queue.offer(OutboundMessage.of("3"), false));
+    }
+
+    @Test
+    public void testTakeReturnsNullAfterCloseAndDrain() throws InterruptedException {
+        OutboundQueue queue = new OutboundQueue(4, OutboundQueue.SlowConsumerPolicy.DROP_OLDEST, 0);
+        queue.offer(OutboundMessage.of("1"), true);
+        queue.close();
+
+        assertEquals("1", queue.take().text());
+        assertNull(queue.take());
+    }
+
+    @Test
+    public void testPendingBytesAndTimedPoll() throws InterruptedException {
+        OutboundQueue queue = new OutboundQueue(4, OutboundQueue.SlowConsumerPolicy.DROP_OLDEST, 0);
+        queue.offer(OutboundMessage.of("один"), true);
+        queue.offer(OutboundMessage.of("два"), true);
+
+        assertEquals(OutboundMessage.of("один").size() + OutboundMessage.of("два").size(), queue.getPendingBytes());
+        assertEquals("один", queue.poll(10, TimeUnit.MILLISECONDS).text());
+        assertEquals("два", queue.poll(10, TimeUnit.MILLISECONDS).text());
+        assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+        assertEquals(0, queue.getPendingBytes());
+    }
+}
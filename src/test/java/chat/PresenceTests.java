@@ -0,0 +1,72 @@
+package chat;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PresenceTests {
+
+    @Test
+    public void testSnapshotRebuiltOnlyOnChange() {
+        Presence presence = new Presence(0, 20, line -> { });
+        presence.online("carol");
+        presence.online("alice");
+        Presence.Snapshot first = presence.snapshot();
+        assertEquals(List.of("alice", "carol"), first.users());
+        assertSame(first, presence.snapshot());
+        assertThrows(UnsupportedOperationException.class, () -> first.users().add("bob"));
+
+        presence.online("alice"); // уже в сети - снимок не меняется
+        assertSame(first, presence.snapshot());
+
+        presence.online("bob");
+        presence.offline("carol");
+        Presence.Snapshot second = presence.snapshot();
+        assertEquals(List.of("alice", "bob"), second.users());
+        assertTrue(second.version() > first.version());
+        assertEquals(List.of("alice", "carol"), first.users()); // старый снимок не изменился
+    }
+
+    @Test
+    public void testImmediateAnnouncements() {
+        List<String> lines = new ArrayList<>();
+        Presence presence = new Presence(0, 20, lines::add);
+        presence.online("alice");
+        presence.offline("alice");
+        presence.offline("bob"); // не был в сети
+        assertEquals(List.of("alice присоединяется к чату", "alice покинул чат."), lines);
+    }
+
+    @Test
+    public void testBurstCoalesced() throws Exception {
+        BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+        Presence presence = new Presence(200, 3, lines::add);
+        try {
+            for (int i = 0; i < 1000; i++) {
+                presence.online(String.format("user%04d", i));
+            }
+            presence.online("ghost");
+            presence.offline("ghost"); // вошёл и вышел в одном окне - не объявляется
+
+            assertEquals("В чат вошли (1000): user0000, user0001, user0002 и ещё 997", lines.poll(5, TimeUnit.SECONDS));
+            assertNull(lines.poll(400, TimeUnit.MILLISECONDS));
+            assertEquals(1, presence.getAnnouncementCount());
+            assertEquals(1002, presence.getChangeCount());
+            assertEquals(1000, presence.snapshot().users().size());
+
+            presence.offline("user0001");
+            presence.offline("user0000");
+            presence.online("late");
+            assertEquals("late присоединяется к чату", lines.poll(5, TimeUnit.SECONDS));
+            assertEquals("Чат покинули (2): user0001, user0000", lines.poll(5, TimeUnit.SECONDS));
+        } finally {
+            presence.stop();
+        }
+    }
+}
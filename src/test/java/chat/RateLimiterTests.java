@@ -0,0 +1,136 @@
+package chat;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RateLimiterTests {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testBurstAndRefill() {
+        RateLimiter limiter = new RateLimiter(true, RateLimiter.Action.THROTTLE,
+                new RateLimiter.Limit(10, 0, 2), new RateLimiter.Limit(0, 0, 1));
+        long now = 1_000 * SECOND;
+        for (int i = 0; i < 20; i++) {
+            assertEquals(RateLimiter.Verdict.ALLOWED, limiter.check("Serg", "127.0.0.1", 10, now), "сообщение " + i);
+        }
+        assertEquals(RateLimiter.Verdict.USER_LIMIT, limiter.check("Serg", "127.0.0.1", 10, now));
+        // у другого пользователя своя корзина
+        assertEquals(RateLimiter.Verdict.ALLOWED, limiter.check("Anna", "127.0.0.1", 10, now));
+
+        // за 0.1 с накапливается ровно один токен
+        assertEquals(RateLimiter.Verdict.ALLOWED, limiter.check("Serg", "127.0.0.1", 10, now + SECOND / 10));
+        assertEquals(RateLimiter.Verdict.USER_LIMIT, limiter.check("Serg", "127.0.0.1", 10, now + SECOND / 10));
+        // простой дольше запаса не даёт больше запаса
+        long later = now + 60 * SECOND;
+        for (int i = 0; i < 20; i++) {
+            assertEquals(RateLimiter.Verdict.ALLOWED, limiter.check("Serg", "127.0.0.1", 10, later));
+        }
+        assertEquals(RateLimiter.Verdict.USER_LIMIT, limiter.check("Serg", "127.0.0.1", 10, later));
+    }
+
+    @Test
+    public void testBytesAndAddressLimits() {
+        RateLimiter limiter = new RateLimiter(true, RateLimiter.Action.KICK,
+                new RateLimiter.Limit(0, 1000, 1), new RateLimiter.Limit(3, 0, 1));
+        long now = SECOND;
+        assertEquals(RateLimiter.Verdict.ALLOWED, limiter.check("Serg", "10.0.0.1", 600, now));
+        assertEquals(RateLimiter.Verdict.USER_LIMIT, limiter.check("Serg", "10.0.0.2", 600, now));
+        // сообщение больше запаса проходит только при полной корзине
+        assertEquals(RateLimiter.Verdict.ALLOWED, limiter.check("Anna", "10.0.0.3", 5000, now));
+        assertEquals(RateLimiter.Verdict.USER_LIMIT, limiter.check("Anna", "10.0.0.3", 1, now));
+
+        // гости с одного адреса делят его лимит
+        assertEquals(RateLimiter.Verdict.ALLOWED, limiter.check(null, "10.0.0.9", 1, now));
+        assertEquals(RateLimiter.Verdict.ALLOWED, limiter.check(null, "10.0.0.9", 1, now));
+        assertEquals(RateLimiter.Verdict.ALLOWED, limiter.check(null, "10.0.0.9", 1, now));
+        assertEquals(RateLimiter.Verdict.IP_LIMIT, limiter.check(null, "10.0.0.9", 1, now));
+        assertEquals(RateLimiter.Action.KICK, limiter.getAction());
+
+        RateLimiter disabled = new RateLimiter(false, RateLimiter.Action.THROTTLE,
+                new RateLimiter.Limit(1, 1, 1), new RateLimiter.Limit(1, 1, 1));
+        for (int i = 0; i < 10; i++) {
+            assertEquals(RateLimiter.Verdict.ALLOWED, disabled.check("Serg", "10.0.0.1", 100, now));
+        }
+    }
+
+    @Test
+    public void testRejectedMessageDoesNotSpendOtherBuckets() {
+        RateLimiter limiter = new RateLimiter(true, RateLimiter.Action.THROTTLE,
+                new RateLimiter.Limit(2, 100, 1), new RateLimiter.Limit(0, 0, 1));
+        long now = SECOND;
+        // сообщения сверх лимита байт не расходуют лимит сообщений
+        assertEquals(RateLimiter.Verdict.ALLOWED, limiter.check("Serg", "10.0.0.1", 100, now));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(RateLimiter.Verdict.USER_LIMIT, limiter.check("Serg", "10.0.0.1", 100, now));
+        }
+        assertEquals(RateLimiter.Verdict.ALLOWED, limiter.check("Serg", "10.0.0.1", 0, now));
+        assertEquals(RateLimiter.Verdict.USER_LIMIT, limiter.check("Serg", "10.0.0.1", 0, now));
+
+        // сообщения, отклонённые по адресу, не расходуют лимит пользователя
+        RateLimiter byAddress = new RateLimiter(true, RateLimiter.Action.THROTTLE,
+                new RateLimiter.Limit(2, 0, 1), new RateLimiter.Limit(1, 0, 1));
+        assertEquals(RateLimiter.Verdict.ALLOWED, byAddress.check("Anna", "10.0.0.2", 1, now));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(RateLimiter.Verdict.IP_LIMIT, byAddress.check("Anna", "10.0.0.2", 1, now));
+        }
+        assertEquals(RateLimiter.Verdict.ALLOWED, byAddress.check("Anna", "10.0.0.3", 1, now));
+        assertEquals(RateLimiter.Verdict.USER_LIMIT, byAddress.check("Anna", "10.0.0.4", 1, now));
+    }
+
+    @Test
+    public void testIdleBucketsPurged() {
+        RateLimiter limiter = new RateLimiter(true, RateLimiter.Action.THROTTLE,
+                new RateLimiter.Limit(10, 0, 1), new RateLimiter.Limit(10, 0, 1));
+        long start = System.nanoTime();
+        limiter.check("Serg", "10.0.0.1", 1, start);
+        limiter.check("Anna", "10.0.0.2", 1, start);
+        assertEquals(4, limiter.size());
+
+        limiter.check("Ivan", "10.0.0.3", 1, start + TimeUnit.MINUTES.toNanos(3));
+        assertEquals(2, limiter.size());
+    }
+
+    @Test
+    public void testConcurrentAcquireIsExact() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(true, RateLimiter.Action.THROTTLE,
+                new RateLimiter.Limit(1000, 0, 5), new RateLimiter.Limit(0, 0, 1));
+        long now = SECOND;
+        AtomicInteger allowed = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    if (limiter.check("Serg", null, 1, now) == RateLimiter.Verdict.ALLOWED) {
+                        allowed.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(5000, allowed.get());
+    }
+
+    @Test
+    public void testHostAndUtf8Length() {
+        assertEquals("127.0.0.1", RateLimiter.host("/127.0.0.1:54321"));
+        assertEquals("0:0:0:0:0:0:0:1", RateLimiter.host("/0:0:0:0:0:0:0:1:8080"));
+        assertEquals("127.0.0.1", RateLimiter.host("localhost/127.0.0.1:1"));
+        assertEquals("unknown", RateLimiter.host("unknown"));
+        for (String text : new String[]{"hello", "привет", "€ и 😀", ""}) {
+            assertEquals(text.getBytes(StandardCharsets.UTF_8).length, RateLimiter.utf8Length(text), text);
+        }
+    }
+}
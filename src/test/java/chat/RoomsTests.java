@@ -0,0 +1,157 @@
+package chat;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RoomsTests {
+
+    private final Rooms rooms = new Rooms(4);
+
+    // Соединение, которое запоминает отправленные ему строки
+    private static class RecordingConnection implements ClientConnection {
+        final List<String> received = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void send(OutboundMessage message) {
+            received.add(message.text());
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            task.run();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return "test";
+        }
+    }
+
+    @AfterEach
+    public void tearDown() {
+        rooms.shutdown();
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Условие не выполнилось за 5 секунд");
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void testMessagesReachOnlyRoomMembers() throws InterruptedException {
+        RecordingConnection alice = new RecordingConnection();
+        RecordingConnection bob = new RecordingConnection();
+        RecordingConnection carol = new RecordingConnection();
+        rooms.join("java", alice, "alice присоединяется");
+        rooms.join("java", bob, "bob присоединяется");
+        rooms.join("kotlin", carol, "carol присоединяется");
+
+        rooms.post("java", "alice: привет");
+        rooms.post("kotlin", "carol: привет");
+
+        await(() -> bob.received.contains("alice: привет") && carol.received.contains("carol: привет"));
+        assertEquals(List.of("bob присоединяется", "alice: привет"), alice.received);
+        assertEquals(List.of("alice: привет"), bob.received); // своё объявление о входе не приходит
+        assertFalse(carol.received.contains("alice: привет"));
+    }
+
+    @Test
+    public void testEmptyRoomIsRemoved() throws InterruptedException {
+        RecordingConnection alice = new RecordingConnection();
+        RecordingConnection bob = new RecordingConnection();
+        rooms.join(Rooms.GENERAL, alice, null);
+        rooms.join("temp", bob, null);
+        await(() -> rooms.list(10).size() == 2);
+        assertEquals(List.of(Map.entry(Rooms.GENERAL, 1), Map.entry("temp", 1)), rooms.list(10));
+
+        rooms.leave("temp", bob, "bob покинул комнату");
+        rooms.leave(Rooms.GENERAL, alice, null);
+        await(() -> rooms.list(10).equals(List.of(Map.entry(Rooms.GENERAL, 0)))); // general не удаляется
+        await(() -> rooms.getRoomCount() == 1);
+
+        // в удалённую комнату можно снова войти
+        rooms.join("temp", bob, null);
+        rooms.post("temp", "снова здесь");
+        await(() -> bob.received.contains("снова здесь"));
+    }
+
+    @Test
+    public void testManyIdleRooms() throws InterruptedException {
+        RecordingConnection[] members = new RecordingConnection[20_000];
+        for (int i = 0; i < members.length; i++) {
+            members[i] = new RecordingConnection();
+            rooms.join("room" + i, members[i], null);
+        }
+        rooms.post("room12345", "сообщение");
+        await(() -> members[12345].received.contains("сообщение"));
+        assertEquals(20_000, rooms.getRoomCount());
+        assertTrue(members[12346].received.isEmpty());
+    }
+
+    @Test
+    public void testRoomNames() {
+        assertTrue(Rooms.isValidName("general"));
+        assertTrue(Rooms.isValidName("комната_1"));
+        assertFalse(Rooms.isValidName(""));
+        assertFalse(Rooms.isValidName("a b"));
+        assertFalse(Rooms.isValidName("x".repeat(33)));
+    }
+
+    @Test
+    public void testAwaitIdleDeliversAcceptedMessages() throws InterruptedException {
+        RecordingConnection member = new RecordingConnection();
+        rooms.join("drain", member, null);
+        for (int i = 0; i < 1000; i++) {
+            rooms.deliver("drain", "сообщение " + i, WireProtocol.CHAT);
+        }
+
+        // после awaitIdle все сообщения, переданные комнатам, уже в очереди участника - ждать больше не нужно
+        assertTrue(rooms.awaitIdle(5000));
+        assertEquals(1000, member.received.size());
+        assertEquals("сообщение 999", member.received.get(999));
+    }
+
+    @Test
+    public void testSlowMemberDoesNotStallShard() throws InterruptedException {
+        Rooms oneShard = new Rooms(1); // обе комнаты в одном шарде
+        try {
+            // участник не читает: очередь на одно сообщение, BLOCK ждёт 10 секунд - как ClientHandler
+            OutboundQueue queue = new OutboundQueue(1, OutboundQueue.SlowConsumerPolicy.BLOCK, 10_000);
+            List<Boolean> accepted = new CopyOnWriteArrayList<>();
+            ClientConnection slow = new RecordingConnection() {
+                @Override
+                public void send(OutboundMessage message) {
+                    accepted.add(queue.offer(message, !Rooms.isShardThread()));
+                }
+            };
+            RecordingConnection other = new RecordingConnection();
+            oneShard.join("slow", slow, null);
+            oneShard.join("fast", other, null);
+
+            long started = System.nanoTime();
+            oneShard.post("slow", "первое");
+            oneShard.post("slow", "второе"); // очередь полна: шард не ждёт, участник отключается
+            oneShard.post("fast", "не задерживается");
+            await(() -> other.received.size() == 1);
+            assertTrue(System.nanoTime() - started < 5_000_000_000L);
+            assertEquals(List.of(true, false), accepted);
+            assertFalse(Rooms.isShardThread());
+        } finally {
+            oneShard.shutdown();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package chat;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SearchIndexTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testTerms() {
+        assertEquals(Set.of("from:alice", "привет", "мир", "42"), SearchIndex.terms("Alice: Привет, мир! 42 привет"));
+        assertEquals("alice", SearchIndex.author("alice: текст: ещё"));
+        assertNull(SearchIndex.author("alice присоединяется к чату"));
+        assertEquals(List.of("from:bob", "привет"), SearchIndex.queryTerms("  From:Bob   ПРИВЕТ!"));
+        assertTrue(SearchIndex.queryTerms(" ?! ").isEmpty());
+    }
+
+    @Test
+    public void testAllTermsNewestFirst() throws Exception {
+        MessageStore store = new MessageStore(dir.resolve("history"), 1 << 20, 4);
+        SearchIndex index = new SearchIndex(store, dir.resolve("search"), 1000);
+        try {
+            index.append("alice: встреча в пятницу");
+            index.append("bob: какая встреча?");
+            index.append("alice присоединяется к чату");
+            index.append("bob: встреча в пятницу, да");
+            index.append("carol: в субботу");
+
+            List<SearchIndex.Match> matches = index.search("встреча пятницу", 10);
+            assertEquals(List.of(3L, 0L), matches.stream().map(SearchIndex.Match::seq).toList());
+            assertEquals("bob", matches.get(0).author());
+            assertEquals("bob: встреча в пятницу, да", matches.get(0).text());
+            assertTrue(matches.get(0).timestamp() > 0);
+
+            assertEquals(List.of(3L, 1L), index.search("ВСТРЕЧА from:bob", 10).stream().map(SearchIndex.Match::seq).toList());
+            assertEquals(1, index.search("встреча", 1).size());
+            assertTrue(index.search("встреча суббота", 10).isEmpty());
+            assertTrue(index.search("from:dave", 10).isEmpty());
+        } finally {
+            index.close();
+            store.close();
+        }
+    }
+
+    @Test
+    public void testSegmentsPersistedAndRebuiltOnOpen() throws Exception {
+        MessageStore store = new MessageStore(dir.resolve("history"), 1 << 20, 4);
+        SearchIndex index = new SearchIndex(store, dir.resolve("search"), 100);
+        for (int i = 0; i < 1050; i++) {
+            index.append("user" + (i % 7) + ": сообщение номер " + i + (i % 10 == 0 ? " круглое" : ""));
+        }
+        List<SearchIndex.Match> before = index.search("круглое from:user0", 1000);
+        index.close();
+        assertEquals(10, segmentFiles()); // заполненные сегменты записаны, текущий (50 сообщений) - нет
+        assertEquals(List.of(980L, 910L, 840L), before.subList(0, 3).stream().map(SearchIndex.Match::seq).toList());
+        assertEquals(15, before.size());
+
+        // после перезапуска сегменты читаются с диска, хвост строится из истории
+        SearchIndex reopened = new SearchIndex(store, dir.resolve("search"), 100);
+        try {
+            assertEquals(11, reopened.segmentCount());
+            assertEquals(before, reopened.search("круглое from:user0", 1000));
+            reopened.append("user0: новое круглое");
+            assertEquals(1050, reopened.search("круглое from:user0", 1).get(0).seq());
+        } finally {
+            reopened.close();
+            store.close();
+        }
+    }
+
+    @Test
+    public void testIndexRebuiltWhenHistoryReplaced() throws Exception {
+        MessageStore store = new MessageStore(dir.resolve("history"), 1 << 20, 4);
+        SearchIndex index = new SearchIndex(store, dir.resolve("search"), 10);
+        for (int i = 0; i < 30; i++) {
+            index.append("alice: старое " + i);
+        }
+        index.close();
+        store.close();
+
+        // история начата заново, а сегменты индекса остались от старой
+        MessageStore fresh = new MessageStore(dir.resolve("history-new"), 1 << 20, 4);
+        fresh.append("bob: новое");
+        SearchIndex rebuilt = new SearchIndex(fresh, dir.resolve("search"), 10);
+        try {
+            assertEquals(0, segmentFiles());
+            assertTrue(rebuilt.search("старое", 10).isEmpty());
+            assertEquals(1, rebuilt.search("новое", 10).size());
+        } finally {
+            rebuilt.close();
+            fresh.close();
+        }
+    }
+
+    private long segmentFiles() throws Exception {
+        try (Stream<Path> files = Files.list(dir.resolve("search"))) {
+            return files.filter(path -> path.toString().endsWith(".sidx")).count();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package chat;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ServerMetricsTests {
+
+    @Test
+    public void testCountersAndRates() {
+        WriteStats writeStats = new WriteStats();
+        ServerMetrics metrics = new ServerMetrics(writeStats, Log.getInstance(), Map.of());
+        metrics.sample(0);
+        metrics.connectionOpened();
+        metrics.connectionOpened();
+        metrics.connectionClosed();
+        for (int i = 0; i < 30; i++) {
+            metrics.messageReceived();
+        }
+        writeStats.record(90, 900);
+        metrics.loginSucceeded();
+        metrics.loginFailed();
+
+        metrics.sample(2_000_000_000L);
+
+        assertEquals(1, metrics.getActiveConnections());
+        assertEquals(30, metrics.getMessagesIn());
+        assertEquals(15.0, metrics.getMessagesInPerSecond(), 0.001);
+        assertEquals(45.0, metrics.getMessagesOutPerSecond(), 0.001);
+        assertEquals(1, metrics.getLoginCount());
+        assertEquals(1, metrics.getLoginFailureCount());
+    }
+
+    @Test
+    public void testQueueDepthAndReport() {
+        Map<String, ClientConnection> clients = new ConcurrentHashMap<>();
+        clients.put("slow", connection(42));
+        clients.put("fast", connection(0));
+        clients.put("медленный \"клиент\"", connection(7));
+        ServerMetrics metrics = new ServerMetrics(new WriteStats(), Log.getInstance(), clients);
+        metrics.recordFanOut(120_000);
+        metrics.recordFanOut(80_000);
+
+        assertEquals(42, metrics.getMaxQueueDepth());
+        assertEquals(49, metrics.getTotalQueueDepth());
+        String report = metrics.report();
+        assertTrue(report.contains("chat_queue_depth{client=\"slow\"} 42\n"), report);
+        assertTrue(report.contains("chat_queue_depth{client=\"медленный \\\"клиент\\\"\"} 7\n"), report);
+        assertFalse(report.contains("client=\"fast\""), report);
+        assertTrue(report.contains("chat_fanout_latency_micros_count 2\n"), report);
+        assertTrue(report.contains("chat_fanout_latency_micros_max 120.000\n"), report);
+    }
+
+    @Test
+    public void testHttpAndJmx() throws IOException, InterruptedException, JMException {
+        ServerMetrics metrics = new ServerMetrics(new WriteStats(), Log.getInstance(), Map.of());
+        metrics.registered();
+        int port = metrics.startHttp(0);
+        try {
+            HttpResponse<String> response = HttpClient.newHttpClient().send(
+                    HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/metrics")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, response.statusCode());
+            assertTrue(response.body().contains("chat_registrations_total 1\n"), response.body());
+        } finally {
+            metrics.stop();
+        }
+
+        metrics.registerMBean();
+        ObjectName name = new ObjectName(ServerMetrics.OBJECT_NAME);
+        try {
+            assertNotNull(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "ActiveConnections"));
+        } finally {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+    }
+
+    @Test
+    public void testSlowContextDoesNotBlockMetrics() throws Exception {
+        ServerMetrics metrics = new ServerMetrics(new WriteStats(), Log.getInstance(), Map.of());
+        int port = metrics.startHttp(0);
+        CountDownLatch release = new CountDownLatch(1);
+        metrics.addHttpContext("/slow", exchange -> {
+            try (exchange) {
+                release.await(10, TimeUnit.SECONDS);
+                exchange.sendResponseHeaders(204, -1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        HttpClient client = HttpClient.newHttpClient();
+        try {
+            CompletableFuture<HttpResponse<String>> slow = client.sendAsync(
+                    HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/slow")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            // пока /slow занят, /metrics отвечает
+            HttpResponse<String> response = client.send(
+                    HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/metrics"))
+                            .timeout(Duration.ofSeconds(5)).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, response.statusCode());
+            assertFalse(slow.isDone());
+            release.countDown();
+            assertEquals(204, slow.get(5, TimeUnit.SECONDS).statusCode());
+        } finally {
+            release.countDown();
+            metrics.stop();
+        }
+    }
+
+    private static ClientConnection connection(int depth) {
+        return new ClientConnection() {
+            @Override
+            public void send(OutboundMessage message) {
+            }
+
+            @Override
+            public void execute(Runnable task) {
+                task.run();
+            }
+
+            @Override
+            public int getQueueDepth() {
+                return depth;
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public String getRemoteAddress() {
+                return "test";
+            }
+        };
+    }
+}
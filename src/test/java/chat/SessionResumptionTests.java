@@ -0,0 +1,173 @@
+package chat;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SessionResumptionTests {
+
+    @Test
+    public void testMissedMessagesReplayedInOrder() throws Exception {
+        SessionResumption resumption = new SessionResumption(true, 4, 60_000);
+        try {
+            TestConnection first = new TestConnection();
+            ChatSession firstSession = new ChatSession(first);
+            ResumableConnection connection = resumption.open(firstSession, first);
+            assertEquals(0, first.session(0));
+
+            send(connection, "1", "2");
+            assertTrue(resumption.park(connection, firstSession, () -> fail("сессия не должна истечь")));
+            send(connection, "3", "4", "5");
+            assertEquals(List.of("1", "2"), first.texts());
+
+            // клиент получил первое сообщение: остальные приходят после кадра SESSION
+            TestConnection second = new TestConnection();
+            ChatSession secondSession = new ChatSession(second);
+            assertSame(firstSession, resumption.resume(connection.getToken(), 1, secondSession, second));
+            assertEquals(1, second.session(0));
+            send(connection, "6");
+            assertEquals(List.of("2", "3", "4", "5", "6"), second.texts());
+            assertSame(secondSession, connection.getOwner());
+
+            // старая сессия больше не владеет соединением
+            assertFalse(resumption.park(connection, firstSession, () -> { }));
+        } finally {
+            resumption.stop();
+        }
+    }
+
+    @Test
+    public void testGapAndUnknownTokenRejected() {
+        SessionResumption resumption = new SessionResumption(true, 2, 60_000);
+        try {
+            TestConnection first = new TestConnection();
+            ChatSession firstSession = new ChatSession(first);
+            ResumableConnection connection = resumption.open(firstSession, first);
+            send(connection, "1", "2", "3", "4");
+
+            // сообщение 2 уже вытеснено из кольца
+            TestConnection second = new TestConnection();
+            assertNull(resumption.resume(connection.getToken(), 1, new ChatSession(second), second));
+            assertNull(resumption.resume(connection.getToken(), 5, new ChatSession(second), second));
+            assertNull(resumption.resume("unknown", 4, new ChatSession(second), second));
+            assertTrue(second.messages.isEmpty());
+
+            // пока старое соединение не закрыто, клиент может вернуться на новом - старое закрывается
+            assertNotNull(resumption.resume(connection.getToken(), 2, new ChatSession(second), second));
+            assertEquals(List.of("3", "4"), second.texts());
+            assertTrue(first.aborted);
+        } finally {
+            resumption.stop();
+        }
+    }
+
+    @Test
+    public void testExpiryAfterGrace() throws InterruptedException {
+        SessionResumption resumption = new SessionResumption(true, 8, 200);
+        try {
+            TestConnection first = new TestConnection();
+            ChatSession firstSession = new ChatSession(first);
+            ResumableConnection connection = resumption.open(firstSession, first);
+            OutboundMessage message = OutboundMessage.encode("сообщение", true);
+            connection.send(message);
+            assertEquals(3, message.refCount()); // своя ссылка, кольцо и очередь тестового соединения
+            first.messages.forEach(OutboundMessage::release);
+            message.release();
+
+            CountDownLatch expired = new CountDownLatch(1);
+            assertTrue(resumption.park(connection, firstSession, expired::countDown));
+            assertTrue(expired.await(5, TimeUnit.SECONDS));
+            assertEquals(0, resumption.size());
+            assertEquals(0, message.refCount()); // кольцо освобождено
+
+            TestConnection second = new TestConnection();
+            assertNull(resumption.resume(connection.getToken(), 0, new ChatSession(second), second));
+        } finally {
+            resumption.stop();
+        }
+    }
+
+    @Test
+    public void testResumedSessionDoesNotExpire() throws InterruptedException {
+        SessionResumption resumption = new SessionResumption(true, 8, 200);
+        try {
+            TestConnection first = new TestConnection();
+            ChatSession firstSession = new ChatSession(first);
+            ResumableConnection connection = resumption.open(firstSession, first);
+            CountDownLatch expired = new CountDownLatch(1);
+            assertTrue(resumption.park(connection, firstSession, expired::countDown));
+
+            TestConnection second = new TestConnection();
+            ChatSession secondSession = new ChatSession(second);
+            assertNotNull(resumption.resume(connection.getToken(), 0, secondSession, second));
+            // обрыв сразу после возвращения: таймер первого обрыва сессию уже не закрывает
+            assertTrue(resumption.park(connection, secondSession, expired::countDown));
+            TestConnection third = new TestConnection();
+            assertNotNull(resumption.resume(connection.getToken(), 0, new ChatSession(third), third));
+
+            assertFalse(expired.await(600, TimeUnit.MILLISECONDS));
+            assertEquals(1, resumption.size());
+            connection.discard();
+        } finally {
+            resumption.stop();
+        }
+    }
+
+    private static void send(ClientConnection connection, String... texts) {
+        for (String text : texts) {
+            OutboundMessage message = OutboundMessage.of(text, WireProtocol.CHAT);
+            connection.send(message);
+            message.release();
+        }
+    }
+
+    private static class TestConnection implements ClientConnection {
+        final List<OutboundMessage> messages = new ArrayList<>();
+        boolean aborted;
+
+        // Номер из кадра SESSION с индексом index
+        long session(int index) throws Exception {
+            OutboundMessage message = messages.get(index);
+            assertEquals(WireProtocol.SESSION, message.opcode());
+            ByteBuffer frame = message.frameHeaderView();
+            WireProtocol.getVarint(frame);
+            frame.get(); // код операции
+            WireProtocol.getString(frame);
+            return WireProtocol.getSequence(frame);
+        }
+
+        List<String> texts() {
+            return messages.stream().filter(message -> message.opcode() == WireProtocol.CHAT).map(OutboundMessage::text).toList();
+        }
+
+        @Override
+        public void send(OutboundMessage message) {
+            messages.add(message.retain());
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            task.run();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void abort() {
+            aborted = true;
+        }
+
+        @Override
+        public String getRemoteAddress() {
+            return "test";
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package chat;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserStoreTests {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testImportLegacyAndReopen() throws Exception {
+        Path legacy = dir.resolve("users.txt");
+        Files.writeString(legacy, "Serg:12345\nAlena:qwerty\n\n");
+
+        UserStore store = new UserStore();
+        store.open(dir.resolve("db"), legacy, 1024 * 1024);
+        assertEquals("12345", store.get("Serg"));
+        assertTrue(store.register("Ketan", "pass"));
+        assertFalse(store.register("Alena", "other")); // логин уже занят
+        store.close();
+
+        UserStore reopened = new UserStore();
+        reopened.open(dir.resolve("db"), legacy, 1024 * 1024);
+        assertEquals("qwerty", reopened.get("Alena"));
+        assertEquals("pass", reopened.get("Ketan"));
+        assertNull(reopened.get("nobody"));
+        reopened.close();
+    }
+
+    @Test
+    public void testConcurrentRegistrationsWithCompaction() throws Exception {
+        UserStore store = new UserStore();
+        store.open(dir, null, 4096); // маленький журнал - снимок собирается много раз
+        AtomicInteger registered = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int base = t * 250;
+            threads.add(Thread.ofVirtual().start(() -> {
+                for (int i = base; i < base + 250; i++) {
+                    if (store.register("user" + i, "password" + i)) {
+                        registered.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        store.close();
+        assertEquals(2000, registered.get());
+        // каждая сборка пишет снимок под новым номером, прежние удаляются
+        try (Stream<Path> files = Files.list(dir)) {
+            List<String> snapshots = files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith("users.snapshot")).toList();
+            assertEquals(1, snapshots.size(), snapshots.toString());
+            assertTrue(snapshots.get(0).matches("users\\.snapshot\\.\\d+"), snapshots.toString());
+        }
+
+        UserStore reopened = new UserStore();
+        reopened.open(dir, null, 4096);
+        for (int i = 0; i < 2000; i++) {
+            assertEquals("password" + i, reopened.get("user" + i));
+        }
+        reopened.close();
+    }
+
+    @Test
+    public void testPutDuringCompactionIsKept() throws Exception {
+        UserStore store = new UserStore();
+        store.open(dir, null, 1024);
+        store.register("alice", "plain");
+        // замена пароля (как перехеширование при входе) приходит, пока собирается снимок со старым значением
+        AtomicInteger compactions = new AtomicInteger();
+        store.beforeSnapshotSwap = () -> {
+            if (compactions.get() == 0) {
+                store.put("alice", "hashed");
+            }
+            compactions.incrementAndGet();
+        };
+        for (int i = 0; compactions.get() == 0 && i < 1000; i++) {
+            store.register("user" + i, "password" + i); // журнал растёт до порога сборки
+        }
+        store.close(); // дожидается начатой сборки снимка
+        assertTrue(compactions.get() > 0);
+        assertEquals("hashed", store.get("alice"));
+
+        UserStore reopened = new UserStore();
+        reopened.open(dir, null, 1024 * 1024);
+        assertEquals("hashed", reopened.get("alice"));
+        reopened.close();
+    }
+
+    @Test
+    public void testTornWalTailIsDiscarded() throws Exception {
+        UserStore store = new UserStore();
+        store.open(dir, null, 1024 * 1024);
+        store.register("first", "1");
+        store.register("second", "2");
+        store.close();
+
+        Path wal = dir.resolve("users.wal");
+        try (FileChannel channel = FileChannel.open(wal, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3); // запись оборвалась на середине
+        }
+
+        UserStore reopened = new UserStore();
+        reopened.open(dir, null, 1024 * 1024);
+        assertEquals("1", reopened.get("first"));
+        assertNull(reopened.get("second"));
+        assertTrue(reopened.register("second", "2"));
+        reopened.close();
+    }
+}
@@ -0,0 +1,94 @@
+package chat;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class WireProtocolTests {
+
+    @Test
+    public void testVarintRoundTrip() throws IOException {
+        for (int value : new int[]{0, 1, 127, 128, 300, 16_383, 16_384, Integer.MAX_VALUE}) {
+            ByteBuffer buffer = ByteBuffer.allocate(5);
+            WireProtocol.putVarint(buffer, value);
+            assertEquals(WireProtocol.varintSize(value), buffer.position());
+            buffer.flip();
+            assertEquals(value, WireProtocol.getVarint(buffer));
+        }
+        // неполное число не сдвигает позицию
+        ByteBuffer partial = ByteBuffer.wrap(new byte[]{(byte) 0x80});
+        assertEquals(-1, WireProtocol.getVarint(partial));
+        assertEquals(0, partial.position());
+    }
+
+    @Test
+    public void testFramesSplitAcrossBuffers() throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        WireProtocol.writeFrame(stream, WireProtocol.LOGIN, WireProtocol.credentials("Serg", "пароль"));
+        WireProtocol.writeFrame(stream, WireProtocol.MESSAGE, "привет".repeat(50).getBytes(StandardCharsets.UTF_8));
+        WireProtocol.writeFrame(stream, WireProtocol.EXIT, new byte[0]);
+        byte[] bytes = stream.toByteArray();
+
+        FrameDecoder decoder = new FrameDecoder(1024);
+        List<String> frames = new ArrayList<>();
+        FrameDecoder.FrameHandler handler = (opcode, payload) -> frames.add(opcode == WireProtocol.LOGIN
+                ? "login " + WireProtocol.getString(payload) + "/" + WireProtocol.getString(payload)
+                : opcode + " " + StandardCharsets.UTF_8.decode(payload));
+        // по одному байту: заголовки и тела приходят частями
+        for (byte b : bytes) {
+            decoder.decode(ByteBuffer.wrap(new byte[]{b}), handler);
+        }
+        decoder.decode(ByteBuffer.wrap(bytes), handler);
+
+        List<String> expected = List.of("login Serg/пароль", WireProtocol.MESSAGE + " " + "привет".repeat(50), WireProtocol.EXIT + " ");
+        List<String> twice = new ArrayList<>(expected);
+        twice.addAll(expected);
+        assertEquals(twice, frames);
+    }
+
+    @Test
+    public void testFrameTooLong() {
+        FrameDecoder decoder = new FrameDecoder(16);
+        ByteBuffer buffer = ByteBuffer.allocate(5);
+        WireProtocol.putVarint(buffer, 17);
+        buffer.flip();
+
+        assertThrows(IOException.class, () -> decoder.decode(buffer, (opcode, payload) -> { }));
+    }
+
+    @Test
+    public void testOutboundMessageFrames() throws IOException {
+        OutboundMessage chat = OutboundMessage.encode("Serg: привет", true);
+        OutboundMessage ack = OutboundMessage.ack(WireProtocol.LOGIN, WireProtocol.Status.OK, "Вход успешен!");
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (OutboundMessage message : List.of(chat, ack)) {
+            for (ByteBuffer view : new ByteBuffer[]{message.frameHeaderView(), message.bodyView()}) {
+                byte[] bytes = new byte[view.remaining()];
+                view.get(bytes);
+                stream.write(bytes);
+            }
+            message.release();
+        }
+        ByteArrayInputStream in = new ByteArrayInputStream(stream.toByteArray());
+
+        WireProtocol.Frame first = WireProtocol.readFrame(in);
+        assertEquals(WireProtocol.CHAT, first.opcode());
+        assertEquals("Serg: привет", first.text());
+        WireProtocol.Frame second = WireProtocol.readFrame(in);
+        assertEquals(WireProtocol.ACK, second.opcode());
+        assertEquals(WireProtocol.LOGIN, second.payload()[0]);
+        assertEquals(WireProtocol.Status.OK, WireProtocol.Status.of(second.payload()[1]));
+        assertEquals("Вход успешен!", new String(second.payload(), 2, second.payload().length - 2, StandardCharsets.UTF_8));
+        assertNull(WireProtocol.readFrame(in));
+    }
+}